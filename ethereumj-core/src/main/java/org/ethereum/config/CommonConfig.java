@@ -24,6 +24,7 @@ import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.datasource.leveldb.LevelDbDataSource;
 import org.ethereum.datasource.rocksdb.RocksDbDataSource;
 import org.ethereum.db.*;
+import org.ethereum.db.flat.FlatState;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.eth.handler.Eth63;
@@ -83,12 +84,24 @@ public class CommonConfig {
 
     @Bean
     public Repository defaultRepository() {
-        return new RepositoryRoot(stateSource(), null);
+        return new RepositoryRoot(stateSource(), null, systemProperties().isFlatStateEnabled() ? flatState() : null);
     }
 
     @Bean @Scope("prototype")
     public Repository repository(byte[] stateRoot) {
-        return new RepositoryRoot(stateSource(), stateRoot);
+        return new RepositoryRoot(stateSource(), stateRoot, systemProperties().isFlatStateEnabled() ? flatState() : null);
+    }
+
+    /**
+     * Flat index of the state used by {@link RepositoryRoot} for reads,
+     * is used only when <code>database.flatState.enabled</code> is set
+     *
+     * @see FlatState
+     */
+    @Bean
+    @Lazy
+    public FlatState flatState() {
+        return new FlatState(keyValueDataSource("flatstate"), systemProperties().flatStateDiffLayers());
     }
 
     /**
@@ -19,6 +19,7 @@ package org.ethereum.config;
 
 import org.ethereum.datasource.Source;
 import org.ethereum.db.BlockStore;
+import org.ethereum.db.BloomBitsIndex;
 import org.ethereum.db.IndexedBlockStore;
 import org.ethereum.db.PruneManager;
 import org.ethereum.db.TransactionStore;
@@ -83,6 +84,16 @@ public class DefaultConfig {
         return new TransactionStore(commonConfig.cachedDbSource("transactions"));
     }
 
+    @Bean
+    public BloomBitsIndex bloomBitsIndex() {
+        commonConfig.fastSyncCleanUp();
+        BloomBitsIndex index = new BloomBitsIndex(commonConfig.cachedDbSource("bloombits"), blockStore(),
+                transactionStore(), config.bloomBitsSectionSize(), config.bloomBitsConfirmations(),
+                config.bloomBitsThreads());
+        index.setEnabled(config.isBloomBitsEnabled());
+        return index;
+    }
+
     @Bean
     public PruneManager pruneManager() {
         if (config.databasePruneDepth() >= 0) {
@@ -483,6 +483,37 @@ public class SystemProperties {
         return config.getBoolean("database.prune.enabled") ? config.getInt("database.prune.maxDepth") : -1;
     }
 
+    @ValidateMe
+    public boolean isFlatStateEnabled() {
+        return config.getBoolean("database.flatState.enabled");
+    }
+
+    @ValidateMe
+    public int flatStateDiffLayers() {
+        return config.getInt("database.flatState.diffLayers");
+    }
+
+    @ValidateMe
+    public boolean isBloomBitsEnabled() {
+        return config.getBoolean("database.bloomBits.enabled");
+    }
+
+    @ValidateMe
+    public int bloomBitsSectionSize() {
+        return config.getInt("database.bloomBits.sectionSize");
+    }
+
+    @ValidateMe
+    public int bloomBitsConfirmations() {
+        return config.getInt("database.bloomBits.confirmations");
+    }
+
+    @ValidateMe
+    public int bloomBitsThreads() {
+        int threads = config.getInt("database.bloomBits.threads");
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
     @ValidateMe
     public List<Node> peerActive() {
         if (!config.hasPath("peer.active")) {
@@ -730,6 +761,61 @@ public class SystemProperties {
         return config.getInt("peer.maxActivePeers");
     }
 
+    @ValidateMe
+    public int peerMaxInFlightRequests() {
+        return config.getInt("peer.maxInFlightRequests");
+    }
+
+    @ValidateMe
+    public boolean peerNettyEpoll() {
+        return config.getBoolean("peer.netty.epoll");
+    }
+
+    @ValidateMe
+    public int peerNettyWorkerThreads() {
+        return config.getInt("peer.netty.workerThreads");
+    }
+
+    @ValidateMe
+    public boolean peerNettyPooledAllocator() {
+        return config.getBoolean("peer.netty.pooledAllocator");
+    }
+
+    @ValidateMe
+    public int peerNettyWriteBufferLowWaterMark() {
+        return config.getInt("peer.netty.writeBufferLowWaterMark");
+    }
+
+    @ValidateMe
+    public int peerNettyWriteBufferHighWaterMark() {
+        return config.getInt("peer.netty.writeBufferHighWaterMark");
+    }
+
+    @ValidateMe
+    public int peerNettyReceiveBufferSize() {
+        return config.getInt("peer.netty.receiveBufferSize");
+    }
+
+    @ValidateMe
+    public boolean peerNettyLoopCpuTime() {
+        return config.getBoolean("peer.netty.loopCpuTime");
+    }
+
+    @ValidateMe
+    public int peerServeThreads() {
+        return config.getInt("peer.serve.threads");
+    }
+
+    @ValidateMe
+    public int peerServeMaxPerPeer() {
+        return config.getInt("peer.serve.maxPerPeer");
+    }
+
+    @ValidateMe
+    public int peerServeMaxQueuedPerPeer() {
+        return config.getInt("peer.serve.maxQueuedPerPeer");
+    }
+
     @ValidateMe
     public boolean eip8() {
         return config.getBoolean("peer.p2p.eip8");
@@ -850,6 +936,16 @@ public class SystemProperties {
         return config.getInt("transaction.outdated.threshold");
     }
 
+    @ValidateMe
+    public int txPoolMaxSize() {
+        return config.getInt("transaction.pool.maxSize");
+    }
+
+    @ValidateMe
+    public int txPoolMaxPerSender() {
+        return config.getInt("transaction.pool.maxPerSender");
+    }
+
     public void setGenesisInfo(String genesisInfo){
         this.genesisInfo = genesisInfo;
     }
@@ -899,6 +995,17 @@ public class SystemProperties {
         return config.getBoolean("mine.fullDataSet");
     }
 
+    @ValidateMe
+    public int getMineDatasetThreads() {
+        int threads = config.getInt("mine.datasetThreads");
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    @ValidateMe
+    public long getMineNextEpochPrepareBlock() {
+        return config.getLong("mine.nextEpochPrepareBlock");
+    }
+
     @ValidateMe
     public String getCryptoProviderName() {
         return config.getString("crypto.providerName");
@@ -26,22 +26,42 @@ import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import static org.ethereum.crypto.HashUtil.*;
 import static org.ethereum.util.FastByteComparisons.equal;
 import static org.ethereum.util.ByteUtil.toHexString;
 
+/**
+ * Account state is kept in a compact form: the nonce is a primitive {@code long}
+ * and the balance is a fixed-width 256-bit number stored as four 64-bit limbs,
+ * so value transfers add and subtract without allocating {@link BigInteger}s.
+ * Values which don't fit this representation (negative or too wide)
+ * fall back to {@link BigInteger} arithmetic.
+ *
+ * The instance is immutable, every {@code with*} modification returns a new instance
+ * so the cached RLP encoding is never stale
+ */
 public class AccountState {
 
+    private static final BigInteger MAX_NONCE = BigInteger.valueOf(Long.MAX_VALUE);
+    private static final BigInteger MAX_BALANCE = BigInteger.valueOf(2).pow(256).subtract(BigInteger.ONE);
+
     private byte[] rlpEncoded;
 
     /* A value equal to the number of transactions sent
      * from this address, or, in the case of contract accounts,
      * the number of contract-creations made by this account */
-    private final BigInteger nonce;
+    private final long nonce;
+    private final BigInteger bigNonce;
 
-    /* A scalar value equal to the number of Wei owned by this address */
-    private final BigInteger balance;
+    /* A scalar value equal to the number of Wei owned by this address,
+     * limbs are ordered from the least significant (b0) to the most significant one (b3) */
+    private final long b0, b1, b2, b3;
+    private final BigInteger bigBalance;
+
+    // lazily created BigInteger view of the balance
+    private BigInteger balance;
 
     /* A 256-bit hash of the root node of a trie structure
      * that encodes the storage contents of the contract,
@@ -72,28 +92,75 @@ public class AccountState {
     }
 
     public AccountState(BigInteger nonce, BigInteger balance, byte[] stateRoot, byte[] codeHash) {
-        this.nonce = nonce;
+        this.nonce = fitsNonce(nonce) ? nonce.longValue() : 0;
+        this.bigNonce = fitsNonce(nonce) ? null : nonce;
+        if (fitsBalance(balance)) {
+            this.b0 = balance.longValue();
+            this.b1 = balance.shiftRight(64).longValue();
+            this.b2 = balance.shiftRight(128).longValue();
+            this.b3 = balance.shiftRight(192).longValue();
+            this.bigBalance = null;
+        } else {
+            this.b0 = this.b1 = this.b2 = this.b3 = 0;
+            this.bigBalance = balance;
+        }
         this.balance = balance;
-        this.stateRoot = stateRoot == EMPTY_TRIE_HASH || equal(stateRoot, EMPTY_TRIE_HASH) ? EMPTY_TRIE_HASH : stateRoot;
-        this.codeHash = codeHash == EMPTY_DATA_HASH || equal(codeHash, EMPTY_DATA_HASH) ? EMPTY_DATA_HASH : codeHash;
+        this.stateRoot = normalizeStateRoot(stateRoot);
+        this.codeHash = normalizeCodeHash(codeHash);
+    }
+
+    private AccountState(long nonce, BigInteger bigNonce, long b0, long b1, long b2, long b3, BigInteger bigBalance,
+                         byte[] stateRoot, byte[] codeHash) {
+        this.nonce = nonce;
+        this.bigNonce = bigNonce;
+        this.b0 = b0;
+        this.b1 = b1;
+        this.b2 = b2;
+        this.b3 = b3;
+        this.bigBalance = bigBalance;
+        this.stateRoot = stateRoot;
+        this.codeHash = codeHash;
     }
 
     public AccountState(byte[] rlpData) {
         this.rlpEncoded = rlpData;
 
         RLPList items = (RLPList) RLP.decode2(rlpEncoded).get(0);
-        this.nonce = ByteUtil.bytesToBigInteger(items.get(0).getRLPData());
-        this.balance = ByteUtil.bytesToBigInteger(items.get(1).getRLPData());
+
+        byte[] nonceBytes = items.get(0).getRLPData();
+        if (nonceBytes == null || nonceBytes.length < 8 || (nonceBytes.length == 8 && nonceBytes[0] >= 0)) {
+            this.nonce = toLong(nonceBytes, 0, nonceBytes == null ? 0 : nonceBytes.length);
+            this.bigNonce = null;
+        } else {
+            this.nonce = 0;
+            this.bigNonce = new BigInteger(1, nonceBytes);
+        }
+
+        byte[] balanceBytes = items.get(1).getRLPData();
+        int len = balanceBytes == null ? 0 : balanceBytes.length;
+        if (len <= 32) {
+            this.b0 = toLong(balanceBytes, Math.max(0, len - 8), len);
+            this.b1 = toLong(balanceBytes, Math.max(0, len - 16), Math.max(0, len - 8));
+            this.b2 = toLong(balanceBytes, Math.max(0, len - 24), Math.max(0, len - 16));
+            this.b3 = toLong(balanceBytes, 0, Math.max(0, len - 24));
+            this.bigBalance = null;
+        } else {
+            this.b0 = this.b1 = this.b2 = this.b3 = 0;
+            this.bigBalance = new BigInteger(1, balanceBytes);
+        }
+
         this.stateRoot = items.get(2).getRLPData();
         this.codeHash = items.get(3).getRLPData();
     }
 
     public BigInteger getNonce() {
-        return nonce;
+        return bigNonce != null ? bigNonce : BigInteger.valueOf(nonce);
     }
 
     public AccountState withNonce(BigInteger nonce) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        boolean fits = fitsNonce(nonce);
+        return new AccountState(fits ? nonce.longValue() : 0, fits ? null : nonce,
+                b0, b1, b2, b3, bigBalance, stateRoot, codeHash);
     }
 
     public byte[] getStateRoot() {
@@ -101,11 +168,15 @@ public class AccountState {
     }
 
     public AccountState withStateRoot(byte[] stateRoot) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        return new AccountState(nonce, bigNonce, b0, b1, b2, b3, bigBalance, normalizeStateRoot(stateRoot), codeHash);
     }
 
     public AccountState withIncrementedNonce() {
-        return new AccountState(nonce.add(BigInteger.ONE), balance, stateRoot, codeHash);
+        if (bigNonce == null && nonce < Long.MAX_VALUE) {
+            return new AccountState(nonce + 1, null, b0, b1, b2, b3, bigBalance, stateRoot, codeHash);
+        } else {
+            return withNonce(getNonce().add(BigInteger.ONE));
+        }
     }
 
     public byte[] getCodeHash() {
@@ -113,21 +184,50 @@ public class AccountState {
     }
 
     public AccountState withCodeHash(byte[] codeHash) {
-        return new AccountState(nonce, balance, stateRoot, codeHash);
+        return new AccountState(nonce, bigNonce, b0, b1, b2, b3, bigBalance, stateRoot, normalizeCodeHash(codeHash));
     }
 
     public BigInteger getBalance() {
+        if (balance == null) {
+            balance = bigBalance != null ? bigBalance : toBigInteger(b0, b1, b2, b3);
+        }
         return balance;
     }
 
     public AccountState withBalanceIncrement(BigInteger value) {
-        return new AccountState(nonce, balance.add(value), stateRoot, codeHash);
+        if (bigBalance == null && value.bitLength() < 64) {
+            // adding sign extended 64-bit value limb by limb
+            long v = value.longValue();
+            long ext = v >> 63;
+            long r0 = b0 + v;
+            long c = Long.compareUnsigned(r0, b0) < 0 ? 1 : 0;
+            long r1 = b1 + ext + c;
+            c = carry(b1, ext, c, r1);
+            long r2 = b2 + ext + c;
+            c = carry(b2, ext, c, r2);
+            long r3 = b3 + ext + c;
+            c = carry(b3, ext, c, r3);
+            // positive value must not carry out, negative one (two's complement) must
+            if (c == (v < 0 ? 1 : 0)) {
+                return new AccountState(nonce, bigNonce, r0, r1, r2, r3, null, stateRoot, codeHash);
+            }
+        }
+        // overflow, underflow or a wide increment
+        BigInteger newBalance = getBalance().add(value);
+        if (fitsBalance(newBalance)) {
+            return new AccountState(nonce, bigNonce, newBalance.longValue(), newBalance.shiftRight(64).longValue(),
+                    newBalance.shiftRight(128).longValue(), newBalance.shiftRight(192).longValue(), null,
+                    stateRoot, codeHash);
+        } else {
+            return new AccountState(nonce, bigNonce, 0, 0, 0, 0, newBalance, stateRoot, codeHash);
+        }
     }
 
     public byte[] getEncoded() {
         if (rlpEncoded == null) {
-            byte[] nonce = RLP.encodeBigInteger(this.nonce);
-            byte[] balance = RLP.encodeBigInteger(this.balance);
+            byte[] nonce = bigNonce != null ? RLP.encodeBigInteger(bigNonce) :
+                    RLP.encodeElement(ByteUtil.longToBytesNoLeadZeroes(this.nonce));
+            byte[] balance = bigBalance != null ? RLP.encodeBigInteger(bigBalance) : RLP.encodeElement(balanceBytes());
             byte[] stateRoot = RLP.encodeElement(this.stateRoot);
             byte[] codeHash = RLP.encodeElement(this.codeHash);
             this.rlpEncoded = RLP.encodeList(nonce, balance, stateRoot, codeHash);
@@ -137,15 +237,74 @@ public class AccountState {
 
     public boolean isContractExist(BlockchainConfig blockchainConfig) {
         return !FastByteComparisons.equal(codeHash, EMPTY_DATA_HASH) ||
-                !blockchainConfig.getConstants().getInitialNonce().equals(nonce);
+                !blockchainConfig.getConstants().getInitialNonce().equals(getNonce());
     }
 
     public boolean isEmpty() {
         return FastByteComparisons.equal(codeHash, EMPTY_DATA_HASH) &&
-                BigInteger.ZERO.equals(balance) &&
-                BigInteger.ZERO.equals(nonce);
+                isZeroBalance() &&
+                bigNonce == null && nonce == 0;
+    }
+
+    private boolean isZeroBalance() {
+        return bigBalance == null ? (b0 | b1 | b2 | b3) == 0 : bigBalance.signum() == 0;
     }
 
+    private byte[] balanceBytes() {
+        byte[] bytes = new byte[32];
+        putLong(bytes, 0, b3);
+        putLong(bytes, 8, b2);
+        putLong(bytes, 16, b1);
+        putLong(bytes, 24, b0);
+        int zeroes = 0;
+        while (zeroes < bytes.length && bytes[zeroes] == 0) zeroes++;
+        return zeroes == 0 ? bytes : Arrays.copyOfRange(bytes, zeroes, bytes.length);
+    }
+
+    private static void putLong(byte[] bytes, int off, long val) {
+        for (int i = 7; i >= 0; i--) {
+            bytes[off + i] = (byte) val;
+            val >>>= 8;
+        }
+    }
+
+    private static long carry(long a, long b, long c, long sum) {
+        return Long.compareUnsigned(sum, a) < 0 || (c != 0 && sum == a) ? 1 : 0;
+    }
+
+    private static long toLong(byte[] bytes, int from, int to) {
+        long ret = 0;
+        for (int i = from; i < to; i++) {
+            ret = (ret << 8) | (bytes[i] & 0xFF);
+        }
+        return ret;
+    }
+
+    private static BigInteger toBigInteger(long b0, long b1, long b2, long b3) {
+        if ((b1 | b2 | b3) == 0 && b0 >= 0) return BigInteger.valueOf(b0);
+        byte[] bytes = new byte[32];
+        putLong(bytes, 0, b3);
+        putLong(bytes, 8, b2);
+        putLong(bytes, 16, b1);
+        putLong(bytes, 24, b0);
+        return new BigInteger(1, bytes);
+    }
+
+    private static boolean fitsNonce(BigInteger nonce) {
+        return nonce.signum() >= 0 && nonce.compareTo(MAX_NONCE) <= 0;
+    }
+
+    private static boolean fitsBalance(BigInteger balance) {
+        return balance.signum() >= 0 && balance.compareTo(MAX_BALANCE) <= 0;
+    }
+
+    private static byte[] normalizeStateRoot(byte[] stateRoot) {
+        return stateRoot == EMPTY_TRIE_HASH || equal(stateRoot, EMPTY_TRIE_HASH) ? EMPTY_TRIE_HASH : stateRoot;
+    }
+
+    private static byte[] normalizeCodeHash(byte[] codeHash) {
+        return codeHash == EMPTY_DATA_HASH || equal(codeHash, EMPTY_DATA_HASH) ? EMPTY_DATA_HASH : codeHash;
+    }
 
     public String toString() {
         String ret = "  Nonce: " + this.getNonce().toString() + "\n" +
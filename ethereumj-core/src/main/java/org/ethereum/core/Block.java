@@ -19,8 +19,7 @@ package org.ethereum.core;
 
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.MemSizeEstimator;
-import org.ethereum.trie.Trie;
-import org.ethereum.trie.TrieImpl;
+import org.ethereum.trie.ListTrieRoot;
 import org.ethereum.util.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +58,9 @@ public class Block {
     /* Uncles */
     private List<BlockHeader> uncleList = new CopyOnWriteArrayList<>();
 
+    /* Trie root calculated from the transactions, kept to not repeat calculation on import */
+    private volatile byte[] calculatedTxTrieRoot;
+
     /* Private */
 
     private byte[] rlpEncoded;
@@ -105,7 +107,8 @@ public class Block {
         this(parentHash, unclesHash, coinbase, logsBloom, difficulty, number, gasLimit,
                 gasUsed, timestamp, extraData, mixHash, nonce, transactionsList, uncleList);
 
-        this.header.setTransactionsRoot(BlockchainImpl.calcTxTrie(transactionsList));
+        this.calculatedTxTrieRoot = BlockchainImpl.calcTxTrie(this.transactionsList);
+        this.header.setTransactionsRoot(calculatedTxTrieRoot);
         if (!Hex.toHexString(transactionsRoot).
                 equals(Hex.toHexString(this.header.getTxTrieRoot())))
             logger.debug("Transaction root miss-calculate, block: {}", getNumber());
@@ -295,6 +298,17 @@ public class Block {
         return uncleList;
     }
 
+    /**
+     * @return trie root of the block transactions, may differ from {@link #getTxTrieRoot()} for invalid block
+     */
+    public byte[] getCalculatedTxTrieRoot() {
+        parseRLP();
+        if (calculatedTxTrieRoot == null) {
+            calculatedTxTrieRoot = BlockchainImpl.calcTxTrie(transactionsList);
+        }
+        return calculatedTxTrieRoot;
+    }
+
     private StringBuffer toStringBuff = new StringBuffer();
     // [parent_hash, uncles_hash, coinbase, state_root, tx_trie_root,
     // difficulty, number, minGasPrice, gasLimit, gasUsed, timestamp,
@@ -352,15 +366,15 @@ public class Block {
 
     private byte[] parseTxs(RLPList txTransactions, boolean validate) {
 
-        Trie<byte[]> txsState = new TrieImpl();
+        List<byte[]> encoded = new ArrayList<>(txTransactions.size());
         for (int i = 0; i < txTransactions.size(); i++) {
             RLPElement transactionRaw = txTransactions.get(i);
             Transaction tx = new Transaction(transactionRaw.getRLPData());
             if (validate) tx.verify();
             this.transactionsList.add(tx);
-            txsState.put(RLP.encodeInt(i), transactionRaw.getRLPData());
+            encoded.add(transactionRaw.getRLPData());
         }
-        return txsState.getRootHash();
+        return calculatedTxTrieRoot = ListTrieRoot.calcRoot(encoded);
     }
 
 
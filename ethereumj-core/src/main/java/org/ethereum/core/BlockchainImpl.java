@@ -24,10 +24,10 @@ import org.ethereum.config.SystemProperties;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.db.*;
-import org.ethereum.trie.Trie;
-import org.ethereum.trie.TrieImpl;
+import org.ethereum.trie.ListTrieRoot;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.listener.EthereumListenerAdapter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.ethereum.manager.AdminInfo;
 import org.ethereum.sync.SyncManager;
 import org.ethereum.util.*;
@@ -59,6 +59,10 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.max;
 import static java.lang.Runtime.getRuntime;
@@ -67,6 +71,7 @@ import static java.math.BigInteger.ZERO;
 import static java.util.Collections.emptyList;
 import static org.ethereum.core.Denomination.SZABO;
 import static org.ethereum.core.ImportResult.*;
+import static org.ethereum.manager.AdminInfo.ImportStage.*;
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.toHexString;
 
@@ -135,6 +140,10 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     @Autowired
     private AdminInfo adminInfo;
 
+    // receipts trie and logs bloom are calculated while the state root is being calculated
+    private static final ExecutorService receiptsExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("BlockReceiptsRoot-%d").setDaemon(true).build());
+
     @Autowired
     private DependentBlockHeaderRule parentHeaderValidator;
 
@@ -325,15 +334,14 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
     public static byte[] calcTxTrie(List<Transaction> transactions) {
 
-        Trie txsState = new TrieImpl();
-
         if (transactions == null || transactions.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < transactions.size(); i++) {
-            txsState.put(RLP.encodeInt(i), transactions.get(i).getEncoded());
+        List<byte[]> encoded = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            encoded.add(tx.getEncoded());
         }
-        return txsState.getRootHash();
+        return ListTrieRoot.calcRoot(encoded);
     }
 
     public Repository getRepository() {
@@ -501,11 +509,11 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
                 extraData,  // extra data
                 new byte[0],  // mixHash (to mine)
                 new byte[0],  // nonce   (to mine)
-                new byte[0],  // receiptsRoot - computed after running all transactions
-                calcTxTrie(txs),    // TransactionsRoot - computed after running all transactions
-                new byte[] {0}, // stateRoot - computed after running all transactions
                 txs,
                 null);  // uncle list
+        // the Block constructor without roots doesn't calculate them
+        block.getHeader().setTransactionsRoot(block.getCalculatedTxTrieRoot());
+        block.setStateRoot(new byte[] {0});
 
         for (BlockHeader uncle : uncles) {
             block.addUncle(uncle);
@@ -519,11 +527,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         List<TransactionReceipt> receipts = summary.getReceipts();
         block.setStateRoot(track.getRoot());
 
-        Bloom logBloom = new Bloom();
-        for (TransactionReceipt receipt : receipts) {
-            logBloom.or(receipt.getBloomFilter());
-        }
-        block.getHeader().setLogsBloom(logBloom.getData());
+        block.getHeader().setLogsBloom(calcLogBloom(receipts));
         block.getHeader().setGasUsed(receipts.size() > 0 ? receipts.get(receipts.size() - 1).getCumulativeGasLong() : 0);
         block.getHeader().setReceiptsRoot(calcReceiptsTrie(receipts));
 
@@ -568,10 +572,13 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         }
 
 
+        long stageStart = System.nanoTime();
         if (!isValid(repo, block)) {
             logger.warn("Invalid block with number: {}", block.getNumber());
             return null;
         }
+        long validated = System.nanoTime();
+        adminInfo.addImportStageTime(Validate, validated - stageStart);
 
 //        Repository track = repo.startTracking();
         byte[] origRoot = repo.getRoot();
@@ -589,18 +596,33 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
         BlockSummary summary = processBlock(repo, block);
         final List<TransactionReceipt> receipts = summary.getReceipts();
+        long executed = System.nanoTime();
+        adminInfo.addImportStageTime(Execute, executed - validated);
+
+        Future<Pair<byte[], byte[]>> receiptsRoots = receiptsExecutor.submit(
+                () -> Pair.of(calcReceiptsTrie(receipts), calcLogBloom(receipts)));
+        // calculating the state root meanwhile, it's not recalculated by the check below
+        repo.getRoot();
+        byte[] receiptsRoot, logBloom;
+        try {
+            Pair<byte[], byte[]> roots = receiptsRoots.get();
+            receiptsRoot = roots.getLeft();
+            logBloom = roots.getRight();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Failed to calculate receipts root of block #" + block.getNumber(), e);
+        }
 
         // Sanity checks
 
-        if (!FastByteComparisons.equal(block.getReceiptsRoot(), calcReceiptsTrie(receipts))) {
-            logger.warn("Block's given Receipt Hash doesn't match: {} != {}", toHexString(block.getReceiptsRoot()), toHexString(calcReceiptsTrie(receipts)));
+        if (!FastByteComparisons.equal(block.getReceiptsRoot(), receiptsRoot)) {
+            logger.warn("Block's given Receipt Hash doesn't match: {} != {}", toHexString(block.getReceiptsRoot()), toHexString(receiptsRoot));
             logger.warn("Calculated receipts: " + receipts);
             repo.rollback();
             summary = null;
         }
 
-        if (!FastByteComparisons.equal(block.getLogBloom(), calcLogBloom(receipts))) {
-            logger.warn("Block's given logBloom Hash doesn't match: {} != {}", toHexString(block.getLogBloom()), toHexString(calcLogBloom(receipts)));
+        if (!FastByteComparisons.equal(block.getLogBloom(), logBloom)) {
+            logger.warn("Block's given logBloom Hash doesn't match: {} != {}", toHexString(block.getLogBloom()), toHexString(logBloom));
             repo.rollback();
             summary = null;
         }
@@ -630,6 +652,9 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             }
         }
 
+        long checked = System.nanoTime();
+        adminInfo.addImportStageTime(Roots, checked - executed);
+
         if (summary != null) {
             repo.commit();
             updateTotalDifficulty(block);
@@ -643,6 +668,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
             } else {
                 storeBlock(block, receipts);
             }
+            adminInfo.addImportStageTime(Store, System.nanoTime() - checked);
         }
 
         return summary;
@@ -667,26 +693,26 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     public static byte[] calcReceiptsTrie(List<TransactionReceipt> receipts) {
-        Trie receiptsTrie = new TrieImpl();
 
         if (receipts == null || receipts.isEmpty())
             return HashUtil.EMPTY_TRIE_HASH;
 
-        for (int i = 0; i < receipts.size(); i++) {
-            receiptsTrie.put(RLP.encodeInt(i), receipts.get(i).getReceiptTrieEncoded());
+        List<byte[]> encoded = new ArrayList<>(receipts.size());
+        for (TransactionReceipt receipt : receipts) {
+            encoded.add(receipt.getReceiptTrieEncoded());
         }
-        return receiptsTrie.getRootHash();
+        return ListTrieRoot.calcRoot(encoded, true);
     }
 
     private byte[] calcLogBloom(List<TransactionReceipt> receipts) {
 
+        // receipt blooms are ORed word by word into the single instance
         Bloom retBloomFilter = new Bloom();
 
-        if (receipts == null || receipts.isEmpty())
-            return retBloomFilter.getData();
-
-        for (TransactionReceipt receipt : receipts) {
-            retBloomFilter.or(receipt.getBloomFilter());
+        if (receipts != null) {
+            for (TransactionReceipt receipt : receipts) {
+                retBloomFilter.or(receipt.getBloomFilter());
+            }
         }
 
         return retBloomFilter.getData();
@@ -730,7 +756,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 
             // Sanity checks
             String trieHash = toHexString(block.getTxTrieRoot());
-            String trieListHash = toHexString(calcTxTrie(block.getTransactionsList()));
+            String trieListHash = toHexString(block.getCalculatedTxTrieRoot());
 
 
             if (!trieHash.equals(trieListHash)) {
@@ -858,10 +884,34 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
         return ret;
     }
 
+    /**
+     * Executes a stored block on top of its parent state without storing anything
+     * and committing the state, for read-only replays rebuilding derived data
+     * (receipts, traces, balances). The parent state should be present in the state DB.
+     * Transaction events go to the given listener instead of the node one,
+     * execution time is not counted in the node import stats
+     */
+    public BlockSummary executeBlockReadOnly(Block block, EthereumListener listener) {
+        if (!(repository instanceof RepositoryRoot)) {
+            throw new IllegalStateException("Read-only block execution requires the root repository, got " +
+                    repository.getClass().getName());
+        }
+        Block parent = getParent(block.getHeader());
+        if (parent == null) {
+            throw new RuntimeException("No parent of block #" + block.getNumber());
+        }
+        Repository track = ((RepositoryRoot) repository).getReadOnlySnapshotTo(parent.getStateRoot());
+        return processBlock(track, block, listener, false);
+    }
+
     private BlockSummary processBlock(Repository track, Block block) {
+        return processBlock(track, block, listener, true);
+    }
+
+    private BlockSummary processBlock(Repository track, Block block, EthereumListener listener, boolean importStats) {
 
         if (!block.isGenesis() && !config.blockChainOnly()) {
-            return applyBlock(track, block);
+            return applyBlock(track, block, listener, importStats);
         }
         else {
             return new BlockSummary(block, new HashMap<byte[], BigInteger>(), new ArrayList<TransactionReceipt>(), new ArrayList<TransactionExecutionSummary>());
@@ -869,6 +919,13 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
     }
 
     private BlockSummary applyBlock(Repository track, Block block) {
+        return applyBlock(track, block, listener, true);
+    }
+
+    /**
+     * @param importStats whether the execution time is added to the node block import stats
+     */
+    private BlockSummary applyBlock(Repository track, Block block, EthereumListener listener, boolean importStats) {
 
         logger.debug("applyBlock: block: [{}] tx.list: [{}]", block.getNumber(), block.getTransactionsList().size());
 
@@ -938,7 +995,7 @@ public class BlockchainImpl implements Blockchain, org.ethereum.facade.Blockchai
 //            repository.dumpState(block, totalGasUsed, 0, null);
 
         long totalTime = System.nanoTime() - saveTime;
-        adminInfo.addBlockExecTime(totalTime);
+        if (importStats) adminInfo.addBlockExecTime(totalTime);
         logger.debug("block: num: [{}] hash: [{}], executed after: [{}]nano", block.getNumber(), block.getShortHash(), totalTime);
 
         return new BlockSummary(block, rewards, receipts, summaries);
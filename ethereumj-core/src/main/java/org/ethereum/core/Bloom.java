@@ -17,14 +17,17 @@
  */
 package org.ethereum.core;
 
-import org.ethereum.util.ByteUtil;
-
 import java.util.Arrays;
 
 import static org.ethereum.util.ByteUtil.toHexString;
 
 /**
- * See http://www.herongyang.com/Java/Bit-String-Set-Bit-to-Byte-Array.html.
+ * 2048-bit log bloom, see the Yellow Paper 4.3.1.
+ *
+ * Bits are kept in 32 long words, the bit <code>n</code> is the bit <code>n % 64</code>
+ * of the word <code>n / 64</code>, which matches {@link org.ethereum.util.ByteUtil#getBit(byte[], int)}
+ * numbering of the 256-byte big-endian encoding, thus <code>or</code> and <code>matches</code>
+ * are done word by word.
  *
  * @author Roman Mandeleil
  * @since 20.11.2014
@@ -34,59 +37,124 @@ public class Bloom {
 
     public static final long MEM_SIZE = 256 + 16;
 
-    final static int _8STEPS = 8;
-    final static int _3LOW_BITS = 7;
-    final static int ENSURE_BYTE = 255;
+    static final int BYTES = 256;
+    static final int WORDS = 32;
 
-    byte[] data = new byte[256];
+    final long[] words;
+    // length of the encoding, differs from 256 only for malformed blooms read from the wire
+    int size = BYTES;
 
 
     public Bloom() {
+        this.words = new long[WORDS];
     }
 
+    /**
+     * @param data 256-byte bloom encoding, shorter data is treated as left padded with zeroes
+     *             and is encoded back with the same length, <code>null</code> (empty RLP item)
+     *             is treated as zero-length encoding
+     */
     public Bloom(byte[] data) {
-        this.data = data;
+        this.words = new long[WORDS];
+        if (data == null) {
+            this.size = 0;
+            return;
+        }
+        this.size = Math.min(BYTES, data.length);
+        int offset = BYTES - data.length;
+        for (int i = Math.max(0, -offset); i < data.length; i++) {
+            int pos = BYTES - 1 - (offset + i);
+            words[pos >>> 3] |= (data[i] & 0xFFL) << ((pos & 7) << 3);
+        }
+    }
+
+    private Bloom(long[] words, int size) {
+        this.words = words;
+        this.size = size;
     }
 
     public static Bloom create(byte[] toBloom) {
+        Bloom bloom = new Bloom();
+        bloom.add(toBloom);
+        return bloom;
+    }
 
-        int mov1 = (((toBloom[0] & ENSURE_BYTE) & (_3LOW_BITS)) << _8STEPS) + ((toBloom[1]) & ENSURE_BYTE);
-        int mov2 = (((toBloom[2] & ENSURE_BYTE) & (_3LOW_BITS)) << _8STEPS) + ((toBloom[3]) & ENSURE_BYTE);
-        int mov3 = (((toBloom[4] & ENSURE_BYTE) & (_3LOW_BITS)) << _8STEPS) + ((toBloom[5]) & ENSURE_BYTE);
+    /**
+     * Positions of the three bits set by the hash of an entry
+     *
+     * @param toBloom sha3 of the address or topic
+     */
+    public static int[] bitPositions(byte[] toBloom) {
+        return new int[] {bitPosition(toBloom, 0), bitPosition(toBloom, 2), bitPosition(toBloom, 4)};
+    }
 
-        byte[] data = new byte[256];
-        Bloom bloom = new Bloom(data);
+    private static int bitPosition(byte[] toBloom, int idx) {
+        return ((toBloom[idx] & 7) << 8) | (toBloom[idx + 1] & 0xFF);
+    }
 
-        ByteUtil.setBit(data, mov1, 1);
-        ByteUtil.setBit(data, mov2, 1);
-        ByteUtil.setBit(data, mov3, 1);
+    /**
+     * Sets the three bits of the entry in place
+     *
+     * @param toBloom sha3 of the address or topic
+     */
+    public void add(byte[] toBloom) {
+        setBit(bitPosition(toBloom, 0));
+        setBit(bitPosition(toBloom, 2));
+        setBit(bitPosition(toBloom, 4));
+    }
 
-        return bloom;
+    private void setBit(int pos) {
+        words[pos >>> 6] |= 1L << pos;
+        if (pos >= size << 3) size = BYTES;
+    }
+
+    public boolean hasBit(int pos) {
+        return (words[pos >>> 6] & (1L << pos)) != 0;
     }
 
     public void or(Bloom bloom) {
-        for (int i = 0; i < data.length; ++i) {
-            data[i] |= bloom.data[i];
+        for (int i = 0; i < WORDS; ++i) {
+            words[i] |= bloom.words[i];
         }
+        size = Math.max(size, bloom.size);
     }
 
+    public void and(Bloom bloom) {
+        for (int i = 0; i < WORDS; ++i) {
+            words[i] &= bloom.words[i];
+        }
+    }
+
+    /**
+     * @return true if all bits of the <code>topicBloom</code> are set in this bloom
+     */
     public boolean matches(Bloom topicBloom) {
-        Bloom copy = copy();
-        copy.or(topicBloom);
-        return this.equals(copy);
+        for (int i = 0; i < WORDS; ++i) {
+            long w = topicBloom.words[i];
+            if ((words[i] & w) != w) return false;
+        }
+        return true;
     }
 
+    /**
+     * @return 256-byte encoding, a fresh array on each call
+     */
     public byte[] getData() {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            int pos = size - 1 - i;
+            data[i] = (byte) (words[pos >>> 3] >>> ((pos & 7) << 3));
+        }
         return data;
     }
 
     public Bloom copy() {
-        return new Bloom(Arrays.copyOf(getData(), getData().length));
+        return new Bloom(Arrays.copyOf(words, WORDS), size);
     }
 
     @Override
     public String toString() {
-        return toHexString(data);
+        return toHexString(getData());
     }
 
     @Override
@@ -96,12 +164,12 @@ public class Bloom {
 
         Bloom bloom = (Bloom) o;
 
-        return Arrays.equals(data, bloom.data);
+        return Arrays.equals(words, bloom.words);
 
     }
 
     @Override
     public int hashCode() {
-        return data != null ? Arrays.hashCode(data) : 0;
+        return Arrays.hashCode(words);
     }
 }
@@ -43,6 +43,12 @@ public interface PendingState extends org.ethereum.facade.PendingState {
      */
     void addPendingTransaction(Transaction tx);
 
+    /**
+     * @return pending transactions in the order for a new block: the most paying first,
+     *         each sender's transactions in the nonce order
+     */
+    List<Transaction> getPendingTransactionsByPrice();
+
     /**
      * It should be called on each block imported as <b>BEST</b> <br>
      * Does several things:
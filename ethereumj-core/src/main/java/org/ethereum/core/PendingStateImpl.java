@@ -24,11 +24,15 @@ import static org.ethereum.listener.EthereumListener.PendingTransactionState.PEN
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.collections4.map.LRUMap;
 import org.ethereum.config.CommonConfig;
 import org.ethereum.config.SystemProperties;
@@ -72,6 +76,10 @@ public class PendingStateImpl implements PendingState {
 
     private static final Logger logger = LoggerFactory.getLogger("pending");
 
+    // pending transactions are re-executed on a new best block by this thread
+    private static final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("pending-state-refresh").setDaemon(true).build());
+
     @Autowired
     private SystemProperties config = SystemProperties.getDefault();
 
@@ -95,7 +103,8 @@ public class PendingStateImpl implements PendingState {
 
 //    private Repository repository;
 
-    private final List<PendingTransaction> pendingTransactions = new ArrayList<>();
+    // created on first use as the config is autowired after construction
+    private TransactionPool pool;
 
     // to filter out the transactions we have already processed
     // transactions could be sent by peers even if they were already included into blocks
@@ -106,6 +115,14 @@ public class PendingStateImpl implements PendingState {
 
     private Block best = null;
 
+    // incremented by each new best block, a refresh started for the previous one
+    // is completed and followed by the refresh for the latest best block
+    private long stateVersion = 0;
+    // pending state is behind the best block, readers and new transactions wait for the refresh
+    private boolean refreshing = false;
+    // a refresh is being executed by the refresh thread
+    private boolean refreshRunning = false;
+
     @Autowired
     public PendingStateImpl(final EthereumListener listener) {
         this.listener = listener;
@@ -122,24 +139,70 @@ public class PendingStateImpl implements PendingState {
 
     @Override
     public synchronized Repository getRepository() {
+        awaitRefresh();
         if (pendingState == null) {
             init();
         }
         return pendingState;
     }
 
+    /**
+     * Waits releasing the lock until pending state is refreshed for the best block
+     */
+    private void awaitRefresh() {
+        boolean interrupted = false;
+        while (refreshing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private TransactionPool getPool() {
+        if (pool == null) {
+            pool = new TransactionPool(config.txPoolMaxSize(), config.txPoolMaxPerSender());
+        }
+        return pool;
+    }
+
     @Override
     public synchronized List<Transaction> getPendingTransactions() {
 
         List<Transaction> txs = new ArrayList<>();
 
-        for (PendingTransaction tx : pendingTransactions) {
+        for (PendingTransaction tx : getPool().getAll()) {
             txs.add(tx.getTransaction());
         }
 
         return txs;
     }
 
+    @Override
+    public synchronized List<Transaction> getPendingTransactionsByPrice() {
+        return getPool().getByPriceAndNonce();
+    }
+
+    public synchronized int getPendingSendersCount() {
+        return getPool().getSendersCount();
+    }
+
+    /**
+     * @return number of pending transactions evicted by the more paying ones
+     */
+    public synchronized long getEvictedTxsCount() {
+        return getPool().getEvictedCount();
+    }
+
+    /**
+     * @return number of transactions dropped due to the pool limits
+     */
+    public synchronized long getRejectedTxsCount() {
+        return getPool().getRejectedCount();
+    }
+
     public Block getBestBlock() {
         if (best == null) {
             best = blockchain.getBestBlock();
@@ -158,6 +221,8 @@ public class PendingStateImpl implements PendingState {
 
     @Override
     public synchronized List<Transaction> addPendingTransactions(List<Transaction> transactions) {
+        awaitRefresh();
+
         int unknownTx = 0;
         List<Transaction> newPending = new ArrayList<>();
         for (Transaction tx : transactions) {
@@ -218,23 +283,34 @@ public class PendingStateImpl implements PendingState {
         newReceipt.setTransaction(tx);
 
         String err = validate(tx);
+        if (err == null && !getPool().hasRoomFor(tx)) {
+            err = "Pending transactions limit exceeded";
+        }
 
         TransactionReceipt txReceipt;
         if (err != null) {
             txReceipt = createDroppedReceipt(tx, err);
         } else {
-            txReceipt = executeTx(tx);
+            txReceipt = executeTx(tx, getRepository(), getBestBlock());
         }
 
         if (!txReceipt.isValid()) {
             fireTxUpdate(txReceipt, DROPPED, getBestBlock());
         } else {
-            pendingTransactions.add(new PendingTransaction(tx, getBestBlock().getNumber()));
+            List<PendingTransaction> evicted = getPool().add(new PendingTransaction(tx, getBestBlock().getNumber()));
             fireTxUpdate(txReceipt, NEW_PENDING, getBestBlock());
+            // evicted transactions effects are wiped from the pending state on the next block
+            fireDropped(evicted, "Evicted by a transaction paying more for gas");
         }
         return txReceipt.isValid();
     }
 
+    private void fireDropped(List<PendingTransaction> txs, String reason) {
+        for (PendingTransaction tx : txs) {
+            fireTxUpdate(createDroppedReceipt(tx.getTransaction(), reason), DROPPED, getBestBlock());
+        }
+    }
+
     private TransactionReceipt createDroppedReceipt(Transaction tx, String error) {
         TransactionReceipt txReceipt = new TransactionReceipt();
         txReceipt.setTransaction(tx);
@@ -277,6 +353,10 @@ public class PendingStateImpl implements PendingState {
     @Override
     public synchronized void processBest(Block newBlock, List<TransactionReceipt> receipts) {
 
+        stateVersion++;
+
+        Set<ByteArrayWrapper> senders = new LinkedHashSet<>();
+
         if (getBestBlock() != null && !getBestBlock().isParentOf(newBlock)) {
             // need to switch the state to another fork
 
@@ -294,7 +374,7 @@ public class PendingStateImpl implements PendingState {
                     logger.trace("Returning transaction back to pending: " + tx);
                     blockTxs.add(new PendingTransaction(tx, commonAncestor.getNumber()));
                 }
-                pendingTransactions.addAll(0, blockTxs);
+                getPool().addFirst(blockTxs);
                 rollback = blockchain.getBlockByHash(rollback.getParentHash());
             }
 
@@ -311,39 +391,57 @@ public class PendingStateImpl implements PendingState {
 
             // processing blocks from ancestor to new block
             for (int i = mainFork.size() - 1; i >= 0; i--) {
-                processBestInternal(mainFork.get(i), null);
+                processBestInternal(mainFork.get(i), null, senders);
             }
         } else {
             logger.debug("PendingStateImpl.processBest: " + newBlock.getShortDescr());
-            processBestInternal(newBlock, receipts);
+            processBestInternal(newBlock, receipts, senders);
         }
 
         best = newBlock;
 
-        updateState(newBlock);
+        revalidateSenders(senders);
 
-        listener.onPendingStateChanged(PendingStateImpl.this);
+        refreshState(newBlock);
     }
 
-    private void processBestInternal(Block block, List<TransactionReceipt> receipts) {
+    private void processBestInternal(Block block, List<TransactionReceipt> receipts, Set<ByteArrayWrapper> senders) {
 
         clearPending(block, receipts);
 
         clearOutdated(block.getNumber());
-    }
-
-    private void clearOutdated(final long blockNumber) {
-        List<PendingTransaction> outdated = new ArrayList<>();
 
-        for (PendingTransaction tx : pendingTransactions) {
-            if (blockNumber - tx.getBlockNumber() > config.txOutdatedThreshold()) {
-                outdated.add(tx);
+        for (Transaction tx : block.getTransactionsList()) {
+            senders.add(new ByteArrayWrapper(tx.getSender()));
+        }
+    }
 
-                fireTxUpdate(createDroppedReceipt(tx.getTransaction(),
-                        "Tx was not included into last " + config.txOutdatedThreshold() + " blocks"),
-                        DROPPED, getBestBlock());
+    /**
+     * Only senders of the new blocks transactions have their account nonces moved,
+     * their transactions which can't be executed anymore are dropped
+     * while other senders transactions are left as is
+     */
+    private void revalidateSenders(Set<ByteArrayWrapper> senders) {
+        if (senders.isEmpty() || getPool().size() == 0) return;
+
+        Repository repository = getOrigRepository();
+        for (ByteArrayWrapper sender : senders) {
+            long nonce = repository.getNonce(sender.getData()).longValue();
+            fireDropped(getPool().removeStale(sender.getData(), nonce), "Tx nonce is lower than the sender nonce");
+
+            List<PendingTransaction> txs = getPool().getBySender(sender.getData());
+            if (txs.isEmpty()) continue;
+            long first = ByteUtil.byteArrayToLong(txs.get(0).getTransaction().getNonce());
+            if (first != nonce) {
+                fireDropped(getPool().removeFrom(sender.getData(), first), "Tx nonce doesn't follow the sender nonce");
             }
         }
+    }
+
+    private void clearOutdated(final long blockNumber) {
+        List<PendingTransaction> outdated = getPool().removeAddedBefore(blockNumber - config.txOutdatedThreshold());
+
+        fireDropped(outdated, "Tx was not included into last " + config.txOutdatedThreshold() + " blocks");
 
         if (outdated.isEmpty()) return;
 
@@ -354,16 +452,14 @@ public class PendingStateImpl implements PendingState {
                         tx.getBlockNumber(),
                         toHexString(tx.getHash())
                 );
-
-        pendingTransactions.removeAll(outdated);
     }
 
     private void clearPending(Block block, List<TransactionReceipt> receipts) {
         for (int i = 0; i < block.getTransactionsList().size(); i++) {
             Transaction tx = block.getTransactionsList().get(i);
-            PendingTransaction pend = new PendingTransaction(tx);
 
-            if (pendingTransactions.remove(pend)) {
+            // the transaction occupying the same sender nonce is treated as included
+            if (getPool().remove(tx.getSender(), ByteUtil.byteArrayToLong(tx.getNonce())) != null) {
                 try {
                     logger.trace("Clear pending transaction, hash: [{}]", toHexString(tx.getHash()));
                     TransactionReceipt receipt;
@@ -388,30 +484,75 @@ public class PendingStateImpl implements PendingState {
         return info;
     }
 
-    private void updateState(Block block) {
+    /**
+     * Re-executes pending transactions on top of the new best block without holding the lock,
+     * block import proceeds while pending state readers and new transactions wait for it.
+     *
+     * A running refresh is never abandoned: when best blocks come faster than refreshes complete
+     * the running one publishes its state and a single follow-up refresh is started
+     * for the latest best block, thus waiters are released after two refreshes at most
+     */
+    private void refreshState(final Block block) {
+        refreshing = true;
+        if (!refreshRunning) startRefresh(block);
+    }
 
-        pendingState = getOrigRepository().startTracking();
+    private void startRefresh(final Block block) {
+        final long version = stateVersion;
+        final List<PendingTransaction> txs = getPool().getAll();
+        final Repository repository = getOrigRepository().startTracking();
 
+        refreshRunning = true;
+        refreshExecutor.submit(() -> refreshState(version, block, txs, repository));
+    }
+
+    private void refreshState(long version, Block block, List<PendingTransaction> txs, Repository repository) {
         long t = System.nanoTime();
+        List<TransactionReceipt> receipts = new ArrayList<>(txs.size());
+        try {
+            for (PendingTransaction tx : txs) {
+                // each tx is applied entirely or not at all, so the state is consistent whatever happens
+                Repository txTrack = repository.startTracking();
+                try {
+                    receipts.add(executeTx(tx.getTransaction(), txTrack, block));
+                    txTrack.commit();
+                } catch (Exception e) {
+                    logger.error("Error applying pending tx " + toHexString(tx.getHash()) + " on block " + block.getShortDescr(), e);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                pendingState = repository;
+                refreshRunning = false;
+                try {
+                    for (TransactionReceipt receipt : receipts) {
+                        fireTxUpdate(receipt, PENDING, block);
+                    }
 
-        for (PendingTransaction tx : pendingTransactions) {
-            TransactionReceipt receipt = executeTx(tx.getTransaction());
-            fireTxUpdate(receipt, PENDING, block);
-        }
+                    logger.debug("Successfully processed #{}, txs: {}, time: {}s", block.getNumber(), txs.size(),
+                            String.format("%.3f", (System.nanoTime() - t) / 1_000_000_000d));
 
-        logger.debug("Successfully processed #{}, txs: {}, time: {}s", block.getNumber(), pendingTransactions.size(),
-                String.format("%.3f", (System.nanoTime() - t) / 1_000_000_000d));
+                    listener.onPendingStateChanged(PendingStateImpl.this);
+                } finally {
+                    if (version == stateVersion) {
+                        refreshing = false;
+                        notifyAll();
+                    } else {
+                        // new best blocks have come meanwhile
+                        startRefresh(best);
+                    }
+                }
+            }
+        }
     }
 
-    private TransactionReceipt executeTx(Transaction tx) {
+    private TransactionReceipt executeTx(Transaction tx, Repository repository, Block best) {
 
         logger.trace("Apply pending state tx: {}", toHexString(tx.getHash()));
 
-        Block best = getBestBlock();
-
         TransactionExecutor executor = new TransactionExecutor(
-                tx, best.getCoinbase(), getRepository(),
-                blockStore, programInvokeFactory, createFakePendingBlock())
+                tx, best.getCoinbase(), repository,
+                blockStore, programInvokeFactory, createFakePendingBlock(best))
                 .withCommonConfig(commonConfig);
 
         executor.init();
@@ -422,7 +563,7 @@ public class PendingStateImpl implements PendingState {
         return executor.getReceipt();
     }
 
-    private Block createFakePendingBlock() {
+    private Block createFakePendingBlock(Block best) {
         // creating fake lightweight calculated block with no hashes calculations
         Block block = new Block(best.getHash(),
                 BlockchainImpl.EMPTY_LIST_HASH, // uncleHash
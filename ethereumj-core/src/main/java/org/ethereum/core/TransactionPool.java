@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.core;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.ByteUtil;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Pending transactions indexed for the pool maintenance:
+ * <ul>
+ *     <li>by hash for lookups</li>
+ *     <li>by sender, each sender has its transactions ordered by nonce</li>
+ *     <li>by arrival order which is the order they are applied to the pending state</li>
+ *     <li>by gas price for the eviction of the cheapest ones when the pool is full</li>
+ *     <li>by the block they were added at for dropping the outdated ones</li>
+ * </ul>
+ * Each operation costs O(log n) of the pool size or O(k log n) of the transactions it returns.
+ *
+ * Not thread safe, {@link PendingStateImpl} guards it
+ */
+public class TransactionPool {
+
+    private static class Entry {
+        final PendingTransaction tx;
+        final ByteArrayWrapper sender;
+        final long nonce;
+        final BigInteger gasPrice;
+        final long seq;
+
+        Entry(PendingTransaction tx, long seq) {
+            this.tx = tx;
+            this.sender = new ByteArrayWrapper(tx.getSender());
+            this.nonce = ByteUtil.byteArrayToLong(tx.getTransaction().getNonce());
+            this.gasPrice = ByteUtil.bytesToBigInteger(tx.getTransaction().getGasPrice());
+            this.seq = seq;
+        }
+    }
+
+    // sequence numbers are unique so they break ties
+    private static final Comparator<Entry> BY_PRICE = (e1, e2) -> {
+        int cmp = e1.gasPrice.compareTo(e2.gasPrice);
+        return cmp != 0 ? cmp : Long.compare(e1.seq, e2.seq);
+    };
+    private static final Comparator<Entry> BY_AGE = (e1, e2) -> {
+        int cmp = Long.compare(e1.tx.getBlockNumber(), e2.tx.getBlockNumber());
+        return cmp != 0 ? cmp : Long.compare(e1.seq, e2.seq);
+    };
+
+    private final int maxSize;
+    private final int maxPerSender;
+
+    private final Map<ByteArrayWrapper, Entry> byHash = new HashMap<>();
+    private final Map<ByteArrayWrapper, TreeMap<Long, Entry>> bySender = new HashMap<>();
+    private final TreeMap<Long, Entry> byArrival = new TreeMap<>();
+    private final TreeSet<Entry> byPrice = new TreeSet<>(BY_PRICE);
+    private final TreeSet<Entry> byAge = new TreeSet<>(BY_AGE);
+
+    // transactions returned from forked blocks go before all the others
+    private long firstSeq = 0;
+    private long nextSeq = 0;
+
+    private long addedCount = 0;
+    private long evictedCount = 0;
+    private long rejectedCount = 0;
+
+    public TransactionPool(int maxSize, int maxPerSender) {
+        this.maxSize = maxSize;
+        this.maxPerSender = maxPerSender;
+    }
+
+    public int size() {
+        return byHash.size();
+    }
+
+    public int getSendersCount() {
+        return bySender.size();
+    }
+
+    public boolean contains(byte[] txHash) {
+        return byHash.containsKey(new ByteArrayWrapper(txHash));
+    }
+
+    public PendingTransaction get(byte[] txHash) {
+        Entry entry = byHash.get(new ByteArrayWrapper(txHash));
+        return entry == null ? null : entry.tx;
+    }
+
+    /**
+     * @return sender's transactions ordered by nonce
+     */
+    public List<PendingTransaction> getBySender(byte[] sender) {
+        TreeMap<Long, Entry> queue = bySender.get(new ByteArrayWrapper(sender));
+        if (queue == null) return Collections.emptyList();
+        List<PendingTransaction> ret = new ArrayList<>(queue.size());
+        for (Entry entry : queue.values()) ret.add(entry.tx);
+        return ret;
+    }
+
+    /**
+     * @return all transactions in the order they are applied to the pending state
+     */
+    public List<PendingTransaction> getAll() {
+        List<PendingTransaction> ret = new ArrayList<>(size());
+        for (Entry entry : byArrival.values()) ret.add(entry.tx);
+        return ret;
+    }
+
+    /**
+     * Orders transactions for a block: the most paying ones go first
+     * while each sender's transactions keep the nonce order
+     */
+    public List<Transaction> getByPriceAndNonce() {
+        PriorityQueue<Entry> heads = new PriorityQueue<>(Math.max(1, bySender.size()), BY_PRICE.reversed());
+        Map<ByteArrayWrapper, Iterator<Entry>> rest = new HashMap<>();
+        for (Map.Entry<ByteArrayWrapper, TreeMap<Long, Entry>> queue : bySender.entrySet()) {
+            Iterator<Entry> it = queue.getValue().values().iterator();
+            heads.add(it.next());
+            rest.put(queue.getKey(), it);
+        }
+
+        List<Transaction> ret = new ArrayList<>(size());
+        while (!heads.isEmpty()) {
+            Entry head = heads.poll();
+            ret.add(head.tx.getTransaction());
+            Iterator<Entry> it = rest.get(head.sender);
+            if (it.hasNext()) heads.add(it.next());
+        }
+        return ret;
+    }
+
+    /**
+     * Checks the limits before the transaction is executed on the pending state:
+     * a sender can't exceed its limit and a full pool accepts only the transaction
+     * which pays more than the cheapest one from another sender
+     */
+    public boolean hasRoomFor(Transaction tx) {
+        ByteArrayWrapper sender = new ByteArrayWrapper(tx.getSender());
+        TreeMap<Long, Entry> queue = bySender.get(sender);
+        if (queue != null && queue.size() >= maxPerSender) {
+            rejectedCount++;
+            return false;
+        }
+        if (size() < maxSize) return true;
+
+        Entry cheapest = byPrice.first();
+        if (cheapest.sender.equals(sender) ||
+                cheapest.gasPrice.compareTo(ByteUtil.bytesToBigInteger(tx.getGasPrice())) >= 0) {
+            rejectedCount++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the transaction to the end of the pool, evicts the cheapest transactions
+     * of other senders if the pool is full. An evicted transaction takes
+     * the following transactions of its sender along as they can't be executed anymore
+     *
+     * @return evicted transactions
+     */
+    public List<PendingTransaction> add(PendingTransaction tx) {
+        Entry entry = new Entry(tx, nextSeq++);
+        List<PendingTransaction> evicted = new ArrayList<>();
+        while (size() >= maxSize && !byPrice.isEmpty()) {
+            Entry cheapest = byPrice.first();
+            if (cheapest.sender.equals(entry.sender) || cheapest.gasPrice.compareTo(entry.gasPrice) >= 0) break;
+            evicted.addAll(removeFrom(cheapest.sender, cheapest.nonce));
+        }
+        evictedCount += evicted.size();
+
+        // a transaction with the same sender and nonce is replaced
+        TreeMap<Long, Entry> queue = bySender.get(entry.sender);
+        Entry replaced = queue == null ? null : queue.get(entry.nonce);
+        if (replaced != null) {
+            delete(replaced);
+            evicted.add(replaced.tx);
+        }
+
+        insert(entry);
+        addedCount++;
+        return evicted;
+    }
+
+    /**
+     * Puts transactions before all the others keeping their order,
+     * these are the transactions returned from the forked blocks so the limits don't apply.
+     * Transactions which are already in the pool are skipped
+     */
+    public void addFirst(List<PendingTransaction> txs) {
+        for (int i = txs.size() - 1; i >= 0; i--) {
+            Entry entry = new Entry(txs.get(i), --firstSeq);
+            if (byHash.containsKey(new ByteArrayWrapper(entry.tx.getHash()))) continue;
+            TreeMap<Long, Entry> queue = bySender.get(entry.sender);
+            if (queue != null && queue.containsKey(entry.nonce)) continue;
+            insert(entry);
+        }
+    }
+
+    /**
+     * Removes the transaction occupying the sender's nonce which is not necessarily the same transaction
+     * @return removed transaction or <code>null</code>
+     */
+    public PendingTransaction remove(byte[] sender, long nonce) {
+        TreeMap<Long, Entry> queue = bySender.get(new ByteArrayWrapper(sender));
+        Entry entry = queue == null ? null : queue.get(nonce);
+        if (entry == null) return null;
+        delete(entry);
+        return entry.tx;
+    }
+
+    /**
+     * Removes transactions which were added before the block <code>blockNumber</code>
+     */
+    public List<PendingTransaction> removeAddedBefore(long blockNumber) {
+        List<PendingTransaction> ret = new ArrayList<>();
+        while (!byAge.isEmpty() && byAge.first().tx.getBlockNumber() < blockNumber) {
+            Entry entry = byAge.first();
+            delete(entry);
+            ret.add(entry.tx);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes sender's transactions having nonce lower than the account nonce
+     */
+    public List<PendingTransaction> removeStale(byte[] sender, long accountNonce) {
+        TreeMap<Long, Entry> queue = bySender.get(new ByteArrayWrapper(sender));
+        if (queue == null) return Collections.emptyList();
+        List<PendingTransaction> ret = new ArrayList<>();
+        for (Entry entry : new ArrayList<>(queue.headMap(accountNonce).values())) {
+            delete(entry);
+            ret.add(entry.tx);
+        }
+        return ret;
+    }
+
+    /**
+     * Removes sender's transactions starting from the nonce
+     */
+    public List<PendingTransaction> removeFrom(byte[] sender, long nonce) {
+        return removeFrom(new ByteArrayWrapper(sender), nonce);
+    }
+
+    private List<PendingTransaction> removeFrom(ByteArrayWrapper sender, long nonce) {
+        TreeMap<Long, Entry> queue = bySender.get(sender);
+        if (queue == null) return Collections.emptyList();
+        List<PendingTransaction> ret = new ArrayList<>();
+        for (Entry entry : new ArrayList<>(queue.tailMap(nonce).values())) {
+            delete(entry);
+            ret.add(entry.tx);
+        }
+        return ret;
+    }
+
+    private void insert(Entry entry) {
+        byHash.put(new ByteArrayWrapper(entry.tx.getHash()), entry);
+        bySender.computeIfAbsent(entry.sender, s -> new TreeMap<>()).put(entry.nonce, entry);
+        byArrival.put(entry.seq, entry);
+        byPrice.add(entry);
+        byAge.add(entry);
+    }
+
+    private void delete(Entry entry) {
+        byHash.remove(new ByteArrayWrapper(entry.tx.getHash()));
+        TreeMap<Long, Entry> queue = bySender.get(entry.sender);
+        queue.remove(entry.nonce);
+        if (queue.isEmpty()) bySender.remove(entry.sender);
+        byArrival.remove(entry.seq);
+        byPrice.remove(entry);
+        byAge.remove(entry);
+    }
+
+    /**
+     * @return number of transactions ever added to the end of the pool
+     */
+    public long getAddedCount() {
+        return addedCount;
+    }
+
+    /**
+     * @return number of transactions evicted by more paying ones
+     */
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * @return number of transactions which didn't fit the limits
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+}
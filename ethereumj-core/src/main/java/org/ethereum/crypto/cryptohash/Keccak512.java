@@ -64,6 +64,22 @@ public class Keccak512 extends KeccakCore {
 		super("eth-keccak-512");
 	}
 
+	/**
+	 * Computes the digest of up to 17 little-endian 32-bit words
+	 * into 16 words, without any allocation.
+	 *
+	 * @param in      the input words
+	 * @param inOff   the input offset
+	 * @param inLen   the input words count
+	 * @param out     the destination for the digest words
+	 * @param outOff  the destination offset
+	 * @param state   the scratch state of 25 lanes
+	 */
+	public static void digestWords(int[] in, int inOff, int inLen, int[] out, int outOff, long[] state)
+	{
+		digestWords(in, inOff, inLen, out, outOff, 8, 9, state);
+	}
+
 	/** @see Digest */
 	public Digest copy()
 	{
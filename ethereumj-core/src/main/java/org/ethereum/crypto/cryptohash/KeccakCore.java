@@ -132,7 +132,17 @@ abstract class KeccakCore extends DigestEngine{
 		/* Input block */
 		for (int i = 0; i < data.length; i += 8)
 			A[i >>> 3] ^= decodeLELong(data, i);
+		permute(A);
+	}
 
+	/**
+	 * Applies Keccak-f[1600] to the state {@code A} which
+	 * lanes 1, 2, 8, 12, 17 and 20 are kept complemented.
+	 *
+	 * @param A   the 25 lanes state
+	 */
+	static void permute(long[] A)
+	{
 		long t0, t1, t2, t3, t4;
 		long tt0, tt1, tt2, tt3, tt4;
 		long t, kt;
@@ -562,6 +572,51 @@ abstract class KeccakCore extends DigestEngine{
 		System.arraycopy(tmpOut, 0, out, off, dlen);
 	}
 
+	/**
+	 * Hashes the little-endian 32-bit words which fit into a single
+	 * block, without any allocation.
+	 *
+	 * @param in          the input words
+	 * @param inOff       the input offset
+	 * @param inLen       the input words count, less than {@code rateLanes * 2}
+	 * @param out         the destination for the digest words
+	 * @param outOff      the destination offset
+	 * @param digestLanes the digest length in 64-bit lanes
+	 * @param rateLanes   the block length in 64-bit lanes
+	 * @param A           the 25 lanes scratch state
+	 */
+	static void digestWords(int[] in, int inOff, int inLen, int[] out, int outOff,
+			int digestLanes, int rateLanes, long[] A)
+	{
+		if (inLen >= rateLanes * 2)
+			throw new IllegalArgumentException("Input exceeds a single block: " + inLen);
+		for (int i = 0; i < 25; i ++)
+			A[i] = 0;
+		int lanes = inLen >>> 1;
+		for (int i = 0; i < lanes; i ++)
+			A[i] = (in[inOff + 2 * i] & 0xFFFFFFFFL)
+				| ((long)in[inOff + 2 * i + 1] << 32);
+		if ((inLen & 1) != 0)
+			A[lanes] = (in[inOff + inLen - 1] & 0xFFFFFFFFL) | (0x01L << 32);
+		else
+			A[lanes] = 0x01L;
+		A[rateLanes - 1] ^= 0x80L << 56;
+		A[ 1] = ~A[ 1];
+		A[ 2] = ~A[ 2];
+		A[ 8] = ~A[ 8];
+		A[12] = ~A[12];
+		A[17] = ~A[17];
+		A[20] = ~A[20];
+		permute(A);
+		A[ 1] = ~A[ 1];
+		A[ 2] = ~A[ 2];
+		A[ 8] = ~A[ 8];
+		for (int i = 0; i < digestLanes; i ++) {
+			out[outOff + 2 * i] = (int)A[i];
+			out[outOff + 2 * i + 1] = (int)(A[i] >>> 32);
+		}
+	}
+
 	/** @see org.ethereum.crypto.cryptohash.DigestEngine */
 	protected void doInit()
 	{
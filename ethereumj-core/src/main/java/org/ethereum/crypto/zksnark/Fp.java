@@ -22,52 +22,280 @@ import java.math.BigInteger;
 import static org.ethereum.crypto.zksnark.Params.P;
 
 /**
- * Arithmetic in F_p, p = 21888242871839275222246405745257275088696311157297823662689037894645226208583
+ * Arithmetic in F_p, p = 21888242871839275222246405745257275088696311157297823662689037894645226208583 <br/>
+ * <br/>
+ *
+ * Elements are kept in Montgomery form {@code v * 2^256 mod p} as four 64-bit little-endian limbs,
+ * multiplication is done with the CIOS method, so no arithmetic allocates except for the result. <br/>
+ * Besides the immutable {@link Field} operations there are in-place {@code setXxx} ones
+ * which store the result into {@code this}, operands may be {@code this} as well.
+ * In-place operations should only be applied to privately owned instances, never to the constants <br/>
  *
  * @author Mikhail Kalinin
  * @since 01.09.2017
  */
 public class Fp implements Field<Fp> {
 
+    // p limbs
+    private static final long P0 = 0x3c208c16d87cfd47L;
+    private static final long P1 = 0x97816a916871ca8dL;
+    private static final long P2 = 0xb85045b68181585dL;
+    private static final long P3 = 0x30644e72e131a029L;
+
+    // -p^-1 mod 2^64
+    private static final long INV = 0x87d20782e4866389L;
+
+    // 2^512 mod p, Montgomery multiplication by it converts a value to Montgomery form
+    private static final Fp R2 = raw(0xf32cfc5b538afa89L, 0xb5e71911d44501fbL, 0x47ab1eff0a417ff6L, 0x06d89f71cab8351fL);
+
     static final Fp ZERO = new Fp(BigInteger.ZERO);
     static final Fp _1 = new Fp(BigInteger.ONE);
     static final Fp NON_RESIDUE = new Fp(new BigInteger("21888242871839275222246405745257275088696311157297823662689037894645226208582"));
 
     static final Fp _2_INV = new Fp(BigInteger.valueOf(2).modInverse(P));
 
-    BigInteger v;
+    long v0, v1, v2, v3;
 
-    Fp(BigInteger v) { this.v = v; }
+    Fp() {}
+
+    Fp(BigInteger v) { setRaw(v).setMul(this, R2); }
+
+    private static Fp raw(long v0, long v1, long v2, long v3) {
+        Fp ret = new Fp();
+        ret.v0 = v0; ret.v1 = v1; ret.v2 = v2; ret.v3 = v3;
+        return ret;
+    }
 
-    @Override public Fp add(Fp o) { return new Fp(this.v.add(o.v).mod(P)); }
-    @Override public Fp mul(Fp o) { return new Fp(this.v.multiply(o.v).mod(P)); }
-    @Override public Fp sub(Fp o) { return new Fp(this.v.subtract(o.v).mod(P)); }
-    @Override public Fp squared() { return new Fp(v.multiply(v).mod(P)); }
-    @Override public Fp dbl() { return new Fp(v.add(v).mod(P)); }
-    @Override public Fp inverse() { return new Fp(v.modInverse(P)); }
-    @Override public Fp negate() { return new Fp(v.negate().mod(P)); }
-    @Override public boolean isZero() { return v.compareTo(BigInteger.ZERO) == 0; }
+    @Override public Fp add(Fp o) { return new Fp().setAdd(this, o); }
+    @Override public Fp mul(Fp o) { return new Fp().setMul(this, o); }
+    @Override public Fp sub(Fp o) { return new Fp().setSub(this, o); }
+    @Override public Fp squared() { return new Fp().setMul(this, this); }
+    @Override public Fp dbl() { return new Fp().setAdd(this, this); }
+    @Override public Fp inverse() { return new Fp(toBigInteger().modInverse(P)); }
+    @Override public Fp negate() { return new Fp().setNegate(this); }
+    @Override public boolean isZero() { return (v0 | v1 | v2 | v3) == 0; }
 
     /**
      * Checks if provided value is a valid Fp member
      */
     @Override
     public boolean isValid() {
-        return v.compareTo(P) < 0;
+        return !isNotLessThanP(v0, v1, v2, v3);
     }
 
     Fp2 mul(Fp2 o) { return new Fp2(o.a.mul(this), o.b.mul(this)); }
 
+    Fp set(Fp o) {
+        v0 = o.v0; v1 = o.v1; v2 = o.v2; v3 = o.v3;
+        return this;
+    }
+
+    Fp setAdd(Fp x, Fp y) {
+        // both are less than p < 2^254, so the sum fits into four limbs
+        long r0 = x.v0 + y.v0;
+        long c = lessUnsigned(r0, x.v0) ? 1 : 0;
+        long r1 = x.v1 + y.v1;
+        long c1 = lessUnsigned(r1, x.v1) ? 1 : 0;
+        r1 += c;
+        c = c1 + (lessUnsigned(r1, c) ? 1 : 0);
+        long r2 = x.v2 + y.v2;
+        long c2 = lessUnsigned(r2, x.v2) ? 1 : 0;
+        r2 += c;
+        c = c2 + (lessUnsigned(r2, c) ? 1 : 0);
+        long r3 = x.v3 + y.v3 + c;
+        return setReduced(r0, r1, r2, r3);
+    }
+
+    Fp setSub(Fp x, Fp y) {
+        long r0 = x.v0 - y.v0;
+        long b = lessUnsigned(x.v0, y.v0) ? 1 : 0;
+        long r1 = x.v1 - y.v1 - b;
+        b = lessUnsigned(x.v1, y.v1) || (b != 0 && x.v1 == y.v1) ? 1 : 0;
+        long r2 = x.v2 - y.v2 - b;
+        b = lessUnsigned(x.v2, y.v2) || (b != 0 && x.v2 == y.v2) ? 1 : 0;
+        long r3 = x.v3 - y.v3 - b;
+        b = lessUnsigned(x.v3, y.v3) || (b != 0 && x.v3 == y.v3) ? 1 : 0;
+
+        if (b != 0) {
+            // wrapped around 2^256, add p back
+            long s0 = r0 + P0;
+            long c = lessUnsigned(s0, r0) ? 1 : 0;
+            long s1 = r1 + P1;
+            long c1 = lessUnsigned(s1, r1) ? 1 : 0;
+            s1 += c;
+            c = c1 + (lessUnsigned(s1, c) ? 1 : 0);
+            long s2 = r2 + P2;
+            long c2 = lessUnsigned(s2, r2) ? 1 : 0;
+            s2 += c;
+            c = c2 + (lessUnsigned(s2, c) ? 1 : 0);
+            r0 = s0; r1 = s1; r2 = s2; r3 = r3 + P3 + c;
+        }
+        v0 = r0; v1 = r1; v2 = r2; v3 = r3;
+        return this;
+    }
+
+    Fp setNegate(Fp x) {
+        if (x.isZero()) return set(x);
+        long r0 = P0 - x.v0;
+        long b = lessUnsigned(P0, x.v0) ? 1 : 0;
+        long r1 = P1 - x.v1 - b;
+        b = lessUnsigned(P1, x.v1) || (b != 0 && P1 == x.v1) ? 1 : 0;
+        long r2 = P2 - x.v2 - b;
+        b = lessUnsigned(P2, x.v2) || (b != 0 && P2 == x.v2) ? 1 : 0;
+        v0 = r0; v1 = r1; v2 = r2; v3 = P3 - x.v3 - b;
+        return this;
+    }
+
+    Fp setDbl(Fp x) {
+        return setAdd(x, x);
+    }
+
+    Fp setSquared(Fp x) {
+        return setMul(x, x);
+    }
+
+    /**
+     * Montgomery multiplication {@code x * y * 2^-256 mod p}, operands are read into locals first
+     * thus any of them may be {@code this}
+     */
+    Fp setMul(Fp x, Fp y) {
+        long x0 = x.v0, x1 = x.v1, x2 = x.v2, x3 = x.v3;
+        long y0 = y.v0, y1 = y.v1, y2 = y.v2, y3 = y.v3;
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0;
+
+        for (int i = 0; i < 4; i++) {
+            long yi = i == 0 ? y0 : i == 1 ? y1 : i == 2 ? y2 : y3;
+            long lo, hi, c, t5;
+
+            // t += x * yi
+            lo = x0 * yi; hi = mulHigh(x0, yi);
+            lo += t0; hi += lessUnsigned(lo, t0) ? 1 : 0;
+            t0 = lo; c = hi;
+
+            lo = x1 * yi; hi = mulHigh(x1, yi);
+            lo += t1; hi += lessUnsigned(lo, t1) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t1 = lo; c = hi;
+
+            lo = x2 * yi; hi = mulHigh(x2, yi);
+            lo += t2; hi += lessUnsigned(lo, t2) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t2 = lo; c = hi;
+
+            lo = x3 * yi; hi = mulHigh(x3, yi);
+            lo += t3; hi += lessUnsigned(lo, t3) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t3 = lo; c = hi;
+
+            t4 += c;
+            t5 = lessUnsigned(t4, c) ? 1 : 0;
+
+            // t = (t + m * p) / 2^64, where m makes the lowest limb zero
+            long m = t0 * INV;
+            hi = mulHigh(m, P0);
+            c = hi + (t0 != 0 ? 1 : 0);
+
+            lo = m * P1; hi = mulHigh(m, P1);
+            lo += t1; hi += lessUnsigned(lo, t1) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t0 = lo; c = hi;
+
+            lo = m * P2; hi = mulHigh(m, P2);
+            lo += t2; hi += lessUnsigned(lo, t2) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t1 = lo; c = hi;
+
+            lo = m * P3; hi = mulHigh(m, P3);
+            lo += t3; hi += lessUnsigned(lo, t3) ? 1 : 0;
+            lo += c; hi += lessUnsigned(lo, c) ? 1 : 0;
+            t2 = lo; c = hi;
+
+            t3 = t4 + c;
+            t4 = t5 + (lessUnsigned(t3, c) ? 1 : 0);
+        }
+
+        // the result is less than 2p < 2^256, so t4 is zero here
+        return setReduced(t0, t1, t2, t3);
+    }
+
+    /**
+     * Sets the value which is less than 2p subtracting p if needed
+     */
+    private Fp setReduced(long r0, long r1, long r2, long r3) {
+        if (isNotLessThanP(r0, r1, r2, r3)) {
+            long b = lessUnsigned(r0, P0) ? 1 : 0;
+            r0 -= P0;
+            long b1 = lessUnsigned(r1, P1) || (b != 0 && r1 == P1) ? 1 : 0;
+            r1 = r1 - P1 - b;
+            long b2 = lessUnsigned(r2, P2) || (b1 != 0 && r2 == P2) ? 1 : 0;
+            r2 = r2 - P2 - b1;
+            r3 = r3 - P3 - b2;
+        }
+        v0 = r0; v1 = r1; v2 = r2; v3 = r3;
+        return this;
+    }
+
+    private Fp setRaw(BigInteger v) {
+        if (v.bitLength() > 256) {
+            // never a field member
+            v0 = v1 = v2 = v3 = -1;
+        } else {
+            v0 = v.longValue();
+            v1 = v.shiftRight(64).longValue();
+            v2 = v.shiftRight(128).longValue();
+            v3 = v.shiftRight(192).longValue();
+        }
+        return this;
+    }
+
+    BigInteger toBigInteger() {
+        // Montgomery multiplication by 1 converts the value back
+        Fp v = new Fp().setMul(this, raw(1, 0, 0, 0));
+        byte[] bytes = new byte[33];
+        long[] limbs = {v.v3, v.v2, v.v1, v.v0};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < 8; j++) {
+                bytes[1 + i * 8 + j] = (byte) (limbs[i] >>> (56 - 8 * j));
+            }
+        }
+        return new BigInteger(bytes);
+    }
+
+    private static boolean isNotLessThanP(long r0, long r1, long r2, long r3) {
+        if (r3 != P3) return lessUnsigned(P3, r3);
+        if (r2 != P2) return lessUnsigned(P2, r2);
+        if (r1 != P1) return lessUnsigned(P1, r1);
+        return !lessUnsigned(r0, P0);
+    }
+
+    private static boolean lessUnsigned(long a, long b) {
+        return (a + Long.MIN_VALUE) < (b + Long.MIN_VALUE);
+    }
+
+    /**
+     * High 64 bits of the unsigned 128-bit product
+     */
+    private static long mulHigh(long a, long b) {
+        long a0 = a & 0xFFFFFFFFL, a1 = a >>> 32;
+        long b0 = b & 0xFFFFFFFFL, b1 = b >>> 32;
+        long t = a1 * b0 + ((a0 * b0) >>> 32);
+        long w = (t & 0xFFFFFFFFL) + a0 * b1;
+        return a1 * b1 + (t >>> 32) + (w >>> 32);
+    }
+
     static Fp create(byte[] v) {
-        return new Fp(new BigInteger(1, v));
+        return create(new BigInteger(1, v));
     }
 
+    /**
+     * Values which are not less than p are kept as is so {@link #isValid()} detects them
+     */
     static Fp create(BigInteger v) {
-        return new Fp(v);
+        return v.compareTo(P) < 0 ? new Fp(v) : new Fp().setRaw(v);
     }
 
     public byte[] bytes() {
-        return v.toByteArray();
+        return toBigInteger().toByteArray();
     }
 
     @Override
@@ -77,11 +305,11 @@ public class Fp implements Field<Fp> {
 
         Fp fp = (Fp) o;
 
-        return !(v != null ? v.compareTo(fp.v) != 0 : fp.v != null);
+        return v0 == fp.v0 && v1 == fp.v1 && v2 == fp.v2 && v3 == fp.v3;
     }
 
     @Override
     public String toString() {
-        return v.toString();
+        return toBigInteger().toString();
     }
 }
@@ -27,7 +27,11 @@ import java.math.BigInteger;
  * elements of Fp_12 are represented with 2 elements of {@link Fp6} <br/>
  * <br/>
  *
- * Field arithmetic is ported from <a href="https://github.com/scipr-lab/libff/blob/master/libff/algebra/fields/fp12_2over3over2.tcc">libff</a>
+ * Field arithmetic is ported from <a href="https://github.com/scipr-lab/libff/blob/master/libff/algebra/fields/fp12_2over3over2.tcc">libff</a> <br/>
+ * <br/>
+ *
+ * In-place {@code setXxx} operations follow {@link Fp} rules, they only reuse per-thread temporaries,
+ * so Miller loop and final exponentiation accumulate into a single instance
  *
  * @author Mikhail Kalinin
  * @since 02.09.2017
@@ -37,23 +41,38 @@ class Fp12 implements Field<Fp12> {
     static final Fp12 ZERO = new Fp12(Fp6.ZERO, Fp6.ZERO);
     static final Fp12 _1 = new Fp12(Fp6._1, Fp6.ZERO);
 
-    Fp6 a;
-    Fp6 b;
+    private static final ThreadLocal<Temps> TMP = ThreadLocal.withInitial(Temps::new);
+
+    private static class Temps {
+        final Fp6[] fp6 = {new Fp6(), new Fp6(), new Fp6()};
+        final Fp2[] fp2 = new Fp2[16];
+        {
+            for (int i = 0; i < fp2.length; i++) fp2[i] = new Fp2();
+        }
+    }
+
+    final Fp6 a;
+    final Fp6 b;
+
+    Fp12() {
+        this(new Fp6(), new Fp6());
+    }
 
     Fp12 (Fp6 a, Fp6 b) {
         this.a = a;
         this.b = b;
     }
 
+    /**
+     * @return instance which doesn't share any components with this one
+     */
+    Fp12 copy() {
+        return new Fp12().set(this);
+    }
+
     @Override
     public Fp12 squared() {
-
-        Fp6 ab = a.mul(b);
-
-        Fp6 ra = a.add(b).mul(a.add(b.mulByNonResidue())).sub(ab).sub(ab.mulByNonResidue());
-        Fp6 rb = ab.add(ab);
-
-        return new Fp12(ra, rb);
+        return new Fp12().setSquared(this);
     }
 
     @Override
@@ -62,6 +81,62 @@ class Fp12 implements Field<Fp12> {
     }
 
     Fp12 mulBy024(Fp2 ell0, Fp2 ellVW, Fp2 ellVV) {
+        return copy().setMulBy024(ell0, ellVW, ellVV);
+    }
+
+    @Override
+    public Fp12 add(Fp12 o) {
+        return new Fp12(a.add(o.a), b.add(o.b));
+    }
+
+    @Override
+    public Fp12 mul(Fp12 o) {
+        return new Fp12().setMul(this, o);
+    }
+
+    @Override
+    public Fp12 sub(Fp12 o) {
+        return new Fp12(a.sub(o.a), b.sub(o.b));
+    }
+
+    Fp12 set(Fp12 o) {
+        a.set(o.a);
+        b.set(o.b);
+        return this;
+    }
+
+    Fp12 setMul(Fp12 x, Fp12 y) {
+
+        Fp6[] t = TMP.get().fp6;
+        Fp6 a1a2 = t[0].setMul(x.a, y.a);
+        Fp6 b1b2 = t[1].setMul(x.b, y.b);
+
+        // rb = (a1 + b1)(a2 + b2) - a1a2 - b1b2
+        Fp6 s = t[2].setAdd(x.a, x.b);
+        b.setAdd(y.a, y.b).setMul(b, s).setSub(b, a1a2).setSub(b, b1b2);
+        // ra = a1a2 + NON_RESIDUE * b1b2
+        a.setMulByNonResidue(b1b2).setAdd(a, a1a2);
+        return this;
+    }
+
+    Fp12 setSquared(Fp12 x) {
+
+        Fp6[] t = TMP.get().fp6;
+        Fp6 ab = t[0].setMul(x.a, x.b);
+
+        // ra = (a + b)(a + NON_RESIDUE * b) - ab - NON_RESIDUE * ab
+        Fp6 s = t[1].setMulByNonResidue(x.b).setAdd(t[1], x.a);
+        a.setAdd(x.a, x.b).setMul(a, s).setSub(a, ab).setSub(a, t[2].setMulByNonResidue(ab));
+        b.setAdd(ab, ab);
+        return this;
+    }
+
+    /**
+     * Multiplies this by a sparse element which has only components 0, 2 and 4 set
+     */
+    Fp12 setMulBy024(Fp2 ell0, Fp2 ellVW, Fp2 ellVV) {
+
+        Fp2[] t = TMP.get().fp2;
 
         Fp2 z0 = a.a;
         Fp2 z1 = a.b;
@@ -74,89 +149,66 @@ class Fp12 implements Field<Fp12> {
         Fp2 x2 = ellVV;
         Fp2 x4 = ellVW;
 
-        Fp2 t0, t1, t2, s0, t3, t4, d0, d2, d4, s1;
+        Fp2 t0 = t[0], t1 = t[1], t2 = t[2], s0 = t[3], t3 = t[4], t4 = t[5];
+        Fp2 d0 = t[6], d2 = t[7], d4 = t[8], s1 = t[9];
+        Fp2 r0 = t[10], r1 = t[11], r2 = t[12], r3 = t[13], r4 = t[14];
 
-        d0 = z0.mul(x0);
-        d2 = z2.mul(x2);
-        d4 = z4.mul(x4);
-        t2 = z0.add(z4);
-        t1 = z0.add(z2);
-        s0 = z1.add(z3).add(z5);
+        d0.setMul(z0, x0);
+        d2.setMul(z2, x2);
+        d4.setMul(z4, x4);
+        t2.setAdd(z0, z4);
+        t1.setAdd(z0, z2);
+        s0.setAdd(z1, z3).setAdd(s0, z5);
 
         // For z.a_.a_ = z0.
-        s1 = z1.mul(x2);
-        t3 = s1.add(d4);
-        t4 = Fp6.NON_RESIDUE.mul(t3).add(d0);
-        z0 = t4;
+        s1.setMul(z1, x2);
+        t3.setAdd(s1, d4);
+        r0.setMulByNonResidue(t3).setAdd(r0, d0);
 
         // For z.a_.b_ = z1
-        t3 = z5.mul(x4);
-        s1 = s1.add(t3);
-        t3 = t3.add(d2);
-        t4 = Fp6.NON_RESIDUE.mul(t3);
-        t3 = z1.mul(x0);
-        s1 = s1.add(t3);
-        t4 = t4.add(t3);
-        z1 = t4;
+        t3.setMul(z5, x4);
+        s1.setAdd(s1, t3);
+        t3.setAdd(t3, d2);
+        t4.setMulByNonResidue(t3);
+        t3.setMul(z1, x0);
+        s1.setAdd(s1, t3);
+        r1.setAdd(t4, t3);
 
         // For z.a_.c_ = z2
-        t0 = x0.add(x2);
-        t3 = t1.mul(t0).sub(d0).sub(d2);
-        t4 = z3.mul(x4);
-        s1 = s1.add(t4);
-        t3 = t3.add(t4);
+        t0.setAdd(x0, x2);
+        t3.setMul(t1, t0).setSub(t3, d0).setSub(t3, d2);
+        t4.setMul(z3, x4);
+        s1.setAdd(s1, t4);
+        r2.setAdd(t3, t4);
 
         // For z.b_.a_ = z3 (z3 needs z2)
-        t0 = z2.add(z4);
-        z2 = t3;
-        t1 = x2.add(x4);
-        t3 = t0.mul(t1).sub(d2).sub(d4);
-        t4 = Fp6.NON_RESIDUE.mul(t3);
-        t3 = z3.mul(x0);
-        s1 = s1.add(t3);
-        t4 = t4.add(t3);
-        z3 = t4;
+        t0.setAdd(z2, z4);
+        t1.setAdd(x2, x4);
+        t3.setMul(t0, t1).setSub(t3, d2).setSub(t3, d4);
+        t4.setMulByNonResidue(t3);
+        t3.setMul(z3, x0);
+        s1.setAdd(s1, t3);
+        r3.setAdd(t4, t3);
 
         // For z.b_.b_ = z4
-        t3 = z5.mul(x2);
-        s1 = s1.add(t3);
-        t4 = Fp6.NON_RESIDUE.mul(t3);
-        t0 = x0.add(x4);
-        t3 = t2.mul(t0).sub(d0).sub(d4);
-        t4 = t4.add(t3);
-        z4 = t4;
+        t3.setMul(z5, x2);
+        s1.setAdd(s1, t3);
+        t4.setMulByNonResidue(t3);
+        t0.setAdd(x0, x4);
+        t3.setMul(t2, t0).setSub(t3, d0).setSub(t3, d4);
+        r4.setAdd(t4, t3);
 
         // For z.b_.c_ = z5.
-        t0 = x0.add(x2).add(x4);
-        t3 = s0.mul(t0).sub(s1);
-        z5 = t3;
-
-        return new Fp12(new Fp6(z0, z1, z2), new Fp6(z3, z4, z5));
-    }
-
-    @Override
-    public Fp12 add(Fp12 o) {
-        return new Fp12(a.add(o.a), b.add(o.b));
-    }
-
-    @Override
-    public Fp12 mul(Fp12 o) {
+        t0.setAdd(x0, x2).setAdd(t0, x4);
+        z5.setMul(s0, t0).setSub(z5, s1);
 
-        Fp6 a2 = o.a, b2 = o.b;
-        Fp6 a1 = a,   b1 = b;
-
-        Fp6 a1a2 = a1.mul(a2);
-        Fp6 b1b2 = b1.mul(b2);
-
-        Fp6 ra = a1a2.add(b1b2.mulByNonResidue());
-        Fp6 rb = a1.add(b1).mul(a2.add(b2)).sub(a1a2).sub(b1b2);
-
-        return new Fp12(ra, rb);
-    }
+        z0.set(r0);
+        z1.set(r1);
+        z2.set(r2);
+        z3.set(r3);
+        z4.set(r4);
 
-    @Override
-    public Fp12 sub(Fp12 o) {
-        return new Fp12(a.sub(o.a), b.sub(o.b));
+        return this;
     }
 
     @Override
@@ -189,15 +241,24 @@ class Fp12 implements Field<Fp12> {
     }
 
     Fp12 frobeniusMap(int power) {
+        return new Fp12().setFrobeniusMap(this, power);
+    }
 
-        Fp6 ra = a.frobeniusMap(power);
-        Fp6 rb = b.frobeniusMap(power).mul(FROBENIUS_COEFFS_B[power % 12]);
-
-        return new Fp12(ra, rb);
+    Fp12 setFrobeniusMap(Fp12 x, int power) {
+        a.setFrobeniusMap(x.a, power);
+        b.setFrobeniusMap(x.b, power).setMul(b, FROBENIUS_COEFFS_B[power % 12]);
+        return this;
     }
 
     Fp12 cyclotomicSquared() {
-        
+        return copy().setCyclotomicSquared();
+    }
+
+    /**
+     * Squares this element of the cyclotomic subgroup in place
+     */
+    Fp12 setCyclotomicSquared() {
+
         Fp2 z0 = a.a;
         Fp2 z4 = a.b;
         Fp2 z3 = a.c;
@@ -205,69 +266,63 @@ class Fp12 implements Field<Fp12> {
         Fp2 z1 = b.b;
         Fp2 z5 = b.c;
 
-        Fp2 t0, t1, t2, t3, t4, t5, tmp;
+        Fp2[] t = TMP.get().fp2;
+        Fp2 t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3], t4 = t[4], t5 = t[5], tmp = t[6];
 
         // t0 + t1*y = (z0 + z1*y)^2 = a^2
-        tmp = z0.mul(z1);
-        t0 = z0.add(z1).mul(z0.add(Fp6.NON_RESIDUE.mul(z1))).sub(tmp).sub(Fp6.NON_RESIDUE.mul(tmp));
-        t1 = tmp.add(tmp);
+        squareFp4(z0, z1, t0, t1, t[7]);
         // t2 + t3*y = (z2 + z3*y)^2 = b^2
-        tmp = z2.mul(z3);
-        t2 = z2.add(z3).mul(z2.add(Fp6.NON_RESIDUE.mul(z3))).sub(tmp).sub(Fp6.NON_RESIDUE.mul(tmp));
-        t3 = tmp.add(tmp);
+        squareFp4(z2, z3, t2, t3, t[7]);
         // t4 + t5*y = (z4 + z5*y)^2 = c^2
-        tmp = z4.mul(z5);
-        t4 = z4.add(z5).mul(z4.add(Fp6.NON_RESIDUE.mul(z5))).sub(tmp).sub(Fp6.NON_RESIDUE.mul(tmp));
-        t5 = tmp.add(tmp);
+        squareFp4(z4, z5, t4, t5, t[7]);
 
         // for A
 
         // z0 = 3 * t0 - 2 * z0
-        z0 = t0.sub(z0);
-        z0 = z0.add(z0);
-        z0 = z0.add(t0);
+        z0.setSub(t0, z0).setDbl(z0).setAdd(z0, t0);
         // z1 = 3 * t1 + 2 * z1
-        z1 = t1.add(z1);
-        z1 = z1.add(z1);
-        z1 = z1.add(t1);
+        z1.setAdd(t1, z1).setDbl(z1).setAdd(z1, t1);
 
         // for B
 
         // z2 = 3 * (xi * t5) + 2 * z2
-        tmp = Fp6.NON_RESIDUE.mul(t5);
-        z2 = tmp.add(z2);
-        z2 = z2.add(z2);
-        z2 = z2.add(tmp);
+        tmp.setMulByNonResidue(t5);
+        z2.setAdd(tmp, z2).setDbl(z2).setAdd(z2, tmp);
 
         // z3 = 3 * t4 - 2 * z3
-        z3 = t4.sub(z3);
-        z3 = z3.add(z3);
-        z3 = z3.add(t4);
+        z3.setSub(t4, z3).setDbl(z3).setAdd(z3, t4);
 
         // for C
 
         // z4 = 3 * t2 - 2 * z4
-        z4 = t2.sub(z4);
-        z4 = z4.add(z4);
-        z4 = z4.add(t2);
+        z4.setSub(t2, z4).setDbl(z4).setAdd(z4, t2);
 
         // z5 = 3 * t3 + 2 * z5
-        z5 = t3.add(z5);
-        z5 = z5.add(z5);
-        z5 = z5.add(t3);
-        
-        return new Fp12(new Fp6(z0, z4, z3), new Fp6(z2, z1, z5));
+        z5.setAdd(t3, z5).setDbl(z5).setAdd(z5, t3);
+
+        return this;
+    }
+
+    /**
+     * (x + y*w)^2 = rx + ry*w, where w^2 = NON_RESIDUE:
+     * rx = (x + y)(x + NON_RESIDUE * y) - xy - NON_RESIDUE * xy, ry = 2xy
+     */
+    private static void squareFp4(Fp2 x, Fp2 y, Fp2 rx, Fp2 ry, Fp2 tmp) {
+        Fp2 xy = ry.setMul(x, y);
+        tmp.setMulByNonResidue(y).setAdd(tmp, x);
+        rx.setAdd(x, y).setMul(rx, tmp).setSub(rx, xy).setSub(rx, tmp.setMulByNonResidue(xy));
+        ry.setDbl(xy);
     }
 
     Fp12 cyclotomicExp(BigInteger pow) {
 
-        Fp12 res = _1;
+        Fp12 res = _1.copy();
 
         for (int i = pow.bitLength() - 1; i >=0; i--) {
-            res = res.cyclotomicSquared();
+            res.setCyclotomicSquared();
 
             if (pow.testBit(i)) {
-                res = res.mul(this);
+                res.setMul(res, this);
             }
         }
 
@@ -275,15 +330,16 @@ class Fp12 implements Field<Fp12> {
     }
 
     Fp12 unitaryInverse() {
+        return copy().setUnitaryInverse();
+    }
 
-        Fp6 ra = a;
-        Fp6 rb = b.negate();
-
-        return new Fp12(ra, rb);
+    Fp12 setUnitaryInverse() {
+        b.setNegate(b);
+        return this;
     }
 
     Fp12 negExp(BigInteger exp) {
-        return this.cyclotomicExp(exp).unitaryInverse();
+        return this.cyclotomicExp(exp).setUnitaryInverse();
     }
 
     @Override
@@ -28,6 +28,9 @@ import java.math.BigInteger;
  * <br/>
  *
  * Field arithmetic is ported from <a href="https://github.com/scipr-lab/libff/blob/master/libff/algebra/fields/fp2.tcc">libff</a> <br/>
+ * <br/>
+ *
+ * In-place {@code setXxx} operations follow {@link Fp} rules, they only reuse per-thread temporaries <br/>
  *
  * @author Mikhail Kalinin
  * @since 01.09.2017
@@ -43,8 +46,14 @@ class Fp2 implements Field<Fp2> {
             new Fp(new BigInteger("21888242871839275222246405745257275088696311157297823662689037894645226208582"))
     };
 
-    Fp a;
-    Fp b;
+    private static final ThreadLocal<Fp[]> TMP = ThreadLocal.withInitial(() -> new Fp[] {new Fp(), new Fp(), new Fp()});
+
+    final Fp a;
+    final Fp b;
+
+    Fp2() {
+        this(new Fp(), new Fp());
+    }
 
     Fp2(Fp a, Fp b) {
         this.a = a;
@@ -57,43 +66,90 @@ class Fp2 implements Field<Fp2> {
 
     @Override
     public Fp2 squared() {
-
-        // using Complex squaring
-
-        Fp ab = a.mul(b);
-
-        Fp ra = a.add(b).mul(b.mul(Fp.NON_RESIDUE).add(a))
-                .sub(ab).sub(ab.mul(Fp.NON_RESIDUE)); // ra = (a + b)(a + NON_RESIDUE * b) - ab - NON_RESIDUE * b
-        Fp rb = ab.dbl();
-
-        return new Fp2(ra, rb);
+        return new Fp2().setSquared(this);
     }
 
     @Override
     public Fp2 mul(Fp2 o) {
-
-        Fp aa = a.mul(o.a);
-        Fp bb = b.mul(o.b);
-
-        Fp ra = bb.mul(Fp.NON_RESIDUE).add(aa);    // ra = a1 * a2 + NON_RESIDUE * b1 * b2
-        Fp rb = a.add(b).mul(o.a.add(o.b)).sub(aa).sub(bb);     // rb = (a1 + b1)(a2 + b2) - a1 * a2 - b1 * b2
-
-        return new Fp2(ra, rb);
+        return new Fp2().setMul(this, o);
     }
 
     @Override
     public Fp2 add(Fp2 o) {
-        return new Fp2(a.add(o.a), b.add(o.b));
+        return new Fp2().setAdd(this, o);
     }
 
     @Override
     public Fp2 sub(Fp2 o) {
-        return new Fp2(a.sub(o.a), b.sub(o.b));
+        return new Fp2().setSub(this, o);
     }
 
     @Override
     public Fp2 dbl() {
-        return this.add(this);
+        return new Fp2().setAdd(this, this);
+    }
+
+    Fp2 set(Fp2 o) {
+        a.set(o.a);
+        b.set(o.b);
+        return this;
+    }
+
+    Fp2 setAdd(Fp2 x, Fp2 y) {
+        a.setAdd(x.a, y.a);
+        b.setAdd(x.b, y.b);
+        return this;
+    }
+
+    Fp2 setSub(Fp2 x, Fp2 y) {
+        a.setSub(x.a, y.a);
+        b.setSub(x.b, y.b);
+        return this;
+    }
+
+    Fp2 setDbl(Fp2 x) {
+        return setAdd(x, x);
+    }
+
+    Fp2 setNegate(Fp2 x) {
+        a.setNegate(x.a);
+        b.setNegate(x.b);
+        return this;
+    }
+
+    Fp2 setMul(Fp2 x, Fp2 y) {
+        Fp[] t = TMP.get();
+        Fp aa = t[0].setMul(x.a, y.a);
+        Fp bb = t[1].setMul(x.b, y.b);
+        Fp s = t[2].setAdd(x.a, x.b);
+
+        // rb = (a1 + b1)(a2 + b2) - a1 * a2 - b1 * b2
+        b.setAdd(y.a, y.b).setMul(b, s).setSub(b, aa).setSub(b, bb);
+        // ra = a1 * a2 + NON_RESIDUE * b1 * b2, NON_RESIDUE is -1
+        a.setSub(aa, bb);
+        return this;
+    }
+
+    /**
+     * Multiplies both components by {@code y}
+     */
+    Fp2 setMul(Fp2 x, Fp y) {
+        a.setMul(x.a, y);
+        b.setMul(x.b, y);
+        return this;
+    }
+
+    Fp2 setSquared(Fp2 x) {
+
+        // using Complex squaring: ra = (a + b)(a - b), rb = 2ab
+
+        Fp[] t = TMP.get();
+        Fp ab = t[0].setMul(x.a, x.b);
+        Fp s = t[1].setSub(x.a, x.b);
+
+        a.setAdd(x.a, x.b).setMul(a, s);
+        b.setAdd(ab, ab);
+        return this;
     }
 
     @Override
@@ -112,7 +168,7 @@ class Fp2 implements Field<Fp2> {
 
     @Override
     public Fp2 negate() {
-        return new Fp2(a.negate(), b.negate());
+        return new Fp2().setNegate(this);
     }
 
     @Override
@@ -154,15 +210,29 @@ class Fp2 implements Field<Fp2> {
     }
 
     Fp2 frobeniusMap(int power) {
+        return new Fp2().setFrobeniusMap(this, power);
+    }
 
-        Fp ra = a;
-        Fp rb = FROBENIUS_COEFFS_B[power % 2].mul(b);
-
-        return new Fp2(ra, rb);
+    Fp2 setFrobeniusMap(Fp2 x, int power) {
+        a.set(x.a);
+        b.setMul(x.b, FROBENIUS_COEFFS_B[power % 2]);
+        return this;
     }
 
     Fp2 mulByNonResidue() {
-        return NON_RESIDUE.mul(this);
+        return new Fp2().setMulByNonResidue(this);
+    }
+
+    /**
+     * Multiplies by NON_RESIDUE = 9 + i: ra = 9a - b, rb = a + 9b
+     */
+    Fp2 setMulByNonResidue(Fp2 x) {
+        Fp[] t = TMP.get();
+        Fp ra = t[0].setDbl(x.a).setDbl(t[0]).setDbl(t[0]).setAdd(t[0], x.a).setSub(t[0], x.b);
+        Fp rb = t[1].setDbl(x.b).setDbl(t[1]).setDbl(t[1]).setAdd(t[1], x.b).setAdd(t[1], x.a);
+        a.set(ra);
+        b.set(rb);
+        return this;
     }
 
     @Override
@@ -27,7 +27,10 @@ import java.math.BigInteger;
  * elements of Fp_6 are represented with 3 elements of {@link Fp2} <br/>
  * <br/>
  *
- * Field arithmetic is ported from <a href="https://github.com/scipr-lab/libff/blob/master/libff/algebra/fields/fp6_3over2.tcc">libff</a>
+ * Field arithmetic is ported from <a href="https://github.com/scipr-lab/libff/blob/master/libff/algebra/fields/fp6_3over2.tcc">libff</a> <br/>
+ * <br/>
+ *
+ * In-place {@code setXxx} operations follow {@link Fp} rules, they only reuse per-thread temporaries
  *
  * @author Mikhail Kalinin
  * @since 05.09.2017
@@ -38,9 +41,19 @@ class Fp6 implements Field<Fp6> {
     static final Fp6 _1 = new Fp6(Fp2._1, Fp2.ZERO, Fp2.ZERO);
     static final Fp2 NON_RESIDUE = new Fp2(BigInteger.valueOf(9), BigInteger.ONE);
 
-    Fp2 a;
-    Fp2 b;
-    Fp2 c;
+    private static final ThreadLocal<Fp2[]> TMP = ThreadLocal.withInitial(() -> {
+        Fp2[] ret = new Fp2[6];
+        for (int i = 0; i < ret.length; i++) ret[i] = new Fp2();
+        return ret;
+    });
+
+    final Fp2 a;
+    final Fp2 b;
+    final Fp2 c;
+
+    Fp6() {
+        this(new Fp2(), new Fp2(), new Fp2());
+    }
 
     Fp6(Fp2 a, Fp2 b, Fp2 c) {
         this.a = a;
@@ -50,20 +63,7 @@ class Fp6 implements Field<Fp6> {
 
     @Override
     public Fp6 squared() {
-
-        Fp2 s0 = a.squared();
-        Fp2 ab = a.mul(b);
-        Fp2 s1 = ab.dbl();
-        Fp2 s2 = a.sub(b).add(c).squared();
-        Fp2 bc = b.mul(c);
-        Fp2 s3 = bc.dbl();
-        Fp2 s4 = c.squared();
-
-        Fp2 ra = s0.add(s3.mulByNonResidue());
-        Fp2 rb = s1.add(s4.mulByNonResidue());
-        Fp2 rc = s1.add(s2).add(s3).sub(s0).sub(s4);
-
-        return new Fp6(ra, rb, rc);
+        return new Fp6().setSquared(this);
     }
 
     @Override
@@ -73,57 +73,105 @@ class Fp6 implements Field<Fp6> {
 
     @Override
     public Fp6 mul(Fp6 o) {
+        return new Fp6().setMul(this, o);
+    }
 
-        Fp2 a1 = a,   b1 = b,   c1 = c;
-        Fp2 a2 = o.a, b2 = o.b, c2 = o.c;
+    Fp6 mul(Fp2 o) {
+        return new Fp6().setMul(this, o);
+    }
 
-        Fp2 a1a2 = a1.mul(a2);
-        Fp2 b1b2 = b1.mul(b2);
-        Fp2 c1c2 = c1.mul(c2);
+    Fp6 mulByNonResidue() {
+        return new Fp6().setMulByNonResidue(this);
+    }
 
-        Fp2 ra = a1a2.add(b1.add(c1).mul(b2.add(c2)).sub(b1b2).sub(c1c2).mulByNonResidue());
-        Fp2 rb = a1.add(b1).mul(a2.add(b2)).sub(a1a2).sub(b1b2).add(c1c2.mulByNonResidue());
-        Fp2 rc = a1.add(c1).mul(a2.add(c2)).sub(a1a2).add(b1b2).sub(c1c2);
+    @Override
+    public Fp6 add(Fp6 o) {
+        return new Fp6().setAdd(this, o);
+    }
 
-        return new Fp6(ra, rb, rc);
+    @Override
+    public Fp6 sub(Fp6 o) {
+        return new Fp6().setSub(this, o);
     }
 
-    Fp6 mul(Fp2 o) {
+    Fp6 set(Fp6 o) {
+        a.set(o.a);
+        b.set(o.b);
+        c.set(o.c);
+        return this;
+    }
 
-        Fp2 ra = a.mul(o);
-        Fp2 rb = b.mul(o);
-        Fp2 rc = c.mul(o);
+    Fp6 setAdd(Fp6 x, Fp6 y) {
+        a.setAdd(x.a, y.a);
+        b.setAdd(x.b, y.b);
+        c.setAdd(x.c, y.c);
+        return this;
+    }
 
-        return new Fp6(ra, rb, rc);
+    Fp6 setSub(Fp6 x, Fp6 y) {
+        a.setSub(x.a, y.a);
+        b.setSub(x.b, y.b);
+        c.setSub(x.c, y.c);
+        return this;
     }
 
-    Fp6 mulByNonResidue() {
+    Fp6 setNegate(Fp6 x) {
+        a.setNegate(x.a);
+        b.setNegate(x.b);
+        c.setNegate(x.c);
+        return this;
+    }
 
-        Fp2 ra = NON_RESIDUE.mul(c);
-        Fp2 rb = a;
-        Fp2 rc = b;
+    Fp6 setMul(Fp6 x, Fp2 y) {
+        a.setMul(x.a, y);
+        b.setMul(x.b, y);
+        c.setMul(x.c, y);
+        return this;
+    }
 
-        return new Fp6(ra, rb, rc);
+    Fp6 setMul(Fp6 x, Fp6 y) {
+
+        Fp2[] t = TMP.get();
+        Fp2 a1a2 = t[0].setMul(x.a, y.a);
+        Fp2 b1b2 = t[1].setMul(x.b, y.b);
+        Fp2 c1c2 = t[2].setMul(x.c, y.c);
+
+        // ra = a1a2 + NON_RESIDUE * ((b1 + c1)(b2 + c2) - b1b2 - c1c2)
+        Fp2 ra = t[3].setAdd(x.b, x.c).setMul(t[3], t[5].setAdd(y.b, y.c))
+                .setSub(t[3], b1b2).setSub(t[3], c1c2).setMulByNonResidue(t[3]).setAdd(t[3], a1a2);
+        // rb = (a1 + b1)(a2 + b2) - a1a2 - b1b2 + NON_RESIDUE * c1c2
+        Fp2 rb = t[4].setAdd(x.a, x.b).setMul(t[4], t[5].setAdd(y.a, y.b))
+                .setSub(t[4], a1a2).setSub(t[4], b1b2).setAdd(t[4], t[5].setMulByNonResidue(c1c2));
+        // rc = (a1 + c1)(a2 + c2) - a1a2 + b1b2 - c1c2
+        Fp2 rc = t[5].setAdd(x.a, x.c);
+        c.setAdd(y.a, y.c).setMul(c, rc).setSub(c, a1a2).setAdd(c, b1b2).setSub(c, c1c2);
+
+        a.set(ra);
+        b.set(rb);
+        return this;
     }
 
-    @Override
-    public Fp6 add(Fp6 o) {
+    Fp6 setSquared(Fp6 x) {
 
-        Fp2 ra = a.add(o.a);
-        Fp2 rb = b.add(o.b);
-        Fp2 rc = c.add(o.c);
+        Fp2[] t = TMP.get();
+        Fp2 s0 = t[0].setSquared(x.a);
+        Fp2 s1 = t[1].setMul(x.a, x.b).setDbl(t[1]);
+        Fp2 s2 = t[2].setSub(x.a, x.b).setAdd(t[2], x.c).setSquared(t[2]);
+        Fp2 s3 = t[3].setMul(x.b, x.c).setDbl(t[3]);
+        Fp2 s4 = t[4].setSquared(x.c);
 
-        return new Fp6(ra, rb, rc);
+        a.setMulByNonResidue(s3).setAdd(a, s0);
+        b.setMulByNonResidue(s4).setAdd(b, s1);
+        c.setAdd(s1, s2).setAdd(c, s3).setSub(c, s0).setSub(c, s4);
+        return this;
     }
 
-    @Override
-    public Fp6 sub(Fp6 o) {
-
-        Fp2 ra = a.sub(o.a);
-        Fp2 rb = b.sub(o.b);
-        Fp2 rc = c.sub(o.c);
-
-        return new Fp6(ra, rb, rc);
+    Fp6 setMulByNonResidue(Fp6 x) {
+        Fp2 ra = TMP.get()[0].setMulByNonResidue(x.c);
+        c.set(x.b);
+        b.set(x.a);
+        a.set(ra);
+        return this;
     }
 
     @Override
@@ -151,7 +199,7 @@ class Fp6 implements Field<Fp6> {
 
     @Override
     public Fp6 negate() {
-        return new Fp6(a.negate(), b.negate(), c.negate());
+        return new Fp6().setNegate(this);
     }
 
     @Override
@@ -165,12 +213,14 @@ class Fp6 implements Field<Fp6> {
     }
 
     Fp6 frobeniusMap(int power) {
+        return new Fp6().setFrobeniusMap(this, power);
+    }
 
-        Fp2 ra = a.frobeniusMap(power);
-        Fp2 rb = FROBENIUS_COEFFS_B[power % 6].mul(b.frobeniusMap(power));
-        Fp2 rc = FROBENIUS_COEFFS_C[power % 6].mul(c.frobeniusMap(power));
-
-        return new Fp6(ra, rb, rc);
+    Fp6 setFrobeniusMap(Fp6 x, int power) {
+        a.setFrobeniusMap(x.a, power);
+        b.setFrobeniusMap(x.b, power).setMul(b, FROBENIUS_COEFFS_B[power % 6]);
+        c.setFrobeniusMap(x.c, power).setMul(c, FROBENIUS_COEFFS_C[power % 6]);
+        return this;
     }
 
     @Override
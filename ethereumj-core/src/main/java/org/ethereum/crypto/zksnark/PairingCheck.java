@@ -69,12 +69,14 @@ public class PairingCheck {
 
     public void run() {
 
+        product = Fp12._1.copy();
+
         for (Pair pair : pairs) {
 
             Fp12 miller = pair.millerLoop();
 
             if (!miller.equals(Fp12._1))    // run mul code only if necessary
-                product = product.mul(miller);
+                product.setMul(product, miller);
         }
 
         // finalize
@@ -94,28 +96,30 @@ public class PairingCheck {
         // calculate Ell coefficients
         List<EllCoeffs> coeffs = calcEllCoeffs(g2);
 
-        Fp12 f = Fp12._1;
+        // accumulated in place
+        Fp12 f = Fp12._1.copy();
+        Fp2 ellVW = new Fp2(), ellVV = new Fp2();
         int idx = 0;
 
         // for each bit except most significant one
         for (int i = LOOP_COUNT.bitLength() - 2; i >=0; i--) {
 
             EllCoeffs c = coeffs.get(idx++);
-            f = f.squared();
-            f = f.mulBy024(c.ell0, g1.y.mul(c.ellVW), g1.x.mul(c.ellVV));
+            f.setSquared(f);
+            f.setMulBy024(c.ell0, ellVW.setMul(c.ellVW, g1.y), ellVV.setMul(c.ellVV, g1.x));
 
             if (LOOP_COUNT.testBit(i)) {
                 c = coeffs.get(idx++);
-                f = f.mulBy024(c.ell0, g1.y.mul(c.ellVW), g1.x.mul(c.ellVV));
+                f.setMulBy024(c.ell0, ellVW.setMul(c.ellVW, g1.y), ellVV.setMul(c.ellVV, g1.x));
             }
 
         }
 
         EllCoeffs c = coeffs.get(idx++);
-        f = f.mulBy024(c.ell0, g1.y.mul(c.ellVW), g1.x.mul(c.ellVV));
+        f.setMulBy024(c.ell0, ellVW.setMul(c.ellVW, g1.y), ellVV.setMul(c.ellVV, g1.x));
 
         c = coeffs.get(idx);
-        f = f.mulBy024(c.ell0, g1.y.mul(c.ellVW), g1.x.mul(c.ellVV));
+        f.setMulBy024(c.ell0, ellVW.setMul(c.ellVW, g1.y), ellVV.setMul(c.ellVV, g1.x));
 
         return f;
     }
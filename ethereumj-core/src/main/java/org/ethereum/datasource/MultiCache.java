@@ -70,9 +70,11 @@ public abstract class MultiCache<V extends CachedSource> extends ReadWriteCache.
                 }
             } else if (value.getSource() != null){
                 ret |= flushChild(key, value);
-            } else {
+            } else if (getSource() != null) {
                 getSource().put(key, value);
                 ret = true;
+            } else {
+                ret |= flushResetChild(key, value);
             }
         }
         return ret;
@@ -86,6 +88,15 @@ public abstract class MultiCache<V extends CachedSource> extends ReadWriteCache.
         return childCache != null ? childCache.flush() : true;
     }
 
+    /**
+     * Is invoked to flush child cache without backing Source when there is no
+     * MultiCache backing Source to put it to. Such a child cache replaces
+     * (was deleted and created anew) the one existed in the backing storage
+     */
+    protected boolean flushResetChild(byte[] key, V childCache) {
+        throw new IllegalStateException("No backing Source to flush the child cache to");
+    }
+
     /**
      * Creates a local child cache instance based on the child cache instance
      * (or null) from the MultiCache backing Source
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.core.Block;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.Source;
+import org.ethereum.listener.CompositeEthereumListener;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.listener.LogFilter;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.ethereum.vm.LogInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.ethereum.util.ByteUtil.byteArrayToLong;
+import static org.ethereum.util.ByteUtil.longToBytes;
+import static org.ethereum.util.ByteUtil.merge;
+
+/**
+ * Index of block log blooms for historical log queries (bloombits).
+ *
+ * The main chain is split into sections of <code>sectionSize</code> blocks,
+ * for each section and each of 2048 bloom bits the index stores a bit-vector
+ * telling which blocks of the section have that bit set in their header bloom.
+ * A log query thus reads a few vectors per section instead of every block header,
+ * and fetches receipts only for the blocks matched by the vectors.
+ *
+ * A section is indexed once its last block gets <code>confirmations</code> confirmations,
+ * sections are indexed one by one from the genesis by the background thread
+ * which catches up with the chain on start and then follows block import.
+ * The hash of the last block of every section is stored along with the vectors,
+ * sections which are no more on the main chain after a deep rebranch are
+ * matched by headers and re-indexed.
+ *
+ * Storage layout:
+ * <ul>
+ *     <li>vector: <code>bit(2 bytes) ++ section(8 bytes) -> vector</code>, the vector is either
+ *          a raw bitset of <code>sectionSize / 8</code> bytes or a shorter list
+ *          of 2-byte offsets of the set bits</li>
+ *     <li>section head: <code>"bloomBitsHead" ++ section(8 bytes) -> block hash</code></li>
+ *     <li>meta: <code>"bloomBitsMeta" -> RLP [sectionSize, indexedSections]</code></li>
+ * </ul>
+ */
+public class BloomBitsIndex {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final byte[] META_KEY = "bloomBitsMeta".getBytes();
+    private static final byte[] HEAD_PREFIX = "bloomBitsHead".getBytes();
+    private static final int BLOOM_BITS = 2048;
+
+    private final Source<byte[], byte[]> src;
+    private final BlockStore blockStore;
+    private final TransactionStore transactionStore;
+    private final int sectionSize;
+    private final int confirmations;
+
+    private volatile long indexedSections;
+    private boolean enabled = true;
+
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("bloombits-indexer").setDaemon(true).build());
+    private final ExecutorService matchers;
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+
+    /**
+     * @param sectionSize number of blocks in a section, should be a multiple of 64 not greater than 65536
+     * @param confirmations number of blocks on top of the last section block required to index the section
+     * @param threads number of threads matching sections of a query
+     */
+    public BloomBitsIndex(Source<byte[], byte[]> src, BlockStore blockStore, TransactionStore transactionStore,
+                          int sectionSize, int confirmations, int threads) {
+        if (sectionSize <= 0 || sectionSize % 64 != 0 || sectionSize > 65536) {
+            throw new IllegalArgumentException("Invalid bloombits section size: " + sectionSize);
+        }
+        this.src = src;
+        this.blockStore = blockStore;
+        this.transactionStore = transactionStore;
+        this.sectionSize = sectionSize;
+        this.confirmations = confirmations;
+        this.matchers = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("bloombits-matcher-%d").setDaemon(true).build());
+
+        byte[] meta = src.get(META_KEY);
+        if (meta != null) {
+            RLPList params = RLP.unwrapList(meta);
+            if (byteArrayToLong(params.get(0).getRLPData()) == sectionSize) {
+                indexedSections = byteArrayToLong(params.get(1).getRLPData());
+            } else {
+                logger.info("Bloombits section size changed, rebuilding the index");
+            }
+        }
+    }
+
+    /**
+     * When disabled the index is not updated and queries match the block headers
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Autowired
+    public void setEthereumListener(CompositeEthereumListener listener) {
+        if (!enabled) return;
+        listener.addListener(new EthereumListenerAdapter() {
+            @Override
+            public void onBlock(BlockSummary blockSummary, boolean best) {
+                if (best && (blockSummary.getBlock().getNumber() + 1 - confirmations) % sectionSize == 0) {
+                    scheduleUpdate();
+                }
+            }
+        });
+        // backfill sections imported before the index has been enabled
+        scheduleUpdate();
+    }
+
+    public int getSectionSize() {
+        return sectionSize;
+    }
+
+    /**
+     * @return number of sections from the genesis covered by the index
+     */
+    public long getIndexedSections() {
+        return indexedSections;
+    }
+
+    /**
+     * Indexes the sections confirmed by the background thread,
+     * several requests made while the thread is busy result in a single update
+     */
+    public void scheduleUpdate() {
+        if (updateScheduled.compareAndSet(false, true)) {
+            indexer.submit(() -> {
+                updateScheduled.set(false);
+                try {
+                    update();
+                } catch (Exception e) {
+                    logger.error("Bloombits index update failed", e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops sections which are no more on the main chain and indexes all confirmed sections
+     *
+     * @return number of sections indexed
+     */
+    public synchronized int update() {
+        while (indexedSections > 0 && !isCanonical(indexedSections - 1)) {
+            --indexedSections;
+            logger.info("Bloombits section {} is not on the main chain, re-indexing", indexedSections);
+        }
+
+        Block best = blockStore.getBestBlock();
+        if (best == null) return 0;
+        long confirmedSections = Math.max(0, best.getNumber() + 1 - confirmations) / sectionSize;
+
+        int ret = 0;
+        while (indexedSections < confirmedSections) {
+            long s = System.nanoTime();
+            if (!indexSection(indexedSections)) break;
+            ++indexedSections;
+            src.put(META_KEY, RLP.encodeList(RLP.encodeInt(sectionSize),
+                    RLP.encodeBigInteger(BigInteger.valueOf(indexedSections))));
+            ++ret;
+            logger.debug("Bloombits section {} indexed in {} ms", indexedSections - 1, (System.nanoTime() - s) / 1_000_000);
+        }
+        if (ret > 0) {
+            logger.info("Bloombits: {} sections indexed, {} total", ret, indexedSections);
+        }
+        return ret;
+    }
+
+    private boolean indexSection(long section) {
+        int words = sectionSize / 64;
+        long[][] vectors = new long[BLOOM_BITS][words];
+        byte[] headHash = null;
+        for (int i = 0; i < sectionSize; i++) {
+            Block block = blockStore.getChainBlockByNumber(section * sectionSize + i);
+            if (block == null) return false; // a gap left by fast sync
+            byte[] bloom = block.getLogBloom();
+            for (int j = 0; j < bloom.length; j++) {
+                int b = bloom[j] & 0xFF;
+                while (b != 0) {
+                    int k = Integer.numberOfTrailingZeros(b);
+                    vectors[(bloom.length - 1 - j) * 8 + k][i >>> 6] |= 1L << i;
+                    b &= b - 1;
+                }
+            }
+            headHash = block.getHash();
+        }
+
+        for (int bit = 0; bit < BLOOM_BITS; bit++) {
+            src.put(vectorKey(bit, section), encodeVector(vectors[bit]));
+        }
+        src.put(merge(HEAD_PREFIX, longToBytes(section)), headHash);
+        return true;
+    }
+
+    private boolean isCanonical(long section) {
+        byte[] headHash = src.get(merge(HEAD_PREFIX, longToBytes(section)));
+        byte[] chainHash = blockStore.getBlockHashByNumber((section + 1) * sectionSize - 1);
+        return headHash != null && chainHash != null && FastByteComparisons.equal(headHash, chainHash);
+    }
+
+    /**
+     * Finds main chain blocks in the range <code>[fromBlock, toBlock]</code> which
+     * header blooms match the filter, the same as {@link LogFilter#matchBloom(Bloom)}
+     * applied to each block but reading index vectors for the indexed sections
+     *
+     * @return sorted block numbers
+     */
+    public List<Long> getCandidateBlocks(LogFilter filter, long fromBlock, long toBlock) {
+        int[][][] bits = filter.getBloomBits();
+        long indexed = enabled ? indexedSections : 0;
+
+        List<Future<List<Long>>> results = new ArrayList<>();
+        for (long section = fromBlock / sectionSize; section <= toBlock / sectionSize; section++) {
+            long from = Math.max(fromBlock, section * sectionSize);
+            long to = Math.min(toBlock, (section + 1) * sectionSize - 1);
+            Callable<List<Long>> task;
+            if (section < indexed && isCanonical(section)) {
+                final long s = section;
+                task = () -> matchSection(s, bits, from, to);
+            } else {
+                task = () -> matchHeaders(filter, from, to);
+            }
+            results.add(matchers.submit(task));
+        }
+
+        List<Long> ret = new ArrayList<>();
+        try {
+            for (Future<List<Long>> result : results) {
+                ret.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return ret;
+    }
+
+    /**
+     * Finds main chain transactions in the range <code>[fromBlock, toBlock]</code> having logs
+     * which exactly match the filter. Receipts are read only for the candidate blocks
+     * found by {@link #getCandidateBlocks(LogFilter, long, long)}
+     *
+     * @return transaction infos with initialized transactions in the chain order
+     */
+    public List<TransactionInfo> getLogs(LogFilter filter, long fromBlock, long toBlock) {
+        List<TransactionInfo> ret = new ArrayList<>();
+        for (Long number : getCandidateBlocks(filter, fromBlock, toBlock)) {
+            Block block = blockStore.getChainBlockByNumber(number);
+            if (block == null) continue;
+            for (Transaction tx : block.getTransactionsList()) {
+                TransactionInfo info = getTransactionInfo(tx.getHash(), block.getHash());
+                if (info == null) continue;
+                TransactionReceipt receipt = info.getReceipt();
+                if (!filter.matchBloom(receipt.getBloomFilter())) continue;
+                for (LogInfo logInfo : receipt.getLogInfoList()) {
+                    if (filter.matchesExactly(logInfo)) {
+                        info.setTransaction(tx);
+                        ret.add(info);
+                        break;
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    private TransactionInfo getTransactionInfo(byte[] txHash, byte[] blockHash) {
+        List<TransactionInfo> infos = transactionStore.get(txHash);
+        if (infos == null) return null;
+        for (TransactionInfo info : infos) {
+            if (FastByteComparisons.equal(info.getBlockHash(), blockHash)) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    private List<Long> matchHeaders(LogFilter filter, long from, long to) {
+        List<Long> ret = new ArrayList<>();
+        for (long number = from; number <= to; number++) {
+            Block block = blockStore.getChainBlockByNumber(number);
+            if (block == null) break;
+            if (filter.matchBloom(new Bloom(block.getLogBloom()))) {
+                ret.add(number);
+            }
+        }
+        return ret;
+    }
+
+    private List<Long> matchSection(long section, int[][][] bits, long from, long to) {
+        Map<Integer, long[]> vectors = new HashMap<>();
+        int words = sectionSize / 64;
+
+        // a block matches when for each row of the filter blooms
+        // at least one bloom has all its bits set in the block bloom
+        long[] match = ones(words);
+        for (int[][] orBits : bits) {
+            long[] orMatch = new long[words];
+            for (int[] andBits : orBits) {
+                long[] andMatch = ones(words);
+                for (int bit : andBits) {
+                    long[] vector = vectors.computeIfAbsent(bit, b -> decodeVector(src.get(vectorKey(b, section))));
+                    for (int i = 0; i < words; i++) andMatch[i] &= vector[i];
+                }
+                for (int i = 0; i < words; i++) orMatch[i] |= andMatch[i];
+            }
+            for (int i = 0; i < words; i++) match[i] &= orMatch[i];
+        }
+
+        List<Long> ret = new ArrayList<>();
+        long first = section * sectionSize;
+        for (int i = 0; i < words; i++) {
+            long w = match[i];
+            while (w != 0) {
+                long number = first + i * 64 + Long.numberOfTrailingZeros(w);
+                if (number >= from && number <= to) ret.add(number);
+                w &= w - 1;
+            }
+        }
+        return ret;
+    }
+
+    private static long[] ones(int words) {
+        long[] ret = new long[words];
+        Arrays.fill(ret, -1L);
+        return ret;
+    }
+
+    private static byte[] vectorKey(int bit, long section) {
+        return merge(new byte[] {(byte) (bit >>> 8), (byte) bit}, longToBytes(section));
+    }
+
+    byte[] encodeVector(long[] vector) {
+        int cnt = 0;
+        for (long w : vector) cnt += Long.bitCount(w);
+
+        if (cnt * 2 < sectionSize / 8) {
+            byte[] ret = new byte[cnt * 2];
+            int pos = 0;
+            for (int i = 0; i < vector.length; i++) {
+                long w = vector[i];
+                while (w != 0) {
+                    int offset = i * 64 + Long.numberOfTrailingZeros(w);
+                    ret[pos++] = (byte) (offset >>> 8);
+                    ret[pos++] = (byte) offset;
+                    w &= w - 1;
+                }
+            }
+            return ret;
+        } else {
+            byte[] ret = new byte[sectionSize / 8];
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = (byte) (vector[i >>> 3] >>> ((i & 7) * 8));
+            }
+            return ret;
+        }
+    }
+
+    long[] decodeVector(byte[] data) {
+        long[] ret = new long[sectionSize / 64];
+        if (data == null) return ret;
+        if (data.length == sectionSize / 8) {
+            for (int i = 0; i < data.length; i++) {
+                ret[i >>> 3] |= (data[i] & 0xFFL) << ((i & 7) * 8);
+            }
+        } else {
+            for (int i = 0; i < data.length; i += 2) {
+                int offset = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+                ret[offset >>> 6] |= 1L << offset;
+            }
+        }
+        return ret;
+    }
+
+    public void close() {
+        indexer.shutdownNow();
+        matchers.shutdownNow();
+    }
+}
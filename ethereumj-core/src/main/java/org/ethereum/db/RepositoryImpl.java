@@ -23,6 +23,7 @@ import org.ethereum.core.Block;
 import org.ethereum.core.Repository;
 import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.*;
+import org.ethereum.util.ALock;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.util.FastByteComparisons;
 import org.ethereum.vm.DataWord;
@@ -31,8 +32,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import javax.annotation.Nullable;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * Repository layer backed by a set of caches
+ *
+ * Readers of a layer don't block each other: reads take the shared read lock
+ * and rely on the thread-safety of the underlying caches. Modifications of the layer
+ * and commits of the child layers into this one take the exclusive write lock,
+ * so readers never observe a partially committed child.
+ *
  * Created by Anton Nashatyrev on 07.10.2016.
  */
 public class RepositoryImpl implements Repository, org.ethereum.facade.Repository {
@@ -46,6 +56,10 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     @Autowired
     protected SystemProperties config = SystemProperties.getDefault();
 
+    private final ReadWriteLock rwLock = new ReentrantReadWriteLock();
+    protected ALock readLock = new ALock(rwLock.readLock());
+    protected ALock writeLock = new ALock(rwLock.writeLock());
+
     protected RepositoryImpl() {
     }
 
@@ -62,81 +76,101 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized AccountState createAccount(byte[] addr) {
-        AccountState state = new AccountState(config.getBlockchainConfig().getCommonConstants().getInitialNonce(),
-                BigInteger.ZERO);
-        accountStateCache.put(addr, state);
-        return state;
+    public AccountState createAccount(byte[] addr) {
+        try (ALock l = writeLock.lock()) {
+            AccountState state = new AccountState(config.getBlockchainConfig().getCommonConstants().getInitialNonce(),
+                    BigInteger.ZERO);
+            accountStateCache.put(addr, state);
+            return state;
+        }
     }
 
     @Override
-    public synchronized boolean isExist(byte[] addr) {
-        return getAccountState(addr) != null;
+    public boolean isExist(byte[] addr) {
+        try (ALock l = readLock.lock()) {
+            return getAccountState(addr) != null;
+        }
     }
 
     @Override
-    public synchronized AccountState getAccountState(byte[] addr) {
-        return accountStateCache.get(addr);
+    public AccountState getAccountState(byte[] addr) {
+        try (ALock l = readLock.lock()) {
+            return accountStateCache.get(addr);
+        }
     }
 
-    synchronized AccountState getOrCreateAccountState(byte[] addr) {
-        AccountState ret = accountStateCache.get(addr);
-        if (ret == null) {
-            ret = createAccount(addr);
+    AccountState getOrCreateAccountState(byte[] addr) {
+        try (ALock l = writeLock.lock()) {
+            AccountState ret = accountStateCache.get(addr);
+            if (ret == null) {
+                ret = createAccount(addr);
+            }
+            return ret;
         }
-        return ret;
     }
 
     @Override
-    public synchronized void delete(byte[] addr) {
-        accountStateCache.delete(addr);
-        storageCache.delete(addr);
+    public void delete(byte[] addr) {
+        try (ALock l = writeLock.lock()) {
+            accountStateCache.delete(addr);
+            storageCache.delete(addr);
+        }
     }
 
     @Override
-    public synchronized BigInteger increaseNonce(byte[] addr) {
-        AccountState accountState = getOrCreateAccountState(addr);
-        accountStateCache.put(addr, accountState.withIncrementedNonce());
-        return accountState.getNonce();
+    public BigInteger increaseNonce(byte[] addr) {
+        try (ALock l = writeLock.lock()) {
+            AccountState accountState = getOrCreateAccountState(addr);
+            accountStateCache.put(addr, accountState.withIncrementedNonce());
+            return accountState.getNonce();
+        }
     }
 
     @Override
-    public synchronized BigInteger setNonce(byte[] addr, BigInteger nonce) {
-        AccountState accountState = getOrCreateAccountState(addr);
-        accountStateCache.put(addr, accountState.withNonce(nonce));
-        return accountState.getNonce();
+    public BigInteger setNonce(byte[] addr, BigInteger nonce) {
+        try (ALock l = writeLock.lock()) {
+            AccountState accountState = getOrCreateAccountState(addr);
+            accountStateCache.put(addr, accountState.withNonce(nonce));
+            return accountState.getNonce();
+        }
     }
 
     @Override
-    public synchronized BigInteger getNonce(byte[] addr) {
-        AccountState accountState = getAccountState(addr);
-        return accountState == null ? config.getBlockchainConfig().getCommonConstants().getInitialNonce() :
-                accountState.getNonce();
+    public BigInteger getNonce(byte[] addr) {
+        try (ALock l = readLock.lock()) {
+            AccountState accountState = getAccountState(addr);
+            return accountState == null ? config.getBlockchainConfig().getCommonConstants().getInitialNonce() :
+                    accountState.getNonce();
+        }
     }
 
     @Override
-    public synchronized ContractDetails getContractDetails(byte[] addr) {
+    public ContractDetails getContractDetails(byte[] addr) {
         return new ContractDetailsImpl(addr);
     }
 
     @Override
-    public synchronized boolean hasContractDetails(byte[] addr) {
+    public boolean hasContractDetails(byte[] addr) {
         return getContractDetails(addr) != null;
     }
 
     @Override
-    public synchronized void saveCode(byte[] addr, byte[] code) {
-        byte[] codeHash = HashUtil.sha3(code);
-        codeCache.put(codeKey(codeHash, addr), code);
-        AccountState accountState = getOrCreateAccountState(addr);
-        accountStateCache.put(addr, accountState.withCodeHash(codeHash));
+    public void saveCode(byte[] addr, byte[] code) {
+        try (ALock l = writeLock.lock()) {
+            byte[] codeHash = HashUtil.sha3(code);
+            codeCache.put(codeKey(codeHash, addr), code);
+            AccountState accountState = getOrCreateAccountState(addr);
+            accountStateCache.put(addr, accountState.withCodeHash(codeHash));
+        }
     }
 
     @Override
-    public synchronized byte[] getCode(byte[] addr) {
-        byte[] codeHash = getCodeHash(addr);
-        return codeHash == null || FastByteComparisons.equal(codeHash, HashUtil.EMPTY_DATA_HASH) ?
-                ByteUtil.EMPTY_BYTE_ARRAY : codeCache.get(codeKey(codeHash, addr));
+    public byte[] getCode(byte[] addr) {
+        try (ALock l = readLock.lock()) {
+            byte[] codeHash = getCodeHash(addr);
+            return codeHash == null || FastByteComparisons.equal(codeHash, HashUtil.EMPTY_DATA_HASH) ?
+                    ByteUtil.EMPTY_BYTE_ARRAY : codeCache.get(codeKey(codeHash, addr));
+        }
     }
 
     // composing a key as there can be several contracts with the same code
@@ -146,39 +180,49 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
 
     @Override
     public byte[] getCodeHash(byte[] addr) {
-        AccountState accountState = getAccountState(addr);
-        return accountState != null ? accountState.getCodeHash() : null;
+        try (ALock l = readLock.lock()) {
+            AccountState accountState = getAccountState(addr);
+            return accountState != null ? accountState.getCodeHash() : null;
+        }
     }
 
     @Override
-    public synchronized void addStorageRow(byte[] addr, DataWord key, DataWord value) {
-        getOrCreateAccountState(addr);
+    public void addStorageRow(byte[] addr, DataWord key, DataWord value) {
+        try (ALock l = writeLock.lock()) {
+            getOrCreateAccountState(addr);
 
-        Source<DataWord, DataWord> contractStorage = storageCache.get(addr);
-        contractStorage.put(key, value.isZero() ? null : value);
+            Source<DataWord, DataWord> contractStorage = storageCache.get(addr);
+            contractStorage.put(key, value.isZero() ? null : value);
+        }
     }
 
     @Override
-    public synchronized DataWord getStorageValue(byte[] addr, DataWord key) {
-        AccountState accountState = getAccountState(addr);
-        return accountState == null ? null : storageCache.get(addr).get(key);
+    public DataWord getStorageValue(byte[] addr, DataWord key) {
+        try (ALock l = readLock.lock()) {
+            AccountState accountState = getAccountState(addr);
+            return accountState == null ? null : storageCache.get(addr).get(key);
+        }
     }
 
     @Override
-    public synchronized BigInteger getBalance(byte[] addr) {
-        AccountState accountState = getAccountState(addr);
-        return accountState == null ? BigInteger.ZERO : accountState.getBalance();
+    public BigInteger getBalance(byte[] addr) {
+        try (ALock l = readLock.lock()) {
+            AccountState accountState = getAccountState(addr);
+            return accountState == null ? BigInteger.ZERO : accountState.getBalance();
+        }
     }
 
     @Override
-    public synchronized BigInteger addBalance(byte[] addr, BigInteger value) {
-        AccountState accountState = getOrCreateAccountState(addr);
-        accountStateCache.put(addr, accountState.withBalanceIncrement(value));
-        return accountState.getBalance();
+    public BigInteger addBalance(byte[] addr, BigInteger value) {
+        try (ALock l = writeLock.lock()) {
+            AccountState accountState = getOrCreateAccountState(addr);
+            accountStateCache.put(addr, accountState.withBalanceIncrement(value));
+            return accountState.getBalance();
+        }
     }
 
     @Override
-    public synchronized RepositoryImpl startTracking() {
+    public RepositoryImpl startTracking() {
         Source<byte[], AccountState> trackAccountStateCache = new WriteCache.BytesKey<>(accountStateCache,
                 WriteCache.CacheType.SIMPLE);
         Source<byte[], byte[]> trackCodeCache = new WriteCache.BytesKey<>(codeCache, WriteCache.CacheType.SIMPLE);
@@ -195,17 +239,17 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized Repository getSnapshotTo(byte[] root) {
+    public Repository getSnapshotTo(byte[] root) {
         return parent.getSnapshotTo(root);
     }
 
     @Override
-    public synchronized void commit() {
-        Repository parentSync = parent == null ? this : parent;
-        // need to synchronize on parent since between different caches flush
+    public void commit() {
+        RepositoryImpl parentSync = parent == null ? this : parent;
+        // need to lock the parent since between different caches flush
         // the parent repo would not be in consistent state
         // when no parent just take this instance as a mock
-        synchronized (parentSync) {
+        try (ALock l = writeLock.lock(); ALock pl = parentSync.writeLock.lock()) {
             storageCache.flush();
             codeCache.flush();
             accountStateCache.flush();
@@ -213,7 +257,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
     }
 
     @Override
-    public synchronized void rollback() {
+    public void rollback() {
         // nothing to do, will be GCed
     }
 
@@ -222,7 +266,7 @@ public class RepositoryImpl implements Repository, org.ethereum.facade.Repositor
         throw new RuntimeException("Not supported");
     }
 
-    public synchronized String getTrieDump() {
+    public String getTrieDump() {
         return dumpStateTrie();
     }
 
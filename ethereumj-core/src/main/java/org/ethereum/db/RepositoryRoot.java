@@ -20,9 +20,19 @@ package org.ethereum.db;
 import org.ethereum.core.AccountState;
 import org.ethereum.core.Repository;
 import org.ethereum.datasource.*;
+import org.ethereum.db.flat.FlatState;
+import org.ethereum.db.flat.FlatStateDiff;
 import org.ethereum.trie.*;
+import org.ethereum.util.ALock;
+import org.ethereum.util.FastByteComparisons;
 import org.ethereum.vm.DataWord;
 
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+
 /**
  * Created by Anton Nashatyrev on 07.10.2016.
  */
@@ -30,34 +40,267 @@ public class RepositoryRoot extends RepositoryImpl {
 
     private static class StorageCache extends ReadWriteCache<DataWord, DataWord> {
         Trie<byte[]> trie;
+        BatchSourceWriter<byte[], byte[]> trieWriter;
+
+        public StorageCache(Trie<byte[]> trie, BatchSource<byte[], byte[]> src) {
+            this(trie, new BatchSourceWriter<>(src));
+        }
 
-        public StorageCache(Trie<byte[]> trie) {
-            super(new SourceCodec<>(trie, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
+        private StorageCache(Trie<byte[]> trie, BatchSourceWriter<byte[], byte[]> trieWriter) {
+            super(new SourceCodec<>(trieWriter, Serializers.StorageKeySerializer, Serializers.StorageValueSerializer), WriteCache.CacheType.SIMPLE);
             this.trie = trie;
+            this.trieWriter = trieWriter;
+        }
+    }
+
+    /**
+     * Sits on top of the state trie: records changes to the flat state diff
+     * and serves reads of accounts untouched since the last commit from the flat state.
+     * Flat state reads take no lock, the trie is accessed under the {@link #trieLock} only.
+     * Changes are recorded to the diff before the trie is updated so a reader which sees
+     * the change in the diff falls back to the trie and waits for the update
+     */
+    private class FlatAccountSource implements BatchSource<byte[], byte[]> {
+        @Override
+        public void put(byte[] key, byte[] val) {
+            try (ALock l = trieLock.lock()) {
+                record(key, val);
+                stateTrie.put(key, val);
+            }
+        }
+
+        @Override
+        public void updateBatch(Map<byte[], byte[]> rows) {
+            try (ALock l = trieLock.lock()) {
+                for (Map.Entry<byte[], byte[]> row : rows.entrySet()) {
+                    record(row.getKey(), row.getValue());
+                }
+                stateTrie.putAll(rows);
+            }
+        }
+
+        private void record(byte[] key, byte[] val) {
+            if (val == null || val.length == 0) {
+                diff.destruct(sha3(key));
+            }
+            diff.putAccount(sha3(key), val);
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            FlatStateDiff diff = RepositoryRoot.this.diff;
+            FlatState.Layer layer = RepositoryRoot.this.layer;
+            if (layer != null) {
+                byte[] accountHash = sha3(key);
+                if (diff.getAccount(accountHash) == null) {
+                    try {
+                        return layer.getAccount(accountHash);
+                    } catch (FlatState.StaleLayerException e) {
+                        resetStaleLayer(layer);
+                    }
+                }
+            }
+            try (ALock l = trieLock.lock()) {
+                return stateTrie.get(key);
+            }
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            try (ALock l = trieLock.lock()) {
+                diff.destruct(sha3(key));
+                diff.putAccount(sha3(key), null);
+                stateTrie.delete(key);
+            }
+        }
+
+        @Override
+        public boolean flush() {
+            try (ALock l = trieLock.lock()) {
+                return stateTrie.flush();
+            }
+        }
+    }
+
+    /**
+     * The same as {@link FlatAccountSource} for a single contract storage
+     */
+    private class FlatStorageSource implements BatchSource<byte[], byte[]> {
+        final byte[] accountHash;
+        final Trie<byte[]> trie;
+
+        FlatStorageSource(byte[] address, Trie<byte[]> trie) {
+            this.accountHash = sha3(address);
+            this.trie = trie;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            try (ALock l = trieLock.lock()) {
+                diff.putStorage(accountHash, sha3(key), val);
+                trie.put(key, val);
+            }
+        }
+
+        @Override
+        public void updateBatch(Map<byte[], byte[]> rows) {
+            try (ALock l = trieLock.lock()) {
+                for (Map.Entry<byte[], byte[]> row : rows.entrySet()) {
+                    diff.putStorage(accountHash, sha3(row.getKey()), row.getValue());
+                }
+                trie.putAll(rows);
+            }
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            FlatStateDiff diff = RepositoryRoot.this.diff;
+            FlatState.Layer layer = RepositoryRoot.this.layer;
+            if (layer != null && !diff.isDestructed(accountHash)) {
+                byte[] slotHash = sha3(key);
+                if (diff.getStorage(accountHash, slotHash) == null) {
+                    try {
+                        return layer.getStorage(accountHash, slotHash);
+                    } catch (FlatState.StaleLayerException e) {
+                        resetStaleLayer(layer);
+                    }
+                }
+            }
+            try (ALock l = trieLock.lock()) {
+                return trie.get(key);
+            }
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            try (ALock l = trieLock.lock()) {
+                diff.putStorage(accountHash, sha3(key), null);
+                trie.delete(key);
+            }
+        }
+
+        @Override
+        public boolean flush() {
+            try (ALock l = trieLock.lock()) {
+                return trie.flush();
+            }
         }
     }
 
-    private class MultiStorageCache extends MultiCache<StorageCache> {
+    /**
+     * Trie nodes are lazily parsed on read thus a trie can't be accessed concurrently.
+     * Readers of the tracking repositories fall through their caches down to the tries
+     * without taking the root repository lock, so without the flat state every trie access
+     * goes through this source and is serialized by the {@link #trieLock}.
+     * The lock is a leaf one: nothing else is acquired while holding it except
+     * the locks of the trie node cache and the flat state
+     */
+    private class TrieLockSource implements BatchSource<byte[], byte[]> {
+        final BatchSource<byte[], byte[]> src;
+
+        TrieLockSource(BatchSource<byte[], byte[]> src) {
+            this.src = src;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] val) {
+            try (ALock l = trieLock.lock()) {
+                src.put(key, val);
+            }
+        }
+
+        @Override
+        public void updateBatch(Map<byte[], byte[]> rows) {
+            try (ALock l = trieLock.lock()) {
+                src.updateBatch(rows);
+            }
+        }
+
+        @Override
+        public byte[] get(byte[] key) {
+            try (ALock l = trieLock.lock()) {
+                return src.get(key);
+            }
+        }
+
+        @Override
+        public void delete(byte[] key) {
+            try (ALock l = trieLock.lock()) {
+                src.delete(key);
+            }
+        }
+
+        @Override
+        public boolean flush() {
+            try (ALock l = trieLock.lock()) {
+                return src.flush();
+            }
+        }
+    }
+
+    /**
+     * Holds own {@link StorageCache}s and the caches of the child repositories
+     * flushed to it, so it is declared over the common cache type
+     */
+    private class MultiStorageCache extends MultiCache<CachedSource<DataWord, DataWord>> {
         public MultiStorageCache() {
             super(null);
         }
         @Override
-        protected synchronized StorageCache create(byte[] key, StorageCache srcCache) {
+        protected synchronized StorageCache create(byte[] key, CachedSource<DataWord, DataWord> srcCache) {
             AccountState accountState = accountStateCache.get(key);
+            return createStorage(key, accountState == null ? null : accountState.getStateRoot());
+        }
+
+        private StorageCache createStorage(byte[] key, byte[] storageRoot) {
             Serializer<byte[], byte[]> keyCompositor = new NodeKeyCompositor(key);
             Source<byte[], byte[]> composingSrc = new SourceCodec.KeyOnly<>(trieCache, keyCompositor);
-            TrieImpl storageTrie = createTrie(composingSrc, accountState == null ? null : accountState.getStateRoot());
-            return new StorageCache(storageTrie);
+            TrieImpl storageTrie = createTrie(composingSrc, storageRoot);
+            return new StorageCache(storageTrie, flatState == null ?
+                    new TrieLockSource(storageTrie) : new FlatStorageSource(key, storageTrie));
         }
 
         @Override
-        protected synchronized boolean flushChild(byte[] key, StorageCache childCache) {
+        public synchronized void delete(byte[] key) {
+            super.delete(key);
+            storageReset(key);
+        }
+
+        /**
+         * Storage deleted and created anew in a child repository,
+         * the new storage is put to an empty trie
+         */
+        @Override
+        protected synchronized boolean flushResetChild(byte[] key, CachedSource<DataWord, DataWord> childCache) {
+            storageReset(key);
+            StorageCache storage = createStorage(key, null);
+            for (DataWord slot : childCache.getModified()) {
+                storage.put(slot, childCache.get(slot));
+            }
+            put(key, storage);
+            return flushChild(key, storage);
+        }
+
+        private void storageReset(byte[] key) {
+            // the storage which existed before is wiped
+            // even if the account is recreated in the same commit
+            if (flatState != null) diff.destruct(sha3(key));
+        }
+
+        @Override
+        protected synchronized boolean flushChild(byte[] key, CachedSource<DataWord, DataWord> childCache) {
             if (super.flushChild(key, childCache)) {
                 if (childCache != null) {
+                    // children backed by a source are always own storage caches
+                    StorageCache storage = (StorageCache) childCache;
                     AccountState storageOwnerAcct = accountStateCache.get(key);
                     // need to update account storage root
-                    childCache.trie.flush();
-                    byte[] rootHash = childCache.trie.getRootHash();
+                    storage.trieWriter.flush();
+                    byte[] rootHash;
+                    try (ALock l = trieLock.lock()) {
+                        storage.trie.flush();
+                        rootHash = storage.trie.getRootHash();
+                    }
                     accountStateCache.put(key, storageOwnerAcct.withStateRoot(rootHash));
                     return true;
                 } else {
@@ -74,33 +317,61 @@ public class RepositoryRoot extends RepositoryImpl {
     private Source<byte[], byte[]> stateDS;
     private CachedSource.BytesKey<byte[]> trieCache;
     private Trie<byte[]> stateTrie;
+    private BatchSourceWriter<byte[], byte[]> stateTrieWriter;
+
+    private FlatState flatState;
+    // read without locks by the flat sources: the diff first, then the layer,
+    // and are replaced in the reverse order on commit, so a reader never combines
+    // the fresh empty diff with the layer of the previous root
+    private volatile FlatState.Layer layer;
+    private byte[] baseRoot;
+    private volatile FlatStateDiff diff;
+
+    private final ALock trieLock = new ALock(new ReentrantLock());
 
     public RepositoryRoot(Source<byte[], byte[]> stateDS) {
         this(stateDS, null);
     }
 
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+        this(stateDS, root, null);
+    }
+
     /**
      * Building the following structure for snapshot Repository:
      *
-     * stateDS --> trieCache --> stateTrie --> accountStateCodec --> accountStateCache
+     * stateDS --> trieCache --> stateTrie --> stateTrieWriter --> accountStateCodec --> accountStateCache
      *  \                 \
-     *   \                 \-->>> storageKeyCompositor --> contractStorageTrie --> storageCodec --> storageCache
+     *   \                 \-->>> storageKeyCompositor --> contractStorageTrie --> trieWriter --> storageCodec --> storageCache
      *    \--> codeCache
      *
+     * Trie writers collect the changes flushed from caches and put them to tries in batches.
+     * Tries are accessed under the trie lock only (see {@link TrieLockSource}),
+     * flat state reads take no lock
+     *
+     * When the flat state is supplied the flatAccountSource is inserted between
+     * stateTrie and stateTrieWriter (and between contractStorageTrie and trieWriter)
      *
      * @param stateDS
      * @param root
+     * @param flatState optional flat state index for faster reads, may be null
      */
-    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root) {
+    public RepositoryRoot(final Source<byte[], byte[]> stateDS, byte[] root, FlatState flatState) {
         this.stateDS = stateDS;
+        this.flatState = flatState;
 
         trieCache = new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.COUNTING);
         stateTrie = new SecureTrie(trieCache, root);
 
-        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(stateTrie, Serializers.AccountStateSerializer);
+        if (flatState != null) resetFlatState(root);
+
+        // modified accounts and storage slots are collected on flush
+        // and put to the trie at once
+        stateTrieWriter = new BatchSourceWriter<>(flatState == null ? new TrieLockSource(stateTrie) : new FlatAccountSource());
+        SourceCodec.BytesKey<AccountState, byte[]> accountStateCodec = new SourceCodec.BytesKey<>(stateTrieWriter, Serializers.AccountStateSerializer);
         final ReadWriteCache.BytesKey<AccountState> accountStateCache = new ReadWriteCache.BytesKey<>(accountStateCodec, WriteCache.CacheType.SIMPLE);
 
-        final MultiCache<StorageCache> storageCache = new MultiStorageCache();
+        final MultiCache<CachedSource<DataWord, DataWord>> storageCache = new MultiStorageCache();
 
         // counting as there can be 2 contracts with the same code, 1 can suicide
         Source<byte[], byte[]> codeCache = new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.COUNTING);
@@ -109,29 +380,55 @@ public class RepositoryRoot extends RepositoryImpl {
     }
 
     @Override
-    public synchronized void commit() {
-        super.commit();
+    public void commit() {
+        try (ALock l = writeLock.lock()) {
+            super.commit();
+
+            stateTrieWriter.flush();
+            try (ALock tl = trieLock.lock()) {
+                stateTrie.flush();
+                trieCache.flush();
 
-        stateTrie.flush();
-        trieCache.flush();
+                if (flatState != null) {
+                    byte[] newRoot = stateTrie.getRootHash();
+                    if (!FastByteComparisons.equal(newRoot, baseRoot)) {
+                        flatState.update(baseRoot, newRoot, diff);
+                    }
+                    resetFlatState(newRoot);
+                }
+            }
+        }
     }
 
     @Override
-    public synchronized byte[] getRoot() {
-        storageCache.flush();
-        accountStateCache.flush();
+    public byte[] getRoot() {
+        try (ALock l = writeLock.lock()) {
+            storageCache.flush();
+            accountStateCache.flush();
+            stateTrieWriter.flush();
 
-        return stateTrie.getRootHash();
+            try (ALock tl = trieLock.lock()) {
+                return stateTrie.getRootHash();
+            }
+        }
     }
 
     @Override
-    public synchronized void flush() {
+    public void flush() {
         commit();
     }
 
     @Override
     public Repository getSnapshotTo(byte[] root) {
-        return new RepositoryRoot(stateDS, root);
+        return new RepositoryRoot(stateDS, root, flatState);
+    }
+
+    /**
+     * Snapshot to the root which never writes to the state DB: trie nodes go to
+     * a throwaway cache on flush and commit, the flat state is not updated either
+     */
+    public RepositoryRoot getReadOnlySnapshotTo(byte[] root) {
+        return new RepositoryRoot(new WriteCache.BytesKey<>(stateDS, WriteCache.CacheType.SIMPLE), root);
     }
 
     @Override
@@ -140,13 +437,29 @@ public class RepositoryRoot extends RepositoryImpl {
     }
 
     @Override
-    public synchronized String dumpStateTrie() {
-        return ((TrieImpl) stateTrie).dumpTrie();
+    public String dumpStateTrie() {
+        try (ALock l = trieLock.lock()) {
+            return ((TrieImpl) stateTrie).dumpTrie();
+        }
     }
 
     @Override
-    public synchronized void syncToRoot(byte[] root) {
-        stateTrie.setRoot(root);
+    public void syncToRoot(byte[] root) {
+        try (ALock l = writeLock.lock(); ALock tl = trieLock.lock()) {
+            stateTrie.setRoot(root);
+            if (flatState != null) resetFlatState(root);
+        }
+    }
+
+    private void resetStaleLayer(FlatState.Layer stale) {
+        // a concurrent commit may have set the new layer meanwhile
+        if (layer == stale) layer = null;
+    }
+
+    private void resetFlatState(byte[] root) {
+        baseRoot = root == null ? EMPTY_TRIE_HASH : root;
+        layer = flatState.getLayer(baseRoot);
+        diff = new FlatStateDiff();
     }
 
     protected TrieImpl createTrie(Source<byte[], byte[]> trieCache, byte[] root) {
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.flat;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.datasource.BatchSourceWriter;
+import org.ethereum.datasource.DbSource;
+import org.ethereum.datasource.NodeKeyCompositor;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.SourceCodec;
+import org.ethereum.datasource.WriteCache;
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.trie.TrieImpl;
+import org.ethereum.util.ALock;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.toHexString;
+
+/**
+ * Flat index of the state: <code>sha3(address) -> account</code> and
+ * <code>(sha3(address), sha3(key)) -> storage value</code>
+ *
+ * Allows reading the state with a single DB lookup instead of walking
+ * the state trie from its root. The trie is still used to calculate state roots.
+ *
+ * The flat state consists of the disk layer, which corresponds to some
+ * committed state root, and a tree of in-memory {@link FlatStateDiff} layers
+ * on top of it, one per committed root. When the diff layers chain gets longer
+ * than <code>maxDiffLayers</code> the bottom layer is merged into the disk one
+ * and branches not descending from it (stale forks) are dropped.
+ *
+ * The flat state is kept in a dedicated DB which is wiped each time
+ * the flat state is regenerated from scratch. Disk layout:
+ * <ul>
+ *     <li>account: <code>accountHash -> incarnation(4 bytes) ++ account RLP</code>,
+ *          account RLP is empty for deleted accounts</li>
+ *     <li>storage: <code>accountHash ++ incarnation ++ slotHash -> value RLP</code></li>
+ * </ul>
+ * Account incarnation is incremented when account is destructed, thus
+ * storage of the previous incarnation becomes unreachable without range deletes
+ *
+ * Diff layers are written to the DB journal by {@link #journal()} on shutdown
+ * and are restored on the next start, so the flat state is regenerated only
+ * after an unclean shutdown
+ */
+public class FlatState {
+    private static final Logger logger = LoggerFactory.getLogger("db");
+
+    private static final byte[] META_KEY = "flatStateMeta".getBytes();
+    private static final byte[] JOURNAL_KEY = "flatStateJournal".getBytes();
+    private static final int INT_LEN = 4;
+    private static final int HASH_LEN = 32;
+
+    /**
+     * Thrown when a layer is read after it was merged into the disk layer or dropped.
+     * The reader should fall back to the trie
+     */
+    public static class StaleLayerException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StaleLayerException(byte[] root) {
+            super("Flat state layer is stale: " + toHexString(root));
+        }
+    }
+
+    /**
+     * Read only view of the state at some root
+     */
+    public abstract static class Layer {
+        final byte[] root;
+
+        Layer(byte[] root) {
+            this.root = root;
+        }
+
+        public byte[] getRoot() {
+            return root;
+        }
+
+        /**
+         * @return raw account trie value or <code>null</code> if account doesn't exist
+         */
+        public abstract byte[] getAccount(byte[] accountHash);
+
+        /**
+         * @return raw storage trie value or <code>null</code> if the slot is empty
+         */
+        public abstract byte[] getStorage(byte[] accountHash, byte[] slotHash);
+    }
+
+    static class DiffLayer extends Layer {
+        final FlatStateDiff diff;
+        volatile Layer parent;
+        volatile boolean stale;
+
+        DiffLayer(byte[] root, Layer parent, FlatStateDiff diff) {
+            super(root);
+            this.parent = parent;
+            this.diff = diff;
+        }
+
+        @Override
+        public byte[] getAccount(byte[] accountHash) {
+            Layer layer = this;
+            while (layer instanceof DiffLayer) {
+                DiffLayer diffLayer = (DiffLayer) layer;
+                if (diffLayer.stale) throw new StaleLayerException(diffLayer.root);
+                byte[] ret = diffLayer.diff.getAccount(accountHash);
+                if (ret != null) return ret.length == 0 ? null : ret;
+                layer = diffLayer.parent;
+            }
+            return layer.getAccount(accountHash);
+        }
+
+        @Override
+        public byte[] getStorage(byte[] accountHash, byte[] slotHash) {
+            Layer layer = this;
+            while (layer instanceof DiffLayer) {
+                DiffLayer diffLayer = (DiffLayer) layer;
+                if (diffLayer.stale) throw new StaleLayerException(diffLayer.root);
+                byte[] ret = diffLayer.diff.getStorage(accountHash, slotHash);
+                if (ret != null) return ret.length == 0 ? null : ret;
+                if (diffLayer.diff.isDestructed(accountHash)) return null;
+                layer = diffLayer.parent;
+            }
+            return layer.getStorage(accountHash, slotHash);
+        }
+
+        int depth() {
+            int ret = 0;
+            for (Layer l = this; l instanceof DiffLayer; l = ((DiffLayer) l).parent) ret++;
+            return ret;
+        }
+    }
+
+    class DiskLayer extends Layer {
+        volatile boolean stale;
+
+        DiskLayer(byte[] root) {
+            super(root);
+        }
+
+        @Override
+        public byte[] getAccount(byte[] accountHash) {
+            try (ALock l = diskReadLock.lock()) {
+                if (stale) throw new StaleLayerException(root);
+                byte[] entry = db.get(accountHash);
+                return entry == null || entry.length <= INT_LEN ? null : ByteUtil.parseBytes(entry, INT_LEN, entry.length - INT_LEN);
+            }
+        }
+
+        @Override
+        public byte[] getStorage(byte[] accountHash, byte[] slotHash) {
+            try (ALock l = diskReadLock.lock()) {
+                if (stale) throw new StaleLayerException(root);
+                byte[] entry = db.get(accountHash);
+                if (entry == null) return null;
+                return db.get(storageKey(accountHash, incarnation(entry), slotHash));
+            }
+        }
+    }
+
+    private final DbSource<byte[]> store;
+    private final WriteCache.BytesKey<byte[]> db;
+    private final int maxDiffLayers;
+
+    private final Map<ByteArrayWrapper, Layer> layers = new ConcurrentHashMap<>();
+    private volatile DiskLayer disk;
+
+    private final ReadWriteLock diskLock = new ReentrantReadWriteLock();
+    private final ALock diskReadLock = new ALock(diskLock.readLock());
+    private final ALock diskWriteLock = new ALock(diskLock.writeLock());
+
+    /**
+     * @param store dedicated DB for the flat state, it is reset on regeneration
+     * @param maxDiffLayers max number of in-memory diff layers on top of the disk one
+     */
+    public FlatState(DbSource<byte[]> store, int maxDiffLayers) {
+        this.store = store;
+        this.db = new WriteCache.BytesKey<>(new BatchSourceWriter<>(store), WriteCache.CacheType.SIMPLE);
+        this.db.setFlushSource(true);
+        this.maxDiffLayers = maxDiffLayers;
+
+        byte[] meta = db.get(META_KEY);
+        if (meta != null) {
+            disk = new DiskLayer(RLP.unwrapList(meta).get(0).getRLPData());
+            layers.put(new ByteArrayWrapper(disk.root), disk);
+            int restored = loadJournal();
+            logger.info("Flat state loaded at root {}, {} diff layers restored", toHexString(disk.root), restored);
+        }
+    }
+
+    private int loadJournal() {
+        byte[] journal = db.get(JOURNAL_KEY);
+        if (journal == null) return 0;
+
+        // the journal is valid only for the disk layer it was written on top of
+        db.delete(JOURNAL_KEY);
+        db.flush();
+
+        RLPList items = (RLPList) RLP.decode2(journal).get(0);
+        if (!FastByteComparisons.equal(items.get(0).getRLPData(), disk.root)) {
+            logger.info("Flat state journal doesn't match the disk layer, skipping");
+            return 0;
+        }
+
+        int restored = 0;
+        for (int i = 1; i < items.size(); i++) {
+            RLPList layer = (RLPList) items.get(i);
+            Layer parent = getLayer(layer.get(1).getRLPData());
+            if (parent == null) continue;
+            byte[] root = layer.get(0).getRLPData();
+            layers.put(new ByteArrayWrapper(root), new DiffLayer(root, parent, new FlatStateDiff(layer.get(2).getRLPData())));
+            restored++;
+        }
+        return restored;
+    }
+
+    /**
+     * Persists the in-memory diff layers to be restored on the next start.
+     * Should be called on shutdown when no more updates are expected
+     */
+    public synchronized void journal() {
+        if (disk == null) return;
+
+        // parents are written ahead of their children
+        List<DiffLayer> diffLayers = new ArrayList<>();
+        for (Layer layer : layers.values()) {
+            if (layer instanceof DiffLayer) diffLayers.add((DiffLayer) layer);
+        }
+        diffLayers.sort(Comparator.comparingInt(DiffLayer::depth));
+
+        byte[][] encoded = new byte[diffLayers.size() + 1][];
+        encoded[0] = RLP.encodeElement(disk.root);
+        for (int i = 0; i < diffLayers.size(); i++) {
+            DiffLayer layer = diffLayers.get(i);
+            encoded[i + 1] = RLP.encodeList(RLP.encodeElement(layer.root),
+                    RLP.encodeElement(layer.parent.root), layer.diff.getEncoded());
+        }
+        db.put(JOURNAL_KEY, RLP.encodeList(encoded));
+        db.flush();
+
+        logger.info("Flat state: {} diff layers journaled on top of root {}", diffLayers.size(), toHexString(disk.root));
+    }
+
+    /**
+     * @return view of the state at specified root or <code>null</code>
+     * if this root is unknown to the flat state
+     */
+    public Layer getLayer(byte[] root) {
+        return root == null ? null : layers.get(new ByteArrayWrapper(root));
+    }
+
+    /**
+     * Adds the layer with state changes made on top of the parent root.
+     * The update is ignored when parent root is unknown
+     */
+    public synchronized void update(byte[] parentRoot, byte[] root, FlatStateDiff diff) {
+        if (layers.containsKey(new ByteArrayWrapper(root))) return;
+
+        Layer parent = getLayer(parentRoot);
+        if (parent == null) {
+            logger.debug("Flat state: parent root {} is unknown, skipping update to {}",
+                    toHexString(parentRoot), toHexString(root));
+            return;
+        }
+
+        DiffLayer layer = new DiffLayer(root, parent, diff);
+        layers.put(new ByteArrayWrapper(root), layer);
+
+        if (layer.depth() > maxDiffLayers) {
+            DiffLayer bottom = layer;
+            while (bottom.parent instanceof DiffLayer) bottom = (DiffLayer) bottom.parent;
+            flatten(bottom);
+        }
+    }
+
+    /**
+     * Merges the bottom diff layer into the disk layer, drops layers which
+     * don't descend from it
+     */
+    private void flatten(DiffLayer bottom) {
+        long s = System.currentTimeMillis();
+        DiskLayer oldDisk = disk;
+        DiskLayer newDisk = new DiskLayer(bottom.root);
+        try (ALock l = diskWriteLock.lock()) {
+            writeDiff(bottom.diff);
+            writeMeta(newDisk);
+            db.flush();
+            oldDisk.stale = true;
+            disk = newDisk;
+        }
+
+        layers.remove(new ByteArrayWrapper(oldDisk.root));
+        layers.put(new ByteArrayWrapper(newDisk.root), newDisk);
+
+        // re-parenting children of the flattened layer, dropping stale forks
+        List<ByteArrayWrapper> dropped = new ArrayList<>();
+        for (Map.Entry<ByteArrayWrapper, Layer> entry : layers.entrySet()) {
+            if (!(entry.getValue() instanceof DiffLayer)) continue;
+            DiffLayer layer = (DiffLayer) entry.getValue();
+            if (layer.parent == bottom) {
+                layer.parent = newDisk;
+            }
+        }
+        for (Map.Entry<ByteArrayWrapper, Layer> entry : layers.entrySet()) {
+            if (!(entry.getValue() instanceof DiffLayer)) continue;
+            Layer l = entry.getValue();
+            while (l instanceof DiffLayer) l = ((DiffLayer) l).parent;
+            if (l != newDisk) {
+                ((DiffLayer) entry.getValue()).stale = true;
+                dropped.add(entry.getKey());
+            }
+        }
+        bottom.stale = true;
+        dropped.forEach(layers::remove);
+
+        logger.debug("Flat state: layer {} merged to disk in {} ms, {} stale layers dropped",
+                toHexString(bottom.root), System.currentTimeMillis() - s, dropped.size());
+    }
+
+    private void writeDiff(FlatStateDiff diff) {
+        for (ByteArrayWrapper accountHash : diff.destructed) {
+            byte[] key = accountHash.getData();
+            byte[] entry = db.get(key);
+            int incarnation = entry == null ? 0 : incarnation(entry) + 1;
+            // the account value itself (if still exists) is written below
+            db.put(key, accountEntry(incarnation, null));
+        }
+        for (Map.Entry<ByteArrayWrapper, byte[]> account : diff.accounts.entrySet()) {
+            byte[] key = account.getKey().getData();
+            byte[] entry = db.get(key);
+            db.put(key, accountEntry(entry == null ? 0 : incarnation(entry), account.getValue()));
+        }
+        for (Map.Entry<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> slots : diff.storage.entrySet()) {
+            byte[] accountHash = slots.getKey().getData();
+            byte[] entry = db.get(accountHash);
+            int incarnation = entry == null ? 0 : incarnation(entry);
+            if (entry == null) {
+                db.put(accountHash, accountEntry(0, null));
+            }
+            for (Map.Entry<ByteArrayWrapper, byte[]> slot : slots.getValue().entrySet()) {
+                byte[] key = storageKey(accountHash, incarnation, slot.getKey().getData());
+                if (slot.getValue().length == 0) {
+                    db.delete(key);
+                } else {
+                    db.put(key, slot.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the flat state from scratch for the specified state root.
+     * All existing layers are dropped and the flat state DB is wiped.
+     * The state at the root should be complete and must not be modified (pruned) during generation
+     *
+     * @param stateDS source of the trie nodes (the same which is used by the {@link org.ethereum.db.RepositoryRoot})
+     * @param root state root to generate flat state for
+     */
+    public synchronized void generate(Source<byte[], byte[]> stateDS, byte[] root) {
+        long s = System.currentTimeMillis();
+        final AtomicLong accounts = new AtomicLong();
+        final AtomicLong slots = new AtomicLong();
+
+        logger.info("Flat state: generating for root {}...", toHexString(root));
+
+        try (ALock l = diskWriteLock.lock()) {
+            for (Layer layer : layers.values()) {
+                if (layer instanceof DiffLayer) ((DiffLayer) layer).stale = true;
+            }
+            if (disk != null) disk.stale = true;
+            layers.clear();
+            disk = null;
+
+            // meta is written last, thus interrupted generation
+            // is started over on the next attempt
+            db.flush();
+            store.reset();
+
+            if (!FastByteComparisons.equal(root, EMPTY_TRIE_HASH)) {
+                scanTrie(stateDS, root, (accountHash, accountValue) -> {
+                    db.put(accountHash, accountEntry(0, accountValue));
+                    AccountState accountState = new AccountState(accountValue);
+                    if (!FastByteComparisons.equal(accountState.getStateRoot(), EMPTY_TRIE_HASH)) {
+                        Source<byte[], byte[]> storageDS = new SourceCodec.KeyOnly<>(stateDS, new NodeKeyCompositor(accountHash));
+                        scanTrie(storageDS, accountState.getStateRoot(), (slotHash, value) -> {
+                            db.put(storageKey(accountHash, 0, slotHash), value);
+                            if (slots.incrementAndGet() % 100_000 == 0) db.flush();
+                        });
+                    }
+                    if (accounts.incrementAndGet() % 100_000 == 0) {
+                        db.flush();
+                        logger.info("Flat state: {} accounts, {} storage slots generated", accounts.get(), slots.get());
+                    }
+                });
+            }
+
+            DiskLayer newDisk = new DiskLayer(root);
+            writeMeta(newDisk);
+            db.flush();
+
+            disk = newDisk;
+            layers.put(new ByteArrayWrapper(root), newDisk);
+        }
+
+        logger.info("Flat state: generated {} accounts, {} storage slots for root {} in {} sec",
+                accounts.get(), slots.get(), toHexString(root), (System.currentTimeMillis() - s) / 1000);
+    }
+
+    /**
+     * Checks that each account and storage entry of the trie at the specified root
+     * is found in the flat state with the same value, and that each entry
+     * of the flat state at this root exists in the trie.
+     * The latter check iterates over all the flat state DB keys
+     *
+     * @return number of mismatched entries, -1 if the root is unknown to the flat state
+     */
+    public long verify(Source<byte[], byte[]> stateDS, byte[] root) {
+        final Layer layer = getLayer(root);
+        if (layer == null) return -1;
+
+        final AtomicLong mismatches = new AtomicLong();
+        if (!FastByteComparisons.equal(root, EMPTY_TRIE_HASH)) scanTrie(stateDS, root, (accountHash, accountValue) -> {
+            if (!FastByteComparisons.equal(accountValue, layer.getAccount(accountHash))) {
+                logger.warn("Flat state: account mismatch {}", toHexString(accountHash));
+                mismatches.incrementAndGet();
+            }
+            AccountState accountState = new AccountState(accountValue);
+            if (!FastByteComparisons.equal(accountState.getStateRoot(), EMPTY_TRIE_HASH)) {
+                Source<byte[], byte[]> storageDS = new SourceCodec.KeyOnly<>(stateDS, new NodeKeyCompositor(accountHash));
+                scanTrie(storageDS, accountState.getStateRoot(), (slotHash, value) -> {
+                    if (!FastByteComparisons.equal(value, layer.getStorage(accountHash, slotHash))) {
+                        logger.warn("Flat state: storage mismatch {}:{}", toHexString(accountHash), toHexString(slotHash));
+                        mismatches.incrementAndGet();
+                    }
+                });
+            }
+        });
+
+        TrieImpl stateTrie = new TrieImpl(stateDS, root);
+        for (ByteArrayWrapper key : collectKeys(layer)) {
+            byte[] accountHash = ByteUtil.parseBytes(key.getData(), 0, HASH_LEN);
+            byte[] accountValue = stateTrie.get(accountHash);
+            if (key.getData().length == HASH_LEN) {
+                if (accountValue == null && layer.getAccount(accountHash) != null) {
+                    logger.warn("Flat state: extra account {}", toHexString(accountHash));
+                    mismatches.incrementAndGet();
+                }
+            } else {
+                byte[] slotHash = ByteUtil.parseBytes(key.getData(), HASH_LEN + INT_LEN, HASH_LEN);
+                if (layer.getStorage(accountHash, slotHash) == null) continue;
+                byte[] storageRoot = accountValue == null ? EMPTY_TRIE_HASH : new AccountState(accountValue).getStateRoot();
+                Source<byte[], byte[]> storageDS = new SourceCodec.KeyOnly<>(stateDS, new NodeKeyCompositor(accountHash));
+                if (new TrieImpl(storageDS, storageRoot).get(slotHash) == null) {
+                    logger.warn("Flat state: extra storage {}:{}", toHexString(accountHash), toHexString(slotHash));
+                    mismatches.incrementAndGet();
+                }
+            }
+        }
+
+        return mismatches.get();
+    }
+
+    /**
+     * @return account and storage keys (in the disk format, incarnation is ignored)
+     * of the disk layer and of all the diff layers down from the specified one
+     */
+    private Set<ByteArrayWrapper> collectKeys(Layer layer) {
+        Set<ByteArrayWrapper> ret = new HashSet<>();
+        for (Layer l = layer; l instanceof DiffLayer; l = ((DiffLayer) l).parent) {
+            FlatStateDiff diff = ((DiffLayer) l).diff;
+            for (ByteArrayWrapper accountHash : diff.accounts.keySet()) ret.add(accountHash);
+            for (Map.Entry<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> slots : diff.storage.entrySet()) {
+                for (ByteArrayWrapper slotHash : slots.getValue().keySet()) {
+                    ret.add(new ByteArrayWrapper(storageKey(slots.getKey().getData(), 0, slotHash.getData())));
+                }
+            }
+        }
+        try (ALock l = diskReadLock.lock()) {
+            db.flush();
+            for (byte[] key : store.keys()) {
+                if (key.length == HASH_LEN || key.length == HASH_LEN * 2 + INT_LEN) ret.add(new ByteArrayWrapper(key));
+            }
+        }
+        return ret;
+    }
+
+    public int getLayersCount() {
+        return layers.size();
+    }
+
+    private interface LeafAction {
+        void onLeaf(byte[] key, byte[] value);
+    }
+
+    private static void scanTrie(Source<byte[], byte[]> trieDS, byte[] root, LeafAction action) {
+        new TrieImpl(trieDS, root).scanTree(new TrieImpl.ScanAction() {
+            @Override
+            public void doOnNode(byte[] hash, TrieImpl.Node node) {}
+
+            @Override
+            public void doOnValue(byte[] nodeHash, TrieImpl.Node node, byte[] key, byte[] value) {
+                action.onLeaf(key, value);
+            }
+        });
+    }
+
+    private void writeMeta(DiskLayer layer) {
+        db.put(META_KEY, RLP.encodeList(RLP.encodeElement(layer.root)));
+    }
+
+    static byte[] storageKey(byte[] accountHash, int incarnation, byte[] slotHash) {
+        byte[] ret = new byte[accountHash.length + INT_LEN + slotHash.length];
+        System.arraycopy(accountHash, 0, ret, 0, accountHash.length);
+        putInt(ret, accountHash.length, incarnation);
+        System.arraycopy(slotHash, 0, ret, INT_LEN + accountHash.length, slotHash.length);
+        return ret;
+    }
+
+    static byte[] accountEntry(int incarnation, byte[] accountValue) {
+        int len = accountValue == null ? 0 : accountValue.length;
+        byte[] ret = new byte[INT_LEN + len];
+        putInt(ret, 0, incarnation);
+        if (len > 0) System.arraycopy(accountValue, 0, ret, INT_LEN, len);
+        return ret;
+    }
+
+    private static int incarnation(byte[] accountEntry) {
+        return ByteUtil.byteArrayToInt(ByteUtil.parseBytes(accountEntry, 0, INT_LEN));
+    }
+
+    private static void putInt(byte[] bytes, int off, int val) {
+        bytes[off] = (byte) (val >>> 24);
+        bytes[off + 1] = (byte) (val >>> 16);
+        bytes[off + 2] = (byte) (val >>> 8);
+        bytes[off + 3] = (byte) val;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.flat;
+
+import org.ethereum.db.ByteArrayWrapper;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPElement;
+import org.ethereum.util.RLPList;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+
+/**
+ * Set of state changes collected between two state roots
+ *
+ * Keys are hashed the same way they are hashed by the secure trie:
+ * accounts by <code>sha3(address)</code>, storage slots by <code>sha3(key)</code>.
+ * Values are raw trie values, deleted entries are kept as empty arrays
+ *
+ * Destructed account means that all its storage which existed before
+ * this diff is wiped, storage entries of the diff belong to the new incarnation
+ */
+public class FlatStateDiff {
+
+    final Map<ByteArrayWrapper, byte[]> accounts = new ConcurrentHashMap<>();
+    final Map<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> storage = new ConcurrentHashMap<>();
+    final Set<ByteArrayWrapper> destructed = ConcurrentHashMap.newKeySet();
+
+    public FlatStateDiff() {
+    }
+
+    public FlatStateDiff(byte[] rlpEncoded) {
+        RLPList items = (RLPList) RLP.decode2(rlpEncoded).get(0);
+        for (RLPElement account : (RLPList) items.get(0)) {
+            RLPList pair = (RLPList) account;
+            putAccount(pair.get(0).getRLPData(), pair.get(1).getRLPData());
+        }
+        for (RLPElement accountHash : (RLPList) items.get(1)) {
+            destructed.add(new ByteArrayWrapper(accountHash.getRLPData()));
+        }
+        for (RLPElement account : (RLPList) items.get(2)) {
+            RLPList accountSlots = (RLPList) account;
+            byte[] accountHash = accountSlots.get(0).getRLPData();
+            for (RLPElement slot : (RLPList) accountSlots.get(1)) {
+                RLPList pair = (RLPList) slot;
+                putStorage(accountHash, pair.get(0).getRLPData(), pair.get(1).getRLPData());
+            }
+        }
+    }
+
+    public void putAccount(byte[] accountHash, byte[] value) {
+        accounts.put(new ByteArrayWrapper(accountHash), value == null ? EMPTY_BYTE_ARRAY : value);
+    }
+
+    public void destruct(byte[] accountHash) {
+        ByteArrayWrapper key = new ByteArrayWrapper(accountHash);
+        destructed.add(key);
+        storage.remove(key);
+    }
+
+    public void putStorage(byte[] accountHash, byte[] slotHash, byte[] value) {
+        storage.computeIfAbsent(new ByteArrayWrapper(accountHash), k -> new ConcurrentHashMap<>())
+                .put(new ByteArrayWrapper(slotHash), value == null ? EMPTY_BYTE_ARRAY : value);
+    }
+
+    /**
+     * @return account value, empty array if account was deleted or <code>null</code> if it wasn't touched
+     */
+    public byte[] getAccount(byte[] accountHash) {
+        return accounts.get(new ByteArrayWrapper(accountHash));
+    }
+
+    /**
+     * @return slot value, empty array if slot was deleted or <code>null</code> if it wasn't touched
+     */
+    public byte[] getStorage(byte[] accountHash, byte[] slotHash) {
+        Map<ByteArrayWrapper, byte[]> slots = storage.get(new ByteArrayWrapper(accountHash));
+        return slots == null ? null : slots.get(new ByteArrayWrapper(slotHash));
+    }
+
+    public boolean isDestructed(byte[] accountHash) {
+        return destructed.contains(new ByteArrayWrapper(accountHash));
+    }
+
+    public boolean isEmpty() {
+        return accounts.isEmpty() && storage.isEmpty() && destructed.isEmpty();
+    }
+
+    public byte[] getEncoded() {
+        byte[][] accountsEnc = new byte[accounts.size()][];
+        int i = 0;
+        for (Map.Entry<ByteArrayWrapper, byte[]> account : accounts.entrySet()) {
+            accountsEnc[i++] = RLP.encodeList(RLP.encodeElement(account.getKey().getData()),
+                    RLP.encodeElement(account.getValue()));
+        }
+
+        byte[][] destructedEnc = new byte[destructed.size()][];
+        i = 0;
+        for (ByteArrayWrapper accountHash : destructed) {
+            destructedEnc[i++] = RLP.encodeElement(accountHash.getData());
+        }
+
+        byte[][] storageEnc = new byte[storage.size()][];
+        i = 0;
+        for (Map.Entry<ByteArrayWrapper, Map<ByteArrayWrapper, byte[]>> slots : storage.entrySet()) {
+            byte[][] slotsEnc = new byte[slots.getValue().size()][];
+            int j = 0;
+            for (Map.Entry<ByteArrayWrapper, byte[]> slot : slots.getValue().entrySet()) {
+                slotsEnc[j++] = RLP.encodeList(RLP.encodeElement(slot.getKey().getData()),
+                        RLP.encodeElement(slot.getValue()));
+            }
+            storageEnc[i++] = RLP.encodeList(RLP.encodeElement(slots.getKey().getData()), RLP.encodeList(slotsEnc));
+        }
+
+        return RLP.encodeList(RLP.encodeList(accountsEnc), RLP.encodeList(destructedEnc), RLP.encodeList(storageEnc));
+    }
+
+    @Override
+    public String toString() {
+        return "FlatStateDiff{accounts: " + accounts.size() + ", storage accounts: " + storage.size() +
+                ", destructed: " + destructed.size() + "}";
+    }
+}
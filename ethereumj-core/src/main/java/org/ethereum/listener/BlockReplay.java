@@ -19,8 +19,10 @@ package org.ethereum.listener;
 
 import org.apache.commons.collections4.queue.CircularFifoQueue;
 import org.ethereum.core.*;
+import org.ethereum.datasource.Source;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.TransactionStore;
+import org.ethereum.manager.BlockReplayEngine;
 import org.ethereum.net.eth.message.StatusMessage;
 import org.ethereum.net.message.Message;
 import org.ethereum.net.p2p.HelloMessage;
@@ -33,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.LongStream;
 
 import static org.ethereum.sync.BlockDownloader.MAX_IN_REQUEST;
 
@@ -52,6 +55,7 @@ public class BlockReplay extends EthereumListenerAdapter {
 
     BlockStore blockStore;
     TransactionStore transactionStore;
+    BlockchainImpl blockchain;
 
     EthereumListener listener;
 
@@ -61,6 +65,9 @@ public class BlockReplay extends EthereumListenerAdapter {
     Block lastReplayedBlock;
     CircularFifoQueue<BlockSummary> onBlockBuffer = new CircularFifoQueue<>(HALF_BUFFER * 2);
 
+    BlockReplayEngine engine = new BlockReplayEngine(Runtime.getRuntime().availableProcessors(), HALF_BUFFER * 2)
+            .withSenderRecovery(false);
+
     public BlockReplay(BlockStore blockStore, TransactionStore transactionStore, EthereumListener listener, long firstBlock) {
         this.blockStore = blockStore;
         this.transactionStore = transactionStore;
@@ -68,6 +75,28 @@ public class BlockReplay extends EthereumListenerAdapter {
         this.firstBlock = firstBlock;
     }
 
+    /**
+     * Re-executes replayed blocks on top of their parent states instead of reading stored receipts,
+     * the listener gets fresh receipts, execution summaries and VM traces. The state is not committed
+     * so the replay is read-only, the states of replayed blocks parents should not be pruned
+     */
+    public BlockReplay withExecution(BlockchainImpl blockchain) {
+        this.blockchain = blockchain;
+        engine.withSenderRecovery(true);
+        return this;
+    }
+
+    /**
+     * Saves the replay progress to the source under the given name,
+     * a subsequent replay with the same source and name starts after the saved block
+     *
+     * @see BlockReplayEngine#withCheckpoint(Source, String)
+     */
+    public BlockReplay withCheckpoint(Source<byte[], byte[]> checkpointSource, String name) {
+        engine.withCheckpoint(checkpointSource, name);
+        return this;
+    }
+
     /**
      * Replay blocks asynchronously
      */
@@ -80,16 +109,14 @@ public class BlockReplay extends EthereumListenerAdapter {
      */
     public void replay() {
         long lastBlock = blockStore.getMaxNumber();
-        logger.info("Replaying blocks from " + firstBlock + ", current best block: " + lastBlock);
-        int cnt = 0;
-        long num = firstBlock;
+        long num = Math.max(firstBlock, engine.getCheckpoint() + 1);
+        logger.info("Replaying blocks from " + num + ", current best block: " + lastBlock);
+        long cnt = 0;
         while(!replayComplete) {
-            for (; num <= lastBlock; num++) {
-                replayBlock(num);
-                cnt++;
-                if (cnt % 1000 == 0) {
-                    logger.info("Replayed " + cnt + " blocks so far. Current block: " + num);
-                }
+            if (num <= lastBlock) {
+                cnt += engine.run(LongStream.rangeClosed(num, lastBlock).iterator(), this::loadBlock, this::replayBlock)
+                        .getBlocks();
+                num = lastBlock + 1;
             }
 
             synchronized (this) {
@@ -106,12 +133,17 @@ public class BlockReplay extends EthereumListenerAdapter {
                 }
             }
         }
-        logger.info("Replay complete.");
+        logger.info("Replay complete: " + cnt + " blocks replayed.");
     }
 
-    private void replayBlock(long num) {
+    // called on the engine decoding threads, IndexedBlockStore lookups are synchronized
+    // so the DB reads are serialized while the lazy block RLP parsing, senders recovery
+    // and receipts lookup run in parallel outside of the store monitor
+    private BlockSummary loadBlock(long num) {
         Block block = blockStore.getChainBlockByNumber(num);
-        lastReplayedBlock = block;
+        if (blockchain != null) {
+            return new BlockSummary(block, null, null, null);
+        }
         List<TransactionReceipt> receipts = new ArrayList<>();
         for (Transaction tx : block.getTransactionsList()) {
             TransactionInfo info = transactionStore.get(tx.getHash(), block.getHash());
@@ -119,8 +151,16 @@ public class BlockReplay extends EthereumListenerAdapter {
             receipt.setTransaction(tx);
             receipts.add(receipt);
         }
-        BlockSummary blockSummary = new BlockSummary(block, null, receipts, null);
-        blockSummary.setTotalDifficulty(BigInteger.valueOf(num));
+        return new BlockSummary(block, null, receipts, null);
+    }
+
+    private void replayBlock(BlockSummary blockSummary) {
+        Block block = blockSummary.getBlock();
+        lastReplayedBlock = block;
+        if (blockchain != null) {
+            blockSummary = blockchain.executeBlockReadOnly(block, listener);
+        }
+        blockSummary.setTotalDifficulty(BigInteger.valueOf(block.getNumber()));
         listener.onBlock(blockSummary);
     }
 
@@ -34,44 +34,50 @@ public class LogFilter {
 
     private List<byte[][]> topics = new ArrayList<>();  //  [[addr1, addr2], null, [A, B], [C]]
     private byte[][] contractAddresses = new byte[0][];
-    private Bloom[][] filterBlooms;
+    // positions of bloom bits set by each address and topic: [[addr1Bits, addr2Bits], [ABits, BBits], [CBits]]
+    private int[][][] bloomBits = new int[0][][];
 
     public LogFilter withContractAddress(byte[] ... orAddress) {
         contractAddresses = orAddress;
+        initBlooms();
         return this;
     }
 
     public LogFilter withTopic(byte[] ... orTopic) {
         topics.add(orTopic);
+        initBlooms();
         return this;
     }
 
     private void initBlooms() {
-        if (filterBlooms != null) return;
-
         List<byte[][]> addrAndTopics = new ArrayList<>(topics);
         addrAndTopics.add(contractAddresses);
 
-        filterBlooms = new Bloom[addrAndTopics.size()][];
-        for (int i = 0; i < addrAndTopics.size(); i++) {
-            byte[][] orTopics = addrAndTopics.get(i);
-            if (orTopics == null || orTopics.length == 0) {
-                filterBlooms[i] = new Bloom[] {new Bloom()}; // always matches
-            } else {
-                filterBlooms[i] = new Bloom[orTopics.length];
-                for (int j = 0; j < orTopics.length; j++) {
-                    filterBlooms[i][j] = Bloom.create(sha3(orTopics[j]));
-                }
+        List<int[][]> bits = new ArrayList<>();
+        for (byte[][] orTopics : addrAndTopics) {
+            if (orTopics == null || orTopics.length == 0) continue; // always matches
+            int[][] orBits = new int[orTopics.length][];
+            for (int j = 0; j < orTopics.length; j++) {
+                orBits[j] = Bloom.bitPositions(sha3(orTopics[j]));
             }
+            bits.add(orBits);
         }
+        bloomBits = bits.toArray(new int[bits.size()][][]);
+    }
+
+    /**
+     * @return positions of the bloom bits to check: a bloom matches the filter
+     * when for each row it has all the bits of at least one entry of the row set
+     */
+    public int[][][] getBloomBits() {
+        return bloomBits;
     }
 
     public boolean matchBloom(Bloom blockBloom) {
-        initBlooms();
-        for (Bloom[] andBloom : filterBlooms) {
+        for (int[][] orBits : bloomBits) {
             boolean orMatches = false;
-            for (Bloom orBloom : andBloom) {
-                if (blockBloom.matches(orBloom)) {
+            for (int[] andBits : orBits) {
+                if (blockBloom.hasBit(andBits[0]) && blockBloom.hasBit(andBits[1]) && blockBloom.hasBit(andBits[2])) {
                     orMatches = true;
                     break;
                 }
@@ -82,7 +88,6 @@ public class LogFilter {
     }
 
     public boolean matchesContractAddress(byte[] toAddr) {
-        initBlooms();
         for (byte[] address : contractAddresses) {
             if (Arrays.equals(address, toAddr)) return true;
         }
@@ -90,7 +95,6 @@ public class LogFilter {
     }
 
     public boolean matchesExactly(LogInfo logInfo) {
-        initBlooms();
         if (!matchesContractAddress(logInfo.getAddress())) return false;
         List<DataWord> logTopics = logInfo.getTopics();
         for (int i = 0; i < this.topics.size(); i++) {
@@ -17,12 +17,15 @@
  */
 package org.ethereum.manager;
 
+import org.ethereum.net.server.PeerRequestExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * @author Roman Mandeleil
@@ -32,10 +35,30 @@ import java.util.List;
 public class AdminInfo {
     private static final int ExecTimeListLimit = 10000;
 
+    /**
+     * Stages a block passes through on import
+     */
+    public enum ImportStage {
+        /** Decoding block and recovering tx senders, runs ahead of import on several threads */
+        Prepare,
+        /** Header and body checks */
+        Validate,
+        /** Transactions execution */
+        Execute,
+        /** State root, receipts trie and logs bloom calculation and comparison */
+        Roots,
+        /** Committing state and storing block and receipts */
+        Store
+    }
+
     private long startupTimeStamp;
     private boolean consensus = true;
     private List<Long> blockExecTime = new LinkedList<>();
+    private final long[] importStageTime = new long[ImportStage.values().length];
+    private final long[] importStageCount = new long[ImportStage.values().length];
 
+    @Autowired(required = false)
+    private PeerRequestExecutor peerRequestExecutor;
 
     @PostConstruct
     public void init() {
@@ -76,4 +99,37 @@ public class AdminInfo {
     public List<Long> getBlockExecTime(){
         return blockExecTime;
     }
+
+    /**
+     * @return stats of serving the data requests of remote peers (queue depth, served and rejected
+     * requests, latency) or <code>null</code> if there is no request executor
+     */
+    public PeerRequestExecutor getPeerRequestExecutor() {
+        return peerRequestExecutor;
+    }
+
+    public synchronized void addImportStageTime(ImportStage stage, long nanos) {
+        importStageTime[stage.ordinal()] += nanos;
+        importStageCount[stage.ordinal()]++;
+    }
+
+    /**
+     * @return average time a block spends in the import stage, in nanoseconds
+     */
+    public synchronized long getImportStageAvg(ImportStage stage) {
+        long count = importStageCount[stage.ordinal()];
+        return count == 0 ? 0 : importStageTime[stage.ordinal()] / count;
+    }
+
+    /**
+     * @return average time per block of every import stage in milliseconds, like 'Prepare 1.20, Validate 0.35, ...'
+     */
+    public String getImportStagesInfo() {
+        StringBuilder sb = new StringBuilder();
+        for (ImportStage stage : ImportStage.values()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(String.format(Locale.US, "%s %.2f", stage, getImportStageAvg(stage) / 1_000_000d));
+        }
+        return sb.toString();
+    }
 }
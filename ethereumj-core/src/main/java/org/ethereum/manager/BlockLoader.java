@@ -21,11 +21,10 @@ package org.ethereum.manager;
 import org.apache.commons.lang3.ArrayUtils;
 import org.ethereum.core.Block;
 import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockSummary;
 import org.ethereum.core.Blockchain;
 import org.ethereum.core.ImportResult;
-import org.ethereum.core.Transaction;
 import org.ethereum.db.DbFlushManager;
-import org.ethereum.util.ExecutorPipeline;
 import org.ethereum.validator.BlockHeaderValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -60,9 +59,6 @@ public class BlockLoader {
     private final Blockchain blockchain;
     private final DbFlushManager dbFlushManager;
 
-    private ExecutorPipeline<Block, Block> exec1;
-    private ExecutorPipeline<Block, ?> exec2;
-
     @Autowired
     public BlockLoader(BlockHeaderValidator headerValidator, Blockchain blockchain, DbFlushManager dbFlushManager) {
         this.headerValidator = headerValidator;
@@ -70,23 +66,14 @@ public class BlockLoader {
         this.dbFlushManager = dbFlushManager;
     }
 
-    private void initPipelines() {
-        exec1 = new ExecutorPipeline(8, 1000, true, (Function<Block, Block>) b -> {
-            if (b.getNumber() >= blockchain.getBestBlock().getNumber()) {
-                for (Transaction tx : b.getTransactionsList()) {
-                    tx.getSender();
-                }
-            }
-            return b;
-        }, throwable -> logger.error("Unhandled exception: ", throwable));
-
-        exec2 = exec1.add(1, 1000, block -> {
-            try {
-                blockWork(block);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
+    // skips blocks imported by a previous run, called on the engine decoding threads
+    private BlockSummary decode(byte[] rlp, AtomicLong maxBlockNumber) {
+        Block block = new Block(rlp);
+        maxBlockNumber.accumulateAndGet(block.getNumber(), Math::max);
+        if (block.getNumber() < blockchain.getBestBlock().getNumber() && blockchain.isBlockExist(block.getHash())) {
+            return null;
+        }
+        return new BlockSummary(block, null, null, null);
     }
 
     private void blockWork(Block block) {
@@ -102,13 +89,10 @@ public class BlockLoader {
             if (block.getNumber() % 10 == 0) {
                 LocalDateTime finish = LocalDateTime.now();
 
-                System.out.printf("%s Imported block %s: %s (prework: %d, work: %d, blocks: %d) in %d ms.\n",
+                System.out.printf("%s Imported block %s: %s in %d ms.\n",
                         finish.format(df),
                         block.getShortDescr(),
                         result,
-                        exec1.getQueue().size(),
-                        exec2.getQueue().size(),
-                        exec1.getOrderMap().size(),
                         System.currentTimeMillis() - start);
             }
 
@@ -130,25 +114,26 @@ public class BlockLoader {
             return false;
         }
 
-        initPipelines();
-
+        BlockReplayEngine engine = new BlockReplayEngine(Runtime.getRuntime().availableProcessors(), 1000);
         AtomicLong maxBlockNumber = new AtomicLong();
         boolean allBlocksImported;
         try {
 
             for (Path dump : paths) {
                 try (DumpWalker walker = walkerFactory.apply(dump)) {
-                    walker.forEach(rlp -> {
-                        Block block = new Block(rlp);
-                        if (maxBlockNumber.get() < block.getNumber()) {
-                            maxBlockNumber.set(block.getNumber());
-                        }
-                        exec1.push(block);
-                    });
+                    BlockReplayEngine.Stats stats = engine.run(walker.iterator(),
+                            rlp -> decode(rlp, maxBlockNumber),
+                            summary -> {
+                                try {
+                                    blockWork(summary.getBlock());
+                                } catch (Exception e) {
+                                    e.printStackTrace();
+                                }
+                            });
+                    System.out.printf("Loaded %s: %s.\n", dump, stats);
                 }
             }
 
-            exec1.join();
             dbFlushManager.flushSync();
 
             allBlocksImported = maxBlockNumber.get() == blockchain.getBestBlock().getNumber();
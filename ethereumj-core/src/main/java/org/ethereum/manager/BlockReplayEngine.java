@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.manager;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.Transaction;
+import org.ethereum.datasource.Source;
+import org.ethereum.util.ByteUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Streams a long run of blocks through an in-order executor, for dump imports
+ * and replays of stored blocks.
+ *
+ * The source is read by the calling thread ahead of the execution: up to <code>readAhead</code>
+ * items are decoded by a pool of threads meanwhile (block loading and RLP parsing, transaction
+ * senders recovery, receipts lookup, whatever the decoder does), then the decoded blocks are
+ * passed to the executor one by one in the source order on the calling thread.
+ * NOTE: decoders reading a synchronized store (e.g. IndexedBlockStore) are serialized
+ * on its reads, only the work done outside of the store monitor runs in parallel
+ *
+ * When a checkpoint source is set the number of the last executed block is saved to it
+ * each <code>checkpointInterval</code> blocks and at the end of the run, blocks up to the saved
+ * number are skipped by subsequent runs so an interrupted run can be resumed from the same source.
+ * NOTE: the checkpoint is put to the source as is, the source should be flushed
+ * along with the results of the execution
+ *
+ * Throughput in blocks/sec and gas/sec is logged every <code>reportInterval</code> ms
+ * and is returned as {@link Stats} by {@link #run(Iterator, Function, Consumer)}
+ */
+public class BlockReplayEngine {
+    private static final Logger logger = LoggerFactory.getLogger("blockqueue");
+
+    /**
+     * Progress of a run
+     */
+    public static class Stats {
+        private final long startTime = System.nanoTime();
+        private long endTime;
+        private long blocks;
+        private long skipped;
+        private long txs;
+        private long gas;
+        private long lastBlock = -1;
+
+        void executed(Block block) {
+            blocks++;
+            txs += block.getTransactionsList().size();
+            gas += block.getGasUsed();
+            lastBlock = block.getNumber();
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getTxs() {
+            return txs;
+        }
+
+        public long getGas() {
+            return gas;
+        }
+
+        /**
+         * @return number of the last executed block or -1 if none was executed
+         */
+        public long getLastBlock() {
+            return lastBlock;
+        }
+
+        public long getElapsedMs() {
+            return ((endTime > 0 ? endTime : System.nanoTime()) - startTime) / 1_000_000;
+        }
+
+        public double getBlocksPerSec() {
+            return blocks * 1000d / Math.max(1, getElapsedMs());
+        }
+
+        public double getGasPerSec() {
+            return gas * 1000d / Math.max(1, getElapsedMs());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blocks (%d skipped), %d txs, last #%d in %d ms: %.1f blocks/s, %.2f Mgas/s",
+                    blocks, skipped, txs, lastBlock, getElapsedMs(), getBlocksPerSec(), getGasPerSec() / 1_000_000);
+        }
+    }
+
+    private final int threads;
+    private final int readAhead;
+    private boolean recoverSenders = true;
+
+    private Source<byte[], byte[]> checkpointSource;
+    private byte[] checkpointKey;
+    private int checkpointInterval = 1000;
+    private long reportInterval = 10_000;
+
+    /**
+     * @param threads number of decoding threads
+     * @param readAhead max number of blocks decoded ahead of the execution
+     */
+    public BlockReplayEngine(int threads, int readAhead) {
+        this.threads = threads;
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Enables checkpoints under the given name, see the class description
+     */
+    public BlockReplayEngine withCheckpoint(Source<byte[], byte[]> checkpointSource, String name) {
+        this.checkpointSource = checkpointSource;
+        this.checkpointKey = ("replayCheckpoint-" + name).getBytes();
+        return this;
+    }
+
+    public BlockReplayEngine withCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    public BlockReplayEngine withReportInterval(long reportIntervalMs) {
+        this.reportInterval = reportIntervalMs;
+        return this;
+    }
+
+    /**
+     * Whether transaction senders are recovered by the decoding threads, <code>true</code> by default
+     */
+    public BlockReplayEngine withSenderRecovery(boolean recoverSenders) {
+        this.recoverSenders = recoverSenders;
+        return this;
+    }
+
+    /**
+     * @return number of the last checkpointed block or -1 if there is no checkpoint
+     */
+    public long getCheckpoint() {
+        if (checkpointSource == null) return -1;
+        byte[] number = checkpointSource.get(checkpointKey);
+        return number == null ? -1 : ByteUtil.byteArrayToLong(number);
+    }
+
+    private void saveCheckpoint(long number) {
+        if (checkpointSource != null) {
+            checkpointSource.put(checkpointKey, ByteUtil.longToBytes(number));
+        }
+    }
+
+    /**
+     * Runs the source through the decoder and the executor
+     *
+     * @param source items to decode, read on the calling thread
+     * @param decoder is called on the decoding threads, may return <code>null</code> to skip an item
+     * @param executor is called on the calling thread in the source order
+     * @return throughput stats
+     * @throws RuntimeException wrapping the first decoder failure, executor failures
+     *          are rethrown as is, blocks executed before the failure are checkpointed
+     */
+    public <T> Stats run(Iterator<T> source, Function<T, BlockSummary> decoder, Consumer<BlockSummary> executor) {
+        ExecutorService decoders = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("replay-decoder-%d").setDaemon(true).build());
+        Deque<Future<BlockSummary>> window = new ArrayDeque<>(readAhead);
+        long checkpoint = getCheckpoint();
+        if (checkpoint >= 0) {
+            logger.info("Resuming replay after checkpoint #{}", checkpoint);
+        }
+
+        Stats stats = new Stats();
+        long lastReport = System.currentTimeMillis();
+        try {
+            while (true) {
+                while (window.size() < readAhead && source.hasNext()) {
+                    T item = source.next();
+                    window.add(decoders.submit(() -> decode(decoder, item)));
+                }
+                if (window.isEmpty()) break;
+
+                BlockSummary summary = window.poll().get();
+                if (summary == null || summary.getBlock().getNumber() <= checkpoint) {
+                    stats.skipped++;
+                    continue;
+                }
+
+                executor.accept(summary);
+                stats.executed(summary.getBlock());
+
+                if (stats.lastBlock % checkpointInterval == 0) {
+                    saveCheckpoint(stats.lastBlock);
+                }
+                if (System.currentTimeMillis() - lastReport >= reportInterval) {
+                    lastReport = System.currentTimeMillis();
+                    logger.info("Replay: {}, read ahead: {}", stats, window.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Replay interrupted", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to decode block", e.getCause());
+        } finally {
+            decoders.shutdownNow();
+            if (stats.lastBlock > checkpoint) {
+                saveCheckpoint(stats.lastBlock);
+            }
+            stats.endTime = System.nanoTime();
+        }
+
+        logger.info("Replay complete: {}", stats);
+        return stats;
+    }
+
+    private <T> BlockSummary decode(Function<T, BlockSummary> decoder, T item) {
+        BlockSummary summary = decoder.apply(item);
+        if (summary != null && recoverSenders) {
+            for (Transaction tx : summary.getBlock().getTransactionsList()) {
+                tx.getSender();
+            }
+        }
+        return summary;
+    }
+}
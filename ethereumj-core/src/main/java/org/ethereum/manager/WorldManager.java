@@ -22,6 +22,8 @@ import org.ethereum.core.*;
 import org.ethereum.db.BlockStore;
 import org.ethereum.db.DbFlushManager;
 import org.ethereum.db.HeaderStore;
+import org.ethereum.db.StateSource;
+import org.ethereum.db.flat.FlatState;
 import org.ethereum.db.migrate.MigrateHeaderSourceTotalDiff;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
@@ -118,6 +120,7 @@ public class WorldManager {
     @PostConstruct
     private void init() {
         fastSyncDbJobs();
+        initFlatState();
         syncManager.init(channelManager, pool);
     }
 
@@ -271,6 +274,25 @@ public class WorldManager {
         tempMigration.run();
     }
 
+    /**
+     * Generates the flat state index for the best block state
+     * if the index is missing or is behind (e.g. after unclean shutdown).
+     * After a clean shutdown the index is resumed from the journal written by {@link #close()}
+     */
+    private void initFlatState() {
+        if (!config.isFlatStateEnabled()) return;
+        if (ctx.getBean(FastSyncManager.class).isInProgress()) {
+            logger.info("Fast sync is in progress, flat state is not available until restart after sync is complete");
+            return;
+        }
+
+        FlatState flatState = ctx.getBean(FlatState.class);
+        byte[] bestRoot = blockchain.getBestBlock().getStateRoot();
+        if (flatState.getLayer(bestRoot) == null) {
+            flatState.generate(ctx.getBean(StateSource.class), bestRoot);
+        }
+    }
+
     public void close() {
         logger.info("close: stopping peer discovery ...");
         stopPeerDiscovery();
@@ -284,6 +306,10 @@ public class WorldManager {
         eventDispatchThread.shutdown();
         logger.info("close: closing Blockchain instance ...");
         blockchain.close();
+        if (config.isFlatStateEnabled()) {
+            logger.info("close: journaling flat state ...");
+            ctx.getBean(FlatState.class).journal();
+        }
         logger.info("close: closing main repository ...");
         repository.close();
         logger.info("close: database flush manager ...");
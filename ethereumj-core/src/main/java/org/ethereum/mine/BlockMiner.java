@@ -149,8 +149,7 @@ public class BlockMiner {
     }
 
     protected List<Transaction> getAllPendingTransactions() {
-        PendingStateImpl.TransactionSortedSet ret = new PendingStateImpl.TransactionSortedSet();
-        ret.addAll(pendingState.getPendingTransactions());
+        List<Transaction> ret = pendingState.getPendingTransactionsByPrice();
         Iterator<Transaction> it = ret.iterator();
         while(it.hasNext()) {
             Transaction tx = it.next();
@@ -159,7 +158,7 @@ public class BlockMiner {
                 it.remove();
             }
         }
-        return new ArrayList<>(ret);
+        return ret;
     }
 
     private void onPendingStateChanged() {
@@ -30,10 +30,13 @@ import org.ethereum.util.FastByteComparisons;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Random;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -60,29 +63,90 @@ public class Ethash {
     private static final Logger logger = LoggerFactory.getLogger("mine");
     static EthashParams ethashParams = new EthashParams();
 
-    static Ethash cachedInstance = null;
+    static volatile Ethash cachedInstance = null;
+    // instance of the next epoch which datasets are prepared in background
+    static volatile Ethash nextInstance = null;
     long epoch = 0;
     //    private static ExecutorService executor = Executors.newSingleThreadExecutor();
     private static ListeningExecutorService executor = MoreExecutors.listeningDecorator(
             new ThreadPoolExecutor(8, 8, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
             new ThreadFactoryBuilder().setNameFormat("ethash-pool-%d").build()));
+    private static ExecutorService nextEpochExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ethash-next-epoch").setDaemon(true).build());
 
     public static boolean fileCacheEnabled = true;
 
+    private static final Pattern DATASET_FILE_PATTERN = Pattern.compile("mine-dag(?:-light)?(?:-(\\d+))?\\.dat(?:\\.tmp)?");
+
     private Set<EthashListener> listeners = new CopyOnWriteArraySet <>();
 
     /**
      * Returns instance for the specified block number
      * either from cache or calculates a new one
      */
-    public static Ethash getForBlock(SystemProperties config, long blockNumber) {
+    public static synchronized Ethash getForBlock(SystemProperties config, long blockNumber) {
         long epoch = blockNumber / ethashParams.getEPOCH_LENGTH();
         if (cachedInstance == null || epoch != cachedInstance.epoch) {
-            cachedInstance = new Ethash(config, epoch * ethashParams.getEPOCH_LENGTH());
+            Ethash next = nextInstance;
+            cachedInstance = next != null && next.epoch == epoch ? next :
+                    new Ethash(config, epoch * ethashParams.getEPOCH_LENGTH());
+            if (fileCacheEnabled) deleteOutdatedFiles(config, epoch);
         }
+        prepareNextEpoch(config, blockNumber);
         return cachedInstance;
     }
 
+    /**
+     * Starts preparing datasets of the next epoch in background when the block
+     * passes {@link SystemProperties#getMineNextEpochPrepareBlock()} in its epoch.
+     * The full dataset is prepared if it's used in the current epoch, the light cache otherwise
+     */
+    private static void prepareNextEpoch(SystemProperties config, long blockNumber) {
+        long prepareBlock = config.getMineNextEpochPrepareBlock();
+        if (prepareBlock < 0 || blockNumber % ethashParams.getEPOCH_LENGTH() < prepareBlock) return;
+
+        final Ethash current = cachedInstance;
+        Ethash next = nextInstance;
+        if (next != null && next.epoch == current.epoch + 1) return;
+
+        final Ethash prepared = new Ethash(config, (current.epoch + 1) * ethashParams.getEPOCH_LENGTH());
+        nextInstance = prepared;
+        final boolean full = current.getFullData() != null;
+        logger.info("Preparing {} of the next epoch {} in background", full ? "full dataset" : "light cache", prepared.epoch);
+        nextEpochExecutor.submit(() -> {
+            try {
+                if (full) {
+                    prepared.getFullDataset();
+                } else {
+                    prepared.getCacheLight();
+                }
+                logger.info("Dataset of the next epoch {} is ready", prepared.epoch);
+            } catch (Exception e) {
+                logger.error("Failed to prepare dataset of the next epoch " + prepared.epoch, e);
+            }
+        });
+    }
+
+    static Ethash getNextInstance() {
+        return nextInstance;
+    }
+
+    /**
+     * Removes dataset files of the epochs before <code>epoch</code> and files of the former unversioned format
+     */
+    private static void deleteOutdatedFiles(SystemProperties config, long epoch) {
+        File[] files = new File(config.ethashDir()).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            Matcher matcher = DATASET_FILE_PATTERN.matcher(file.getName());
+            if (!matcher.matches()) continue;
+            if (matcher.group(1) == null || Long.parseLong(matcher.group(1)) < epoch) {
+                logger.info("Removing outdated dataset file " + file.getAbsolutePath());
+                file.delete();
+            }
+        }
+    }
+
     /**
      * Returns instance for the specified block number
      * either from cache or calculates a new one
@@ -99,10 +163,18 @@ public class Ethash {
 
     private long blockNumber;
     private int[] cacheLight = null;
-    private int[] fullData = null;
+    private volatile EthashDataset fullData = null;
     private SystemProperties config;
     private long startNonce = -1;
 
+    private File getDatasetFile(boolean full) {
+        return new File(config.ethashDir(), (full ? "mine-dag-" : "mine-dag-light-") + epoch + ".dat");
+    }
+
+    private long getEpochStart() {
+        return epoch * ethashAlgo.getParams().getEPOCH_LENGTH();
+    }
+
     public Ethash(SystemProperties config, long blockNumber) {
         this.config = config;
         this.blockNumber = blockNumber;
@@ -129,20 +201,20 @@ public class Ethash {
      */
     private synchronized int[] getCacheLightImpl() {
         if (cacheLight == null) {
-            File file = new File(config.ethashDir(), "mine-dag-light.dat");
+            File file = getDatasetFile(false);
             if (fileCacheEnabled && file.canRead()) {
                 fireDatatasetStatusUpdate(LIGHT_DATASET_LOAD_START);
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                try {
                     logger.info("Loading light dataset from " + file.getAbsolutePath());
-                    long bNum = ois.readLong();
-                    if (bNum == blockNumber) {
-                        cacheLight = (int[]) ois.readObject();
+                    EthashDataset dataset = EthashDataset.open(file, getEpochStart());
+                    if (dataset != null) {
+                        cacheLight = dataset.toArray();
                         fireDatatasetStatusUpdate(LIGHT_DATASET_LOADED);
                         logger.info("Dataset loaded.");
                     } else {
-                        logger.info("Dataset block number miss: " + bNum + " != " + blockNumber);
+                        logger.info("Dataset block number or format miss, expected block: " + getEpochStart());
                     }
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
@@ -155,11 +227,9 @@ public class Ethash {
                 logger.info("Light dataset calculated.");
 
                 if (fileCacheEnabled) {
-                    file.getParentFile().mkdirs();
-                    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))){
+                    try {
                         logger.info("Writing light dataset to " + file.getAbsolutePath());
-                        oos.writeLong(blockNumber);
-                        oos.writeObject(cacheLight);
+                        EthashDataset.write(file, getEpochStart(), cacheLight);
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -170,23 +240,26 @@ public class Ethash {
         return cacheLight;
     }
 
-    public synchronized int[] getFullDataset() {
+    /**
+     * With file cache enabled the dataset is memory-mapped from the file,
+     * so it's kept off-heap and is loaded by the OS on demand
+     */
+    public synchronized EthashDataset getFullDataset() {
         if (fullData == null) {
             fireDatatasetStatusUpdate(DATASET_PREPARE);
-            File file = new File(config.ethashDir(), "mine-dag.dat");
+            File file = getDatasetFile(true);
             if (fileCacheEnabled && file.canRead()) {
                 fireDatatasetStatusUpdate(FULL_DATASET_LOAD_START);
-                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                try {
                     logger.info("Loading dataset from " + file.getAbsolutePath());
-                    long bNum = ois.readLong();
-                    if (bNum == blockNumber) {
-                        fullData = (int[]) ois.readObject();
+                    fullData = EthashDataset.open(file, getEpochStart());
+                    if (fullData != null) {
                         logger.info("Dataset loaded.");
                         fireDatatasetStatusUpdate(FULL_DATASET_LOADED);
                     } else {
-                        logger.info("Dataset block number miss: " + bNum + " != " + blockNumber);
+                        logger.info("Dataset block number or format miss, expected block: " + getEpochStart());
                     }
-                } catch (IOException | ClassNotFoundException e) {
+                } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }
@@ -196,19 +269,21 @@ public class Ethash {
                 logger.info("Calculating full dataset...");
                 fireDatatasetStatusUpdate(FULL_DATASET_GENERATE_START);
                 int[] cacheLight = getCacheLightImpl();
-                fullData = getEthashAlgo().calcDataset(getFullSize(), cacheLight);
-                logger.info("Full dataset calculated.");
-
-                if (fileCacheEnabled) {
-                    file.getParentFile().mkdirs();
-                    try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
+                try {
+                    EthashDataset dataset;
+                    if (fileCacheEnabled) {
                         logger.info("Writing dataset to " + file.getAbsolutePath());
-                        oos.writeLong(blockNumber);
-                        oos.writeObject(fullData);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+                        dataset = EthashDataset.create(file, getEpochStart(), getFullSize() / 4);
+                    } else {
+                        dataset = EthashDataset.wrap(new int[(int) (getFullSize() / 4)]);
                     }
+                    calcDataset(cacheLight, dataset);
+                    dataset.complete();
+                    fullData = dataset;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
                 }
+                logger.info("Full dataset calculated.");
                 fireDatatasetStatusUpdate(FULL_DATASET_GENERATED);
             }
             fireDatatasetStatusUpdate(DATASET_READY);
@@ -216,7 +291,27 @@ public class Ethash {
         return fullData;
     }
 
-    int[] getFullData() {
+    private void calcDataset(int[] cacheLight, EthashDataset dataset) {
+        int threads = config.getMineDatasetThreads();
+        logger.info("Calculating full dataset on {} threads", threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("ethash-dataset-%d").setDaemon(true).build());
+        try {
+            getEthashAlgo().calcDataset(getFullSize(), cacheLight, dataset, pool, percent -> {
+                if (percent % 10 == 0) logger.info("Full dataset calculated: {}%", percent);
+                for (EthashListener l : listeners) {
+                    l.onDatasetProgress(FULL_DATASET_GENERATE_START, percent);
+                }
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Full dataset calculation interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    EthashDataset getFullData() {
         return fullData;
     }
 
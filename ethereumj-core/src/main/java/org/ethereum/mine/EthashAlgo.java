@@ -19,18 +19,24 @@ package org.ethereum.mine;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.ethereum.crypto.HashUtil;
-import org.spongycastle.util.Arrays;
+import org.ethereum.crypto.cryptohash.Keccak512;
 
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 import static java.lang.System.arraycopy;
 import static java.math.BigInteger.valueOf;
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.*;
-import static org.spongycastle.util.Arrays.reverse;
 
 /**
  * The Ethash algorithm described in https://github.com/ethereum/wiki/wiki/Ethash
@@ -40,6 +46,25 @@ import static org.spongycastle.util.Arrays.reverse;
 public class EthashAlgo {
     EthashParams params;
 
+    /**
+     * Per-thread buffers reused by the dataset item and hashimoto calculations
+     * so they don't allocate on each round or parent access
+     */
+    private static class Scratch {
+        final long[] keccak = new long[25];
+        final int[] seed;
+        final int[] mix;
+        final int[] item;
+
+        Scratch(EthashParams params) {
+            seed = new int[params.getHASH_BYTES() / 4];
+            mix = new int[params.getMIX_BYTES() / 4];
+            item = new int[params.getHASH_BYTES() / 4];
+        }
+    }
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(() -> new Scratch(params));
+
     public EthashAlgo() {
         this(new EthashParams());
     }
@@ -54,7 +79,8 @@ public class EthashAlgo {
 
     // Little-Endian !
     static int getWord(byte[] arr, int wordOff) {
-        return ByteBuffer.wrap(arr, wordOff * 4, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        int off = wordOff * 4;
+        return (arr[off] & 0xFF) | (arr[off + 1] & 0xFF) << 8 | (arr[off + 2] & 0xFF) << 16 | arr[off + 3] << 24;
     }
 
     static void setWord(byte[] arr, int wordOff, long val) {
@@ -109,78 +135,151 @@ public class EthashAlgo {
         return ret;
     }
 
+    // dataset items calculated by a single task of the parallel dataset generation
+    private static final int DATASET_RANGE_ITEMS = 1 << 14;
+
     private static final int FNV_PRIME = 0x01000193;
     private static int fnv(int v1, int v2) {
         return (v1 * FNV_PRIME) ^ v2;
     }
 
-    int[] sha512(int[] arr, boolean bigEndian) {
-        byte[] bytesTmp = new byte[arr.length << 2];
-        intsToBytes(arr, bytesTmp, bigEndian);
-        bytesTmp = HashUtil.sha512(bytesTmp);
-        bytesToInts(bytesTmp, arr, bigEndian);
-        return arr;
+    public final int[] calcDatasetItem(final int[] cache, final int i) {
+        int[] ret = new int[params.getHASH_BYTES() / 4];
+        calcDatasetItem(cache, i, ret, 0, scratch.get().keccak);
+        return ret;
     }
 
-    public final int[] calcDatasetItem(final int[] cache, final int i) {
+    /**
+     * Calculates the dataset item right into <code>out</code> mixing the cache rows in place
+     * @param keccak Keccak state scratch buffer
+     */
+    private void calcDatasetItem(final int[] cache, final int i, final int[] out, final int outOff,
+                                 final long[] keccak) {
         final int r = params.getHASH_BYTES() / params.getWORD_BYTES();
         final int n = cache.length / r;
-        int[] mix = Arrays.copyOfRange(cache, i % n * r, (i % n + 1) * r);
+        arraycopy(cache, i % n * r, out, outOff, r);
 
-        mix[0] = i ^ mix[0];
-        mix = sha512(mix, false);
+        out[outOff] ^= i;
+        Keccak512.digestWords(out, outOff, r, out, outOff, keccak);
         final int dsParents = (int) params.getDATASET_PARENTS();
-        final int mixLen = mix.length;
         for (int j = 0; j < dsParents; j++) {
-            int cacheIdx = fnv(i ^ j, mix[j % r]);
+            int cacheIdx = fnv(i ^ j, out[outOff + j % r]);
             cacheIdx = remainderUnsigned(cacheIdx, n);
             int off = cacheIdx * r;
-            for (int k = 0; k < mixLen; k++) {
-                mix[k] = fnv(mix[k], cache[off + k]);
+            for (int k = 0; k < r; k++) {
+                out[outOff + k] = fnv(out[outOff + k], cache[off + k]);
             }
         }
-        return sha512(mix, false);
+        Keccak512.digestWords(out, outOff, r, out, outOff, keccak);
     }
 
     public int[] calcDataset(long fullSize, int[] cache) {
         int hashesCount = (int) (fullSize / params.getHASH_BYTES());
         int[] ret = new int[hashesCount * (params.getHASH_BYTES() / 4)];
-        for (int i = 0; i < hashesCount; i++) {
-            int[] item = calcDatasetItem(cache, i);
-            arraycopy(item, 0, ret, i * (params.getHASH_BYTES() / 4), item.length);
-        }
+        calcDataset(fullSize, cache, EthashDataset.wrap(ret));
         return ret;
     }
 
+    /**
+     * Calculates the dataset right into the <code>dataset</code> which may be off-heap
+     */
+    public void calcDataset(long fullSize, int[] cache, EthashDataset dataset) {
+        calcDatasetItems(cache, dataset, 0, (int) (fullSize / params.getHASH_BYTES()));
+    }
+
+    private void calcDatasetItems(int[] cache, EthashDataset dataset, int from, int to) {
+        int hashWords = params.getHASH_BYTES() / 4;
+        Scratch buf = scratch.get();
+        for (int i = from; i < to; i++) {
+            calcDatasetItem(cache, i, buf.item, 0, buf.keccak);
+            dataset.put((long) i * hashWords, buf.item, 0, hashWords);
+        }
+    }
+
+    /**
+     * Calculates the dataset splitting its items into ranges which are processed by the <code>executor</code>
+     *
+     * @param progress receives percentage of calculated items each time it grows
+     */
+    public void calcDataset(long fullSize, int[] cache, EthashDataset dataset, ExecutorService executor,
+                            IntConsumer progress) throws InterruptedException {
+        final int hashesCount = (int) (fullSize / params.getHASH_BYTES());
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger reported = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < hashesCount; from += DATASET_RANGE_ITEMS) {
+            final int f = from, t = Math.min(hashesCount, from + DATASET_RANGE_ITEMS);
+            futures.add(executor.submit(() -> {
+                calcDatasetItems(cache, dataset, f, t);
+                int percent = (int) (done.addAndGet(t - f) * 100L / hashesCount);
+                int prev = reported.get();
+                if (percent > prev && reported.compareAndSet(prev, percent)) {
+                    progress.accept(percent);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Dataset calculation failed", e.getCause());
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
     public Pair<byte[], byte[]> hashimoto(byte[] blockHeaderTruncHash, byte[] nonce, long fullSize,
                                           int[] cacheOrDataset, boolean full) {
+        return full ? hashimoto(blockHeaderTruncHash, nonce, fullSize, null, EthashDataset.wrap(cacheOrDataset)) :
+                hashimoto(blockHeaderTruncHash, nonce, fullSize, cacheOrDataset, null);
+    }
+
+    /**
+     * Looks up items in the <code>dataset</code> if it's passed or calculates them from the <code>cache</code>
+     */
+    private Pair<byte[], byte[]> hashimoto(byte[] blockHeaderTruncHash, byte[] nonce, long fullSize,
+                                           int[] cache, EthashDataset dataset) {
         if (nonce.length != 8) throw new RuntimeException("nonce.length != 8");
 
+        Scratch buf = scratch.get();
         int hashWords = params.getHASH_BYTES() / 4;
         int w = params.getMIX_BYTES() / params.getWORD_BYTES();
         int mixhashes = params.getMIX_BYTES() / params.getHASH_BYTES();
-        int[] s = bytesToInts(HashUtil.sha512(merge(blockHeaderTruncHash, reverse(nonce))), false);
-        int[] mix = new int[params.getMIX_BYTES() / 4];
+
+        // header hash words followed by the little-endian nonce words
+        int[] s = buf.seed;
+        int headerWords = blockHeaderTruncHash.length / 4;
+        for (int i = 0; i < headerWords; i++) {
+            s[i] = getWord(blockHeaderTruncHash, i);
+        }
+        s[headerWords] = (nonce[7] & 0xFF) | (nonce[6] & 0xFF) << 8 | (nonce[5] & 0xFF) << 16 | nonce[4] << 24;
+        s[headerWords + 1] = (nonce[3] & 0xFF) | (nonce[2] & 0xFF) << 8 | (nonce[1] & 0xFF) << 16 | nonce[0] << 24;
+        Keccak512.digestWords(s, 0, headerWords + 2, s, 0, buf.keccak);
+
+        int[] mix = buf.mix;
         for (int i = 0; i < mixhashes; i++) {
-            arraycopy(s, 0, mix, i * s.length, s.length);
+            arraycopy(s, 0, mix, i * hashWords, hashWords);
         }
 
+        int[] item = buf.item;
         int numFullPages = (int) (fullSize / params.getMIX_BYTES());
         for (int i = 0; i < params.getACCESSES(); i++) {
             int p = remainderUnsigned(fnv(i ^ s[0], mix[i % w]), numFullPages);
-            int[] newData = new int[mix.length];
             int off = p * mixhashes;
             for (int j = 0; j < mixhashes; j++) {
                 int itemIdx = off + j;
-                if (!full) {
-                    int[] lookup1 = calcDatasetItem(cacheOrDataset, itemIdx);
-                    arraycopy(lookup1, 0, newData, j * lookup1.length, lookup1.length);
+                if (dataset == null) {
+                    calcDatasetItem(cache, itemIdx, item, 0, buf.keccak);
                 } else {
-                    arraycopy(cacheOrDataset, itemIdx * hashWords, newData, j * hashWords, hashWords);
+                    dataset.get((long) itemIdx * hashWords, item, 0, hashWords);
+                }
+                int mixOff = j * hashWords;
+                for (int k = 0; k < hashWords; k++) {
+                    mix[mixOff + k] = fnv(mix[mixOff + k], item[k]);
                 }
-            }
-            for (int i1 = 0; i1 < mix.length; i1++) {
-                mix[i1] = fnv(mix[i1], newData[i1]);
             }
         }
 
@@ -205,11 +304,20 @@ public class EthashAlgo {
         return hashimoto(blockHeaderTruncHash, nonce, fullSize, dataset, true);
     }
 
+    public Pair<byte[], byte[]> hashimotoFull(long fullSize, final EthashDataset dataset, byte[] blockHeaderTruncHash,
+                                              byte[]  nonce) {
+        return hashimoto(blockHeaderTruncHash, nonce, fullSize, null, dataset);
+    }
+
     public long mine(long fullSize, int[] dataset, byte[] blockHeaderTruncHash, long difficulty) {
         return mine(fullSize, dataset, blockHeaderTruncHash, difficulty, new Random().nextLong());
     }
 
     public long mine(long fullSize, int[] dataset, byte[] blockHeaderTruncHash, long difficulty, long startNonce) {
+        return mine(fullSize, EthashDataset.wrap(dataset), blockHeaderTruncHash, difficulty, startNonce);
+    }
+
+    public long mine(long fullSize, EthashDataset dataset, byte[] blockHeaderTruncHash, long difficulty, long startNonce) {
         long nonce = startNonce;
         BigInteger target = valueOf(2).pow(256).divide(valueOf(difficulty));
         while (!Thread.currentThread().isInterrupted()) {
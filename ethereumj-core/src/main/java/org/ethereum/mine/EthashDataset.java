@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.mine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Ethash cache or dataset words, either on heap or memory-mapped from a file
+ *
+ * The file is a {@link #HEADER_SIZE} bytes header (magic, block number and words count
+ * as little-endian longs) followed by the raw little-endian words. A mapped dataset
+ * lives off-heap, is loaded lazily by the OS and is shared via the page cache by all
+ * processes mapping the same file.
+ *
+ * A file is written under a temporary name and is renamed when {@link #complete()}d
+ * so a partially written file is never picked up
+ */
+public class EthashDataset {
+
+    static final long MAGIC = 0x314a485341485445L; // "ETHASHJ1"
+    static final int HEADER_SIZE = 64;
+
+    // MappedByteBuffer can't exceed 2Gb, segment boundaries are aligned to dataset items
+    private static final int SEGMENT_SHIFT = 28;
+    private static final int SEGMENT_WORDS = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_WORDS - 1;
+
+    private final MappedByteBuffer[] mapped;
+    private final IntBuffer[] segments;
+    private final long size;
+    private final File file;
+    private final File tmpFile;
+
+    private EthashDataset(MappedByteBuffer[] mapped, long size, File file, File tmpFile) {
+        this.mapped = mapped;
+        this.segments = new IntBuffer[mapped.length];
+        for (int i = 0; i < mapped.length; i++) {
+            segments[i] = mapped[i].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        }
+        this.size = size;
+        this.file = file;
+        this.tmpFile = tmpFile;
+    }
+
+    private EthashDataset(int[] words) {
+        this.mapped = null;
+        this.segments = new IntBuffer[(words.length + SEGMENT_WORDS - 1) >>> SEGMENT_SHIFT];
+        for (int i = 0; i < segments.length; i++) {
+            int off = i << SEGMENT_SHIFT;
+            segments[i] = IntBuffer.wrap(words, off, Math.min(SEGMENT_WORDS, words.length - off)).slice();
+        }
+        this.size = words.length;
+        this.file = null;
+        this.tmpFile = null;
+    }
+
+    /**
+     * Dataset backed by the array, doesn't copy it
+     */
+    public static EthashDataset wrap(int[] words) {
+        return new EthashDataset(words);
+    }
+
+    /**
+     * Maps existing dataset file read-only
+     * @return <code>null</code> if the file is absent, has another format or is for another block number
+     */
+    public static EthashDataset open(File file, long blockNumber) throws IOException {
+        if (!file.canRead() || file.length() < HEADER_SIZE) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(header, 0);
+            header.flip();
+            long magic = header.getLong();
+            long bNum = header.getLong();
+            long size = header.getLong();
+            if (magic != MAGIC || bNum != blockNumber || file.length() != HEADER_SIZE + size * 4) {
+                return null;
+            }
+            return new EthashDataset(map(channel, FileChannel.MapMode.READ_ONLY, size), size, file, null);
+        }
+    }
+
+    /**
+     * Creates zero filled file mapped dataset of <code>size</code> words to be filled
+     * and then {@link #complete()}d
+     */
+    public static EthashDataset create(File file, long blockNumber, long size) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + size * 4);
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC).putLong(blockNumber).putLong(size);
+            header.rewind();
+            channel.write(header, 0);
+            return new EthashDataset(map(channel, FileChannel.MapMode.READ_WRITE, size), size, file, tmpFile);
+        }
+    }
+
+    /**
+     * Writes the words to the file
+     */
+    public static void write(File file, long blockNumber, int[] words) throws IOException {
+        EthashDataset dataset = create(file, blockNumber, words.length);
+        dataset.put(0, words, 0, words.length);
+        dataset.complete();
+    }
+
+    private static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        MappedByteBuffer[] ret = new MappedByteBuffer[(int) ((size + SEGMENT_WORDS - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < ret.length; i++) {
+            long off = (long) i << SEGMENT_SHIFT;
+            long words = Math.min(SEGMENT_WORDS, size - off);
+            ret[i] = channel.map(mode, HEADER_SIZE + off * 4, words * 4);
+        }
+        return ret;
+    }
+
+    /**
+     * Flushes created dataset to disk and moves it to its final name
+     */
+    public void complete() throws IOException {
+        if (tmpFile == null) return;
+        for (MappedByteBuffer buffer : mapped) {
+            buffer.force();
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @return number of words
+     */
+    public long size() {
+        return size;
+    }
+
+    public boolean isMapped() {
+        return file != null;
+    }
+
+    public int get(long idx) {
+        return segments[(int) (idx >>> SEGMENT_SHIFT)].get((int) (idx & SEGMENT_MASK));
+    }
+
+    /**
+     * Copies <code>len</code> words starting from <code>idx</code> to <code>dst</code>,
+     * the words shouldn't cross a dataset item boundary. Safe for concurrent readers
+     */
+    public void get(long idx, int[] dst, int off, int len) {
+        IntBuffer segment = segments[(int) (idx >>> SEGMENT_SHIFT)];
+        int pos = (int) (idx & SEGMENT_MASK);
+        for (int i = 0; i < len; i++) {
+            dst[off + i] = segment.get(pos + i);
+        }
+    }
+
+    /**
+     * Copies <code>len</code> words from <code>src</code> to the dataset starting from <code>idx</code>
+     */
+    public void put(long idx, int[] src, int off, int len) {
+        while (len > 0) {
+            IntBuffer segment = segments[(int) (idx >>> SEGMENT_SHIFT)];
+            int pos = (int) (idx & SEGMENT_MASK);
+            int cnt = Math.min(len, SEGMENT_WORDS - pos);
+            for (int i = 0; i < cnt; i++) {
+                segment.put(pos + i, src[off + i]);
+            }
+            idx += cnt;
+            off += cnt;
+            len -= cnt;
+        }
+    }
+
+    /**
+     * @return copy of the words on heap, the dataset should be smaller than 2G words
+     */
+    public int[] toArray() {
+        int[] ret = new int[(int) size];
+        for (int i = 0; i < segments.length; i++) {
+            IntBuffer segment = segments[i].duplicate();
+            segment.rewind();
+            segment.get(ret, i << SEGMENT_SHIFT, segment.remaining());
+        }
+        return ret;
+    }
+}
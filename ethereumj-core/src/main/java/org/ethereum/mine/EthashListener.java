@@ -77,4 +77,12 @@ public interface EthashListener extends MinerListener {
     }
 
     void onDatasetUpdate(DatasetStatus datasetStatus);
+
+    /**
+     * Reports progress of the full dataset generation,
+     * fires between {@link DatasetStatus#FULL_DATASET_GENERATE_START} and {@link DatasetStatus#FULL_DATASET_GENERATED}
+     *
+     * @param percent share of the dataset items calculated so far
+     */
+    default void onDatasetProgress(DatasetStatus datasetStatus, int percent) {}
 }
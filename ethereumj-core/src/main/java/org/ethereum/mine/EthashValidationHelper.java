@@ -90,12 +90,12 @@ public class EthashValidationHelper {
         long fullSize = ethashAlgo.getParams().getFullSize(header.getNumber());
         byte[] hashWithoutNonce = HashUtil.sha3(header.getEncodedWithoutNonce());
 
-        // lookup with full dataset if it's available
-        Ethash cachedInstance = Ethash.cachedInstance;
-        if (cachedInstance != null &&
-                cachedInstance.epoch == epoch(header.getNumber()) &&
-                cachedInstance.getFullData() != null) {
-            return ethashAlgo.hashimotoFull(fullSize, cachedInstance.getFullData(), hashWithoutNonce, nonce);
+        // lookup with full dataset if it's available, the next epoch one could be prepared by the miner already
+        for (Ethash instance : new Ethash[] {Ethash.cachedInstance, Ethash.getNextInstance()}) {
+            EthashDataset fullData = instance == null ? null : instance.getFullData();
+            if (fullData != null && instance.epoch == epoch(header.getNumber())) {
+                return ethashAlgo.hashimotoFull(fullSize, fullData, hashWithoutNonce, nonce);
+            }
         }
 
         Cache cache = getCachedFor(header.getNumber());
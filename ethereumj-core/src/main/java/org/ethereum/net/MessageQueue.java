@@ -19,13 +19,13 @@ package org.ethereum.net;
 
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import org.ethereum.config.SystemProperties;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.eth.message.EthMessage;
 import org.ethereum.net.message.Message;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.p2p.DisconnectMessage;
 import org.ethereum.net.p2p.PingMessage;
-import org.ethereum.net.p2p.PongMessage;
 import org.ethereum.net.server.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,9 +33,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import java.util.Queue;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
 
@@ -52,6 +52,12 @@ import static org.ethereum.net.message.StaticMessages.DISCONNECT_MESSAGE;
  * The following messages will not be answered:
  *      PONG, PEERS, HELLO, STATUS, TRANSACTIONS, BLOCKS
  *
+ * Messages are written to the wire as soon as they are queued:
+ * responses are written right away, requests are pipelined
+ * up to {@link SystemProperties#peerMaxInFlightRequests()} awaiting an answer,
+ * the next request is written once an answer arrives or a request times out.
+ * Timeouts are scheduled on the channel event loop
+ *
  * @author Roman Mandeleil
  */
 @Component
@@ -60,36 +66,35 @@ public class MessageQueue {
 
     private static final Logger logger = LoggerFactory.getLogger("net");
 
-    private static final ScheduledExecutorService timer = Executors.newScheduledThreadPool(4, new ThreadFactory() {
-        private AtomicInteger cnt = new AtomicInteger(0);
-
-        public Thread newThread(Runnable r) {
-            return new Thread(r, "MessageQueueTimer-" + cnt.getAndIncrement());
-        }
-    });
+    /**
+     * Time after which unanswered request frees its in-flight slot
+     */
+    static final long REQUEST_TIMEOUT = 20_000;
 
-    private Queue<MessageRoundtrip> requestQueue = new ConcurrentLinkedQueue<>();
-    private Queue<MessageRoundtrip> respondQueue = new ConcurrentLinkedQueue<>();
+    // guarded by this
+    private final Deque<MessageRoundtrip> requestQueue = new ArrayDeque<>();
+    private final Deque<MessageRoundtrip> respondQueue = new ArrayDeque<>();
+    private final Deque<MessageRoundtrip> inFlight = new ArrayDeque<>();
     private ChannelHandlerContext ctx = null;
+    private boolean closed = false;
 
     @Autowired
     EthereumListener ethereumListener;
-    boolean hasPing = false;
-    private ScheduledFuture<?> timerTask;
+    @Autowired
+    SystemProperties config;
+    volatile boolean hasPing = false;
+    private int maxInFlight = 1;
     private Channel channel;
 
     public MessageQueue() {
     }
 
     public void activate(ChannelHandlerContext ctx) {
-        this.ctx = ctx;
-        timerTask = timer.scheduleAtFixedRate(() -> {
-            try {
-                nudgeQueue();
-            } catch (Throwable t) {
-                logger.error("Unhandled exception", t);
-            }
-        }, 10, 10, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            this.ctx = ctx;
+            maxInFlight = Math.max(1, config.peerMaxInFlightRequests());
+        }
+        flush();
     }
 
     public void setChannel(Channel channel) {
@@ -107,10 +112,13 @@ public class MessageQueue {
             hasPing = true;
         }
 
-        if (msg.getAnswerMessage() != null)
-            requestQueue.add(new MessageRoundtrip(msg));
-        else
-            respondQueue.add(new MessageRoundtrip(msg));
+        synchronized (this) {
+            if (msg.getAnswerMessage() != null)
+                requestQueue.add(new MessageRoundtrip(msg));
+            else
+                respondQueue.add(new MessageRoundtrip(msg));
+        }
+        flush();
     }
 
     public void disconnect() {
@@ -130,57 +138,105 @@ public class MessageQueue {
 
         ethereumListener.trace("[Recv: " + msg + "]");
 
-        if (requestQueue.peek() != null) {
-            MessageRoundtrip messageRoundtrip = requestQueue.peek();
-            Message waitingMessage = messageRoundtrip.getMsg();
+        MessageRoundtrip answered = null;
+        synchronized (this) {
+            for (Iterator<MessageRoundtrip> it = inFlight.iterator(); it.hasNext(); ) {
+                MessageRoundtrip messageRoundtrip = it.next();
+                Message waitingMessage = messageRoundtrip.getMsg();
+                if (msg.getClass() == waitingMessage.getAnswerMessage()) {
+                    messageRoundtrip.answer();
+                    it.remove();
+                    answered = messageRoundtrip;
+                    break;
+                }
+            }
+        }
+
+        if (answered != null) {
+            if (answered.getMsg() instanceof PingMessage) hasPing = false;
+            if (answered.getMsg() instanceof EthMessage)
+                channel.getPeerStats().pong(answered.lastTimestamp);
+            logger.trace("Message round trip covered: [{}] ",
+                    answered.getMsg().getClass());
+            flush();
+        }
+    }
 
-            if (waitingMessage instanceof PingMessage) hasPing = false;
+    /**
+     * Writes all queued responses and as many requests as the in-flight window allows.
+     * Writing is always done on the channel event loop to keep the order of messages
+     */
+    private void flush() {
+        ChannelHandlerContext ctx;
+        synchronized (this) {
+            ctx = this.ctx;
+        }
+        if (ctx == null) return;
 
-            if (waitingMessage.getAnswerMessage() != null
-                    && msg.getClass() == waitingMessage.getAnswerMessage()) {
-                messageRoundtrip.answer();
-                if (waitingMessage instanceof EthMessage)
-                    channel.getPeerStats().pong(messageRoundtrip.lastTimestamp);
-                logger.trace("Message round trip covered: [{}] ",
-                        messageRoundtrip.getMsg().getClass());
+        if (!ctx.executor().inEventLoop()) {
+            ctx.executor().execute(this::flush);
+            return;
+        }
+
+        List<MessageRoundtrip> toSend = new ArrayList<>();
+        synchronized (this) {
+            if (closed) return;
+
+            toSend.addAll(respondQueue);
+            respondQueue.clear();
+
+            while (!requestQueue.isEmpty() && inFlight.size() < maxInFlight) {
+                MessageRoundtrip messageRoundtrip = requestQueue.poll();
+                inFlight.add(messageRoundtrip);
+                toSend.add(messageRoundtrip);
             }
         }
-    }
 
-    private void removeAnsweredMessage(MessageRoundtrip messageRoundtrip) {
-        if (messageRoundtrip != null && messageRoundtrip.isAnswered())
-            requestQueue.remove();
+        for (MessageRoundtrip messageRoundtrip : toSend) {
+            sendToWire(messageRoundtrip);
+            if (messageRoundtrip.getMsg().getAnswerMessage() != null) {
+                ScheduledFuture<?> timeout = ctx.executor().schedule(() -> timeout(messageRoundtrip),
+                        REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+                // the answer may come or the queue may be closed meanwhile
+                synchronized (this) {
+                    messageRoundtrip.setTimeout(timeout);
+                    if (closed) messageRoundtrip.cancelTimeout();
+                }
+            }
+        }
     }
 
-    private void nudgeQueue() {
-        // remove last answered message on the queue
-        removeAnsweredMessage(requestQueue.peek());
-        // Now send the next message
-        sendToWire(respondQueue.poll());
-        sendToWire(requestQueue.peek());
+    private void timeout(MessageRoundtrip messageRoundtrip) {
+        synchronized (this) {
+            if (messageRoundtrip.isAnswered() || !inFlight.remove(messageRoundtrip)) return;
+        }
+
+        logger.debug("{}: no answer to [{}] in {} ms", channel, messageRoundtrip.getMsg().getCommand(), REQUEST_TIMEOUT);
+        if (messageRoundtrip.getMsg() instanceof PingMessage) hasPing = false;
+        flush();
     }
 
     private void sendToWire(MessageRoundtrip messageRoundtrip) {
 
-        if (messageRoundtrip != null && messageRoundtrip.getRetryTimes() == 0) {
-            // TODO: retry logic || messageRoundtrip.hasToRetry()){
-
-            Message msg = messageRoundtrip.getMsg();
+        Message msg = messageRoundtrip.getMsg();
 
-            ethereumListener.onSendMessage(channel, msg);
+        ethereumListener.onSendMessage(channel, msg);
 
-            ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+        ctx.writeAndFlush(msg).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
 
-            if (msg.getAnswerMessage() != null) {
-                messageRoundtrip.incRetryTimes();
-                messageRoundtrip.saveTime();
-            }
+        if (msg.getAnswerMessage() != null) {
+            messageRoundtrip.incRetryTimes();
+            messageRoundtrip.saveTime();
         }
     }
 
-    public void close() {
-        if (timerTask != null) {
-            timerTask.cancel(false);
+    public synchronized void close() {
+        closed = true;
+        requestQueue.clear();
+        respondQueue.clear();
+        for (MessageRoundtrip messageRoundtrip : inFlight) {
+            messageRoundtrip.cancelTimeout();
         }
+        inFlight.clear();
     }
 }
@@ -19,6 +19,8 @@ package org.ethereum.net;
 
 import org.ethereum.net.message.Message;
 
+import java.util.concurrent.ScheduledFuture;
+
 /**
  * Utility wraps around a message to keep track of the number of times it has
  * been offered This class also contains the last time a message was offered and
@@ -33,6 +35,7 @@ public class MessageRoundtrip {
     long lastTimestamp = 0;
     long retryTimes = 0;
     boolean answered = false;
+    ScheduledFuture<?> timeout;
 
     public MessageRoundtrip(Message msg) {
         this.msg = msg;
@@ -45,6 +48,22 @@ public class MessageRoundtrip {
 
     public void answer() {
         answered = true;
+        cancelTimeout();
+    }
+
+    /**
+     * Sets the task freeing the request slot if there is no answer in time
+     */
+    public void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+        if (answered) cancelTimeout();
+    }
+
+    public void cancelTimeout() {
+        if (timeout != null) {
+            timeout.cancel(false);
+            timeout = null;
+        }
     }
 
     public long getRetryTimes() {
@@ -20,14 +20,12 @@ package org.ethereum.net.client;
 import org.ethereum.config.SystemProperties;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.server.EthereumChannelInitializer;
+import org.ethereum.net.server.NetworkEventLoops;
 
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,8 +35,6 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -60,17 +56,8 @@ public class PeerClient {
     @Autowired
     EthereumListener ethereumListener;
 
-    private EventLoopGroup workerGroup;
-
-    public PeerClient() {
-        workerGroup = new NioEventLoopGroup(0, new ThreadFactory() {
-            AtomicInteger cnt = new AtomicInteger(0);
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "EthJClientWorker-" + cnt.getAndIncrement());
-            }
-        });
-    }
+    @Autowired
+    NetworkEventLoops eventLoops;
 
     public void connect(String host, int port, String remoteId) {
         connect(host, port, remoteId, false);
@@ -111,8 +98,7 @@ public class PeerClient {
         ethereumChannelInitializer.setPeerDiscoveryMode(discoveryMode);
 
         Bootstrap b = new Bootstrap();
-        b.group(workerGroup);
-        b.channel(NioSocketChannel.class);
+        eventLoops.configure(b);
 
         b.option(ChannelOption.SO_KEEPALIVE, true);
         b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -126,8 +112,8 @@ public class PeerClient {
     }
 
     public void close() {
+        // event loops are shared with the server and other clients
+        // and are shut down by the NetworkEventLoops bean
         logger.info("Shutdown peerClient");
-        workerGroup.shutdownGracefully();
-        workerGroup.terminationFuture().syncUninterruptibly();
     }
 }
@@ -29,6 +29,7 @@ import org.ethereum.net.eth.EthVersion;
 import org.ethereum.net.eth.message.*;
 import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.rlpx.discover.NodeManager;
+import org.ethereum.net.server.PeerRequestExecutor;
 import org.ethereum.net.submit.TransactionExecutor;
 import org.ethereum.net.submit.TransactionTask;
 import org.ethereum.sync.SyncManager;
@@ -86,6 +87,9 @@ public class Eth62 extends EthHandler {
     @Autowired
     protected NodeManager nodeManager;
 
+    @Autowired
+    protected PeerRequestExecutor requestExecutor;
+
     protected EthState ethState = EthState.INIT;
 
     protected PeerState peerState = IDLE;
@@ -402,7 +406,9 @@ public class Eth62 extends EthHandler {
             return;
         }
 
-        List<Transaction> txSet = msg.getTransactions();
+        List<Transaction> txSet = channel.getChannelManager().filterNewTransactions(msg.getTransactions(), channel);
+        if (txSet.isEmpty()) return;
+
         List<Transaction> newPending = pendingState.addPendingTransactions(txSet);
         if (!newPending.isEmpty()) {
             TransactionTask transactionTask = new TransactionTask(newPending, channel.getChannelManager(), channel);
@@ -410,19 +416,21 @@ public class Eth62 extends EthHandler {
         }
     }
 
-    protected synchronized void processGetBlockHeaders(GetBlockHeadersMessage msg) {
-        Iterator<BlockHeader> headersIterator = blockchain.getIteratorOfHeadersStartFrom(
-                msg.getBlockIdentifier(),
-                msg.getSkipBlocks(),
-                min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND),
-                msg.isReverse()
-        );
-        List<BlockHeader> blockHeaders = new ArrayList<>();
-        while (headersIterator.hasNext()) {
-            blockHeaders.add(headersIterator.next());
-        }
-        BlockHeadersMessage response = new BlockHeadersMessage(blockHeaders);
-        sendMessage(response);
+    protected void processGetBlockHeaders(GetBlockHeadersMessage msg) {
+        serveRequest(msg, cost -> {
+            Iterator<BlockHeader> headersIterator = blockchain.getIteratorOfHeadersStartFrom(
+                    msg.getBlockIdentifier(),
+                    msg.getSkipBlocks(),
+                    min(msg.getMaxHeaders(), MAX_HASHES_TO_SEND),
+                    msg.isReverse()
+            );
+            List<BlockHeader> blockHeaders = new ArrayList<>();
+            while (headersIterator.hasNext()) {
+                blockHeaders.add(headersIterator.next());
+            }
+            cost.dbReads(blockHeaders.size());
+            return new BlockHeadersMessage(blockHeaders);
+        });
     }
 
     protected synchronized void processBlockHeaders(BlockHeadersMessage msg) {
@@ -443,31 +451,56 @@ public class Eth62 extends EthHandler {
         }
 
         List<BlockHeader> received = msg.getBlockHeaders();
+        long responseTime = lastReqSentTime > 0 ? (System.currentTimeMillis() - lastReqSentTime) : 0;
 
         if (ethState == EthState.STATUS_SENT || ethState == EthState.HASH_CONSTRAINTS_CHECK)
             processInitHeaders(received);
         else {
-            syncStats.addHeaders(received.size());
+            syncStats.addHeaders(received.size(), msg.getEncoded().length, responseTime);
             request.getFutureHeaders().set(received);
         }
 
-        processingTime += lastReqSentTime > 0 ? (System.currentTimeMillis() - lastReqSentTime) : 0;
+        processingTime += responseTime;
         lastReqSentTime = 0;
         peerState = IDLE;
     }
 
-    protected synchronized void processGetBlockBodies(GetBlockBodiesMessage msg) {
-        Iterator<byte[]> bodiesIterator = blockchain.getIteratorOfBodiesByHashes(msg.getBlockHashes());
-        List<byte[]> bodies = new ArrayList<>();
-        int sizeSum = 0;
-        while (bodiesIterator.hasNext()) {
-            byte[] body = bodiesIterator.next();
-            sizeSum += ByteArrayEstimator.estimateSize(body);
-            bodies.add(body);
-            if (sizeSum >= MAX_MESSAGE_SIZE) break;
+    protected void processGetBlockBodies(GetBlockBodiesMessage msg) {
+        serveRequest(msg, cost -> {
+            Iterator<byte[]> bodiesIterator = blockchain.getIteratorOfBodiesByHashes(msg.getBlockHashes());
+            List<byte[]> bodies = new ArrayList<>();
+            int sizeSum = 0;
+            while (bodiesIterator.hasNext()) {
+                byte[] body = bodiesIterator.next();
+                sizeSum += ByteArrayEstimator.estimateSize(body);
+                bodies.add(body);
+                if (sizeSum >= MAX_MESSAGE_SIZE) break;
+            }
+            cost.dbReads(bodies.size());
+            return new BlockBodiesMessage(bodies);
+        });
+    }
+
+    /**
+     * Serves the data request of the remote peer.
+     * The request is handed over to {@link PeerRequestExecutor} to not block network thread,
+     * the response is sent from the executor thread.
+     * Handler state must not be touched by the request
+     */
+    protected void serveRequest(EthMessage msg, PeerRequestExecutor.Request request) {
+        if (requestExecutor == null) {
+            EthMessage response = (EthMessage) request.serve(new PeerRequestExecutor.Cost());
+            if (response != null) sendMessage(response);
+            return;
+        }
+
+        if (!requestExecutor.submit(channel, request, response -> sendMessage((EthMessage) response))) {
+            // dropping the request silently would leave the peer waiting for the response
+            // while replying out of turn would break the order responses are matched by
+            loggerNet.info("Peer {}: too many pending requests [{}], disconnecting", channel.getPeerIdShort(), msg.getCommand());
+            requestExecutor.cancel(channel);
+            disconnect(ReasonCode.BAD_PROTOCOL);
         }
-        BlockBodiesMessage response = new BlockBodiesMessage(bodies);
-        sendMessage(response);
     }
 
     protected synchronized void processBlockBodies(BlockBodiesMessage msg) {
@@ -484,7 +517,8 @@ public class Eth62 extends EthHandler {
             return;
         }
 
-        syncStats.addBlocks(msg.getBlockBodies().size());
+        long responseTime = lastReqSentTime > 0 ? (System.currentTimeMillis() - lastReqSentTime) : 0;
+        syncStats.addBlocks(msg.getBlockBodies().size(), msg.getEncoded().length, responseTime);
 
         List<Block> blocks = null;
         try {
@@ -502,7 +536,7 @@ public class Eth62 extends EthHandler {
         futureBlocks.set(blocks);
         futureBlocks = null;
 
-        processingTime += (System.currentTimeMillis() - lastReqSentTime);
+        processingTime += responseTime;
         lastReqSentTime = 0;
         peerState = IDLE;
     }
@@ -528,6 +562,7 @@ public class Eth62 extends EthHandler {
 
     @Override
     public synchronized void onShutdown() {
+        if (requestExecutor != null) requestExecutor.cancel(channel);
     }
 
     @Override
@@ -878,7 +913,7 @@ public class Eth62 extends EthHandler {
         int waitResp = lastReqSentTime > 0 ? (int) (System.currentTimeMillis() - lastReqSentTime) / 1000 : 0;
         long lifeTime = System.currentTimeMillis() - connectedTime;
         return String.format(
-                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, difficulty %s, best block %s%s]: (idle %s of %s) %s",
+                "Peer %s: [ %s, %18s, ping %6s ms, rep: %s, difficulty %s, best block %s%s]: (idle %s of %s) [%s] %s",
                 getVersion(),
                 channel.getPeerIdShort(),
                 peerState,
@@ -889,6 +924,7 @@ public class Eth62 extends EthHandler {
                 waitResp > 5 ? ", wait " + waitResp + "s" : " ",
                 longToTimePeriod(lifeTime - processingTime),
                 longToTimePeriod(lifeTime),
+                syncStats.getThroughput(),
                 channel.getNodeStatistics().getClientId());
     }
 
@@ -101,7 +101,7 @@ public class Eth63 extends Eth62 {
         }
     }
 
-    protected synchronized void processGetNodeData(GetNodeDataMessage msg) {
+    protected void processGetNodeData(GetNodeDataMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetNodeData, size [{}]",
@@ -109,21 +109,23 @@ public class Eth63 extends Eth62 {
                 msg.getNodeKeys().size()
         );
 
-        List<Value> nodeValues = new ArrayList<>();
-        for (byte[] nodeKey : msg.getNodeKeys()) {
-            byte[] rawNode = trieNodeSource.get(nodeKey);
-            if (rawNode != null) {
-                Value value = new Value(rawNode);
-                nodeValues.add(value);
-                if (nodeValues.size() >= MAX_HASHES_TO_SEND) break;
-                logger.trace("Eth63: " + toHexString(nodeKey).substring(0, 8) + " -> " + value);
+        serveRequest(msg, cost -> {
+            List<Value> nodeValues = new ArrayList<>();
+            for (byte[] nodeKey : msg.getNodeKeys()) {
+                byte[] rawNode = trieNodeSource.get(nodeKey);
+                cost.dbRead();
+                if (rawNode != null) {
+                    Value value = new Value(rawNode);
+                    nodeValues.add(value);
+                    if (nodeValues.size() >= MAX_HASHES_TO_SEND) break;
+                    logger.trace("Eth63: " + toHexString(nodeKey).substring(0, 8) + " -> " + value);
+                }
             }
-        }
-
-        sendMessage(new NodeDataMessage(nodeValues));
+            return new NodeDataMessage(nodeValues);
+        });
     }
 
-    protected synchronized void processGetReceipts(GetReceiptsMessage msg) {
+    protected void processGetReceipts(GetReceiptsMessage msg) {
 
         if (logger.isTraceEnabled()) logger.trace(
                 "Peer {}: processing GetReceipts, size [{}]",
@@ -131,24 +133,27 @@ public class Eth63 extends Eth62 {
                 msg.getBlockHashes().size()
         );
 
-        List<List<TransactionReceipt>> receipts = new ArrayList<>();
-        int sizeSum = 0;
-        for (byte[] blockHash : msg.getBlockHashes()) {
-            Block block = blockchain.getBlockByHash(blockHash);
-            if (block == null) continue;
-
-            List<TransactionReceipt> blockReceipts = new ArrayList<>();
-            for (Transaction transaction : block.getTransactionsList()) {
-                TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
-                if (transactionInfo == null) break;
-                blockReceipts.add(transactionInfo.getReceipt());
-                sizeSum += TransactionReceipt.MemEstimator.estimateSize(transactionInfo.getReceipt());
+        serveRequest(msg, cost -> {
+            List<List<TransactionReceipt>> receipts = new ArrayList<>();
+            int sizeSum = 0;
+            for (byte[] blockHash : msg.getBlockHashes()) {
+                Block block = blockchain.getBlockByHash(blockHash);
+                cost.dbRead();
+                if (block == null) continue;
+
+                List<TransactionReceipt> blockReceipts = new ArrayList<>();
+                for (Transaction transaction : block.getTransactionsList()) {
+                    TransactionInfo transactionInfo = blockchain.getTransactionInfo(transaction.getHash());
+                    cost.dbRead();
+                    if (transactionInfo == null) break;
+                    blockReceipts.add(transactionInfo.getReceipt());
+                    sizeSum += TransactionReceipt.MemEstimator.estimateSize(transactionInfo.getReceipt());
+                }
+                receipts.add(blockReceipts);
+                if (sizeSum >= MAX_MESSAGE_SIZE) break;
             }
-            receipts.add(blockReceipts);
-            if (sizeSum >= MAX_MESSAGE_SIZE) break;
-        }
-
-        sendMessage(new ReceiptsMessage(receipts));
+            return new ReceiptsMessage(receipts);
+        });
     }
 
     public synchronized ListenableFuture<List<Pair<byte[], byte[]>>> requestTrieNodes(List<byte[]> hashes) {
@@ -17,9 +17,11 @@
  */
 package org.ethereum.net.rlpx;
 
+import com.google.common.io.ByteStreams;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
 import org.ethereum.net.swarm.Util;
 import org.ethereum.util.RLP;
 import org.ethereum.util.RLPList;
@@ -33,28 +35,55 @@ import org.spongycastle.crypto.params.ParametersWithIV;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static org.ethereum.util.RLP.decode2OneItem;
 
 /**
+ * Encrypts and decrypts RLPx frames
+ *
+ * Frames are read from and written to {@link ByteBuf}s directly,
+ * cipher and MAC are run over a small reusable chunk buffer,
+ * payloads of the decoded frames are kept in buffers of the input allocator
+ * (pooled buffers when used within Netty pipeline)
+ *
+ * The codec is not thread safe, egress and ingress sides are expected
+ * to be used by a single thread each
+ *
  * Created by devrandom on 2015-04-11.
  */
 public class FrameCodec {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int HEADER_SIZE = 32;
+    private static final int MAC_SIZE = 16;
+
     private final StreamCipher enc;
     private final StreamCipher dec;
     private final KeccakDigest egressMac;
     private final KeccakDigest ingressMac;
-    private final byte[] mac;
+    private final AESEngine egressMacCipher;
+    private final AESEngine ingressMacCipher;
     boolean isHeadRead;
     private int totalBodySize;
     private int contextId = -1;
     private int totalFrameSize = -1;
     private int protocol;
 
+    // scratch buffers, separate for egress and ingress sides
+    private final byte[] egressHead = new byte[HEADER_SIZE];
+    private final byte[] egressChunk = new byte[CHUNK_SIZE];
+    private final byte[] egressMacBuffer = new byte[32];
+    private final byte[] egressAesBlock = new byte[32];
+    private final byte[] ingressHead = new byte[HEADER_SIZE];
+    private final byte[] ingressChunk = new byte[CHUNK_SIZE];
+    private final byte[] ingressMacBuffer = new byte[32];
+    private final byte[] ingressAesBlock = new byte[32];
+    private final byte[] frameMac = new byte[MAC_SIZE];
+
     public FrameCodec(EncryptionHandshake.Secrets secrets) {
-        this.mac = secrets.mac;
         BlockCipher cipher;
         enc = new SICBlockCipher(cipher = new AESEngine());
         enc.init(true, new ParametersWithIV(new KeyParameter(secrets.aes), new byte[cipher.getBlockSize()]));
@@ -62,19 +91,28 @@ public class FrameCodec {
         dec.init(false, new ParametersWithIV(new KeyParameter(secrets.aes), new byte[cipher.getBlockSize()]));
         egressMac = secrets.egressMac;
         ingressMac = secrets.ingressMac;
+        egressMacCipher = makeMacCipher(secrets.mac);
+        ingressMacCipher = makeMacCipher(secrets.mac);
     }
 
-    private AESEngine makeMacCipher() {
+    private static AESEngine makeMacCipher(byte[] mac) {
         // Stateless AES encryption
         AESEngine macc = new AESEngine();
         macc.init(true, new KeyParameter(mac));
         return macc;
     }
 
-    public static class Frame {
+    /**
+     * RLPx frame
+     *
+     * Frame payload is either a {@link ByteBuf} or an {@link InputStream},
+     * the payload buffer is released along with the frame
+     */
+    public static class Frame implements ReferenceCounted {
         long type;
         int size;
         InputStream payload;
+        ByteBuf buffer;
 
         int totalFrameSize = -1;
         int contextId = -1;
@@ -86,9 +124,14 @@ public class FrameCodec {
         }
 
         public Frame(int type, byte[] payload) {
+            this(type, Unpooled.wrappedBuffer(payload));
+        }
+
+        public Frame(long type, ByteBuf payload) {
             this.type = type;
-            this.size = payload.length;
-            this.payload = new ByteArrayInputStream(payload);
+            this.size = payload.readableBytes();
+            this.buffer = payload;
+            this.payload = new ByteBufInputStream(payload);
         }
 
         public int getSize() {
@@ -100,18 +143,65 @@ public class FrameCodec {
         public InputStream getStream() {
             return payload;
         }
+
+        /**
+         * @return payload buffer, reading the stream if the frame was created from a stream
+         */
+        public ByteBuf getPayload() throws IOException {
+            if (buffer == null) {
+                byte[] bytes = new byte[size];
+                ByteStreams.readFully(payload, bytes);
+                buffer = Unpooled.wrappedBuffer(bytes);
+                payload = new ByteBufInputStream(buffer);
+            }
+            return buffer;
+        }
+
         public boolean isChunked() {
             return contextId >= 0;
         }
 
-    }
+        @Override
+        public int refCnt() {
+            return buffer == null ? 1 : buffer.refCnt();
+        }
 
-    public void writeFrame(Frame frame, ByteBuf buf) throws IOException {
-        writeFrame(frame, new ByteBufOutputStream(buf));
+        @Override
+        public Frame retain() {
+            if (buffer != null) buffer.retain();
+            return this;
+        }
+
+        @Override
+        public Frame retain(int increment) {
+            if (buffer != null) buffer.retain(increment);
+            return this;
+        }
+
+        @Override
+        public boolean release() {
+            return buffer != null && buffer.release();
+        }
+
+        @Override
+        public boolean release(int decrement) {
+            return buffer != null && buffer.release(decrement);
+        }
     }
 
     public void writeFrame(Frame frame, OutputStream out) throws IOException {
-        byte[] headBuffer = new byte[32];
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            writeFrame(frame, buf);
+            buf.readBytes(out, buf.readableBytes());
+        } finally {
+            buf.release();
+        }
+    }
+
+    public void writeFrame(Frame frame, ByteBuf out) throws IOException {
+        byte[] headBuffer = egressHead;
+        Arrays.fill(headBuffer, (byte) 0);
         byte[] ptype = RLP.encodeInt((int) frame.type); // FIXME encodeLong
         int totalSize = frame.size + ptype.length;
         headBuffer[0] = (byte)(totalSize >> 16);
@@ -126,117 +216,175 @@ public class FrameCodec {
         byte[] headerData = RLP.encodeList(headerDataElems.toArray(new byte[0][]));
         System.arraycopy(headerData, 0, headBuffer, 3, headerData.length);
 
+        int padding = 16 - (totalSize % 16);
+        if (padding == 16) padding = 0;
+        out.ensureWritable(HEADER_SIZE + totalSize + padding + MAC_SIZE);
+
         enc.processBytes(headBuffer, 0, 16, headBuffer, 0);
 
         // Header MAC
-        updateMac(egressMac, headBuffer, 0, headBuffer, 16, true);
-
-        byte[] buff = new byte[256];
-        out.write(headBuffer);
-        enc.processBytes(ptype, 0, ptype.length, buff, 0);
-        out.write(buff, 0, ptype.length);
-        egressMac.update(buff, 0, ptype.length);
-        while (true) {
-            int n = frame.payload.read(buff);
-            if (n <= 0) break;
-            enc.processBytes(buff, 0, n, buff, 0);
-            egressMac.update(buff, 0, n);
-            out.write(buff, 0, n);
-        }
-        int padding = 16 - (totalSize % 16);
-        byte[] pad = new byte[16];
-        if (padding < 16) {
-            enc.processBytes(pad, 0, padding, buff, 0);
-            egressMac.update(buff, 0, padding);
-            out.write(buff, 0, padding);
+        updateMac(egressMac, egressMacCipher, headBuffer, 0, headBuffer, 16, true, egressAesBlock);
+
+        out.writeBytes(headBuffer);
+
+        // body is encrypted chunk by chunk: packet type, payload and zero padding
+        byte[] buff = egressChunk;
+        System.arraycopy(ptype, 0, buff, 0, ptype.length);
+        int pos = ptype.length;
+        int left = frame.size;
+        while (left > 0) {
+            int n = Math.min(left, buff.length - pos);
+            if (frame.buffer != null) {
+                frame.buffer.readBytes(buff, pos, n);
+            } else {
+                ByteStreams.readFully(frame.payload, buff, pos, n);
+            }
+            left -= n;
+            pos += n;
+            if (pos == buff.length) {
+                writeEncrypted(buff, pos, out);
+                pos = 0;
+            }
         }
+        // chunk size is a multiple of 16 so the padding always fits the last chunk
+        Arrays.fill(buff, pos, pos + padding, (byte) 0);
+        writeEncrypted(buff, pos + padding, out);
 
         // Frame MAC
-        byte[] macBuffer = new byte[egressMac.getDigestSize()];
+        byte[] macBuffer = egressMacBuffer;
         doSum(egressMac, macBuffer); // fmacseed
-        updateMac(egressMac, macBuffer, 0, macBuffer, 0, true);
-        out.write(macBuffer, 0, 16);
+        updateMac(egressMac, egressMacCipher, macBuffer, 0, macBuffer, 0, true, egressAesBlock);
+        out.writeBytes(macBuffer, 0, MAC_SIZE);
+    }
+
+    private void writeEncrypted(byte[] buff, int len, ByteBuf out) {
+        if (len == 0) return;
+        enc.processBytes(buff, 0, len, buff, 0);
+        egressMac.update(buff, 0, len);
+        out.writeBytes(buff, 0, len);
     }
 
+    /**
+     * Decodes next frame from the buffer
+     *
+     * @return singleton list of the decoded frame or <code>null</code> if not all frame bytes
+     *         are available yet, the payload of each returned frame should be released by the caller
+     */
     public List<Frame> readFrames(ByteBuf buf) throws IOException {
-        try (ByteBufInputStream bufInputStream = new ByteBufInputStream(buf)) {
-            return readFrames(bufInputStream);
+        if (!isHeadRead) {
+            if (buf.readableBytes() < HEADER_SIZE) return null;
+            buf.readBytes(ingressHead);
+            readHeader(ingressHead);
+        }
+
+        int padding = 16 - (totalBodySize % 16);
+        if (padding == 16) padding = 0;
+        int frameSize = totalBodySize + padding;
+        if (buf.readableBytes() < frameSize + MAC_SIZE) return null;
+
+        ByteBuf payload = buf.alloc().buffer(totalBodySize);
+        try {
+            long type = readBody(buf, frameSize, payload);
+
+            // Frame MAC
+            buf.readBytes(frameMac);
+            byte[] macBuffer = ingressMacBuffer;
+            doSum(ingressMac, macBuffer); // fmacseed
+            updateMac(ingressMac, ingressMacCipher, macBuffer, 0, frameMac, 0, false, ingressAesBlock);
+
+            isHeadRead = false;
+            Frame frame = new Frame(type, payload);
+            frame.contextId = contextId;
+            frame.totalFrameSize = totalFrameSize;
+            return Collections.singletonList(frame);
+        } catch (IOException | RuntimeException e) {
+            payload.release();
+            throw e;
         }
     }
 
     public List<Frame> readFrames(DataInput inp) throws IOException {
         if (!isHeadRead) {
-            byte[] headBuffer = new byte[32];
             try {
-                inp.readFully(headBuffer);
+                inp.readFully(ingressHead);
             } catch (EOFException e) {
                 return null;
             }
-
-            // Header MAC
-            updateMac(ingressMac, headBuffer, 0, headBuffer, 16, false);
-
-            dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
-            totalBodySize = headBuffer[0] & 0xFF;
-            totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
-            totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
-
-            RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
-
-            protocol = Util.rlpDecodeInt(rlpList.get(0));
-            contextId = -1;
-            totalFrameSize = -1;
-            if (rlpList.size() > 1) {
-                contextId = Util.rlpDecodeInt(rlpList.get(1));
-                if (rlpList.size() > 2) {
-                    totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
-                }
-            }
-
-            isHeadRead = true;
+            readHeader(ingressHead);
         }
 
         int padding = 16 - (totalBodySize % 16);
         if (padding == 16) padding = 0;
-        int macSize = 16;
-        byte[] buffer = new byte[totalBodySize + padding + macSize];
+        byte[] buffer = new byte[totalBodySize + padding + MAC_SIZE];
         try {
             inp.readFully(buffer);
         } catch (EOFException e) {
             return null;
         }
-        int frameSize = buffer.length - macSize;
-        ingressMac.update(buffer, 0, frameSize);
-        dec.processBytes(buffer, 0, frameSize, buffer, 0);
-        int pos = 0;
-        long type = RLP.decodeLong(buffer, pos);
-        pos = RLP.getNextElementIndex(buffer, pos);
-        InputStream payload = new ByteArrayInputStream(buffer, pos, totalBodySize - pos);
-        int size = totalBodySize - pos;
-        byte[] macBuffer = new byte[ingressMac.getDigestSize()];
+        return readFrames(Unpooled.wrappedBuffer(buffer));
+    }
 
-        // Frame MAC
-        doSum(ingressMac, macBuffer); // fmacseed
-        updateMac(ingressMac, macBuffer, 0, buffer, frameSize, false);
-
-        isHeadRead = false;
-        Frame frame = new Frame(type, size, payload);
-        frame.contextId = contextId;
-        frame.totalFrameSize = totalFrameSize;
-        return Collections.singletonList(frame);
+    private void readHeader(byte[] headBuffer) throws IOException {
+        // Header MAC
+        updateMac(ingressMac, ingressMacCipher, headBuffer, 0, headBuffer, 16, false, ingressAesBlock);
+
+        dec.processBytes(headBuffer, 0, 16, headBuffer, 0);
+        totalBodySize = headBuffer[0] & 0xFF;
+        totalBodySize = (totalBodySize << 8) + (headBuffer[1] & 0xFF);
+        totalBodySize = (totalBodySize << 8) + (headBuffer[2] & 0xFF);
+
+        RLPList rlpList = (RLPList) decode2OneItem(headBuffer, 3);
+
+        protocol = Util.rlpDecodeInt(rlpList.get(0));
+        contextId = -1;
+        totalFrameSize = -1;
+        if (rlpList.size() > 1) {
+            contextId = Util.rlpDecodeInt(rlpList.get(1));
+            if (rlpList.size() > 2) {
+                totalFrameSize = Util.rlpDecodeInt(rlpList.get(2));
+            }
+        }
+
+        isHeadRead = true;
+    }
+
+    /**
+     * Decrypts frame body chunk by chunk, packet type is returned,
+     * the rest of the body without padding is written to the payload
+     */
+    private long readBody(ByteBuf buf, int frameSize, ByteBuf payload) {
+        byte[] buff = ingressChunk;
+        long type = 0;
+        int processed = 0;
+        while (processed < frameSize) {
+            int n = Math.min(frameSize - processed, buff.length);
+            buf.readBytes(buff, 0, n);
+            ingressMac.update(buff, 0, n);
+            dec.processBytes(buff, 0, n, buff, 0);
+
+            int start = 0;
+            if (processed == 0) {
+                type = RLP.decodeLong(buff, 0);
+                start = RLP.getNextElementIndex(buff, 0);
+            }
+            int end = Math.min(n, totalBodySize - processed);
+            if (end > start) payload.writeBytes(buff, start, end - start);
+            processed += n;
+        }
+        return type;
     }
 
-    private byte[] updateMac(KeccakDigest mac, byte[] seed, int offset, byte[] out, int outOffset, boolean egress) throws IOException {
-        byte[] aesBlock = new byte[mac.getDigestSize()];
+    private void updateMac(KeccakDigest mac, AESEngine macCipher, byte[] seed, int offset, byte[] out, int outOffset,
+                           boolean egress, byte[] aesBlock) throws IOException {
         doSum(mac, aesBlock);
-        makeMacCipher().processBlock(aesBlock, 0, aesBlock, 0);
+        macCipher.processBlock(aesBlock, 0, aesBlock, 0);
         // Note that although the mac digest size is 32 bytes, we only use 16 bytes in the computation
         int length = 16;
         for (int i = 0; i < length; i++) {
             aesBlock[i] ^= seed[i + offset];
         }
         mac.update(aesBlock, 0, length);
-        byte[] result = new byte[mac.getDigestSize()];
+        byte[] result = aesBlock;
         doSum(mac, result);
         if (egress) {
             System.arraycopy(result, 0, out, outOffset, length);
@@ -247,7 +395,6 @@ public class FrameCodec {
                 }
             }
         }
-        return result;
     }
 
     private void doSum(KeccakDigest mac, byte[] out) {
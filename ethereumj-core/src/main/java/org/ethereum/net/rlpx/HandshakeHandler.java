@@ -179,6 +179,7 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                     return;
                 Frame frame = frames.get(0);
                 byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                frame.release();
                 if (frame.getType() == P2pMessageCodes.HELLO.asByte()) {
                     HelloMessage helloMessage = new HelloMessage(payload);
                     if (loggerNet.isDebugEnabled())
@@ -258,9 +259,10 @@ public class HandshakeHandler extends ByteToMessageDecoder {
                 if (frames == null || frames.isEmpty())
                     return;
                 Frame frame = frames.get(0);
+                byte[] payload = ByteStreams.toByteArray(frame.getStream());
+                frame.release();
 
-                Message message = new P2pMessageFactory().create((byte) frame.getType(),
-                        ByteStreams.toByteArray(frame.getStream()));
+                Message message = new P2pMessageFactory().create((byte) frame.getType(), payload);
                 loggerNet.debug("From: {}    Recv:  {}", ctx.channel().remoteAddress(), message);
 
                 if (frame.getType() == P2pMessageCodes.DISCONNECT.asByte()) {
@@ -36,6 +36,9 @@ public abstract class Message {
     byte[] type;
     byte[] data;
 
+    // recovered from the signature on first request
+    private volatile byte[] nodeId;
+
     public static Message decode(byte[] wire) {
 
         if (wire.length < 98) throw new RuntimeException("Bad message");
@@ -105,6 +108,7 @@ public abstract class Message {
         this.data = data;
 
         this.wire = merge(this.mdc, this.signature, this.type, this.data);
+        this.nodeId = null;
 
         return this;
     }
@@ -136,7 +140,10 @@ public abstract class Message {
     }
 
     public byte[] getNodeId() {
-        return getKey().getNodeId();
+        if (nodeId == null) {
+            nodeId = getKey().getNodeId();
+        }
+        return nodeId;
     }
 
     public byte[] getPacket() {
@@ -17,7 +17,7 @@
  */
 package org.ethereum.net.rlpx;
 
-import com.google.common.io.ByteStreams;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import org.apache.commons.collections4.map.LRUMap;
@@ -120,7 +120,11 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
                 }
             }
 
-            frameParts.getLeft().add(frame);
+            // incoming frame is released once decoded, thus the chunk is copied
+            Frame chunk = new Frame((int) frame.type, readPayload(frame));
+            chunk.contextId = frame.contextId;
+            chunk.totalFrameSize = frame.totalFrameSize;
+            frameParts.getLeft().add(chunk);
             int curSize = frameParts.getRight().addAndGet(frame.size);
 
             if (loggerWire.isDebugEnabled())
@@ -145,10 +149,18 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
     private Message decodeMessage(ChannelHandlerContext ctx, List<Frame> frames) throws IOException {
         long frameType = frames.get(0).getType();
 
-        byte[] payload = new byte[frames.size() == 1 ? frames.get(0).getSize() : frames.get(0).totalFrameSize];
-        int pos = 0;
-        for (Frame frame : frames) {
-            pos += ByteStreams.read(frame.getStream(), payload, pos, frame.getSize());
+        byte[] payload;
+        if (frames.size() == 1) {
+            payload = readPayload(frames.get(0));
+        } else {
+            payload = new byte[frames.get(0).totalFrameSize];
+            int pos = 0;
+            for (Frame frame : frames) {
+                ByteBuf buf = frame.getPayload();
+                int size = buf.readableBytes();
+                buf.readBytes(payload, pos, size);
+                pos += size;
+            }
         }
 
         if (loggerWire.isDebugEnabled())
@@ -172,6 +184,13 @@ public class MessageCodec extends MessageToMessageCodec<Frame, Message> {
         return msg;
     }
 
+    private static byte[] readPayload(Frame frame) throws IOException {
+        ByteBuf buf = frame.getPayload();
+        byte[] payload = new byte[buf.readableBytes()];
+        buf.readBytes(payload);
+        return payload;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, Message msg, List<Object> out) throws Exception {
         String output = String.format("To: \t%s \tSend: \t%s", ctx.channel().remoteAddress(), msg);
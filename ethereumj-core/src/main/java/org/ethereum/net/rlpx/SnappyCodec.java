@@ -17,6 +17,8 @@
  */
 package org.ethereum.net.rlpx;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageCodec;
 import org.ethereum.net.message.ReasonCode;
@@ -63,30 +65,26 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             return;
         }
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        ByteBuf compressed = compress(msg.getPayload());
 
-        byte[] compressed = Snappy.rawCompress(in, in.length);
-
-        out.add(new FrameCodec.Frame((int) msg.type, compressed));
+        out.add(new FrameCodec.Frame(msg.type, compressed));
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, FrameCodec.Frame msg, List<Object> out) throws Exception {
 
-        byte[] in = new byte[msg.size];
-        msg.payload.read(in);
+        ByteBuf in = msg.getPayload();
 
-        long uncompressedLength = Snappy.uncompressedLength(in) & 0xFFFFFFFFL;
+        long uncompressedLength = uncompressedLength(in) & 0xFFFFFFFFL;
         if (uncompressedLength > MAX_SIZE) {
             logger.info("{}: uncompressed frame size exceeds the limit ({} bytes), drop the peer", channel, uncompressedLength);
             channel.disconnect(ReasonCode.BAD_PROTOCOL);
             return;
         }
 
-        byte[] uncompressed = new byte[(int) uncompressedLength];
+        ByteBuf uncompressed;
         try {
-            Snappy.rawUncompress(in, 0, in.length, uncompressed, 0);
+            uncompressed = uncompress(in, (int) uncompressedLength);
         } catch (IOException e) {
             String detailMessage = e.getMessage();
             // 5 - error code for framed snappy
@@ -99,7 +97,81 @@ public class SnappyCodec extends MessageToMessageCodec<FrameCodec.Frame, FrameCo
             }
         }
 
-        out.add(new FrameCodec.Frame((int) msg.type, uncompressed));
+        out.add(new FrameCodec.Frame(msg.type, uncompressed));
+    }
+
+    /**
+     * Snappy works with direct buffers natively,
+     * for heap buffers their backing arrays are used
+     */
+    private static boolean isDirect(ByteBuf buf) {
+        return buf.isDirect() && buf.nioBufferCount() == 1;
+    }
+
+    private static ByteBuf toHeap(ByteBuf buf) {
+        if (buf.hasArray()) return buf;
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+        return Unpooled.wrappedBuffer(bytes);
+    }
+
+    static ByteBuf compress(ByteBuf in) throws IOException {
+        int maxLength = Snappy.maxCompressedLength(in.readableBytes());
+        if (isDirect(in)) {
+            ByteBuf out = in.alloc().directBuffer(maxLength);
+            try {
+                int length = Snappy.compress(in.nioBuffer(), out.nioBuffer(0, maxLength));
+                return out.writerIndex(length);
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        } else {
+            ByteBuf heapIn = toHeap(in);
+            ByteBuf out = in.alloc().heapBuffer(maxLength);
+            try {
+                int length = Snappy.compress(heapIn.array(), heapIn.arrayOffset() + heapIn.readerIndex(),
+                        heapIn.readableBytes(), out.array(), out.arrayOffset());
+                return out.writerIndex(length);
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        }
+    }
+
+    static int uncompressedLength(ByteBuf in) throws IOException {
+        if (isDirect(in)) {
+            return Snappy.uncompressedLength(in.nioBuffer());
+        } else {
+            ByteBuf heapIn = toHeap(in);
+            return Snappy.uncompressedLength(heapIn.array(), heapIn.arrayOffset() + heapIn.readerIndex(),
+                    heapIn.readableBytes());
+        }
+    }
+
+    static ByteBuf uncompress(ByteBuf in, int length) throws IOException {
+        if (isDirect(in)) {
+            ByteBuf out = in.alloc().directBuffer(length);
+            try {
+                Snappy.uncompress(in.nioBuffer(), out.nioBuffer(0, length));
+                return out.writerIndex(length);
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        } else {
+            ByteBuf heapIn = toHeap(in);
+            ByteBuf out = in.alloc().heapBuffer(length);
+            try {
+                Snappy.rawUncompress(heapIn.array(), heapIn.arrayOffset() + heapIn.readerIndex(),
+                        heapIn.readableBytes(), out.array(), out.arrayOffset());
+                return out.writerIndex(length);
+            } catch (IOException | RuntimeException e) {
+                out.release();
+                throw e;
+            }
+        }
     }
 
     @Override
@@ -118,9 +118,9 @@ public class NodeHandler {
         NonActive
     }
 
-    Node node;
+    volatile Node node;
     NodeManager nodeManager;
-    private NodeStatistics nodeStatistics;
+    private volatile NodeStatistics nodeStatistics;
 
     State state;
     boolean waitForPong = false;
@@ -149,7 +149,11 @@ public class NodeHandler {
 
     public NodeStatistics getNodeStatistics() {
         if (nodeStatistics == null) {
-            nodeStatistics = new NodeStatistics(node);
+            synchronized (this) {
+                if (nodeStatistics == null) {
+                    nodeStatistics = new NodeStatistics(node);
+                }
+            }
         }
         return nodeStatistics;
     }
@@ -24,7 +24,6 @@ import org.ethereum.db.PeerSource;
 import org.ethereum.listener.EthereumListener;
 import org.ethereum.net.rlpx.*;
 import org.ethereum.net.rlpx.discover.table.NodeTable;
-import org.ethereum.util.CollectionUtils;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
@@ -32,9 +31,12 @@ import org.springframework.stereotype.Component;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -68,7 +70,13 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     Consumer<DiscoveryEvent> messageSender;
 
     NodeTable table;
-    private Map<String, NodeHandler> nodeHandlerMap = new HashMap<>();
+    private final Map<String, NodeHandler> nodeHandlerMap = new ConcurrentHashMap<>();
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    // nodes sorted by total difficulty and reputation, see {@link #getRanking()}
+    private volatile List<NodeHandler> ranking = Collections.emptyList();
+    private volatile long rankingTime;
+    private final Object rankingLock = new Object();
     final ECKey key;
     final Node homeNode;
     private List<Node> bootNodes;
@@ -78,7 +86,8 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
 
     private boolean discoveryEnabled;
 
-    private Map<DiscoverListener, ListenerHandler> listeners = new IdentityHashMap<>();
+    // guarded by itself
+    private final Map<DiscoverListener, ListenerHandler> listeners = new IdentityHashMap<>();
 
     private boolean inited = false;
     private Timer logStatsTimer = new Timer();
@@ -103,7 +112,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         logStatsTimer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                logger.trace("Statistics:\n {}", dumpAllStatistics());
+                if (logger.isTraceEnabled()) logger.trace("Statistics:\n {}", dumpAllStatistics());
             }
         }, 1 * 1000, 60 * 1000);
 
@@ -134,6 +143,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
                 @Override
                 public void run() {
                     processListeners();
+                    refreshRanking();
                 }
             }, LISTENER_REFRESH_RATE, LISTENER_REFRESH_RATE);
 
@@ -162,10 +172,8 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
 
     private void dbWrite() {
         List<Pair<Node, Integer>> batch = new ArrayList<>();
-        synchronized (this) {
-            for (NodeHandler handler : nodeHandlerMap.values()) {
-                batch.add(Pair.of(handler.getNode(), handler.getNodeStatistics().getPersistedReputation()));
-            }
+        for (NodeHandler handler : nodeHandlerMap.values()) {
+            batch.add(Pair.of(handler.getNode(), handler.getNodeStatistics().getPersistedReputation()));
         }
         peerSource.clear();
         for (Pair<Node, Integer> nodeElement : batch) {
@@ -189,21 +197,30 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         return (addr == null ? address.getHostString() : addr.getHostAddress()) + ":" + address.getPort();
     }
 
-    public synchronized NodeHandler getNodeHandler(Node n) {
+    /**
+     * Returns the handler of the node, creates one if the node is new.
+     * Lookups of known nodes don't take any locks
+     */
+    public NodeHandler getNodeHandler(Node n) {
         String key = getKey(n);
         NodeHandler ret = nodeHandlerMap.get(key);
         if (ret == null) {
             trimTable();
-            ret = new NodeHandler(n ,this);
-            nodeHandlerMap.put(key, ret);
-            logger.debug(" +++ New node: " + ret + " " + n);
-            if (!n.isDiscoveryNode() && !n.getHexId().equals(homeNode.getHexId())) {
-                ethereumListener.onNodeDiscovered(ret.getNode());
+            NodeHandler[] created = new NodeHandler[1];
+            ret = nodeHandlerMap.computeIfAbsent(key, k -> created[0] = new NodeHandler(n, this));
+            if (created[0] != null) {
+                logger.debug(" +++ New node: " + ret + " " + n);
+                if (!n.isDiscoveryNode() && !n.getHexId().equals(homeNode.getHexId())) {
+                    ethereumListener.onNodeDiscovered(ret.getNode());
+                }
             }
         } else if (ret.getNode().isDiscoveryNode() && !n.isDiscoveryNode()) {
             // we found discovery node with same host:port,
             // replace node with correct nodeId
-            ret.node = n;
+            synchronized (ret) {
+                if (!ret.getNode().isDiscoveryNode()) return ret;
+                ret.node = n;
+            }
             if (!n.getHexId().equals(homeNode.getHexId())) {
                 ethereumListener.onNodeDiscovered(ret.getNode());
             }
@@ -214,17 +231,77 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     }
 
     private void trimTable() {
-        if (nodeHandlerMap.size() > NODES_TRIM_THRESHOLD) {
+        if (nodeHandlerMap.size() > NODES_TRIM_THRESHOLD && trimming.compareAndSet(false, true)) {
+            try {
+                List<RankedNode> sorted = new ArrayList<>();
+                for (NodeHandler handler : nodeHandlerMap.values()) {
+                    sorted.add(new RankedNode(handler));
+                }
+                // reverse sort by reputation
+                sorted.sort(Comparator.comparingInt(r -> r.reputation));
 
-            List<NodeHandler> sorted = new ArrayList<>(nodeHandlerMap.values());
-            // reverse sort by reputation
-            sorted.sort((o1, o2) -> o1.getNodeStatistics().getReputation() - o2.getNodeStatistics().getReputation());
+                for (RankedNode node : sorted) {
+                    nodeHandlerMap.remove(getKey(node.handler.getNode()));
+                    if (nodeHandlerMap.size() <= MAX_NODES) break;
+                }
+            } finally {
+                trimming.set(false);
+            }
+        }
+    }
+
+    /**
+     * Node handler with the values it's sorted by,
+     * statistics may change while sorting thus they are taken once
+     */
+    private static class RankedNode {
+        final NodeHandler handler;
+        final BigInteger totalDifficulty;
+        final int reputation;
+
+        RankedNode(NodeHandler handler) {
+            this.handler = handler;
+            this.totalDifficulty = handler.getNodeStatistics().getEthTotalDifficulty();
+            this.reputation = handler.getNodeStatistics().getReputation();
+        }
+    }
 
-            for (NodeHandler handler : sorted) {
-                nodeHandlerMap.remove(getKey(handler.getNode()));
-                if (nodeHandlerMap.size() <= MAX_NODES) break;
+    /**
+     * Rebuilds the nodes index ordered by total difficulty and reputation, descending
+     */
+    void refreshRanking() {
+        synchronized (rankingLock) {
+            List<RankedNode> sorted = new ArrayList<>();
+            for (NodeHandler handler : nodeHandlerMap.values()) {
+                sorted.add(new RankedNode(handler));
+            }
+            sorted.sort((o1, o2) -> {
+                int c = o2.totalDifficulty.compareTo(o1.totalDifficulty);
+                return c != 0 ? c : Integer.compare(o2.reputation, o1.reputation);
+            });
+
+            List<NodeHandler> ret = new ArrayList<>(sorted.size());
+            for (RankedNode node : sorted) {
+                ret.add(node.handler);
+            }
+            ranking = ret;
+            rankingTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Returns the nodes index which is refreshed in background with {@link #LISTENER_REFRESH_RATE},
+     * if background refresh is not running the index is rebuilt on demand when it's outdated
+     */
+    private List<NodeHandler> getRanking() {
+        if (System.currentTimeMillis() - rankingTime > LISTENER_REFRESH_RATE) {
+            synchronized (rankingLock) {
+                if (System.currentTimeMillis() - rankingTime > LISTENER_REFRESH_RATE) {
+                    refreshRanking();
+                }
             }
         }
+        return ranking;
     }
 
 
@@ -300,7 +377,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
         }
     }
 
-    public synchronized List<NodeHandler> getNodes(int minReputation) {
+    public List<NodeHandler> getNodes(int minReputation) {
         List<NodeHandler> ret = new ArrayList<>();
         for (NodeHandler nodeHandler : nodeHandlerMap.values()) {
             if (nodeHandler.getNodeStatistics().getReputation() >= minReputation) {
@@ -314,6 +391,9 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
      * Returns limited list of nodes matching {@code predicate} criteria<br>
      * The nodes are sorted then by their totalDifficulties
      *
+     * The nodes are taken from the index which may be up to {@link #LISTENER_REFRESH_RATE} old,
+     * i.e. just discovered nodes or recent total difficulty changes may be missed
+     *
      * @param predicate only those nodes which are satisfied to its condition are included in results
      * @param limit max size of returning list
      *
@@ -323,24 +403,23 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
             Predicate<NodeHandler> predicate,
             int limit    ) {
         ArrayList<NodeHandler> filtered = new ArrayList<>();
-        synchronized (this) {
-            for (NodeHandler handler : nodeHandlerMap.values()) {
-                if (predicate.test(handler)) {
-                    filtered.add(handler);
-                }
+        for (NodeHandler handler : getRanking()) {
+            if (filtered.size() >= limit) break;
+            if (predicate.test(handler)) {
+                filtered.add(handler);
             }
         }
-        filtered.sort((o1, o2) -> o2.getNodeStatistics().getEthTotalDifficulty().compareTo(
-                o1.getNodeStatistics().getEthTotalDifficulty()));
-        return CollectionUtils.truncate(filtered, limit);
+        return filtered;
     }
 
-    private synchronized void processListeners() {
-        for (ListenerHandler handler : listeners.values()) {
-            try {
-                handler.checkAll();
-            } catch (Exception e) {
-                logger.error("Exception processing listener: " + handler, e);
+    private void processListeners() {
+        synchronized (listeners) {
+            for (ListenerHandler handler : listeners.values()) {
+                try {
+                    handler.checkAll();
+                } catch (Exception e) {
+                    logger.error("Exception processing listener: " + handler, e);
+                }
             }
         }
     }
@@ -349,23 +428,30 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
      * Add a listener which is notified when the node statistics starts or stops meeting
      * the criteria specified by [filter] param.
      */
-    public synchronized void addDiscoverListener(DiscoverListener listener, Predicate<NodeStatistics> filter) {
-        listeners.put(listener, new ListenerHandler(listener, filter));
+    public void addDiscoverListener(DiscoverListener listener, Predicate<NodeStatistics> filter) {
+        synchronized (listeners) {
+            listeners.put(listener, new ListenerHandler(listener, filter));
+        }
     }
 
-    public synchronized void removeDiscoverListener(DiscoverListener listener) {
-        listeners.remove(listener);
+    public void removeDiscoverListener(DiscoverListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
     }
 
-    public synchronized String dumpAllStatistics() {
-        List<NodeHandler> l = new ArrayList<>(nodeHandlerMap.values());
-        l.sort((o1, o2) -> -(o1.getNodeStatistics().getReputation() - o2.getNodeStatistics().getReputation()));
+    public String dumpAllStatistics() {
+        List<RankedNode> l = new ArrayList<>();
+        for (NodeHandler handler : nodeHandlerMap.values()) {
+            l.add(new RankedNode(handler));
+        }
+        l.sort((o1, o2) -> Integer.compare(o2.reputation, o1.reputation));
 
         StringBuilder sb = new StringBuilder();
         int zeroReputCount = 0;
-        for (NodeHandler nodeHandler : l) {
-            if (nodeHandler.getNodeStatistics().getReputation() > 0) {
-                sb.append(nodeHandler).append("\t").append(nodeHandler.getNodeStatistics()).append("\n");
+        for (RankedNode node : l) {
+            if (node.reputation > 0) {
+                sb.append(node.handler).append("\t").append(node.handler.getNodeStatistics()).append("\n");
             } else {
                 zeroReputCount++;
             }
@@ -385,7 +471,7 @@ public class NodeManager implements Consumer<DiscoveryEvent>{
     }
 
     public void close() {
-        peerConnectionManager.close();
+        if (peerConnectionManager != null) peerConnectionManager.close();
         try {
             nodeManagerTasksTimer.cancel();
             if (PERSIST) {
@@ -19,10 +19,11 @@ package org.ethereum.net.rlpx.discover.table;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
+ * Kademlia table bucket, all the operations are synchronized on the bucket
+ *
  * Created by kest on 5/25/15.
  */
 public class NodeBucket {
@@ -65,15 +66,25 @@ public class NodeBucket {
         }
     }
 
-    public int getNodesCount() {
+    public synchronized boolean contains(NodeEntry entry) {
+        return nodes.contains(entry);
+    }
+
+    public synchronized void touchNode(NodeEntry entry) {
+        int idx = nodes.indexOf(entry);
+        if (idx >= 0) {
+            nodes.get(idx).touch();
+        }
+    }
+
+    public synchronized int getNodesCount() {
         return nodes.size();
     }
 
-    public List<NodeEntry> getNodes() {
-//        List<NodeEntry> nodes = new ArrayList<>();
-//        for (NodeEntry e : this.nodes) {
-//            nodes.add(e);
-//        }
-        return nodes;
+    /**
+     * @return snapshot of the bucket nodes
+     */
+    public synchronized List<NodeEntry> getNodes() {
+        return new ArrayList<>(nodes);
     }
 }
@@ -20,15 +20,22 @@ package org.ethereum.net.rlpx.discover.table;
 import org.ethereum.net.rlpx.Node;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Kademlia table of discovered nodes
+ *
+ * Each bucket is guarded by its own lock, operations on a single node lock only
+ * the bucket the node belongs to, so concurrent updates of different buckets
+ * don't contend. Whole table queries collect bucket snapshots one by one
+ *
  * Created by kest on 5/25/15.
  */
 public class NodeTable {
 
     private final Node node;  // our node
     private transient NodeBucket[] buckets;
-    private transient List<NodeEntry> nodes;
+    private transient Map<String, NodeEntry> nodes;
     private Map<Node, Node> evictedCandidates = new HashMap<>();
     private Map<Node, Date> expectedPongs = new HashMap<>();
 
@@ -50,7 +57,7 @@ public class NodeTable {
 
     public final void initialize()
     {
-        nodes = new ArrayList<>();
+        nodes = new ConcurrentHashMap<>();
         buckets = new NodeBucket[KademliaOptions.BINS];
         for (int i = 0; i < KademliaOptions.BINS; i++)
         {
@@ -58,42 +65,36 @@ public class NodeTable {
         }
     }
 
-    public synchronized Node addNode(Node n) {
+    public Node addNode(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        NodeEntry lastSeen = buckets[getBucketId(e)].addNode(e);
-        if (lastSeen != null) {
-            return lastSeen.getNode();
-        }
-        if (!nodes.contains(e)) {
-            nodes.add(e);
+        NodeBucket bucket = buckets[getBucketId(e)];
+        synchronized (bucket) {
+            NodeEntry lastSeen = bucket.addNode(e);
+            if (lastSeen != null) {
+                return lastSeen.getNode();
+            }
+            nodes.putIfAbsent(e.getId(), e);
         }
         return null;
     }
 
-    public synchronized void dropNode(Node n) {
+    public void dropNode(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        buckets[getBucketId(e)].dropNode(e);
-        nodes.remove(e);
+        NodeBucket bucket = buckets[getBucketId(e)];
+        synchronized (bucket) {
+            bucket.dropNode(e);
+            nodes.remove(e.getId());
+        }
     }
 
-    public synchronized boolean contains(Node n) {
+    public boolean contains(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        for (NodeBucket b : buckets) {
-            if (b.getNodes().contains(e)) {
-                return true;
-            }
-        }
-        return false;
+        return buckets[getBucketId(e)].contains(e);
     }
 
-    public synchronized void touchNode(Node n) {
+    public void touchNode(Node n) {
         NodeEntry e = new NodeEntry(node.getId(), n);
-        for (NodeBucket b : buckets) {
-            if (b.getNodes().contains(e)) {
-                b.getNodes().get(b.getNodes().indexOf(e)).touch();
-                break;
-            }
-        }
+        buckets[getBucketId(e)].touchNode(e);
     }
 
     public int getBucketsCount() {
@@ -106,7 +107,7 @@ public class NodeTable {
         return i;
     }
 
-    public synchronized NodeBucket[] getBuckets() {
+    public NodeBucket[] getBuckets() {
         return buckets;
     }
 
@@ -115,17 +116,16 @@ public class NodeTable {
         return id < 0 ? 0 : id;
     }
 
-    public synchronized int getNodesCount() {
+    public int getNodesCount() {
         return nodes.size();
     }
 
-    public synchronized List<NodeEntry> getAllNodes()
+    public List<NodeEntry> getAllNodes()
     {
         List<NodeEntry> nodes = new ArrayList<>();
 
         for (NodeBucket b : buckets)
         {
-//            nodes.addAll(b.getNodes());
             for (NodeEntry e : b.getNodes())
             {
                 if (!e.getNode().equals(node)) {
@@ -134,11 +134,10 @@ public class NodeTable {
             }
         }
 
-//        boolean res = nodes.remove(node);
         return nodes;
     }
 
-    public synchronized List<Node> getClosestNodes(byte[] targetId) {
+    public List<Node> getClosestNodes(byte[] targetId) {
         List<NodeEntry> closestEntries = getAllNodes();
         List<Node> closestNodes = new ArrayList<>();
         Collections.sort(closestEntries, new DistanceComparator(targetId));
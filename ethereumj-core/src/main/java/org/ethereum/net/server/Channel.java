@@ -49,7 +49,6 @@ import org.ethereum.net.shh.ShhHandler;
 import org.ethereum.net.shh.ShhMessageFactory;
 import org.ethereum.net.swarm.bzz.BzzHandler;
 import org.ethereum.net.swarm.bzz.BzzMessageFactory;
-import org.ethereum.util.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -59,6 +58,7 @@ import org.springframework.stereotype.Component;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -124,6 +124,26 @@ public class Channel {
 
     public static final int MAX_SAFE_TXS = 192;
 
+    /**
+     * Number of tx hashes remembered as known to the remote peer
+     */
+    static final int MAX_KNOWN_TXS = 32 * 1024;
+
+    /**
+     * Max number of txs waiting for the next broadcast, extra txs are dropped
+     */
+    static final int MAX_QUEUED_TXS = 4 * 1024;
+
+    /**
+     * Soft limit of a single {@link org.ethereum.net.eth.message.TransactionsMessage} size in bytes
+     */
+    static final int MAX_TXS_MESSAGE_SIZE = 128 * 1024;
+
+    private final KnownTxFilter knownTxs = new KnownTxFilter(MAX_KNOWN_TXS);
+
+    // guarded by itself
+    private final List<Transaction> txQueue = new ArrayList<>();
+
     public void init(ChannelPipeline pipeline, String remoteId, boolean discoveryMode, ChannelManager channelManager) {
         this.channelManager = channelManager;
         this.remoteId = remoteId;
@@ -378,7 +398,6 @@ public class Channel {
 
     /**
      * Send transactions from input to peer corresponded with channel
-     * Using {@link #sendTransactionsCapped(List)} is recommended instead
      * @param txs   Transactions
      */
     public void sendTransactions(List<Transaction> txs) {
@@ -386,18 +405,60 @@ public class Channel {
     }
 
     /**
-     * Sames as {@link #sendTransactions(List)} but input list is randomly sliced to
-     * contain not more than {@link #MAX_SAFE_TXS} if needed
-     * @param txs   List of txs to send
+     * Remembers the tx as known to the remote peer, so it's not sent back
+     * @return <code>false</code> if the tx was already known to the peer
      */
-    public void sendTransactionsCapped(List<Transaction> txs) {
-        List<Transaction> slicedTxs;
-        if (txs.size() <= MAX_SAFE_TXS) {
-            slicedTxs = txs;
-        } else {
-            slicedTxs = CollectionUtils.truncateRand(txs, MAX_SAFE_TXS);
+    public boolean markTransactionKnown(Transaction tx) {
+        return knownTxs.add(tx.getHash());
+    }
+
+    /**
+     * Queues txs which are not known to the remote peer yet,
+     * queued txs are sent by {@link #flushTransactions()}
+     * @return number of txs skipped as known to the peer
+     */
+    public int enqueueTransactions(List<Transaction> txs) {
+        int skipped = 0;
+        synchronized (txQueue) {
+            for (Transaction tx : txs) {
+                if (txQueue.size() >= MAX_QUEUED_TXS) break;
+                if (knownTxs.add(tx.getHash())) {
+                    txQueue.add(tx);
+                } else {
+                    skipped++;
+                }
+            }
+        }
+        return skipped;
+    }
+
+    /**
+     * Sends queued txs batched into messages of up to {@link #MAX_TXS_MESSAGE_SIZE} bytes
+     * @return number of txs sent
+     */
+    public int flushTransactions() {
+        List<Transaction> txs;
+        synchronized (txQueue) {
+            if (txQueue.isEmpty()) return 0;
+            txs = new ArrayList<>(txQueue);
+            txQueue.clear();
         }
-        eth.sendTransaction(slicedTxs);
+
+        List<Transaction> batch = new ArrayList<>();
+        int batchSize = 0;
+        for (Transaction tx : txs) {
+            int size = tx.getEncoded().length;
+            if (!batch.isEmpty() && batchSize + size > MAX_TXS_MESSAGE_SIZE) {
+                eth.sendTransaction(batch);
+                batch = new ArrayList<>();
+                batchSize = 0;
+            }
+            batch.add(tx);
+            batchSize += size;
+        }
+        eth.sendTransaction(batch);
+
+        return txs.size();
     }
 
     public void sendNewBlock(Block block) {
@@ -30,6 +30,7 @@ import org.ethereum.net.message.ReasonCode;
 import org.ethereum.net.rlpx.Node;
 import org.ethereum.sync.SyncManager;
 import org.ethereum.sync.SyncPool;
+import org.ethereum.util.CollectionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +39,7 @@ import org.springframework.stereotype.Component;
 import java.net.InetAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.ethereum.net.message.ReasonCode.DUPLICATE_PEER;
 import static org.ethereum.net.message.ReasonCode.TOO_MANY_PEERS;
@@ -59,6 +61,12 @@ public class ChannelManager {
     private List<Channel> newPeers = new CopyOnWriteArrayList<>();
     // Limiting number of new peers to avoid delays in processing
     private static final int MAX_NEW_PEERS = 128;
+
+    // Queued txs are sent to peers with this interval, ms
+    private static final int TX_BROADCAST_INTERVAL = 100;
+
+    // Number of tx hashes remembered as already processed by this node
+    private static final int MAX_SEEN_TXS = 64 * 1024;
     private final Map<ByteArrayWrapper, Channel> activePeers = new ConcurrentHashMap<>();
 
     private ScheduledExecutorService mainWorker = Executors.newSingleThreadScheduledExecutor();
@@ -81,6 +89,10 @@ public class ChannelManager {
 
     Random rnd = new Random();  // Used for distributing new blocks / hashes logic
 
+    private final KnownTxFilter seenTxs = new KnownTxFilter(MAX_SEEN_TXS);
+    private final AtomicLong duplicateTxsReceived = new AtomicLong();
+    private final AtomicLong duplicateTxsNotSent = new AtomicLong();
+
     @Autowired
     SyncPool syncPool;
 
@@ -111,6 +123,13 @@ public class ChannelManager {
                 logger.error("Error", t);
             }
         }, 0, 1, TimeUnit.SECONDS);
+        mainWorker.scheduleWithFixedDelay(() -> {
+            try {
+                flushTransactions();
+            } catch (Throwable t) {
+                logger.error("Error", t);
+            }
+        }, TX_BROADCAST_INTERVAL, TX_BROADCAST_INTERVAL, TimeUnit.MILLISECONDS);
 
         if (config.listenPort() > 0) {
             new Thread(() -> peerServer.start(config.listenPort()),
@@ -247,16 +266,72 @@ public class ChannelManager {
     /**
      * Propagates the transactions message across active peers with exclusion of
      * 'receivedFrom' peer.
+     * Own transactions are sent to all peers, transactions received from
+     * the network are relayed to sqrt(peers) random peers only.
+     * Transactions are queued and sent in batches, those already known
+     * to a peer are not sent to it
      * @param txs  transactions to be sent
      * @param receivedFrom the peer which sent original message or null if
      *                     the transactions were originated by this peer
      */
     public void sendTransaction(List<Transaction> txs, Channel receivedFrom) {
-        for (Channel channel : activePeers.values()) {
-            if (channel != receivedFrom) {
-                channel.sendTransactionsCapped(txs);
+        for (Transaction tx : txs) {
+            seenTxs.add(tx.getHash());
+        }
+
+        List<Channel> peers = new ArrayList<>(activePeers.values());
+        peers.remove(receivedFrom);
+        if (receivedFrom != null) {
+            Collections.shuffle(peers, rnd);
+            int fanOut = (int) Math.ceil(Math.sqrt(peers.size()));
+            peers = peers.subList(0, fanOut);
+        }
+
+        for (Channel channel : peers) {
+            duplicateTxsNotSent.addAndGet(channel.enqueueTransactions(txs));
+        }
+    }
+
+    /**
+     * Filters out transactions which were already accepted by this node,
+     * all received transactions are marked as known to the sender.
+     * Transactions are marked as seen by {@link #sendTransaction(List, Channel)} once accepted
+     * to the pending state, thus rejected ones are validated again when received next time
+     * @param txs transactions received from the peer
+     * @param receivedFrom the peer
+     * @return transactions which are new to this node
+     */
+    public List<Transaction> filterNewTransactions(List<Transaction> txs, Channel receivedFrom) {
+        List<Transaction> ret = new ArrayList<>(txs.size());
+        for (Transaction tx : txs) {
+            receivedFrom.markTransactionKnown(tx);
+            if (!seenTxs.contains(tx.getHash())) {
+                ret.add(tx);
+            } else {
+                duplicateTxsReceived.incrementAndGet();
             }
         }
+        return ret;
+    }
+
+    private void flushTransactions() {
+        for (Channel channel : activePeers.values()) {
+            channel.flushTransactions();
+        }
+    }
+
+    /**
+     * @return number of received transactions which were already known to this node
+     */
+    public long getDuplicateTxsReceived() {
+        return duplicateTxsReceived.get();
+    }
+
+    /**
+     * @return number of transactions not sent to peers as already known to them
+     */
+    public long getDuplicateTxsNotSent() {
+        return duplicateTxsNotSent.get();
     }
 
     /**
@@ -312,7 +387,8 @@ public class ChannelManager {
                 channel = newActivePeers.take();
                 List<Transaction> pendingTransactions = pendingState.getPendingTransactions();
                 if (!pendingTransactions.isEmpty()) {
-                    channel.sendTransactionsCapped(pendingTransactions);
+                    duplicateTxsNotSent.addAndGet(channel.enqueueTransactions(
+                            CollectionUtils.truncateRand(pendingTransactions, Channel.MAX_SAFE_TXS)));
                 }
             } catch (InterruptedException e) {
                 break;
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.ethereum.db.ByteArrayWrapper;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Bounded set of transaction hashes
+ *
+ * Keeps two generations of hashes, when the current one is full
+ * it replaces the previous one and a new empty generation is started.
+ * Thus the set remembers at least the last <code>capacity / 2</code> hashes
+ * and never holds more than <code>capacity</code>
+ */
+public class KnownTxFilter {
+
+    private final int generationSize;
+    private Set<ByteArrayWrapper> current = new HashSet<>();
+    private Set<ByteArrayWrapper> previous = new HashSet<>();
+
+    public KnownTxFilter(int capacity) {
+        this.generationSize = Math.max(1, capacity / 2);
+    }
+
+    /**
+     * @return <code>true</code> if the hash was not known before
+     */
+    public synchronized boolean add(byte[] hash) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hash);
+        if (current.contains(key)) return false;
+        boolean known = previous.contains(key);
+        if (current.size() >= generationSize) {
+            previous = current;
+            current = new HashSet<>();
+        }
+        current.add(key);
+        return !known;
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        ByteArrayWrapper key = new ByteArrayWrapper(hash);
+        return current.contains(key) || previous.contains(key);
+    }
+
+    public synchronized int size() {
+        return current.size() + previous.size();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.ethereum.config.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Netty event loops shared by {@link PeerServer} and {@link org.ethereum.net.client.PeerClient}
+ *
+ * Uses native epoll transport when it's enabled in config and available on the platform,
+ * falls back to NIO otherwise. Applies configured allocator, write buffer watermarks
+ * and receive buffer size to peer channels
+ *
+ * Every {@link #METRICS_INTERVAL} seconds each worker loop is sampled for:
+ * utilization (loop thread CPU time share of the interval), number of pending tasks
+ * and the time a task waits in the loop queue
+ */
+@Component
+public class NetworkEventLoops {
+
+    private final static Logger logger = LoggerFactory.getLogger("net");
+
+    static final int METRICS_INTERVAL = 10;
+
+    public static class LoopStats {
+        final String name;
+        final double utilization;
+        final int pendingTasks;
+        final long taskLatency;
+
+        LoopStats(String name, double utilization, int pendingTasks, long taskLatency) {
+            this.name = name;
+            this.utilization = utilization;
+            this.pendingTasks = pendingTasks;
+            this.taskLatency = taskLatency;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return share of the sampling interval the loop thread was busy, from 0 to 1,
+         *         or -1 if thread CPU time is not supported by the JVM
+         */
+        public double getUtilization() {
+            return utilization;
+        }
+
+        public int getPendingTasks() {
+            return pendingTasks;
+        }
+
+        /**
+         * @return time a task waited in the loop queue before execution, in milliseconds
+         */
+        public long getTaskLatency() {
+            return taskLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s (pending %d, latency %d ms)", name,
+                    utilization < 0 ? "n/a" : String.format("%.0f%%", utilization * 100), pendingTasks, taskLatency);
+        }
+    }
+
+    private static class LoopSample {
+        volatile Thread thread;
+        volatile long taskLatency;
+        long cpuTime = -1;
+        long time;
+    }
+
+    private final boolean epoll;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final ByteBufAllocator allocator;
+    private final int writeBufferLowWaterMark;
+    private final int writeBufferHighWaterMark;
+    private final int receiveBufferSize;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final Map<EventExecutor, LoopSample> samples = new IdentityHashMap<>();
+    private volatile List<LoopStats> stats = Collections.emptyList();
+
+    @Autowired
+    public NetworkEventLoops(SystemProperties config) {
+        int threads = config.peerNettyWorkerThreads();
+        EventLoopGroup[] groups = config.peerNettyEpoll() ? createEpollGroups(threads) : null;
+        epoll = groups != null;
+        if (epoll) {
+            bossGroup = groups[0];
+            workerGroup = groups[1];
+        } else {
+            bossGroup = new NioEventLoopGroup(1, threadFactory("EthJBoss-%d"));
+            workerGroup = new NioEventLoopGroup(threads, threadFactory("EthJWorker-%d"));
+        }
+        allocator = config.peerNettyPooledAllocator() ? PooledByteBufAllocator.DEFAULT : UnpooledByteBufAllocator.DEFAULT;
+        writeBufferLowWaterMark = config.peerNettyWriteBufferLowWaterMark();
+        writeBufferHighWaterMark = config.peerNettyWriteBufferHighWaterMark();
+        receiveBufferSize = config.peerNettyReceiveBufferSize();
+
+        logger.info("Network transport: {}, worker threads: {}, allocator: {}", epoll ? "epoll" : "nio",
+                threads > 0 ? threads : "default", allocator.getClass().getSimpleName());
+
+        // the setting is JVM-wide thus is changed only when explicitly asked for
+        if (config.peerNettyLoopCpuTime() && threadBean.isThreadCpuTimeSupported() && !threadBean.isThreadCpuTimeEnabled()) {
+            threadBean.setThreadCpuTimeEnabled(true);
+        }
+        bossGroup.scheduleAtFixedRate(this::sample, METRICS_INTERVAL, METRICS_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    private static ThreadFactory threadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+    }
+
+    /**
+     * @return boss and worker epoll groups or <code>null</code> if native transport can't be used
+     */
+    private static EventLoopGroup[] createEpollGroups(int threads) {
+        if (!Epoll.isAvailable()) {
+            logger.warn("Native epoll transport is not available, using NIO: {}", String.valueOf(Epoll.unavailabilityCause()));
+            return null;
+        }
+        EventLoopGroup boss = null;
+        try {
+            boss = new EpollEventLoopGroup(1, threadFactory("EthJBoss-%d"));
+            return new EventLoopGroup[] {boss, new EpollEventLoopGroup(threads, threadFactory("EthJWorker-%d"))};
+        } catch (Throwable e) {
+            logger.warn("Failed to start native epoll transport, using NIO: {}", e.toString());
+            if (boss != null) boss.shutdownGracefully();
+            return null;
+        }
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public EventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    public EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    public Class<? extends ServerChannel> getServerChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public Class<? extends SocketChannel> getChannelClass() {
+        return epoll ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * Sets groups, channel class and peer channel options to the server bootstrap
+     */
+    public ServerBootstrap configure(ServerBootstrap b) {
+        b.group(bossGroup, workerGroup);
+        b.channel(getServerChannelClass());
+        b.option(ChannelOption.SO_BACKLOG, 1024);
+        b.childOption(ChannelOption.ALLOCATOR, allocator);
+        b.childOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark);
+        b.childOption(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark);
+        if (receiveBufferSize > 0) {
+            b.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+            b.childOption(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(receiveBufferSize));
+        }
+        return b;
+    }
+
+    /**
+     * Sets group, channel class and peer channel options to the client bootstrap
+     */
+    public Bootstrap configure(Bootstrap b) {
+        b.group(workerGroup);
+        b.channel(getChannelClass());
+        b.option(ChannelOption.ALLOCATOR, allocator);
+        b.option(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK, writeBufferHighWaterMark);
+        b.option(ChannelOption.WRITE_BUFFER_LOW_WATER_MARK, writeBufferLowWaterMark);
+        if (receiveBufferSize > 0) {
+            b.option(ChannelOption.SO_RCVBUF, receiveBufferSize);
+            b.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(receiveBufferSize));
+        }
+        return b;
+    }
+
+    /**
+     * @return worker loop stats collected by the last sampling
+     */
+    public List<LoopStats> getLoopStats() {
+        return stats;
+    }
+
+    synchronized void sample() {
+        try {
+            List<LoopStats> ret = new ArrayList<>();
+            for (EventExecutor loop : workerGroup) {
+                LoopSample sample = samples.get(loop);
+                if (sample == null) {
+                    sample = new LoopSample();
+                    samples.put(loop, sample);
+                }
+
+                long now = System.nanoTime();
+                Thread thread = sample.thread;
+                long cpuTime = thread == null || !threadBean.isThreadCpuTimeSupported() ? -1 :
+                        threadBean.getThreadCpuTime(thread.getId());
+                double utilization = -1;
+                if (cpuTime >= 0 && sample.cpuTime >= 0 && now > sample.time) {
+                    utilization = Math.min(1, (double) (cpuTime - sample.cpuTime) / (now - sample.time));
+                }
+                sample.cpuTime = cpuTime;
+                sample.time = now;
+
+                int pending = loop instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) loop).pendingTasks() : 0;
+                ret.add(new LoopStats(thread == null ? "<not started>" : thread.getName(),
+                        utilization, pending, sample.taskLatency));
+
+                // probe for the loop thread and its queue latency, is picked up by the next sampling
+                final LoopSample s = sample;
+                final long submitted = System.nanoTime();
+                if (!loop.isShuttingDown()) {
+                    loop.execute(() -> {
+                        s.taskLatency = (System.nanoTime() - submitted) / 1_000_000;
+                        s.thread = Thread.currentThread();
+                    });
+                }
+            }
+            stats = ret;
+            logger.debug("Event loops: {}", ret);
+        } catch (Exception e) {
+            logger.error("Failed to sample event loops", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        logger.info("Shutting down network event loops");
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        // the loops are awaited directly, group termination futures are completed by the netty
+        // global executor which thread may die with an AssertionError under -ea (netty 4.0.x)
+        try {
+            workerGroup.awaitTermination(1, TimeUnit.MINUTES);
+            bossGroup.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.net.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Serves data requests of remote peers (headers, bodies, trie nodes, receipts)
+ * out of Netty I/O threads
+ *
+ * Requests are queued per peer, each peer may have at most {@link #maxPerPeer}
+ * requests being served at the same time and at most {@link #maxQueuedPerPeer} waiting,
+ * further requests are rejected. Responses of a peer are sent in the order of its requests
+ * only when {@link #maxPerPeer} is 1. Peers with pending requests are picked
+ * by the lowest cost served so far (response bytes plus weighted DB reads),
+ * newly arrived peers start with the lowest cost among active ones,
+ * thus a heavy peer can't starve the others
+ *
+ * Responses are passed to the supplied consumer on the worker thread
+ */
+@Component
+public class PeerRequestExecutor {
+
+    private final static Logger logger = LoggerFactory.getLogger("net");
+
+    /**
+     * Approximate cost of a single DB read expressed in response bytes
+     */
+    static final long DB_READ_COST = 1024;
+
+    /**
+     * Collects the resources spent on a single request
+     */
+    public static class Cost {
+        int dbReads;
+
+        public void dbRead() {
+            dbReads++;
+        }
+
+        public void dbReads(int count) {
+            dbReads += count;
+        }
+
+        public int getDbReads() {
+            return dbReads;
+        }
+    }
+
+    public interface Request {
+        /**
+         * Runs the request on the worker thread
+         * @return response message or <code>null</code> if nothing should be sent
+         */
+        Message serve(Cost cost);
+    }
+
+    private class Task {
+        final PeerQueue peer;
+        final Request request;
+        final Consumer<Message> responder;
+        final long queuedTime = System.nanoTime();
+
+        Task(PeerQueue peer, Request request, Consumer<Message> responder) {
+            this.peer = peer;
+            this.request = request;
+            this.responder = responder;
+        }
+    }
+
+    private static class PeerQueue {
+        final Object peer;
+        final Deque<Task> tasks = new ArrayDeque<>();
+        int running;
+        long cost;
+        boolean ready;
+
+        PeerQueue(Object peer, long cost) {
+            this.peer = peer;
+            this.cost = cost;
+        }
+    }
+
+    private final int maxPerPeer;
+    private final int maxQueuedPerPeer;
+    private final ExecutorService workers;
+
+    // guarded by this
+    private final Map<Object, PeerQueue> peers = new HashMap<>();
+    private final List<PeerQueue> ready = new ArrayList<>();
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong servedBytes = new AtomicLong();
+    private final AtomicLong dbReads = new AtomicLong();
+    private final AtomicLong latencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    @Autowired
+    public PeerRequestExecutor(SystemProperties config) {
+        this(config.peerServeThreads(), config.peerServeMaxPerPeer(), config.peerServeMaxQueuedPerPeer());
+    }
+
+    public PeerRequestExecutor(int threads, int maxPerPeer, int maxQueuedPerPeer) {
+        this.maxPerPeer = maxPerPeer;
+        this.maxQueuedPerPeer = maxQueuedPerPeer;
+        if (threads > 0) {
+            workers = Executors.newFixedThreadPool(threads,
+                    new ThreadFactoryBuilder().setNameFormat("PeerRequestExecutor-%d").setDaemon(true).build());
+            for (int i = 0; i < threads; i++) {
+                workers.submit(this::workerLoop);
+            }
+        } else {
+            workers = null;
+        }
+    }
+
+    /**
+     * Queues the request of the peer
+     *
+     * @param peer the requesting peer, used for per peer limits and accounting
+     * @param request the work to be done on the worker thread
+     * @param responder receives the response built by the request
+     * @return <code>false</code> if the peer has too many pending requests and this one is dropped
+     */
+    public boolean submit(Object peer, Request request, Consumer<Message> responder) {
+        if (workers == null) {
+            Task task = new Task(null, request, responder);
+            run(task);
+            return true;
+        }
+
+        synchronized (this) {
+            PeerQueue queue = peers.get(peer);
+            if (queue == null) {
+                queue = new PeerQueue(peer, minActiveCost());
+                peers.put(peer, queue);
+            }
+            if (queue.tasks.size() >= maxQueuedPerPeer) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            queue.tasks.add(new Task(queue, request, responder));
+            queueDepth.incrementAndGet();
+            makeReady(queue);
+        }
+        return true;
+    }
+
+    /**
+     * Drops all queued requests of the peer, requests being served are completed
+     */
+    public synchronized void cancel(Object peer) {
+        PeerQueue queue = peers.get(peer);
+        if (queue == null) return;
+
+        queueDepth.addAndGet(-queue.tasks.size());
+        queue.tasks.clear();
+        ready.remove(queue);
+        queue.ready = false;
+        if (queue.running == 0) peers.remove(peer);
+    }
+
+    private long minActiveCost() {
+        long min = Long.MAX_VALUE;
+        for (PeerQueue queue : peers.values()) {
+            min = Math.min(min, queue.cost);
+        }
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    private void makeReady(PeerQueue queue) {
+        if (!queue.ready && !queue.tasks.isEmpty() && queue.running < maxPerPeer) {
+            queue.ready = true;
+            ready.add(queue);
+            notify();
+        }
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (ready.isEmpty()) {
+            wait();
+        }
+
+        int idx = 0;
+        for (int i = 1; i < ready.size(); i++) {
+            if (ready.get(i).cost < ready.get(idx).cost) idx = i;
+        }
+        PeerQueue queue = ready.remove(idx);
+        queue.ready = false;
+
+        Task task = queue.tasks.poll();
+        queueDepth.decrementAndGet();
+        queue.running++;
+        makeReady(queue);
+
+        return task;
+    }
+
+    private synchronized void done(PeerQueue queue, long cost) {
+        queue.running--;
+        queue.cost += cost;
+        if (queue.running == 0 && queue.tasks.isEmpty()) {
+            peers.remove(queue.peer);
+        } else {
+            makeReady(queue);
+        }
+    }
+
+    private void workerLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Task task = take();
+                long cost = 0;
+                try {
+                    cost = run(task);
+                } finally {
+                    done(task.peer, cost);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long run(Task task) {
+        Cost cost = new Cost();
+        long bytes = 0;
+        try {
+            Message response = task.request.serve(cost);
+            if (response != null) bytes = response.getEncoded().length;
+
+            // accounted before the response is passed on
+            long latency = System.nanoTime() - task.queuedTime;
+            served.incrementAndGet();
+            servedBytes.addAndGet(bytes);
+            dbReads.addAndGet(cost.dbReads);
+            latencyNanos.addAndGet(latency);
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+
+            if (response != null) task.responder.accept(response);
+        } catch (Exception e) {
+            logger.warn("Failed to serve peer request", e);
+        }
+
+        return bytes + cost.dbReads * DB_READ_COST;
+    }
+
+    /**
+     * @return number of requests waiting for a worker
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getServedCount() {
+        return served.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getServedBytes() {
+        return servedBytes.get();
+    }
+
+    public long getDbReads() {
+        return dbReads.get();
+    }
+
+    /**
+     * @return average time from queueing a request till its response is sent, in milliseconds
+     */
+    public double getAvgLatency() {
+        long cnt = served.get();
+        return cnt == 0 ? 0 : latencyNanos.get() / 1_000_000d / cnt;
+    }
+
+    /**
+     * @return max time from queueing a request till its response is sent, in milliseconds
+     */
+    public double getMaxLatency() {
+        return maxLatencyNanos.get() / 1_000_000d;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (workers != null) workers.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PeerRequestExecutor{queued: %d, served: %d, rejected: %d, bytes: %d, dbReads: %d, " +
+                "latency avg/max: %.1f/%.1f ms}", getQueueDepth(), getServedCount(), getRejectedCount(),
+                getServedBytes(), getDbReads(), getAvgLatency(), getMaxLatency());
+    }
+}
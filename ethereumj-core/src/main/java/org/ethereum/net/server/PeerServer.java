@@ -24,9 +24,6 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.DefaultMessageSizeEstimator;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
 
 import org.slf4j.Logger;
@@ -60,23 +57,21 @@ public class PeerServer {
 
     private boolean listening;
 
-    EventLoopGroup bossGroup;
-    EventLoopGroup workerGroup;
+    private NetworkEventLoops eventLoops;
+
     ChannelFuture channelFuture;
 
     @Autowired
     public PeerServer(final SystemProperties config, final ApplicationContext ctx,
-                      final EthereumListener ethereumListener) {
+                      final EthereumListener ethereumListener, final NetworkEventLoops eventLoops) {
         this.ctx = ctx;
         this.config = config;
         this.ethereumListener = ethereumListener;
+        this.eventLoops = eventLoops;
     }
 
     public void start(int port) {
 
-        bossGroup = new NioEventLoopGroup(1);
-        workerGroup = new NioEventLoopGroup();
-
         ethereumChannelInitializer = ctx.getBean(EthereumChannelInitializer.class, "");
 
         ethereumListener.trace("Listening on port " + port);
@@ -85,8 +80,7 @@ public class PeerServer {
         try {
             ServerBootstrap b = new ServerBootstrap();
 
-            b.group(bossGroup, workerGroup);
-            b.channel(NioServerSocketChannel.class);
+            eventLoops.configure(b);
 
             b.option(ChannelOption.SO_KEEPALIVE, true);
             b.option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, DefaultMessageSizeEstimator.DEFAULT);
@@ -110,8 +104,6 @@ public class PeerServer {
             logger.error("Peer server error: {} ({})", e.getMessage(), e.getClass().getName());
             throw new Error("Server Disconnected");
         } finally {
-            workerGroup.shutdownGracefully();
-            bossGroup.shutdownGracefully();
             listening = false;
         }
     }
@@ -18,6 +18,7 @@
 package org.ethereum.sync;
 
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -32,9 +33,10 @@ import org.spongycastle.util.encoders.Hex;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.lang.Math.max;
-import static java.util.Collections.emptyList;
+import static java.lang.Math.min;
 import static java.util.Collections.singletonList;
 import static org.ethereum.util.ByteUtil.toHexString;
 
@@ -52,6 +54,39 @@ public abstract class BlockDownloader {
     public static int MAX_IN_REQUEST = 192;
     private static int REQUESTS = 32;
 
+    // Min number of Blocks / Headers in one request to a slow peer
+    static final int MIN_IN_REQUEST = 16;
+    // Requests are sized to be answered by the peer in about this time, ms
+    static final long TARGET_RESPONSE_TIME = 1000;
+    // Timed out request is passed to another peer, ms
+    private static final long MIN_REQUEST_TIMEOUT = 5000;
+    private static final int REQUEST_TIMEOUT_FACTOR = 3;
+
+    private static class PendingRequest<T> {
+        final Channel peer;
+        final T request;
+        final long deadline;
+
+        PendingRequest(Channel peer, T request, long deadline) {
+            this.peer = peer;
+            this.request = request;
+            this.deadline = deadline;
+        }
+    }
+
+    private final Map<ListenableFuture<?>, PendingRequest<SyncQueueIfc.HeadersRequest>> pendingHeaders = new ConcurrentHashMap<>();
+    private final Map<ListenableFuture<?>, PendingRequest<SyncQueueIfc.BlocksRequest>> pendingBlocks = new ConcurrentHashMap<>();
+
+    // Header checks which don't depend on the parent, PoW mostly, are run in parallel batches
+    private static final int VALIDATION_THREADS = max(1, Runtime.getRuntime().availableProcessors() - 1);
+    // Smaller header lists are validated on the caller thread only
+    static final int MIN_VALIDATION_BATCH = 16;
+    private static final ExecutorService headerValidationExecutor = Executors.newFixedThreadPool(VALIDATION_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("SyncHeaderValidation-%d").setDaemon(true).build());
+
+    private final AtomicLong validatedHeaders = new AtomicLong();
+    private final AtomicLong validationTime = new AtomicLong();
+
     private BlockHeaderValidator headerValidator;
 
     private SyncPool pool;
@@ -149,13 +184,14 @@ public abstract class BlockDownloader {
     }
 
     private void headerRetrieveLoop() {
-        List<SyncQueueIfc.HeadersRequest> hReq = emptyList();
+        LinkedList<SyncQueueIfc.HeadersRequest> hReq = new LinkedList<>();
         while(!Thread.currentThread().isInterrupted()) {
             try {
+                    rerouteTimedOut(pendingHeaders, hReq);
                     if (hReq.isEmpty()) {
                         synchronized (this) {
-                            hReq = syncQueue.requestHeaders(MAX_IN_REQUEST, 128, getMaxHeadersInQueue());
-                            if (hReq == null) {
+                            List<SyncQueueIfc.HeadersRequest> newReq = syncQueue.requestHeaders(MAX_IN_REQUEST, 128, getMaxHeadersInQueue());
+                            if (newReq == null) {
                                 logger.info("{}: Headers download complete.", name);
                                 headersDownloadComplete = true;
                                 if (!blockBodiesDownload) {
@@ -164,6 +200,7 @@ public abstract class BlockDownloader {
                                 }
                                 return;
                             }
+                            hReq.addAll(newReq);
                             String l = "##########  " + name + ": New header requests (" + hReq.size() + "):\n";
                             for (SyncQueueIfc.HeadersRequest request : hReq) {
                                 l += "    " + request + "\n";
@@ -172,23 +209,33 @@ public abstract class BlockDownloader {
                         }
                     }
                     int reqHeadersCounter = 0;
-                    for (Iterator<SyncQueueIfc.HeadersRequest> it = hReq.iterator(); it.hasNext();) {
-                        SyncQueueIfc.HeadersRequest headersRequest = it.next();
-
+                    while (!hReq.isEmpty()) {
                         final Channel any = getAnyPeer();
 
                         if (any == null) {
                             logger.debug("{} headerRetrieveLoop: No IDLE peers found", name);
                             break;
                         } else {
+                            SyncQueueIfc.HeadersRequest headersRequest = hReq.removeFirst();
+                            int size = getRequestSize(any.getSyncStats().getHeadersPerSecond(),
+                                    any.getPeerStats().getAvgLatency());
+                            if (headersRequest.getCount() > size) {
+                                List<SyncQueueIfc.HeadersRequest> parts = headersRequest.split(size);
+                                headersRequest = parts.get(0);
+                                for (int i = parts.size() - 1; i > 0; i--) hReq.addFirst(parts.get(i));
+                            }
+
                             logger.debug("{} headerRetrieveLoop: request headers (" + headersRequest.toString() + ") from " + any.getNode(), name);
                             ListenableFuture<List<BlockHeader>> futureHeaders = headersRequest.getHash() == null ?
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getStart(), headersRequest.getCount(), headersRequest.isReverse()) :
                                     any.getEthHandler().sendGetBlockHeaders(headersRequest.getHash(), headersRequest.getCount(), headersRequest.getStep(), headersRequest.isReverse());
                             if (futureHeaders != null) {
+                                pendingHeaders.put(futureHeaders, new PendingRequest<>(any, headersRequest,
+                                        getRequestDeadline(headersRequest.getCount(), any.getSyncStats().getHeadersPerSecond())));
                                 Futures.addCallback(futureHeaders, new FutureCallback<List<BlockHeader>>() {
                                     @Override
                                     public void onSuccess(List<BlockHeader> result) {
+                                        pendingHeaders.remove(futureHeaders);
                                         if (!validateAndAddHeaders(result, any.getNodeId())) {
                                             onFailure(new RuntimeException("Received headers validation failed"));
                                         }
@@ -196,12 +243,15 @@ public abstract class BlockDownloader {
 
                                     @Override
                                     public void onFailure(Throwable t) {
+                                        pendingHeaders.remove(futureHeaders);
                                         logger.debug("{}: Error receiving headers. Dropping the peer.", name, t);
                                         any.getEthHandler().dropConnection();
                                     }
                                 }, MoreExecutors.directExecutor());
-                                it.remove();
                                 reqHeadersCounter++;
+                            } else {
+                                hReq.addFirst(headersRequest);
+                                break;
                             }
                         }
                     }
@@ -220,28 +270,33 @@ public abstract class BlockDownloader {
     private void blockRetrieveLoop() {
         class BlocksCallback implements FutureCallback<List<Block>> {
             private Channel peer;
+            private ListenableFuture<List<Block>> future;
 
-            public BlocksCallback(Channel peer) {
+            public BlocksCallback(Channel peer, ListenableFuture<List<Block>> future) {
                 this.peer = peer;
+                this.future = future;
             }
 
             @Override
             public void onSuccess(List<Block> result) {
+                pendingBlocks.remove(future);
                 addBlocks(result, peer.getNodeId());
             }
 
             @Override
             public void onFailure(Throwable t) {
+                pendingBlocks.remove(future);
                 logger.debug("{}: Error receiving Blocks. Dropping the peer.", name, t);
                 peer.getEthHandler().dropConnection();
             }
         }
 
-        List<SyncQueueIfc.BlocksRequest> bReqs = emptyList();
+        LinkedList<SyncQueueIfc.BlocksRequest> bReqs = new LinkedList<>();
         while(!Thread.currentThread().isInterrupted()) {
             try {
+                rerouteTimedOut(pendingBlocks, bReqs);
                 if (bReqs.isEmpty()) {
-                    bReqs = syncQueue.requestBlocks(16 * 1024).split(MAX_IN_REQUEST);
+                    bReqs.addAll(syncQueue.requestBlocks(16 * 1024).split(MAX_IN_REQUEST));
                 }
 
                 if (bReqs.isEmpty() && headersDownloadComplete) {
@@ -265,7 +320,7 @@ public abstract class BlockDownloader {
                                 ListenableFuture<List<Block>> futureBlocks =
                                         channel.getEthHandler().sendGetBlockBodies(singletonList(blockHeaderWrapper));
                                 if (futureBlocks != null) {
-                                    Futures.addCallback(futureBlocks, new BlocksCallback(channel),
+                                    Futures.addCallback(futureBlocks, new BlocksCallback(channel, futureBlocks),
                                             MoreExecutors.directExecutor());
                                     fewHeadersReqMode = true;
                                 }
@@ -277,24 +332,34 @@ public abstract class BlockDownloader {
                     int maxBlocks = MAX_IN_REQUEST * Math.min(maxRequests, REQUESTS);
                     int reqBlocksCounter = 0;
                     int blocksRequested = 0;
-                    Iterator<SyncQueueIfc.BlocksRequest> it = bReqs.iterator();
-                    while (it.hasNext() && blocksRequested < maxBlocks) {
-//                    for (SyncQueueIfc.BlocksRequest blocksRequest : bReq.split(MAX_IN_REQUEST)) {
-                        SyncQueueIfc.BlocksRequest blocksRequest = it.next();
+                    while (!bReqs.isEmpty() && blocksRequested < maxBlocks) {
                         Channel any = getAnyPeer();
                         if (any == null) {
                             logger.debug("{} blockRetrieveLoop: No IDLE peers found", name);
                             break;
                         } else {
+                            SyncQueueIfc.BlocksRequest blocksRequest = bReqs.removeFirst();
+                            int size = getRequestSize(any.getSyncStats().getBlocksPerSecond(),
+                                    any.getPeerStats().getAvgLatency());
+                            if (blocksRequest.getBlockHeaders().size() > size) {
+                                List<SyncQueueIfc.BlocksRequest> parts = blocksRequest.split(size);
+                                blocksRequest = parts.get(0);
+                                for (int i = parts.size() - 1; i > 0; i--) bReqs.addFirst(parts.get(i));
+                            }
+
                             logger.debug("{} blockRetrieveLoop: Requesting " + blocksRequest.getBlockHeaders().size() + " blocks from " + any.getNode(), name);
                             ListenableFuture<List<Block>> futureBlocks =
                                     any.getEthHandler().sendGetBlockBodies(blocksRequest.getBlockHeaders());
                             blocksRequested += blocksRequest.getBlockHeaders().size();
                             if (futureBlocks != null) {
-                                Futures.addCallback(futureBlocks, new BlocksCallback(any),
+                                pendingBlocks.put(futureBlocks, new PendingRequest<>(any, blocksRequest,
+                                        getRequestDeadline(blocksRequest.getBlockHeaders().size(), any.getSyncStats().getBlocksPerSecond())));
+                                Futures.addCallback(futureBlocks, new BlocksCallback(any, futureBlocks),
                                         MoreExecutors.directExecutor());
                                 reqBlocksCounter++;
-                                it.remove();
+                            } else {
+                                bReqs.addFirst(blocksRequest);
+                                break;
                             }
                         }
                     }
@@ -320,6 +385,43 @@ public abstract class BlockDownloader {
         }
     }
 
+    /**
+     * Returns number of headers or blocks to request from the peer
+     * so that it answers in about {@link #TARGET_RESPONSE_TIME},
+     * the target is extended for peers with high latency.
+     * Peers which haven't been measured yet are asked for {@link #MAX_IN_REQUEST}
+     *
+     * @param itemsPerSecond estimated peer throughput
+     * @param latency peer ping latency, ms
+     */
+    static int getRequestSize(double itemsPerSecond, double latency) {
+        if (itemsPerSecond <= 0) return MAX_IN_REQUEST;
+        double target = max(TARGET_RESPONSE_TIME, 2 * latency);
+        return (int) max(MIN_IN_REQUEST, min(MAX_IN_REQUEST, itemsPerSecond * target / 1000));
+    }
+
+    private static long getRequestDeadline(int count, double itemsPerSecond) {
+        long expected = itemsPerSecond > 0 ? (long) (count * 1000 / itemsPerSecond) : 0;
+        return System.currentTimeMillis() + max(MIN_REQUEST_TIMEOUT, REQUEST_TIMEOUT_FACTOR * expected);
+    }
+
+    /**
+     * Puts requests which have not been answered in time back to the head of the queue,
+     * so they are passed to another peer. The late response is still accepted
+     */
+    private <T> void rerouteTimedOut(Map<ListenableFuture<?>, PendingRequest<T>> pending, Deque<T> requests) {
+        long now = System.currentTimeMillis();
+        for (Iterator<PendingRequest<T>> it = pending.values().iterator(); it.hasNext();) {
+            PendingRequest<T> req = it.next();
+            if (now > req.deadline) {
+                it.remove();
+                req.peer.getSyncStats().addTimeout();
+                requests.addFirst(req.request);
+                logger.debug("{}: Request timed out, passing to another peer: {} from {}", name, req.request, req.peer.getNode());
+            }
+        }
+    }
+
     /**
      * Adds a list of blocks to the queue
      *
@@ -374,29 +476,35 @@ public abstract class BlockDownloader {
 
         if (headers.isEmpty()) return true;
 
-        List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
-
-        for (BlockHeader header : headers) {
-
-            if (!isValid(header)) {
+        long start = System.nanoTime();
+        int invalid = validateHeaders(headers);
+        if (invalid >= 0) {
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("{}: Invalid header RLP: {}", toHexString(header.getEncoded()), name);
-                }
-
-                return false;
+            if (logger.isDebugEnabled()) {
+                logger.debug("{}: Invalid header RLP: {}", toHexString(headers.get(invalid).getEncoded()), name);
             }
 
+            return false;
+        }
+
+        List<BlockHeaderWrapper> wrappers = new ArrayList<>(headers.size());
+        for (BlockHeader header : headers) {
             wrappers.add(new BlockHeaderWrapper(header, nodeId));
         }
+        long time = System.nanoTime() - start;
 
         SyncQueueIfc.ValidatedHeaders res;
         synchronized (this) {
+            // parent checks are run sequentially by the queue
+            start = System.nanoTime();
             res = syncQueue.addHeadersAndValidate(wrappers);
+            time += System.nanoTime() - start;
             if (res.isValid() && !res.getHeaders().isEmpty()) {
                 pushHeaders(res.getHeaders());
             }
         }
+        validatedHeaders.addAndGet(headers.size());
+        validationTime.addAndGet(time);
 
         dropIfValidationFailed(res);
 
@@ -407,6 +515,51 @@ public abstract class BlockDownloader {
         return true;
     }
 
+    /**
+     * Runs checks which don't depend on the parent header.
+     * Headers are split into batches validated in parallel,
+     * the first batch is validated by the caller thread
+     *
+     * @return index of the first invalid header or -1 if all headers are valid
+     */
+    int validateHeaders(List<BlockHeader> headers) {
+        int batches = min(VALIDATION_THREADS + 1, headers.size() / MIN_VALIDATION_BATCH);
+        if (batches <= 1) return validateHeaders(headers, 0, headers.size());
+
+        int batchSize = (headers.size() + batches - 1) / batches;
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int from = batchSize; from < headers.size(); from += batchSize) {
+            final int start = from;
+            final int end = min(from + batchSize, headers.size());
+            futures.add(headerValidationExecutor.submit(() -> validateHeaders(headers, start, end)));
+        }
+
+        int invalid = validateHeaders(headers, 0, batchSize);
+        for (Future<Integer> future : futures) {
+            if (invalid >= 0) {
+                future.cancel(false);
+            } else {
+                invalid = Futures.getUnchecked(future);
+            }
+        }
+        return invalid;
+    }
+
+    private int validateHeaders(List<BlockHeader> headers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isValid(headers.get(i))) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return headers passed through the validation stage per second of the stage time
+     */
+    public double getHeadersValidationRate() {
+        long time = validationTime.get();
+        return time == 0 ? 0 : validatedHeaders.get() * 1e9 / time;
+    }
+
     /**
      * Checks whether validation has been passed correctly or not
      * and drops misleading peer if it hasn't
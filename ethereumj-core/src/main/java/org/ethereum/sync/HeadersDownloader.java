@@ -98,7 +98,8 @@ public class HeadersDownloader extends BlockDownloader {
         if (headers.get(headers.size() - 1).getNumber() == 1) {
             genesisHash = headers.get(headers.size() - 1).getHeader().getParentHash();
         }
-        logger.info(name + ": " + headers.size() + " headers loaded: " + headers.get(0).getNumber() + " - " + headers.get(headers.size() - 1).getNumber());
+        logger.info(name + ": " + headers.size() + " headers loaded: " + headers.get(0).getNumber() + " - " + headers.get(headers.size() - 1).getNumber() +
+                String.format(" (validation %.0f headers/sec)", getHeadersValidationRate()));
         for (BlockHeaderWrapper header : headers) {
             headerStore.saveHeader(header.getHeader());
             headersLoaded++;
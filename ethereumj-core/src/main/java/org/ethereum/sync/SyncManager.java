@@ -23,6 +23,7 @@ import org.ethereum.core.Blockchain;
 import org.ethereum.facade.SyncStatus;
 import org.ethereum.listener.CompositeEthereumListener;
 import org.ethereum.listener.EthereumListener;
+import org.ethereum.manager.AdminInfo;
 import org.ethereum.net.server.Channel;
 import org.ethereum.net.server.ChannelManager;
 import org.ethereum.util.ExecutorPipeline;
@@ -60,13 +61,21 @@ public class SyncManager extends BlockDownloader {
 
     private final static Logger logger = LoggerFactory.getLogger("sync");
 
+    @Autowired
+    private AdminInfo adminInfo;
+
     // Transaction.getSender() is quite heavy operation so we are prefetching this value on several threads
     // to unload the main block importing cycle
     private ExecutorPipeline<BlockWrapper,BlockWrapper> exec1 = new ExecutorPipeline<>
             (4, 1000, true, blockWrapper -> {
+                long s = System.nanoTime();
+                // decodes the block body and calculates its tx trie root which is checked on import
+                blockWrapper.getBlock().getCalculatedTxTrieRoot();
                 for (Transaction tx : blockWrapper.getBlock().getTransactionsList()) {
                     tx.getSender();
+                    tx.getHash();
                 }
+                if (adminInfo != null) adminInfo.addImportStageTime(AdminInfo.ImportStage.Prepare, System.nanoTime() - s);
                 return blockWrapper;
             }, throwable -> logger.error("Unexpected exception: ", throwable));
 
@@ -136,7 +145,10 @@ public class SyncManager extends BlockDownloader {
                 try {
                     logger.info("Sync state: " + getSyncStatus() +
                             (isSyncDone() || importStart == 0 ? "" : "; Import idle time " +
-                            longToTimePeriod(importIdleTime.get()) + " of total " + longToTimePeriod(System.currentTimeMillis() - importStart)));
+                            longToTimePeriod(importIdleTime.get()) + " of total " + longToTimePeriod(System.currentTimeMillis() - importStart)) +
+                            (isSyncDone() ? "" : String.format("; Header validation %.0f headers/sec", getHeadersValidationRate())) +
+                            "; Import queues: prepare " + getPrepareQueueSize() + ", import " + getImportQueueSize() +
+                            (adminInfo == null ? "" : "; Import stages (ms/block): " + adminInfo.getImportStagesInfo()));
                 } catch (Exception e) {
                     logger.error("Unexpected", e);
                 }
@@ -429,6 +441,20 @@ public class SyncManager extends BlockDownloader {
         return syncDone;
     }
 
+    /**
+     * @return number of blocks waiting for decoding and tx senders recovery
+     */
+    public int getPrepareQueueSize() {
+        return exec1.getQueue().size();
+    }
+
+    /**
+     * @return number of prepared blocks waiting to be imported
+     */
+    public int getImportQueueSize() {
+        return blockQueue.size();
+    }
+
     public boolean isFastSyncRunning() {
         return fastSyncManager.isFastSyncInProgress();
     }
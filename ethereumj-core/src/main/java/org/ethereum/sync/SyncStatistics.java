@@ -20,6 +20,10 @@ package org.ethereum.sync;
 /**
  * Manages sync measurements
  *
+ * Besides the counters which are {@link #reset()} by the sync
+ * it keeps the peer throughput and response time estimates,
+ * those are used to size the requests sent to the peer
+ *
  * @author Mikhail Kalinin
  * @since 20.08.2015
  */
@@ -29,6 +33,15 @@ public class SyncStatistics {
     private long headersCount;
     private int headerBunchesCount;
 
+    // impact of a new measurement on the estimates
+    private static final double MEASUREMENT_IMPACT = 0.2;
+
+    private volatile double headersPerSecond;
+    private volatile double blocksPerSecond;
+    private volatile double bytesPerSecond;
+    private volatile double avgResponseTime;
+    private volatile int timeouts;
+
     public SyncStatistics() {
         reset();
     }
@@ -51,6 +64,56 @@ public class SyncStatistics {
         fixCommon(cnt);
     }
 
+    /**
+     * Adds blocks received in a response and updates throughput estimates
+     *
+     * @param cnt number of blocks received
+     * @param bytes response size
+     * @param responseTime time passed since the request was sent, in milliseconds
+     */
+    public synchronized void addBlocks(long cnt, long bytes, long responseTime) {
+        addBlocks(cnt);
+        if (responseTime > 0) {
+            blocksPerSecond = estimate(blocksPerSecond, cnt * 1000d / responseTime);
+            updateResponse(bytes, responseTime);
+        }
+    }
+
+    /**
+     * Adds headers received in a response and updates throughput estimates
+     *
+     * @param cnt number of headers received
+     * @param bytes response size
+     * @param responseTime time passed since the request was sent, in milliseconds
+     */
+    public synchronized void addHeaders(long cnt, long bytes, long responseTime) {
+        addHeaders(cnt);
+        if (responseTime > 0) {
+            headersPerSecond = estimate(headersPerSecond, cnt * 1000d / responseTime);
+            updateResponse(bytes, responseTime);
+        }
+    }
+
+    /**
+     * Request hasn't been answered in time, halves throughput estimates
+     * so the next requests to the peer are smaller
+     */
+    public synchronized void addTimeout() {
+        timeouts++;
+        headersPerSecond /= 2;
+        blocksPerSecond /= 2;
+        bytesPerSecond /= 2;
+    }
+
+    private void updateResponse(long bytes, long responseTime) {
+        bytesPerSecond = estimate(bytesPerSecond, bytes * 1000d / responseTime);
+        avgResponseTime = estimate(avgResponseTime, responseTime);
+    }
+
+    private static double estimate(double current, double measured) {
+        return current == 0 ? measured : current + (measured - current) * MEASUREMENT_IMPACT;
+    }
+
     private void fixCommon(long cnt) {
         updatedAt = System.currentTimeMillis();
     }
@@ -70,4 +133,38 @@ public class SyncStatistics {
     public int getHeaderBunchesCount() {
         return headerBunchesCount;
     }
+
+    /**
+     * @return estimated number of headers the peer delivers per second, 0 if not measured yet
+     */
+    public double getHeadersPerSecond() {
+        return headersPerSecond;
+    }
+
+    /**
+     * @return estimated number of blocks the peer delivers per second, 0 if not measured yet
+     */
+    public double getBlocksPerSecond() {
+        return blocksPerSecond;
+    }
+
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @return average time in milliseconds the peer takes to answer headers and bodies requests
+     */
+    public double getAvgResponseTime() {
+        return avgResponseTime;
+    }
+
+    public int getTimeouts() {
+        return timeouts;
+    }
+
+    public String getThroughput() {
+        return String.format("%.0f hdr/s, %.0f blk/s, %.0f KB/s, rtt %.0f ms%s", headersPerSecond, blocksPerSecond,
+                bytesPerSecond / 1024, avgResponseTime, timeouts > 0 ? ", timeouts " + timeouts : "");
+    }
 }
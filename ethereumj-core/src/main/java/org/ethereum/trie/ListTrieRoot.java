@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.crypto.HashUtil;
+import org.ethereum.util.RLP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.ethereum.util.RLP.EMPTY_ELEMENT_RLP;
+import static org.ethereum.util.RLP.encodeElement;
+import static org.ethereum.util.RLP.encodeList;
+
+/**
+ * Calculates root hash of a trie which keys are RLP encoded list indexes,
+ * like block transactions and receipts tries.
+ *
+ * Gives the same root as filling a {@link TrieImpl} with <code>RLP.encodeInt(i) -> values[i]</code>
+ * but doesn't create trie nodes nor stores them: items are walked in the key order
+ * and each subtree is encoded and hashed as soon as all its items are passed
+ */
+public class ListTrieRoot {
+
+    /**
+     * Lists starting from this size have subtrees of the root node calculated concurrently
+     * by the parallel variant
+     */
+    public static final int MIN_ITEMS_CONCURRENTLY = 256;
+
+    /**
+     * @param values non-empty encoded list items
+     */
+    public static byte[] calcRoot(List<byte[]> values) {
+        return calcRoot(values, false);
+    }
+
+    /**
+     * @param values non-empty encoded list items
+     * @param parallel calculate root subtrees on the {@link TrieImpl#getExecutor()} threads
+     *                 if the list is large enough
+     */
+    public static byte[] calcRoot(List<byte[]> values, boolean parallel) {
+        if (values.isEmpty()) return HashUtil.EMPTY_TRIE_HASH;
+
+        int size = values.size();
+        byte[][] sortedKeys = new byte[size][];
+        byte[][] sortedValues = new byte[size][];
+        for (int i = 0; i < size; i++) {
+            int idx = keyOrderToIndex(i, size);
+            sortedKeys[i] = toNibbles(RLP.encodeInt(idx));
+            sortedValues[i] = values.get(idx);
+        }
+
+        return HashUtil.sha3(new ListTrieRoot(sortedKeys, sortedValues)
+                .encodeNode(0, size, 0, parallel && size >= MIN_ITEMS_CONCURRENTLY));
+    }
+
+    /**
+     * Index keys sorted as bytes go as: 1..127 (single byte 0x01..0x7f), 0 (0x80),
+     * then 128 and further (0x81 0x80, 0x81 0x81, ..., 0x82 0x01 0x00, ...)
+     * @return list index of the key at the position <code>pos</code> of the sorted keys
+     */
+    static int keyOrderToIndex(int pos, int size) {
+        int singleBytes = Math.min(size, 128) - 1;
+        if (pos < singleBytes) return pos + 1;
+        if (pos == singleBytes) return 0;
+        return pos;
+    }
+
+    private final byte[][] keys;
+    private final byte[][] values;
+
+    private ListTrieRoot(byte[][] keys, byte[][] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * @return how the node is referenced from its parent:
+     *         node RLP itself if it's shorter than 32 bytes or the RLP of node hash otherwise
+     */
+    private byte[] encodeRef(int from, int to, int depth) {
+        byte[] node = encodeNode(from, to, depth, false);
+        return node.length < 32 ? node : encodeElement(HashUtil.sha3(node));
+    }
+
+    /**
+     * Encodes node holding sorted keys [from, to) which share first <code>depth</code> nibbles
+     */
+    private byte[] encodeNode(int from, int to, int depth, boolean parallel) {
+        if (to - from == 1) {
+            return encodeList(encodeElement(hexPrefix(keys[from], depth, keys[from].length, true)),
+                    encodeElement(values[from]));
+        }
+
+        int prefixEnd = commonPrefixEnd(keys[from], keys[to - 1], depth);
+        if (prefixEnd > depth) {
+            return encodeList(encodeElement(hexPrefix(keys[from], depth, prefixEnd, false)),
+                    encodeRef(from, to, prefixEnd));
+        }
+
+        byte[][] encoded = new byte[17][];
+        byte[] value = null;
+        // the key ending on this node comes first in the sorted order
+        if (keys[from].length == depth) {
+            value = values[from++];
+        }
+
+        List<Future<byte[]>> futures = parallel ? new ArrayList<>() : null;
+        for (int nibble = 0, i = from; nibble < 16; nibble++) {
+            int childFrom = i;
+            while (i < to && keys[i][depth] == nibble) i++;
+            if (childFrom == i) {
+                encoded[nibble] = EMPTY_ELEMENT_RLP;
+            } else if (parallel) {
+                final int f = childFrom, t = i;
+                futures.add(TrieImpl.getExecutor().submit(() -> encodeRef(f, t, depth + 1)));
+            } else {
+                encoded[nibble] = encodeRef(childFrom, i, depth + 1);
+            }
+        }
+        if (parallel) {
+            try {
+                for (int nibble = 0, f = 0; nibble < 16; nibble++) {
+                    if (encoded[nibble] == null) encoded[nibble] = futures.get(f++).get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        encoded[16] = value == null ? EMPTY_ELEMENT_RLP : encodeElement(value);
+        return encodeList(encoded);
+    }
+
+    private static byte[] toNibbles(byte[] key) {
+        byte[] ret = new byte[key.length * 2];
+        for (int i = 0; i < key.length; i++) {
+            ret[2 * i] = (byte) ((key[i] >> 4) & 0x0F);
+            ret[2 * i + 1] = (byte) (key[i] & 0x0F);
+        }
+        return ret;
+    }
+
+    private static int commonPrefixEnd(byte[] nibbles1, byte[] nibbles2, int start) {
+        int i = start;
+        while (i < nibbles1.length && i < nibbles2.length && nibbles1[i] == nibbles2[i]) i++;
+        return i;
+    }
+
+    /**
+     * Packs nibbles [from, to) the same way as {@link TrieKey#toPacked()}
+     */
+    private static byte[] hexPrefix(byte[] nibbles, int from, int to, boolean terminal) {
+        int len = to - from;
+        boolean odd = (len & 1) != 0;
+        int flags = (odd ? TrieKey.ODD_OFFSET_FLAG : 0) | (terminal ? TrieKey.TERMINATOR_FLAG : 0);
+        byte[] ret = new byte[len / 2 + 1];
+        ret[0] = (byte) (flags << 4);
+        int i = from;
+        if (odd) {
+            ret[0] |= nibbles[i++];
+        }
+        for (int j = 1; j < ret.length; j++, i += 2) {
+            ret[j] = (byte) ((nibbles[i] << 4) | nibbles[i + 1]);
+        }
+        return ret;
+    }
+}
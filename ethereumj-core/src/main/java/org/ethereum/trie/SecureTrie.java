@@ -20,6 +20,11 @@ package org.ethereum.trie;
 import org.ethereum.datasource.Source;
 import org.ethereum.util.Value;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.ethereum.crypto.HashUtil.sha3;
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 
@@ -51,4 +56,22 @@ public class SecureTrie extends TrieImpl {
     public void delete(byte[] key) {
         put(key, EMPTY_BYTE_ARRAY);
     }
+
+    @Override
+    public List<byte[]> getAll(List<byte[]> keys) {
+        List<byte[]> hashed = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            hashed.add(sha3(key));
+        }
+        return super.getAll(hashed);
+    }
+
+    @Override
+    public void putAll(Map<byte[], byte[]> rows) {
+        Map<byte[], byte[]> hashed = new HashMap<>();
+        for (Map.Entry<byte[], byte[]> row : rows.entrySet()) {
+            hashed.put(sha3(row.getKey()), row.getValue());
+        }
+        super.putAll(hashed);
+    }
 }
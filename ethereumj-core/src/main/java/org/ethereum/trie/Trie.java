@@ -17,15 +17,31 @@
  */
 package org.ethereum.trie;
 
-import org.ethereum.datasource.Source;
+import org.ethereum.datasource.BatchSource;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Anton Nashatyrev on 05.10.2016.
  */
-public interface Trie<V> extends Source<byte[], V> {
+public interface Trie<V> extends BatchSource<byte[], V> {
 
     byte[] getRootHash();
 
+    /**
+     * Gets values of a number of keys at once
+     * @param keys keys in any order
+     * @return values in the order of keys, null for missing keys
+     */
+    List<V> getAll(List<byte[]> keys);
+
+    /**
+     * Puts a number of key-values at once, null value deletes the key.
+     * The same as {@link #updateBatch(Map)}
+     */
+    void putAll(Map<byte[], V> rows);
+
     void setRoot(byte[] root);
 
     /**
@@ -32,7 +32,9 @@ import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 import static org.apache.commons.lang3.concurrent.ConcurrentUtils.constantFuture;
@@ -49,6 +51,7 @@ import static org.ethereum.util.ByteUtil.toHexString;
 public class TrieImpl implements Trie<byte[]> {
     private final static Object NULL_NODE = new Object();
     private final static int MIN_BRANCHES_CONCURRENTLY = 3;
+    private final static int MIN_BATCH_CONCURRENTLY = 256;
     private static ExecutorService executor;
 
     private static final Logger logger = LoggerFactory.getLogger("state");
@@ -75,6 +78,13 @@ public class TrieImpl implements Trie<byte[]> {
 
         private Object[] children = null;
 
+        // compact form of a branch node loaded from the storage: the children
+        // referenced by hash are not materialized as Nodes until accessed,
+        // their hashes are packed into childHashes (32 bytes each, ordered by the hex index)
+        // and the bit (1 << hex) of childHashMask is set for each of them
+        private int childHashMask = 0;
+        private byte[] childHashes = null;
+
         // new empty BranchNode
         public Node() {
             children = new Object[17];
@@ -106,7 +116,7 @@ public class TrieImpl implements Trie<byte[]> {
         }
 
         public boolean resolveCheck() {
-            if (rlp != null || parsedRlp != null || hash == null) return true;
+            if (children != null || rlp != null || parsedRlp != null || hash == null) return true;
             rlp = getHash(hash);
             return rlp != null;
         }
@@ -134,6 +144,10 @@ public class TrieImpl implements Trie<byte[]> {
                         final Object[] encoded = new Object[17];
                         int encodeCnt = 0;
                         for (int i = 0; i < 16; i++) {
+                            if (branchNodeIsPackedChild(i)) {
+                                encoded[i] = encodeElement(branchNodeGetChildHash(i));
+                                continue;
+                            }
                             final Node child = branchNodeGetChild(i);
                             if (child == null) {
                                 encoded[i] = EMPTY_ELEMENT_RLP;
@@ -163,6 +177,10 @@ public class TrieImpl implements Trie<byte[]> {
                     } else {
                         byte[][] encoded = new byte[17][];
                         for (int i = 0; i < 16; i++) {
+                            if (branchNodeIsPackedChild(i)) {
+                                encoded[i] = encodeElement(branchNodeGetChildHash(i));
+                                continue;
+                            }
                             Node child = branchNodeGetChild(i);
                             encoded[i] = child == null ? EMPTY_ELEMENT_RLP : child.encode(depth + 1, false);
                         }
@@ -182,6 +200,8 @@ public class TrieImpl implements Trie<byte[]> {
                 }
                 dirty = false;
                 if (ret.length < 32 && !forceHash) {
+                    // the node could be referenced by hash before it got smaller
+                    hash = null;
                     rlp = ret;
                     return ret;
                 } else {
@@ -221,29 +241,72 @@ public class TrieImpl implements Trie<byte[]> {
                     children[1] = list.isList(1) ? new Node(list.getList(1)) : new Node(list.getBytes(1));
                 }
             } else {
-                children = new Object[17];
-                parsedRlp = list;
+                parseBranch(list);
+            }
+            parsedRlp = null;
+            // the node is referenced by hash and thus is encoded by hash when clean
+            if (hash != null) rlp = null;
+        }
+
+        /**
+         * Converts branch RLP to the compact form: hashes of children are packed
+         * into a single array, empty and embedded children and the value are
+         * set to the children array right away
+         */
+        private void parseBranch(RLP.LList list) {
+            Object[] branch = new Object[17];
+            int mask = 0;
+            for (int i = 0; i < 16; i++) {
+                if (!list.isList(i) && list.getLength(i) == 32) mask |= 1 << i;
+            }
+            byte[] hashes = mask == 0 ? null : new byte[Integer.bitCount(mask) * 32];
+            for (int i = 0, idx = 0; i < 16; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    list.copyBytes(i, hashes, 32 * idx++);
+                } else if (list.isList(i)) {
+                    branch[i] = new Node(list.getList(i));
+                } else {
+                    branch[i] = list.getLength(i) == 0 ? NULL_NODE : new Node(list.getBytes(i));
+                }
+            }
+            byte[] value = list.getBytes(16);
+            branch[16] = value.length == 0 ? NULL_NODE : value;
+
+            childHashMask = mask;
+            childHashes = hashes;
+            children = branch;
+        }
+
+        private boolean branchNodeIsPackedChild(int hex) {
+            return children[hex] == null && (childHashMask & (1 << hex)) != 0;
+        }
+
+        private byte[] branchNodeGetChildHash(int hex) {
+            int idx = Integer.bitCount(childHashMask & ((1 << hex) - 1));
+            return Arrays.copyOfRange(childHashes, idx * 32, idx * 32 + 32);
+        }
+
+        private boolean branchNodeHasChildren() {
+            for (int i = 0; i < 16; i++) {
+                if (branchNodeHasChild(i)) return true;
             }
+            return false;
+        }
+
+        private boolean branchNodeHasChild(int hex) {
+            Object n = children[hex];
+            return n == null ? (childHashMask & (1 << hex)) != 0 : n != NULL_NODE;
         }
 
         public Node branchNodeGetChild(int hex) {
             parse();
             assert getType() == NodeType.BranchNode;
             Object n = children[hex];
-            if (n == null && parsedRlp != null) {
-                if (parsedRlp.isList(hex)) {
-                    n = new Node(parsedRlp.getList(hex));
-                } else {
-                    byte[] bytes = parsedRlp.getBytes(hex);
-                    if (bytes.length == 0) {
-                        n = NULL_NODE;
-                    } else {
-                        n = new Node(bytes);
-                    }
-                }
+            if (n == null && (childHashMask & (1 << hex)) != 0) {
+                n = new Node(branchNodeGetChildHash(hex));
                 children[hex] = n;
             }
-            return n == NULL_NODE ? null : (Node) n;
+            return n == null || n == NULL_NODE ? null : (Node) n;
         }
 
         public Node branchNodeSetChild(int hex, Node node) {
@@ -258,16 +321,7 @@ public class TrieImpl implements Trie<byte[]> {
             parse();
             assert getType() == NodeType.BranchNode;
             Object n = children[16];
-            if (n == null && parsedRlp != null) {
-                byte[] bytes = parsedRlp.getBytes(16);
-                if (bytes.length == 0) {
-                    n = NULL_NODE;
-                } else {
-                    n = bytes;
-                }
-                children[16] = n;
-            }
-            return n == NULL_NODE ? null : (byte[]) n;
+            return n == null || n == NULL_NODE ? null : (byte[]) n;
         }
 
         public Node branchNodeSetValue(byte[] val) {
@@ -284,20 +338,21 @@ public class TrieImpl implements Trie<byte[]> {
             int cnt = 0;
             int idx = -1;
             for (int i = 0; i < 16; i++) {
-                if (branchNodeGetChild(i) != null) {
+                if (branchNodeHasChild(i)) {
                     cnt++;
                     idx = i;
                     if (cnt > 1) return -1;
                 }
             }
-            return cnt > 0 ? idx : (branchNodeGetValue() == null ? -1 : 16);
+            if (branchNodeGetValue() == null) return idx;
+            return cnt > 0 ? -1 : 16;
         }
         public boolean branchNodeCanCompact() {
             parse();
             assert getType() == NodeType.BranchNode;
             int cnt = 0;
             for (int i = 0; i < 16; i++) {
-                cnt += branchNodeGetChild(i) == null ? 0 : 1;
+                cnt += branchNodeHasChild(i) ? 1 : 0;
                 if (cnt > 1) return false;
             }
             return cnt == 0 || branchNodeGetValue() == null;
@@ -554,7 +609,8 @@ public class TrieImpl implements Trie<byte[]> {
         } else {
             TrieKey currentNodeKey = n.kvNodeGetKey();
             TrieKey commonPrefix = k.getCommonPrefix(currentNodeKey);
-            if (commonPrefix.isEmpty()) {
+            // both keys may be empty when the value is updated
+            if (commonPrefix.isEmpty() && !k.equals(currentNodeKey)) {
                 Node newBranchNode = new Node();
                 insert(newBranchNode, currentNodeKey, n.kvNodeGetValueOrNode());
                 insert(newBranchNode, k, nodeOrValue);
@@ -635,6 +691,10 @@ public class TrieImpl implements Trie<byte[]> {
 
         // if we get here a new kvNode was created, now need to check
         // if it should be compacted with child kvNode
+        return compactKvNode(newKvNode);
+    }
+
+    private Node compactKvNode(Node newKvNode) {
         Node newChild = newKvNode.kvNodeGetChildNode();
         if (newChild.getType() != NodeType.BranchNode) {
             // two kvNodes should be compacted into a single one
@@ -649,6 +709,217 @@ public class TrieImpl implements Trie<byte[]> {
         }
     }
 
+    /**
+     * Gets values of a number of keys traversing common key prefixes once.
+     * Independent subtrees are traversed concurrently when there are many keys
+     *
+     * @return values in the order of keys, null for missing keys
+     */
+    @Override
+    public List<byte[]> getAll(List<byte[]> keys) {
+        byte[][] ret = new byte[keys.size()][];
+        if (!keys.isEmpty() && hasRoot()) {
+            Integer[] order = sortedOrder(keys);
+            TrieKey[] sortedKeys = new TrieKey[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortedKeys[i] = TrieKey.fromNormal(keys.get(order[i]));
+            }
+            byte[][] sortedRet = new byte[order.length][];
+            getAll(root, sortedKeys, sortedRet, 0, sortedKeys.length, async);
+            for (int i = 0; i < order.length; i++) {
+                ret[order[i]] = sortedRet[i];
+            }
+        }
+        return Arrays.asList(ret);
+    }
+
+    private void getAll(Node n, final TrieKey[] keys, final byte[][] ret, int from, int to, boolean concurrent) {
+        if (n == null) return;
+
+        NodeType type = n.getType();
+        if (type == NodeType.BranchNode) {
+            while (from < to && keys[from].isEmpty()) {
+                ret[from++] = n.branchNodeGetValue();
+            }
+            List<Future<?>> futures = new ArrayList<>();
+            boolean fork = concurrent && to - from >= MIN_BATCH_CONCURRENTLY;
+            while (from < to) {
+                int hex = keys[from].getHex(0);
+                int end = from;
+                while (end < to && keys[end].getHex(0) == hex) {
+                    keys[end] = keys[end].shift(1);
+                    end++;
+                }
+                final Node child = n.branchNodeGetChild(hex);
+                final int f = from, t = end;
+                if (fork) {
+                    futures.add(getExecutor().submit(() -> getAll(child, keys, ret, f, t, false)));
+                } else {
+                    getAll(child, keys, ret, f, t, false);
+                }
+                from = end;
+            }
+            waitAll(futures);
+        } else {
+            TrieKey nodeKey = n.kvNodeGetKey();
+            // keys under the node prefix are sorted thus go in a row
+            int matchFrom = to, matchTo = to;
+            for (int i = from; i < to; i++) {
+                TrieKey k1 = keys[i].matchAndShift(nodeKey);
+                if (k1 != null) {
+                    keys[i] = k1;
+                    if (matchFrom == to) matchFrom = i;
+                    matchTo = i + 1;
+                } else if (matchFrom < to) {
+                    break;
+                }
+            }
+            if (type == NodeType.KVNodeValue) {
+                for (int i = matchFrom; i < matchTo; i++) {
+                    if (keys[i].isEmpty()) ret[i] = n.kvNodeGetValue();
+                }
+            } else {
+                getAll(n.kvNodeGetChildNode(), keys, ret, matchFrom, matchTo, concurrent);
+            }
+        }
+    }
+
+    /**
+     * Puts (or deletes if the value is null or empty) a number of key-values traversing
+     * common key prefixes once. Independent subtrees are updated concurrently when
+     * the batch is large enough
+     */
+    @Override
+    public void putAll(Map<byte[], byte[]> rows) {
+        if (rows.isEmpty()) return;
+        List<byte[]> keys = new ArrayList<>(rows.keySet());
+        Integer[] order = sortedOrder(keys);
+        TrieKey[] sortedKeys = new TrieKey[order.length];
+        byte[][] sortedValues = new byte[order.length][];
+        for (int i = 0; i < order.length; i++) {
+            byte[] key = keys.get(order[i]);
+            sortedKeys[i] = TrieKey.fromNormal(key);
+            sortedValues[i] = rows.get(key);
+        }
+        if (root != null && !hasRoot()) {
+            // treating unknown root hash as empty trie like get() does
+            root = null;
+        }
+        root = putAll(root, sortedKeys, sortedValues, 0, sortedKeys.length, async);
+    }
+
+    @Override
+    public void updateBatch(Map<byte[], byte[]> rows) {
+        putAll(rows);
+    }
+
+    private Node putAll(Node n, final TrieKey[] keys, final byte[][] values, int from, int to, boolean concurrent) {
+        // until the node is a branch keys are applied one by one
+        // since the node structure changes on insertions
+        while (n == null || n.getType() != NodeType.BranchNode) {
+            if (from == to) return n;
+            if (n == null) {
+                if (!isEmpty(values[from])) n = new Node(keys[from], values[from]);
+                from++;
+                continue;
+            }
+
+            if (n.getType() == NodeType.KVNodeNode) {
+                TrieKey nodeKey = n.kvNodeGetKey();
+                TrieKey[] shifted = new TrieKey[to - from];
+                for (int i = from; i < to && shifted != null; i++) {
+                    shifted[i - from] = keys[i].matchAndShift(nodeKey);
+                    if (shifted[i - from] == null) shifted = null;
+                }
+                if (shifted != null) {
+                    // all the keys go down to the child
+                    System.arraycopy(shifted, 0, keys, from, shifted.length);
+                    Node newChild = putAll(n.kvNodeGetChildNode(), keys, values, from, to, concurrent);
+                    if (newChild == null) {
+                        n.dispose();
+                        return null;
+                    }
+                    return compactKvNode(n.kvNodeSetValueOrNode(newChild));
+                }
+            }
+
+            n = isEmpty(values[from]) ? delete(n, keys[from]) : insert(n, keys[from], values[from]);
+            from++;
+        }
+
+        while (from < to && keys[from].isEmpty()) {
+            n.branchNodeSetValue(isEmpty(values[from]) ? null : values[from]);
+            from++;
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        final Node[] newChildren = new Node[16];
+        final boolean[] updated = new boolean[16];
+        boolean fork = concurrent && to - from >= MIN_BATCH_CONCURRENTLY;
+        while (from < to) {
+            final int hex = keys[from].getHex(0);
+            int end = from;
+            while (end < to && keys[end].getHex(0) == hex) {
+                keys[end] = keys[end].shift(1);
+                end++;
+            }
+            final Node child = n.branchNodeGetChild(hex);
+            final int f = from, t = end;
+            updated[hex] = true;
+            if (fork) {
+                futures.add(getExecutor().submit(() -> newChildren[hex] = putAll(child, keys, values, f, t, false)));
+            } else {
+                newChildren[hex] = putAll(child, keys, values, f, t, false);
+            }
+            from = end;
+        }
+        waitAll(futures);
+
+        for (int i = 0; i < 16; i++) {
+            if (updated[i]) n.branchNodeSetChild(i, newChildren[i]);
+        }
+
+        int compactIdx = n.branchNodeCompactIdx();
+        if (compactIdx < 0) {
+            if (n.branchNodeHasChildren() || n.branchNodeGetValue() != null) return n;
+            // everything was deleted
+            n.dispose();
+            return null;
+        }
+
+        // only value or a single child left - compact branch node to kvNode
+        n.dispose();
+        if (compactIdx == 16) {
+            return new Node(TrieKey.empty(true), n.branchNodeGetValue());
+        } else {
+            return compactKvNode(new Node(TrieKey.singleHex(compactIdx), n.branchNodeGetChild(compactIdx)));
+        }
+    }
+
+    private static boolean isEmpty(byte[] value) {
+        return value == null || value.length == 0;
+    }
+
+    private static Integer[] sortedOrder(final List<byte[]> keys) {
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, (i1, i2) -> {
+            byte[] k1 = keys.get(i1), k2 = keys.get(i2);
+            return FastByteComparisons.compareTo(k1, 0, k1.length, k2, 0, k2.length);
+        });
+        return order;
+    }
+
+    private static void waitAll(List<Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public byte[] getRootHash() {
         encode();
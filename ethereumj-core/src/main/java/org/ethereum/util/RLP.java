@@ -699,7 +699,7 @@ public class RLP {
         public byte[] getEncoded() {
             byte encoded[][] = new byte[cnt][];
             for (int i = 0; i < cnt; i++) {
-                encoded[i] = encodeElement(getBytes(i));
+                encoded[i] = isList(i) ? getList(i).getEncoded() : encodeElement(getBytes(i));
             }
             return encodeList(encoded);
         }
@@ -718,6 +718,18 @@ public class RLP {
             return ret;
         }
 
+        public int getLength(int idx) {
+            int len = lens[idx];
+            return len < 0 ? (-len - 1) : len;
+        }
+
+        /**
+         * The same as {@link #getBytes(int)} but copies the item to the existing array
+         */
+        public void copyBytes(int idx, byte[] dest, int destPos) {
+            System.arraycopy(rlp, offsets[idx], dest, destPos, getLength(idx));
+        }
+
         public LList getList(int idx) {
             return decodeLazyList(rlp, offsets[idx], -lens[idx] - 1);
         }
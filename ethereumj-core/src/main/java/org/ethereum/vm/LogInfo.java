@@ -100,8 +100,7 @@ public class LogInfo {
     public Bloom getBloom() {
         Bloom ret = Bloom.create(HashUtil.sha3(address));
         for (DataWord topic : topics) {
-            byte[] topicData = topic.getData();
-            ret.or(Bloom.create(HashUtil.sha3(topicData)));
+            ret.add(HashUtil.sha3(topic.getData()));
         }
         return ret;
     }
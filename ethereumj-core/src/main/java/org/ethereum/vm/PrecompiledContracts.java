@@ -27,8 +27,6 @@ import org.ethereum.util.BIUtil;
 import java.math.BigInteger;
 
 import static org.ethereum.util.BIUtil.addSafely;
-import static org.ethereum.util.BIUtil.isLessThan;
-import static org.ethereum.util.BIUtil.isZero;
 import static org.ethereum.util.ByteUtil.*;
 import static org.ethereum.vm.VMUtils.getSizeInWords;
 
@@ -217,7 +215,7 @@ public class PrecompiledContracts {
      */
     public static class ModExp extends PrecompiledContract {
 
-        private static final BigInteger GQUAD_DIVISOR = BigInteger.valueOf(20);
+        private static final long GQUAD_DIVISOR = 20;
 
         private static final int ARGS_OFFSET = 32 * 3; // addresses length part
 
@@ -230,17 +228,19 @@ public class PrecompiledContracts {
             int expLen  = parseLen(data, 1);
             int modLen  = parseLen(data, 2);
 
-            byte[] expHighBytes = parseBytes(data, addSafely(ARGS_OFFSET, baseLen), Math.min(expLen, 32));
+            long expHighBits = bitLength(data, addSafely(ARGS_OFFSET, baseLen), Math.min(expLen, 32));
 
             long multComplexity = getMultComplexity(Math.max(baseLen, modLen));
-            long adjExpLen = getAdjustedExponentLength(expHighBytes, expLen);
+            long adjExpLen = getAdjustedExponentLength(expHighBits, expLen);
 
-            // use big numbers to stay safe in case of overflow
-            BigInteger gas = BigInteger.valueOf(multComplexity)
-                    .multiply(BigInteger.valueOf(Math.max(adjExpLen, 1)))
-                    .divide(GQUAD_DIVISOR);
-
-            return isLessThan(gas, BigInteger.valueOf(Long.MAX_VALUE)) ? gas.longValue() : Long.MAX_VALUE;
+            // floor(complexity * len / divisor) split so that the remainder part never overflows
+            long len = Math.max(adjExpLen, 1);
+            try {
+                return Math.addExact(Math.multiplyExact(multComplexity / GQUAD_DIVISOR, len),
+                        multComplexity % GQUAD_DIVISOR * len / GQUAD_DIVISOR);
+            } catch (ArithmeticException e) {
+                return Long.MAX_VALUE;
+            }
         }
 
         @Override
@@ -253,27 +253,38 @@ public class PrecompiledContracts {
             int expLen  = parseLen(data, 1);
             int modLen  = parseLen(data, 2);
 
-            BigInteger base = parseArg(data, ARGS_OFFSET, baseLen);
-            BigInteger exp  = parseArg(data, addSafely(ARGS_OFFSET, baseLen), expLen);
-            BigInteger mod  = parseArg(data, addSafely(addSafely(ARGS_OFFSET, baseLen), expLen), modLen);
+            int expOffset = addSafely(ARGS_OFFSET, baseLen);
+            int modOffset = addSafely(expOffset, expLen);
+
+            long modBits = bitLength(data, modOffset, modLen);
 
             // check if modulus is zero
-            if (isZero(mod))
+            if (modBits == 0)
                 return Pair.of(true, EMPTY_BYTE_ARRAY);
 
-            byte[] res = stripLeadingZeroes(base.modPow(exp, mod).toByteArray());
+            // result has the same length as the modulus
+            byte[] res = new byte[modLen];
 
-            // adjust result to the same length as the modulus has
-            if (res.length < modLen) {
+            // trivial cases which don't need operands to be parsed: x mod 1 = 0, x ^ 0 = 1, 0 ^ x = 0
+            if (modBits == 1)
+                return Pair.of(true, res);
+            if (bitLength(data, expOffset, expLen) == 0) {
+                res[modLen - 1] = 1;
+                return Pair.of(true, res);
+            }
+            if (bitLength(data, ARGS_OFFSET, baseLen) == 0)
+                return Pair.of(true, res);
 
-                byte[] adjRes = new byte[modLen];
-                System.arraycopy(res, 0, adjRes, modLen - res.length, res.length);
+            BigInteger base = parseArg(data, ARGS_OFFSET, baseLen);
+            BigInteger exp  = parseArg(data, expOffset, expLen);
+            BigInteger mod  = parseArg(data, modOffset, modLen);
 
-                return Pair.of(true, adjRes);
+            // BigInteger does Montgomery multiplication with sliding window for odd modulus
+            byte[] pow = base.modPow(exp, mod).toByteArray();
+            int len = Math.min(pow.length, modLen); // skips sign byte
+            System.arraycopy(pow, pow.length - len, res, modLen - len, len);
 
-            } else {
-                return Pair.of(true, res);
-            }
+            return Pair.of(true, res);
         }
 
         private long getMultComplexity(long x) {
@@ -286,13 +297,10 @@ public class PrecompiledContracts {
             return x2 / 16 + 480 * x - 199680;
         }
 
-        private long getAdjustedExponentLength(byte[] expHighBytes, long expLen) {
-
-            int leadingZeros = numberOfLeadingZeros(expHighBytes);
-            int highestBit = 8 * expHighBytes.length - leadingZeros;
+        private long getAdjustedExponentLength(long expHighBits, long expLen) {
 
             // set index basement to zero
-            if (highestBit > 0) highestBit--;
+            long highestBit = expHighBits > 0 ? expHighBits - 1 : 0;
 
             if (expLen <= 32) {
                 return highestBit;
@@ -310,6 +318,21 @@ public class PrecompiledContracts {
             byte[] bytes = parseBytes(data, offset, len);
             return bytesToBigInteger(bytes);
         }
+
+        /**
+         * Bit length of the <code>len</code> bytes argument which starts at <code>offset</code>,
+         * scanned right in the data which is treated as infinitely right-padded with zero bytes
+         */
+        private long bitLength(byte[] data, int offset, int len) {
+            long end = Math.min(data.length, (long) offset + len);
+            for (int i = offset; i < end; i++) {
+                if (data[i] != 0) {
+                    int byteBits = 32 - Integer.numberOfLeadingZeros(data[i] & 0xFF);
+                    return 8L * (len - (i - offset) - 1) + byteBits;
+                }
+            }
+            return 0;
+        }
     }
 
     /**
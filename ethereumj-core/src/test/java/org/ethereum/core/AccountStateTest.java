@@ -37,4 +37,45 @@ public class AccountStateTest {
         assertEquals(expected, Hex.toHexString(acct.getEncoded()));
     }
 
+    @Test
+    public void testBalanceCarry() {
+        BigInteger balance = BigInteger.valueOf(2).pow(64).subtract(BigInteger.ONE);
+        AccountState acct = new AccountState(BigInteger.ZERO, balance);
+
+        acct = acct.withBalanceIncrement(BigInteger.ONE);
+        assertEquals(BigInteger.valueOf(2).pow(64), acct.getBalance());
+
+        acct = acct.withBalanceIncrement(BigInteger.ONE.negate());
+        assertEquals(balance, acct.getBalance());
+
+        BigInteger max = BigInteger.valueOf(2).pow(256).subtract(BigInteger.ONE);
+        acct = new AccountState(BigInteger.ZERO, max.subtract(BigInteger.TEN)).withBalanceIncrement(BigInteger.TEN);
+        assertEquals(max, acct.getBalance());
+        assertEquals(max, new AccountState(acct.getEncoded()).getBalance());
+    }
+
+    @Test
+    public void testBalanceOutOfRange() {
+        AccountState acct = new AccountState(BigInteger.ZERO, BigInteger.TEN)
+                .withBalanceIncrement(BigInteger.valueOf(-11));
+        assertEquals(BigInteger.ONE.negate(), acct.getBalance());
+
+        acct = acct.withBalanceIncrement(BigInteger.valueOf(1001));
+        assertEquals(BigInteger.valueOf(1000), acct.getBalance());
+        assertEquals(Hex.toHexString(new AccountState(BigInteger.ZERO, BigInteger.valueOf(1000)).getEncoded()),
+                Hex.toHexString(acct.getEncoded()));
+    }
+
+    @Test
+    public void testNonce() {
+        AccountState acct = new AccountState(BigInteger.valueOf(Long.MAX_VALUE), BigInteger.ZERO)
+                .withIncrementedNonce();
+        BigInteger expected = BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE);
+        assertEquals(expected, acct.getNonce());
+        assertEquals(expected, new AccountState(acct.getEncoded()).getNonce());
+
+        acct = new AccountState(BigInteger.valueOf(255), BigInteger.ZERO).withIncrementedNonce();
+        assertEquals(BigInteger.valueOf(256), new AccountState(acct.getEncoded()).getNonce());
+    }
+
 }
@@ -19,6 +19,8 @@ package org.ethereum.core;
 
 import org.ethereum.config.SystemProperties;
 import org.ethereum.core.genesis.GenesisLoader;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.crypto.HashUtil;
 import org.ethereum.trie.SecureTrie;
 import org.ethereum.trie.Trie;
 import org.json.simple.JSONObject;
@@ -31,9 +33,16 @@ import org.slf4j.LoggerFactory;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytesNoLeadZeroes;
+import static org.ethereum.util.ByteUtil.longToBytesNoLeadZeroes;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -211,4 +220,26 @@ public class BlockTest {
         b.getTransactionsList().forEach(Transaction::getSender);
         System.out.println("Size of parsed block with parsed txes: " + Block.MemEstimator.estimateSize(b));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCalculatedTxTrieRoot() {
+        ECKey key = ECKey.fromPrivate(sha3("cow".getBytes()));
+        List<Transaction> txs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Transaction tx = new Transaction(intToBytesNoLeadZeroes(i), longToBytesNoLeadZeroes(50_000_000_000L),
+                    longToBytesNoLeadZeroes(21000), new byte[20], longToBytesNoLeadZeroes(1), null);
+            tx.sign(key);
+            txs.add(tx);
+        }
+
+        Block genesis = new Block(Hex.decode(GENESIS_RLP));
+        Block block = new Block(genesis.getHeader(), txs, Collections.<BlockHeader>emptyList());
+        assertArrayEquals(BlockchainImpl.calcTxTrie(txs), block.getCalculatedTxTrieRoot());
+        assertArrayEquals(block.getTxTrieRoot(), block.getCalculatedTxTrieRoot());
+
+        // root is calculated on decoding
+        Block decoded = new Block(block.getEncoded());
+        assertArrayEquals(block.getTxTrieRoot(), decoded.getCalculatedTxTrieRoot());
+        assertArrayEquals(HashUtil.EMPTY_TRIE_HASH, genesis.getCalculatedTxTrieRoot());
+    }
+}
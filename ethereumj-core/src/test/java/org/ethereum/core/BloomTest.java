@@ -18,10 +18,22 @@
 package org.ethereum.core;
 
 import org.ethereum.crypto.HashUtil;
+import org.ethereum.listener.LogFilter;
+import org.ethereum.util.ByteUtil;
+import org.ethereum.util.RLP;
+import org.ethereum.util.RLPList;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
 import org.junit.Assert;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.spongycastle.util.encoders.Hex;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 /**
  * @author Roman Mandeleil
  * @since 20.11.2014
@@ -57,18 +69,138 @@ public class BloomTest {
 
     @Test
     public void test2() {
-        // todo: more testing
+        Random rnd = new Random(42);
+        for (int n = 0; n < 100; n++) {
+            byte[] data = new byte[256];
+            for (int i = 0; i < 16; i++) {
+                data[rnd.nextInt(256)] = (byte) rnd.nextInt();
+            }
+            Bloom bloom = new Bloom(data);
+            Assert.assertArrayEquals(data, bloom.getData());
+            for (int pos = 0; pos < 2048; pos++) {
+                Assert.assertEquals(ByteUtil.getBit(data, pos) == 1, bloom.hasBit(pos));
+            }
+
+            byte[] hash = HashUtil.sha3(data);
+            Bloom entry = Bloom.create(hash);
+            for (int pos : Bloom.bitPositions(hash)) {
+                Assert.assertTrue(entry.hasBit(pos));
+            }
+            Bloom copy = bloom.copy();
+            copy.add(hash);
+            Assert.assertTrue(copy.matches(entry));
+            Assert.assertTrue(copy.matches(bloom));
+            Assert.assertEquals(bloom.matches(entry), bloom.equals(copy));
+
+            Bloom and = copy.copy();
+            and.and(entry);
+            Assert.assertEquals(entry, and);
+        }
     }
 
     @Test
     public void test3() {
-        // todo: more testing
+        byte[] address = Hex.decode("095e7baea6a6c7c4c2dfeb977efac326af552d87");
+        byte[] topic1 = DataWord.of(1).getData();
+        byte[] topic2 = DataWord.of(2).getData();
+        LogInfo log = new LogInfo(address, Arrays.asList(DataWord.of(topic1), DataWord.of(topic2)), new byte[0]);
+        Bloom bloom = log.getBloom();
+
+        Assert.assertTrue(new LogFilter().matchBloom(bloom));
+        Assert.assertTrue(new LogFilter().withContractAddress(address).matchBloom(bloom));
+        Assert.assertTrue(new LogFilter().withContractAddress(address).withTopic(topic1).withTopic(topic2).matchBloom(bloom));
+        Assert.assertTrue(new LogFilter().withTopic(DataWord.of(3).getData(), topic2).matchBloom(bloom));
+        Assert.assertFalse(new LogFilter().withTopic(DataWord.of(3).getData()).matchBloom(bloom));
+        Assert.assertFalse(new LogFilter().withContractAddress(new byte[20]).withTopic(topic1).matchBloom(bloom));
     }
 
 
     @Test
     public void test4() {
-        // todo: more testing
+        // short encodings are left padded and encoded back as is
+        Bloom bloom = new Bloom(Hex.decode("0001"));
+        Assert.assertEquals(Bloom.create(new byte[] {0, 0, 0, 0, 0, 0}), bloom);
+        Assert.assertEquals("0001", Hex.toHexString(bloom.getData()));
+        bloom.or(new Bloom(Hex.decode("02")));
+        Assert.assertEquals("0003", Hex.toHexString(bloom.getData()));
+
+        // unless bits beyond are set
+        bloom.add(new byte[] {7, (byte) 0xFF, 0, 0, 0, 0});
+        Assert.assertEquals(256, bloom.getData().length);
+        Assert.assertTrue(bloom.hasBit(2047));
+        Assert.assertTrue(bloom.hasBit(1));
+
+        // empty RLP item is decoded as null
+        bloom = new Bloom(null);
+        Assert.assertEquals(new Bloom(), bloom);
+        Assert.assertEquals(0, bloom.getData().length);
+        byte[] receiptRlp = RLP.encodeList(RLP.encodeElement(new byte[32]), RLP.encodeElement(new byte[] {1}),
+                RLP.encodeElement(null), RLP.encodeList());
+        TransactionReceipt receipt = new TransactionReceipt((RLPList) RLP.decode2(receiptRlp).get(0));
+        Assert.assertArrayEquals(receiptRlp, receipt.getReceiptTrieEncoded());
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void bloomBenchmark() {
+        // a block of 200 receipts with 2 logs of 3 topics each
+        Random rnd = new Random(1);
+        List<TransactionReceipt> receipts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            List<LogInfo> logs = new ArrayList<>();
+            for (int j = 0; j < 2; j++) {
+                byte[] address = new byte[20];
+                rnd.nextBytes(address);
+                List<DataWord> topics = new ArrayList<>();
+                for (int k = 0; k < 3; k++) topics.add(DataWord.of(rnd.nextInt(1000)));
+                logs.add(new LogInfo(address, topics, new byte[0]));
+            }
+            TransactionReceipt receipt = new TransactionReceipt();
+            receipt.setLogInfoList(logs);
+            receipts.add(receipt);
+        }
+        List<Bloom> headerBlooms = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            Bloom bloom = new Bloom();
+            for (int j = 0; j < 20; j++) bloom.or(receipts.get(rnd.nextInt(receipts.size())).getBloomFilter());
+            headerBlooms.add(bloom);
+        }
+        LogFilter filter = new LogFilter().withContractAddress(new byte[20], Hex.decode("095e7baea6a6c7c4c2dfeb977efac326af552d87"))
+                .withTopic(DataWord.of(7).getData());
+
+        // best of 20 rounds
+        long bestAggregate = Long.MAX_VALUE, bestMatch = Long.MAX_VALUE, bestCreate = Long.MAX_VALUE;
+        int cnt = 0;
+        for (int round = 0; round < 20; round++) {
+            long s = System.nanoTime();
+            for (int n = 0; n < 1000; n++) {
+                Bloom blockBloom = new Bloom();
+                for (TransactionReceipt receipt : receipts) blockBloom.or(receipt.getBloomFilter());
+                cnt += blockBloom.hashCode() & 1;
+            }
+            long aggregate = System.nanoTime() - s;
+
+            s = System.nanoTime();
+            for (int n = 0; n < 10; n++) {
+                for (Bloom bloom : headerBlooms) if (filter.matchBloom(bloom)) cnt++;
+            }
+            long match = System.nanoTime() - s;
+
+            s = System.nanoTime();
+            for (int n = 0; n < 10; n++) {
+                for (TransactionReceipt receipt : receipts) {
+                    for (LogInfo log : receipt.getLogInfoList()) cnt += log.getBloom().hashCode() & 1;
+                }
+            }
+            long create = System.nanoTime() - s;
+
+            bestAggregate = Math.min(bestAggregate, aggregate);
+            bestMatch = Math.min(bestMatch, match);
+            bestCreate = Math.min(bestCreate, create);
+        }
+
+        System.out.printf("aggregate 200 receipts: %d ns, match filter: %d ns/bloom, log bloom: %d ns/log (%d)%n",
+                bestAggregate / 1000, bestMatch / 100_000, bestCreate / 4000, cnt);
     }
 
 }
@@ -646,4 +646,48 @@ public class PendingStateTest {
 
         assert txHandle.await(3, TimeUnit.SECONDS);
     }
+
+    @Test
+    public void testRefreshOnSubsequentBlocks() throws InterruptedException {
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        PendingListener l = new PendingListener();
+        bc.addEthereumListener(l);
+        PendingStateImpl pendingState = (PendingStateImpl) bc.getBlockchain().getPendingState();
+
+        ECKey alice = new ECKey();
+        ECKey bob = new ECKey();
+        ECKey charlie = new ECKey();
+
+        bc.sendEther(bob.getAddress(), convert(100, ETHER));
+        bc.sendEther(charlie.getAddress(), convert(100, ETHER));
+        bc.createBlock();
+
+        Transaction[] txs = new Transaction[20];
+        for (int i = 0; i < txs.length; i++) {
+            txs[i] = bc.createTransaction(i % 2 == 0 ? bob : charlie, i / 2, alice.getAddress(),
+                    BigInteger.valueOf(1000), new byte[0]);
+            pendingState.addPendingTransaction(txs[i]);
+            Assert.assertEquals(NEW_PENDING, l.pollTxUpdateState(txs[i]));
+        }
+
+        // a running refresh completes, then a single follow-up one catches up with the last block
+        Block last = null;
+        for (int i = 0; i < 3; i++) {
+            last = bc.createBlock();
+        }
+        Assert.assertEquals(BigInteger.valueOf(1000 * txs.length), pendingState.getRepository().getBalance(alice.getAddress()));
+
+        for (Transaction tx : txs) {
+            Triple<TransactionReceipt, EthereumListener.PendingTransactionState, Block> txUpd = l.pollTxUpdate(tx);
+            while (!l.getQueueFor(tx).isEmpty()) txUpd = l.getQueueFor(tx).poll();
+            Assert.assertEquals(PENDING, txUpd.getMiddle());
+            Assert.assertTrue(txUpd.getLeft().isValid());
+            Assert.assertEquals(last.getNumber(), txUpd.getRight().getNumber());
+        }
+
+        // new transactions are executed on the refreshed state
+        Transaction tx = bc.createTransaction(bob, txs.length / 2, alice.getAddress(), BigInteger.valueOf(1000), new byte[0]);
+        pendingState.addPendingTransaction(tx);
+        Assert.assertEquals(NEW_PENDING, l.pollTxUpdateState(tx));
+    }
 }
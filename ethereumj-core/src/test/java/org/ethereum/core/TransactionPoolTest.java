@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.core;
+
+import org.ethereum.crypto.ECKey;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.ethereum.util.ByteUtil.intToBytesNoLeadZeroes;
+import static org.ethereum.util.ByteUtil.longToBytesNoLeadZeroes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionPoolTest {
+
+    private static PendingTransaction createTx(ECKey sender, int nonce, long gasPrice, long blockNumber) {
+        Transaction tx = new Transaction(intToBytesNoLeadZeroes(nonce), longToBytesNoLeadZeroes(gasPrice),
+                longToBytesNoLeadZeroes(21000), new byte[20], intToBytesNoLeadZeroes(1), new byte[0]);
+        tx.sign(sender);
+        return new PendingTransaction(tx, blockNumber);
+    }
+
+    @Test
+    public void testIndexes() {
+        TransactionPool pool = new TransactionPool(100, 10);
+        ECKey alice = new ECKey(), bob = new ECKey();
+
+        PendingTransaction a0 = createTx(alice, 0, 10, 1), a1 = createTx(alice, 1, 30, 1), a2 = createTx(alice, 2, 50, 2);
+        PendingTransaction b5 = createTx(bob, 5, 20, 1), b6 = createTx(bob, 6, 40, 3);
+        for (PendingTransaction tx : new PendingTransaction[] {a0, b5, a1, b6, a2}) {
+            assertTrue(pool.hasRoomFor(tx.getTransaction()));
+            assertTrue(pool.add(tx).isEmpty());
+        }
+
+        assertEquals(5, pool.size());
+        assertEquals(2, pool.getSendersCount());
+        assertSame(b6, pool.get(b6.getHash()));
+        assertEquals(list(a0, a1, a2), pool.getBySender(alice.getAddress()));
+        assertEquals(list(a0, b5, a1, b6, a2), pool.getAll());
+        // senders' heads compete by price
+        assertEquals(txs(b5, b6, a0, a1, a2), pool.getByPriceAndNonce());
+
+        // returned transactions go first in their order, known ones are skipped
+        PendingTransaction a3 = createTx(alice, 3, 1, 0);
+        pool.addFirst(list(b5, a3));
+        assertEquals(list(a3, a0, b5, a1, b6, a2), pool.getAll());
+
+        assertSame(b5, pool.remove(bob.getAddress(), 5));
+        assertNull(pool.remove(bob.getAddress(), 5));
+        assertFalse(pool.contains(b5.getHash()));
+
+        assertEquals(list(a3), pool.removeAddedBefore(1));
+        assertEquals(list(a0, a1), pool.removeStale(alice.getAddress(), 2));
+        assertEquals(list(a2), pool.removeFrom(alice.getAddress(), 2));
+        assertEquals(list(b6), pool.getAll());
+        assertEquals(1, pool.getSendersCount());
+        assertEquals(5, pool.getAddedCount());
+    }
+
+    @Test
+    public void testLimits() {
+        TransactionPool pool = new TransactionPool(4, 3);
+        ECKey alice = new ECKey(), bob = new ECKey(), charlie = new ECKey();
+
+        PendingTransaction a0 = createTx(alice, 0, 10, 1), a1 = createTx(alice, 1, 50, 1), a2 = createTx(alice, 2, 50, 1);
+        pool.add(a0);
+        pool.add(a1);
+        pool.add(a2);
+        assertFalse(pool.hasRoomFor(createTx(alice, 3, 100, 1).getTransaction()));
+
+        PendingTransaction b0 = createTx(bob, 0, 20, 1);
+        assertTrue(pool.hasRoomFor(b0.getTransaction()));
+        pool.add(b0);
+
+        // full pool accepts only more paying transactions
+        assertFalse(pool.hasRoomFor(createTx(charlie, 0, 10, 1).getTransaction()));
+        PendingTransaction c0 = createTx(charlie, 0, 11, 1);
+        assertTrue(pool.hasRoomFor(c0.getTransaction()));
+
+        // the cheapest transaction takes the following ones of its sender along
+        assertEquals(list(a0, a1, a2), pool.add(c0));
+        assertEquals(list(b0, c0), pool.getAll());
+        assertEquals(3, pool.getEvictedCount());
+        assertEquals(2, pool.getRejectedCount());
+    }
+
+    private static List<PendingTransaction> list(PendingTransaction... txs) {
+        List<PendingTransaction> ret = new ArrayList<>();
+        Collections.addAll(ret, txs);
+        return ret;
+    }
+
+    private static List<Transaction> txs(PendingTransaction... txs) {
+        List<Transaction> ret = new ArrayList<>();
+        for (PendingTransaction tx : txs) ret.add(tx.getTransaction());
+        return ret;
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void poolBenchmark() {
+        int senders = 500, perSender = 10;
+        Random rnd = new Random(1);
+        List<PendingTransaction> txs = new ArrayList<>();
+        for (int s = 0; s < senders; s++) {
+            ECKey key = new ECKey();
+            for (int n = 0; n < perSender; n++) {
+                PendingTransaction tx = createTx(key, n, 1 + rnd.nextInt(1000), 0);
+                tx.getSender();
+                txs.add(tx);
+            }
+        }
+
+        for (int round = 0; round < 5; round++) {
+            TransactionPool pool = new TransactionPool(txs.size(), perSender);
+            long s = System.nanoTime();
+            for (PendingTransaction tx : txs) pool.add(tx);
+            long a = System.nanoTime();
+            for (int i = 0; i < 100; i++) pool.getByPriceAndNonce();
+            long o = System.nanoTime();
+            // a block includes the first transaction of every 10th sender
+            for (int i = 0; i < txs.size(); i += perSender * 10) {
+                pool.remove(txs.get(i).getSender(), 0);
+            }
+            long r = System.nanoTime();
+            System.out.printf("%d txs: add %.2f ms, block order %.2f ms, block inclusion %.3f ms%n", txs.size(),
+                    (a - s) / 1e6, (o - a) / 1e6 / 100, (r - o) / 1e6);
+        }
+    }
+}
@@ -19,6 +19,13 @@ package org.ethereum.crypto.cryptohash;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.ethereum.util.ByteUtil.bytesToInts;
+import static org.ethereum.util.ByteUtil.intsToBytes;
+import static org.junit.Assert.assertArrayEquals;
+
 /**
  * This class is a program entry point; it includes tests for the
  * implementation of the hash functions.
@@ -826,4 +833,26 @@ public class Keccak512Test extends AbstractCryptoTest {
             "3a3a819c48efde2ad914fbf00e18ab6bc4f14513ab27d0c178a188b61431e7f5623cb66b23346775d386b50e982c493adbbfc54b9a3cd383382336a1a0b2150a15358f336d03ae18f666c7573d55c4fd181c29e6ccfde63ea35f0adf5885cfc0a3d84a2b2e4dd24496db789e663170cef74798aa1bbcd4574ea0bba40489d764b2f83aadc66b148b4a0cd95246c127d5871c4f11418690a5ddf01246a0c80a43c70088b6183639dcfda4125bd113a8f49ee23ed306faac576c3fb0c1e256671d817fc2534a52f5b439f72e424de376f4c565cca82307dd9ef76da5b7c4eb7e085172e328807c02d011ffbf33785378d79dc266f6a5be6bb0e4a92eceebaeb1",
             "81950e7096d31d4f22e3db71cac725bf59e81af54c7ca9e6aeee71c010fc5467466312a01aa5c137cfb140646941556796f612c9351268737c7e9a2b9631d1fa");
     }
+
+    @Test
+    public void testDigestWords() {
+        Random rnd = new Random(1);
+        long[] state = new long[25];
+        for (int len = 0; len <= 17; len++) {
+            int[] words = new int[18];
+            for (int i = 0; i < words.length; i++) words[i] = rnd.nextInt();
+            byte[] bytes = new byte[len * 4];
+            intsToBytes(Arrays.copyOfRange(words, 1, len + 1), bytes, false);
+            int[] expected = new int[16];
+            bytesToInts(new Keccak512().digest(bytes), expected, false);
+
+            int[] out = new int[17];
+            Keccak512.digestWords(words, 1, len, out, 1, state);
+            assertArrayEquals("len " + len, expected, Arrays.copyOfRange(out, 1, 17));
+
+            // digest replaces the input
+            Keccak512.digestWords(words, 1, len, words, 1, state);
+            assertArrayEquals("len " + len, expected, Arrays.copyOfRange(words, 1, 17));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.crypto.zksnark;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import static org.ethereum.crypto.zksnark.Params.P;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FpTest {
+
+    private static BigInteger[] createValues(Random rnd) {
+        BigInteger[] values = new BigInteger[64];
+        values[0] = BigInteger.ZERO;
+        values[1] = BigInteger.ONE;
+        values[2] = P.subtract(BigInteger.ONE);
+        values[3] = P.shiftRight(1);
+        for (int i = 4; i < values.length; i++) {
+            values[i] = new BigInteger(254, rnd).mod(P);
+        }
+        return values;
+    }
+
+    @Test
+    public void testSameAsBigInteger() {
+        BigInteger[] values = createValues(new Random(1));
+        for (BigInteger x : values) {
+            Fp fx = Fp.create(x);
+            assertEquals(x, fx.toBigInteger());
+            assertEquals(x.negate().mod(P), fx.negate().toBigInteger());
+            assertEquals(x.multiply(x).mod(P), fx.squared().toBigInteger());
+            assertEquals(x.shiftLeft(1).mod(P), fx.dbl().toBigInteger());
+            if (x.signum() != 0) {
+                assertEquals(x.modInverse(P), fx.inverse().toBigInteger());
+            }
+            for (BigInteger y : values) {
+                Fp fy = Fp.create(y);
+                assertEquals(x.add(y).mod(P), fx.add(fy).toBigInteger());
+                assertEquals(x.subtract(y).mod(P), fx.sub(fy).toBigInteger());
+                assertEquals(x.multiply(y).mod(P), fx.mul(fy).toBigInteger());
+            }
+        }
+    }
+
+    @Test
+    public void testInPlace() {
+        BigInteger[] values = createValues(new Random(2));
+        for (int i = 1; i < values.length; i++) {
+            BigInteger x = values[i - 1], y = values[i];
+            // result aliases an argument
+            Fp r = Fp.create(x);
+            r.setMul(r, Fp.create(y));
+            assertEquals(x.multiply(y).mod(P), r.toBigInteger());
+            r.setSub(Fp.create(x), r);
+            assertEquals(x.subtract(x.multiply(y)).mod(P), r.toBigInteger());
+            r.setSquared(r);
+            assertEquals(x.subtract(x.multiply(y)).pow(2).mod(P), r.toBigInteger());
+        }
+    }
+
+    @Test
+    public void testEncoding() {
+        assertTrue(Fp.create(P.subtract(BigInteger.ONE)).isValid());
+        assertFalse(Fp.create(P).isValid());
+        assertFalse(Fp.create(BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE)).isValid());
+
+        byte[] bytes = new BigInteger("1234567890abcdef", 16).toByteArray();
+        assertArrayEquals(bytes, Fp.create(bytes).bytes());
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db;
+
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.Bloom;
+import org.ethereum.core.Transaction;
+import org.ethereum.core.TransactionInfo;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.listener.LogFilter;
+import org.ethereum.vm.DataWord;
+import org.ethereum.vm.LogInfo;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_LIST_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.ethereum.util.ByteUtil.longToBytesNoLeadZeroes;
+import static org.junit.Assert.*;
+
+public class BloomBitsIndexTest {
+
+    private static final ECKey KEY = ECKey.fromPrivate(BigInteger.ONE);
+
+    private HashMapDB<byte[]> indexDb;
+    private IndexedBlockStore blockStore;
+    private TransactionStore txStore;
+    private List<Block> chain;
+
+    private static byte[] addr(int i) {
+        byte[] ret = new byte[20];
+        ret[0] = 0x22;
+        ret[19] = (byte) i;
+        return ret;
+    }
+
+    private static byte[] topic(int i) {
+        return DataWord.of(1000 + i).getData();
+    }
+
+    private Block createBlock(Block parent, long number, byte[] address, byte[] topic) {
+        Transaction tx = new Transaction(longToBytesNoLeadZeroes(number), intToBytes(1), intToBytes(21000),
+                address, intToBytes(1), topic);
+        tx.sign(KEY);
+        LogInfo log = new LogInfo(address, Collections.singletonList(DataWord.of(topic)), new byte[0]);
+        TransactionReceipt receipt = new TransactionReceipt(new byte[32], intToBytes(21000),
+                log.getBloom(), Collections.singletonList(log));
+        receipt.setTransaction(tx);
+
+        BlockHeader header = new BlockHeader(parent == null ? new byte[32] : parent.getHash(), EMPTY_LIST_HASH,
+                new byte[20], log.getBloom().getData(), intToBytes(1), number, intToBytes(1_000_000), 21000,
+                number, new byte[0], new byte[32], new byte[8]);
+        header.setTransactionsRoot(EMPTY_TRIE_HASH);
+        header.setReceiptsRoot(EMPTY_TRIE_HASH);
+        header.setStateRoot(EMPTY_TRIE_HASH);
+        Block block = new Block(header, Collections.singletonList(tx), Collections.emptyList());
+        txStore.put(new TransactionInfo(receipt, block.getHash(), 0));
+        return block;
+    }
+
+    @Before
+    public void setup() {
+        indexDb = new HashMapDB<>();
+        blockStore = new IndexedBlockStore();
+        blockStore.init(new HashMapDB<>(), new HashMapDB<>());
+        txStore = new TransactionStore(new HashMapDB<>());
+
+        chain = new ArrayList<>();
+        Block parent = null;
+        for (int i = 0; i < 200; i++) {
+            parent = createBlock(parent, i, addr(i % 5), topic(i % 7));
+            blockStore.saveBlock(parent, BigInteger.valueOf(i + 1), true);
+            chain.add(parent);
+        }
+    }
+
+    private List<Long> scanHeaders(LogFilter filter, long from, long to) {
+        List<Long> ret = new ArrayList<>();
+        for (long i = from; i <= to; i++) {
+            if (filter.matchBloom(new Bloom(blockStore.getChainBlockByNumber(i).getLogBloom()))) ret.add(i);
+        }
+        return ret;
+    }
+
+    private void checkCandidates(BloomBitsIndex index) {
+        LogFilter[] filters = {
+                new LogFilter(),
+                new LogFilter().withContractAddress(addr(3)),
+                new LogFilter().withContractAddress(addr(1), addr(4)),
+                new LogFilter().withTopic(topic(6)),
+                new LogFilter().withContractAddress(addr(2)).withTopic(topic(3)),
+                new LogFilter().withContractAddress(addr(2)).withTopic(topic(3), topic(5)),
+                new LogFilter().withContractAddress(addr(42)),
+        };
+        long[][] ranges = {{0, 199}, {10, 150}, {64, 127}, {150, 199}, {195, 196}};
+        for (LogFilter filter : filters) {
+            for (long[] range : ranges) {
+                assertEquals(scanHeaders(filter, range[0], range[1]),
+                        index.getCandidateBlocks(filter, range[0], range[1]));
+            }
+        }
+    }
+
+    @Test
+    public void testMatching() {
+        BloomBitsIndex index = new BloomBitsIndex(indexDb, blockStore, txStore, 64, 8, 2);
+        checkCandidates(index);
+
+        // blocks 0..191 are confirmed, 192..199 are matched by headers
+        assertEquals(3, index.update());
+        assertEquals(3, index.getIndexedSections());
+        assertEquals(0, index.update());
+        checkCandidates(index);
+
+        List<TransactionInfo> logs = index.getLogs(new LogFilter().withContractAddress(addr(2)).withTopic(topic(3)), 0, 199);
+        List<Long> blocks = new ArrayList<>();
+        for (TransactionInfo info : logs) {
+            Block block = blockStore.getBlockByHash(info.getBlockHash());
+            assertArrayEquals(block.getTransactionsList().get(0).getHash(), info.getReceipt().getTransaction().getHash());
+            blocks.add(block.getNumber());
+        }
+        // i % 5 == 2 && i % 7 == 3
+        assertEquals(Arrays.asList(17L, 52L, 87L, 122L, 157L, 192L), blocks);
+
+        // the index is picked up on restart
+        index = new BloomBitsIndex(indexDb, blockStore, txStore, 64, 8, 1);
+        assertEquals(3, index.getIndexedSections());
+        checkCandidates(index);
+
+        // section size change drops the index
+        index = new BloomBitsIndex(indexDb, blockStore, txStore, 128, 8, 1);
+        assertEquals(0, index.getIndexedSections());
+        assertEquals(1, index.update());
+        checkCandidates(index);
+        index.close();
+    }
+
+    @Test
+    public void testRebranch() {
+        BloomBitsIndex index = new BloomBitsIndex(indexDb, blockStore, txStore, 64, 8, 2);
+        assertEquals(3, index.update());
+
+        Block parent = chain.get(99);
+        for (int i = 100; i < 210; i++) {
+            parent = createBlock(parent, i, addr(9), topic(i % 3));
+            blockStore.saveBlock(parent, BigInteger.valueOf(i + 1000), false);
+        }
+        blockStore.reBranch(parent);
+
+        // stale sections are matched by headers until re-indexed
+        checkCandidates(index);
+        assertEquals(1, index.getCandidateBlocks(new LogFilter().withContractAddress(addr(9)), 0, 100).size());
+
+        // section 0 is kept, 1 and 2 are re-indexed
+        assertEquals(2, index.update());
+        assertEquals(3, index.getIndexedSections());
+        checkCandidates(index);
+        assertEquals(110, index.getCandidateBlocks(new LogFilter().withContractAddress(addr(9)), 0, 209).size());
+        index.close();
+    }
+
+    @Test
+    public void testVectorEncoding() {
+        BloomBitsIndex index = new BloomBitsIndex(indexDb, blockStore, txStore, 256, 8, 1);
+        long[] sparse = new long[4];
+        sparse[0] = 1L;
+        sparse[3] = 1L << 63;
+        assertEquals(4, index.encodeVector(sparse).length);
+        assertArrayEquals(sparse, index.decodeVector(index.encodeVector(sparse)));
+
+        long[] dense = {-1L, 0x5555_5555_5555_5555L, 0, 1L << 40};
+        assertEquals(32, index.encodeVector(dense).length);
+        assertArrayEquals(dense, index.decodeVector(index.encodeVector(dense)));
+
+        assertArrayEquals(new long[4], index.decodeVector(index.encodeVector(new long[4])));
+        assertArrayEquals(new long[4], index.decodeVector(null));
+        index.close();
+    }
+}
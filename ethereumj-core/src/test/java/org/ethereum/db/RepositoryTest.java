@@ -34,8 +34,11 @@ import org.junit.runners.MethodSorters;
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
 import static org.junit.Assert.*;
@@ -1015,4 +1018,95 @@ public class RepositoryTest {
             throw new RuntimeException("Test failed.");
         }
     }
+
+    @Test
+    public void testMultiThreadTrackReads() throws InterruptedException {
+        final RepositoryImpl repository = new RepositoryRoot(new HashMapDB());
+        final RepositoryImpl track = repository.startTracking();
+
+        final byte[] cow = Hex.decode("CD2A3D9F938E13CD947EC05ABC7FE734DF8DD826");
+        final DataWord cowKey = DataWord.of("c1");
+
+        final CountDownLatch failSema = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        // readers should never see a child commit applied partially
+        for (int i = 0; i < 4; ++i) {
+            new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        DataWord val = track.getStorageValue(cow, cowKey);
+                        BigInteger balance = track.getBalance(cow);
+                        assertTrue(val == null || val.value().compareTo(balance) <= 0);
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failSema.countDown();
+                }
+            }).start();
+        }
+
+        for (int cnt = 1; cnt <= 2000 && failSema.getCount() > 0; cnt++) {
+            Repository child = track.startTracking();
+            child.addStorageRow(cow, cowKey, DataWord.of(cnt));
+            child.addBalance(cow, BigInteger.ONE);
+            child.commit();
+        }
+        stop.set(true);
+
+        assertEquals(1, failSema.getCount());
+        assertEquals(BigInteger.valueOf(2000), track.getBalance(cow));
+    }
+
+    @Test
+    public void testMultiThreadTrieReads() throws InterruptedException {
+        final RepositoryRoot repository = new RepositoryRoot(new HashMapDB());
+        final DataWord key = DataWord.of("c1");
+
+        final int accounts = 64;
+        for (int i = 0; i < accounts; i++) {
+            repository.addBalance(DataWord.of(i + 1).getLast20Bytes(), BigInteger.ONE);
+            repository.addStorageRow(DataWord.of(i + 1).getLast20Bytes(), key, DataWord.ONE);
+        }
+        repository.commit();
+
+        final CountDownLatch failSema = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        // fresh tracking layers miss their caches and read the root tries
+        // concurrently with the root commits
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            Thread t = new Thread(() -> {
+                try {
+                    while (!stop.get()) {
+                        Repository track = repository.startTracking();
+                        for (int j = 0; j < accounts; j++) {
+                            byte[] addr = DataWord.of(j + 1).getLast20Bytes();
+                            assertTrue(track.getBalance(addr).signum() > 0);
+                            assertNotNull(track.getStorageValue(addr, key));
+                        }
+                    }
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    failSema.countDown();
+                }
+            });
+            t.start();
+            readers.add(t);
+        }
+
+        for (int cnt = 1; cnt <= 200 && failSema.getCount() > 0; cnt++) {
+            byte[] addr = DataWord.of(cnt % accounts + 1).getLast20Bytes();
+            Repository track = repository.startTracking();
+            track.addBalance(addr, BigInteger.ONE);
+            track.addStorageRow(addr, key, DataWord.of(cnt));
+            track.commit();
+            repository.commit();
+        }
+        stop.set(true);
+        for (Thread t : readers) t.join();
+
+        assertEquals(1, failSema.getCount());
+    }
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.db.flat;
+
+import org.ethereum.core.AccountState;
+import org.ethereum.core.Repository;
+import org.ethereum.datasource.NoDeleteSource;
+import org.ethereum.datasource.Source;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.db.RepositoryRoot;
+import org.ethereum.vm.DataWord;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.crypto.HashUtil.sha3omit12;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class FlatStateTest {
+
+    private static byte[] addr(int i) {
+        byte[] ret = new byte[20];
+        ret[19] = (byte) i;
+        ret[0] = 0x11;
+        return ret;
+    }
+
+    private static DataWord word(int i) {
+        return DataWord.of(i);
+    }
+
+    private void checkState(Source<byte[], byte[]> stateDS, FlatState flatState, byte[] root, int accounts) {
+        assertNotNull(flatState.getLayer(root));
+        assertEquals(0, flatState.verify(stateDS, root));
+
+        Repository flat = new RepositoryRoot(stateDS, root, flatState);
+        Repository trie = new RepositoryRoot(stateDS, root);
+        for (int i = 0; i < accounts; i++) {
+            AccountState expected = trie.getAccountState(addr(i));
+            AccountState actual = flat.getAccountState(addr(i));
+            assertArrayEquals(expected == null ? null : expected.getEncoded(), actual == null ? null : actual.getEncoded());
+            for (int j = 0; j < 4; j++) {
+                assertEquals(trie.getStorageValue(addr(i), word(j)), flat.getStorageValue(addr(i), word(j)));
+            }
+        }
+    }
+
+    @Test
+    public void testReadsMatchTrie() {
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        FlatState flatState = new FlatState(new HashMapDB<>(), 3);
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null, flatState);
+        for (int block = 1; block <= 10; block++) {
+            Repository track = repository.startTracking();
+            for (int i = 0; i < 10; i++) {
+                track.addBalance(addr((block + i) % 16), BigInteger.valueOf(block));
+                track.addStorageRow(addr(i), word(block % 4), word(block * 100 + i));
+            }
+            track.addStorageRow(addr(1), word((block + 1) % 4), DataWord.ZERO);
+            track.commit();
+            repository.commit();
+
+            checkState(stateDS, flatState, repository.getRoot(), 16);
+        }
+
+        // older layers are merged into the disk one
+        assertEquals(4, flatState.getLayersCount());
+    }
+
+    @Test
+    public void testDeleteRecreate() {
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        FlatState flatState = new FlatState(new HashMapDB<>(), 1);
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null, flatState);
+        repository.addBalance(addr(1), BigInteger.TEN);
+        repository.addStorageRow(addr(1), word(1), word(1));
+        repository.addStorageRow(addr(1), word(2), word(2));
+        repository.commit();
+        checkState(stateDS, flatState, repository.getRoot(), 2);
+
+        Repository track = repository.startTracking();
+        track.delete(addr(1));
+        track.commit();
+        repository.commit();
+        checkState(stateDS, flatState, repository.getRoot(), 2);
+
+        track = repository.startTracking();
+        track.addBalance(addr(1), BigInteger.ONE);
+        track.addStorageRow(addr(1), word(3), word(3));
+        track.commit();
+        repository.commit();
+        checkState(stateDS, flatState, repository.getRoot(), 2);
+
+        // more blocks to push the above changes to disk
+        for (int i = 0; i < 3; i++) {
+            repository.addBalance(addr(0), BigInteger.ONE);
+            repository.commit();
+        }
+
+        byte[] root = repository.getRoot();
+        checkState(stateDS, flatState, root, 2);
+        Repository flat = new RepositoryRoot(stateDS, root, flatState);
+        assertNull(flat.getStorageValue(addr(1), word(1)));
+        assertNull(flat.getStorageValue(addr(1), word(2)));
+        assertEquals(word(3), flat.getStorageValue(addr(1), word(3)));
+    }
+
+    @Test
+    public void testDeleteRecreateSameCommit() {
+        // keeping all the states
+        Source<byte[], byte[]> stateDS = new NoDeleteSource<>(new HashMapDB<byte[]>());
+        FlatState flatState = new FlatState(new HashMapDB<>(), 1);
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null, flatState);
+        repository.addBalance(addr(1), BigInteger.TEN);
+        repository.addStorageRow(addr(1), word(1), word(1));
+        repository.addStorageRow(addr(2), word(1), word(1));
+        repository.commit();
+
+        // deleted and recreated in a child repository
+        Repository track = repository.startTracking();
+        track.delete(addr(1));
+        track.addBalance(addr(1), BigInteger.ONE);
+        track.addStorageRow(addr(1), word(2), word(2));
+        track.commit();
+        // and in the root one
+        repository.delete(addr(2));
+        repository.addStorageRow(addr(2), word(3), word(3));
+        repository.commit();
+        byte[] root = repository.getRoot();
+        checkState(stateDS, flatState, root, 3);
+
+        // pushing the above changes to disk
+        repository.addBalance(addr(0), BigInteger.ONE);
+        repository.commit();
+        assertTrue(flatState.getLayer(root) instanceof FlatState.DiskLayer);
+
+        checkState(stateDS, flatState, root, 3);
+        Repository flat = new RepositoryRoot(stateDS, root, flatState);
+        assertNull(flat.getStorageValue(addr(1), word(1)));
+        assertEquals(word(2), flat.getStorageValue(addr(1), word(2)));
+        assertNull(flat.getStorageValue(addr(2), word(1)));
+        assertEquals(word(3), flat.getStorageValue(addr(2), word(3)));
+    }
+
+    @Test
+    public void testVerifyExtraEntries() {
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null);
+        repository.addBalance(addr(1), BigInteger.TEN);
+        repository.addStorageRow(addr(1), word(1), word(1));
+        repository.commit();
+        byte[] root = repository.getRoot();
+
+        HashMapDB<byte[]> flatDB = new HashMapDB<>();
+        FlatState flatState = new FlatState(flatDB, 8);
+        flatState.generate(stateDS, root);
+        assertEquals(0, flatState.verify(stateDS, root));
+
+        byte[] account = new AccountState(BigInteger.ZERO, BigInteger.ONE).getEncoded();
+        flatDB.put(sha3(addr(2)), FlatState.accountEntry(0, account));
+        flatDB.put(FlatState.storageKey(sha3(addr(1)), 0, sha3(word(2).getData())), word(2).getData());
+        assertEquals(2, flatState.verify(stateDS, root));
+    }
+
+    @Test
+    public void testJournal() {
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        HashMapDB<byte[]> flatDB = new HashMapDB<>();
+        FlatState flatState = new FlatState(flatDB, 3);
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null, flatState);
+        for (int block = 1; block <= 5; block++) {
+            repository.addBalance(addr(block), BigInteger.valueOf(block));
+            repository.addStorageRow(addr(1), word(block % 4), word(block));
+            repository.commit();
+        }
+        byte[] root = repository.getRoot();
+        flatState.journal();
+
+        FlatState reloaded = new FlatState(flatDB, 3);
+        assertEquals(flatState.getLayersCount(), reloaded.getLayersCount());
+        checkState(stateDS, reloaded, root, 6);
+
+        // the journal is consumed on load
+        assertEquals(1, new FlatState(flatDB, 3).getLayersCount());
+    }
+
+    @Test
+    public void testForks() {
+        // keeping all the states
+        Source<byte[], byte[]> stateDS = new NoDeleteSource<>(new HashMapDB<byte[]>());
+        FlatState flatState = new FlatState(new HashMapDB<>(), 2);
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null, flatState);
+        repository.addBalance(addr(1), BigInteger.TEN);
+        repository.commit();
+        byte[] forkRoot = repository.getRoot();
+
+        Repository fork = repository.getSnapshotTo(forkRoot);
+        fork.addBalance(addr(1), BigInteger.ONE);
+        fork.addStorageRow(addr(2), word(1), word(1));
+        fork.commit();
+        byte[] forkRoot1 = fork.getRoot();
+        checkState(stateDS, flatState, forkRoot1, 3);
+
+        Repository main = repository.getSnapshotTo(forkRoot);
+        main.addBalance(addr(1), BigInteger.valueOf(2));
+        main.commit();
+        checkState(stateDS, flatState, main.getRoot(), 3);
+        checkState(stateDS, flatState, forkRoot1, 3);
+
+        // fork is dropped once main chain is flattened
+        Repository forkReader = repository.getSnapshotTo(forkRoot1);
+        for (int i = 0; i < 3; i++) {
+            main.addBalance(addr(0), BigInteger.ONE);
+            main.commit();
+        }
+        assertNull(flatState.getLayer(forkRoot1));
+        assertNull(flatState.getLayer(forkRoot));
+        checkState(stateDS, flatState, main.getRoot(), 3);
+
+        // stale layer is read through the trie
+        assertEquals(BigInteger.valueOf(11), forkReader.getBalance(addr(1)));
+        assertEquals(word(1), forkReader.getStorageValue(addr(2), word(1)));
+    }
+
+    @Test
+    public void testGenerate() {
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null);
+        for (int i = 0; i < 16; i++) {
+            repository.addBalance(addr(i), BigInteger.valueOf(i + 1));
+            for (int j = 0; j < i % 4; j++) {
+                repository.addStorageRow(addr(i), word(j), word(i * j + 1));
+            }
+        }
+        repository.commit();
+        byte[] root = repository.getRoot();
+
+        HashMapDB<byte[]> flatDB = new HashMapDB<>();
+        FlatState flatState = new FlatState(flatDB, 8);
+        assertEquals(-1, flatState.verify(stateDS, root));
+        flatState.generate(stateDS, root);
+        checkState(stateDS, flatState, root, 16);
+
+        // regenerated index doesn't see the previous one
+        flatState.generate(stateDS, EMPTY_TRIE_HASH);
+        assertNull(flatState.getLayer(root));
+        assertNull(flatState.getLayer(EMPTY_TRIE_HASH).getAccount(sha3(addr(1))));
+        assertEquals(1, flatDB.keys().size());
+        flatState.generate(stateDS, root);
+
+        // reloaded from DB
+        FlatState reloaded = new FlatState(flatDB, 8);
+        checkState(stateDS, reloaded, root, 16);
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void concurrentReadBenchmark() throws Exception {
+        final int accounts = 50_000;
+        HashMapDB<byte[]> stateDS = new HashMapDB<>();
+        RepositoryRoot repository = new RepositoryRoot(stateDS, null);
+        for (int i = 0; i < accounts; i++) {
+            repository.addBalance(sha3omit12(intToBytes(i)), BigInteger.valueOf(i + 1));
+            repository.addStorageRow(sha3omit12(intToBytes(i)), word(1), word(i + 1));
+            if (i % 1000 == 999) repository.commit();
+        }
+        repository.commit();
+        byte[] root = repository.getRoot();
+
+        FlatState flatState = new FlatState(new HashMapDB<>(), 8);
+        flatState.generate(stateDS, root);
+        RepositoryRoot flatRepository = new RepositoryRoot(stateDS, root, flatState);
+
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() * 2; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                // all the threads miss the caches of the same committed snapshot
+                final Repository snapshot = flatRepository.getSnapshotTo(root);
+                final AtomicInteger next = new AtomicInteger();
+                List<Thread> readers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    readers.add(new Thread(() -> {
+                        for (int i = next.getAndIncrement(); i < accounts; i = next.getAndIncrement()) {
+                            byte[] address = sha3omit12(intToBytes(i));
+                            if (snapshot.getBalance(address).signum() == 0 || snapshot.getStorageValue(address, word(1)) == null) {
+                                throw new RuntimeException("Missing account " + i);
+                            }
+                        }
+                    }));
+                }
+                long s = System.nanoTime();
+                for (Thread reader : readers) reader.start();
+                for (Thread reader : readers) reader.join();
+                best = Math.min(best, System.nanoTime() - s);
+            }
+            System.out.printf("threads: %d, reads: %d/s%n", threads, accounts * 2 * 1_000_000_000L / best);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.manager;
+
+import org.ethereum.config.blockchain.DaoNoHFConfig;
+import org.ethereum.config.blockchain.HomesteadConfig;
+import org.ethereum.core.Block;
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockchainImpl;
+import org.ethereum.core.BlockSummary;
+import org.ethereum.core.TransactionReceipt;
+import org.ethereum.datasource.inmem.HashMapDB;
+import org.ethereum.listener.BlockReplay;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.util.blockchain.StandaloneBlockchain;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_LIST_HASH;
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class BlockReplayEngineTest {
+
+    private static BlockSummary block(int number) {
+        BlockHeader header = new BlockHeader(new byte[32], EMPTY_LIST_HASH, new byte[20], new byte[256],
+                intToBytes(1), number, intToBytes(1_000_000), number * 10, number, new byte[0], new byte[32], new byte[8]);
+        header.setTransactionsRoot(EMPTY_TRIE_HASH);
+        header.setReceiptsRoot(EMPTY_TRIE_HASH);
+        header.setStateRoot(EMPTY_TRIE_HASH);
+        return new BlockSummary(new Block(header, Collections.emptyList(), Collections.emptyList()), null, null, null);
+    }
+
+    private static List<Long> run(BlockReplayEngine engine, int from, int to) {
+        List<Long> executed = new ArrayList<>();
+        engine.run(IntStream.range(from, to).iterator(), BlockReplayEngineTest::block,
+                s -> executed.add(s.getBlock().getNumber()));
+        return executed;
+    }
+
+    @Test
+    public void testOrder() {
+        Random rnd = new Random(1);
+        List<Long> executed = new ArrayList<>();
+        BlockReplayEngine.Stats stats = new BlockReplayEngine(4, 16).run(IntStream.range(0, 500).iterator(), i -> {
+            // decoding takes random time so blocks are decoded out of order
+            long sleep = rnd.nextInt(200_000);
+            long s = System.nanoTime();
+            while (System.nanoTime() - s < sleep) Thread.yield();
+            return i % 7 == 3 ? null : block(i);
+        }, s -> executed.add(s.getBlock().getNumber()));
+
+        long gas = 0;
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 500; i++) {
+            if (i % 7 != 3) {
+                expected.add(i);
+                gas += i * 10;
+            }
+        }
+        assertEquals(expected, executed);
+        assertEquals(expected.size(), stats.getBlocks());
+        assertEquals(500 - expected.size(), stats.getSkipped());
+        assertEquals(gas, stats.getGas());
+        assertEquals(499, stats.getLastBlock());
+        assertTrue(stats.getBlocksPerSec() > 0);
+    }
+
+    @Test
+    public void testCheckpoint() {
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        BlockReplayEngine engine = new BlockReplayEngine(2, 8).withCheckpoint(db, "test").withCheckpointInterval(10);
+        assertEquals(-1, engine.getCheckpoint());
+
+        try {
+            engine.run(IntStream.range(0, 100).iterator(), BlockReplayEngineTest::block, s -> {
+                if (s.getBlock().getNumber() == 55) throw new IllegalStateException("Test failure");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // blocks executed before the failure are checkpointed
+        }
+        assertEquals(54, engine.getCheckpoint());
+
+        // resumed from the same source
+        engine = new BlockReplayEngine(2, 8).withCheckpoint(db, "test");
+        List<Long> executed = run(engine, 0, 80);
+        assertEquals(25, executed.size());
+        assertEquals(55L, (long) executed.get(0));
+        assertEquals(79, engine.getCheckpoint());
+
+        // checkpoints are named
+        assertEquals(80, run(new BlockReplayEngine(2, 8).withCheckpoint(db, "other"), 0, 80).size());
+    }
+
+    @Test
+    public void testDecoderFailure() {
+        BlockReplayEngine engine = new BlockReplayEngine(2, 8);
+        List<Long> executed = new ArrayList<>();
+        try {
+            engine.run(IntStream.range(0, 100).iterator(), i -> {
+                if (i == 20) throw new IllegalArgumentException("Bad block");
+                return block(i);
+            }, s -> executed.add(s.getBlock().getNumber()));
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertEquals(20, executed.size());
+    }
+
+    @Test
+    public void testBlockReplay() {
+        checkReplay(new StandaloneBlockchain());
+    }
+
+    @Test
+    public void testBlockReplayPreByzantium() {
+        // receipts keep the intermediate state roots
+        checkReplay(new StandaloneBlockchain().withNetConfig(new DaoNoHFConfig(new HomesteadConfig(
+                new HomesteadConfig.HomesteadConstants() {
+                    @Override
+                    public BigInteger getMINIMUM_DIFFICULTY() {
+                        return BigInteger.ONE;
+                    }
+                }), 0)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadOnlyExecutionNeedsRoot() {
+        StandaloneBlockchain bc = new StandaloneBlockchain();
+        Block block = bc.createBlock();
+        new BlockchainImpl(bc.getBlockchain().getBlockStore(), bc.getBlockchain().getRepository().startTracking())
+                .executeBlockReadOnly(block, new EthereumListenerAdapter());
+    }
+
+    private void checkReplay(StandaloneBlockchain bc) {
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j <= i % 3; j++) {
+                bc.sendEther(new byte[20], BigInteger.valueOf(100 + i));
+            }
+            bc.createBlock();
+        }
+
+        List<BlockSummary> stored = new ArrayList<>();
+        new BlockReplay(bc.getBlockchain().getBlockStore(), bc.getBlockchain().getTransactionStore(),
+                new EthereumListenerAdapter() {
+                    @Override
+                    public void onBlock(BlockSummary blockSummary) {
+                        stored.add(blockSummary);
+                    }
+                }, 1).replay();
+
+        // re-execution produces the same receipts
+        AdminInfo adminInfo = new AdminInfo();
+        bc.getBlockchain().withAdminInfo(adminInfo);
+        List<BlockSummary> executed = new ArrayList<>();
+        HashMapDB<byte[]> db = new HashMapDB<>();
+        new BlockReplay(bc.getBlockchain().getBlockStore(), bc.getBlockchain().getTransactionStore(),
+                new EthereumListenerAdapter() {
+                    @Override
+                    public void onBlock(BlockSummary blockSummary) {
+                        executed.add(blockSummary);
+                    }
+                }, 1).withExecution(bc.getBlockchain()).withCheckpoint(db, "replay").replay();
+
+        assertEquals(10, stored.size());
+        assertEquals(10, executed.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, stored.get(i).getBlock().getNumber());
+            assertArrayEquals(stored.get(i).getBlock().getHash(), executed.get(i).getBlock().getHash());
+            List<TransactionReceipt> expected = stored.get(i).getReceipts();
+            List<TransactionReceipt> actual = executed.get(i).getReceipts();
+            assertEquals(i % 3 + 1, expected.size());
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertArrayEquals(expected.get(j).getEncoded(), actual.get(j).getEncoded());
+            }
+        }
+        // the state is not committed
+        assertArrayEquals(bc.getBlockchain().getBestBlock().getStateRoot(), bc.getBlockchain().getRepository().getRoot());
+        // nor replayed blocks are counted in the import stats
+        assertTrue(adminInfo.getBlockExecTime().isEmpty());
+
+        // nothing left to replay after the checkpoint
+        executed.clear();
+        new BlockReplay(bc.getBlockchain().getBlockStore(), bc.getBlockchain().getTransactionStore(),
+                new EthereumListenerAdapter() {
+                    @Override
+                    public void onBlock(BlockSummary blockSummary) {
+                        executed.add(blockSummary);
+                    }
+                }, 1).withExecution(bc.getBlockchain()).withCheckpoint(db, "replay").replay();
+        assertTrue(executed.isEmpty());
+    }
+}
@@ -27,9 +27,15 @@ import org.ethereum.util.blockchain.StandaloneBlockchain;
 import org.junit.*;
 import org.spongycastle.util.encoders.Hex;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static org.ethereum.crypto.HashUtil.sha3;
@@ -139,6 +145,59 @@ public class EthashTest {
         System.out.println(Hex.toHexString(pair.getRight()));
     }
 
+    @Test
+    public void mappedDatasetTest() throws Exception {
+        EthashAlgo ethash = new EthashAlgo();
+        int[] cache = ethash.makeCache(64 * 64, ethash.getSeedHash(0));
+        long fullSize = 128 * 256;
+        int[] heapDataset = ethash.calcDataset(fullSize, cache);
+
+        File file = new File(Files.createTempDirectory("ethash").toFile(), "mine-dag.dat");
+        try {
+            EthashDataset created = EthashDataset.create(file, 0, fullSize / 4);
+            ethash.calcDataset(fullSize, cache, created);
+            created.complete();
+
+            Assert.assertNull(EthashDataset.open(file, 30000));
+            EthashDataset mapped = EthashDataset.open(file, 0);
+            Assert.assertTrue(mapped.isMapped());
+            Assert.assertArrayEquals(heapDataset, mapped.toArray());
+
+            byte[] blockHash = sha3(new byte[] {1});
+            for (long nonce = 0; nonce < 10; nonce++) {
+                Pair<byte[], byte[]> light = ethash.hashimotoLight(fullSize, cache, blockHash, longToBytes(nonce));
+                Pair<byte[], byte[]> full = ethash.hashimotoFull(fullSize, mapped, blockHash, longToBytes(nonce));
+                Assert.assertArrayEquals(light.getLeft(), full.getLeft());
+                Assert.assertArrayEquals(light.getRight(), full.getRight());
+                Assert.assertArrayEquals(light.getRight(),
+                        ethash.hashimotoFull(fullSize, heapDataset, blockHash, longToBytes(nonce)).getRight());
+            }
+        } finally {
+            file.delete();
+            file.getParentFile().delete();
+        }
+    }
+
+    @Test
+    public void parallelDatasetTest() throws Exception {
+        EthashAlgo ethash = new EthashAlgo();
+        int[] cache = ethash.makeCache(64 * 64, ethash.getSeedHash(0));
+        // a few parallel tasks with the last one partial
+        long fullSize = 40_000 * 64;
+        int[] expected = ethash.calcDataset(fullSize, cache);
+
+        int[] words = new int[expected.length];
+        List<Integer> progress = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            ethash.calcDataset(fullSize, cache, EthashDataset.wrap(words), executor, progress::add);
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertArrayEquals(expected, words);
+        Assert.assertEquals(100, (int) progress.get(progress.size() - 1));
+    }
+
     @Test
     public void realBlockValidateTest1() {
         byte[] rlp = Hex.decode("f9021af90215a0809870664d9a43cf1827aa515de6374e2fad1bf64290a9f261dd49c525d6a0efa01dcc4de8dec75d7aab85b567b6ccd41ad312451b948a7413f0a142fd40d4934794f927a40c8b7f6e07c5af7fa2155b4864a4112b13a010c8ec4f62ecea600c616443bcf527d97e5b1c5bb4a9769c496d1bf32636c95da056e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421a056e81f171bcc55a6ff8345e692c0f86e5b48e01b996cadc001622fb5e363b421b901000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000000086015a1c28ae5e82bf958302472c808455c4e47b99476574682f76312e302e312f6c696e75782f676f312e342e32a0788ac534cb2f6a226a01535e29b11a96602d447aed972463b5cbcc7dd5d633f288e2ff1b6435006517c0c0");
@@ -279,6 +338,42 @@ public class EthashTest {
         Assert.assertTrue(validate);
     }
 
+    /**
+     * Light verification throughput: hashimoto over the epoch 0 cache
+     * running on all the cores, each thread reuses its own scratch buffers
+     */
+    @Test
+    @Ignore
+    public void lightVerifyBenchmark() throws Exception {
+        EthashAlgo ethashAlgo = new EthashAlgo();
+        long fullSize = ethashAlgo.getParams().getFullSize(0);
+        int[] cache = ethashAlgo.makeCache(ethashAlgo.getParams().getCacheSize(0), ethashAlgo.getSeedHash(0));
+        byte[] headerHash = sha3(new byte[] {1});
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 5; round++) {
+                final int count = 200;
+                long s = System.nanoTime();
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    final long startNonce = t * count;
+                    futures.add(executor.submit(() -> {
+                        for (long nonce = startNonce; nonce < startNonce + count; nonce++) {
+                            ethashAlgo.hashimotoLight(fullSize, cache, headerHash, longToBytes(nonce));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) future.get();
+                double sec = (System.nanoTime() - s) / 1e9;
+                System.out.printf("%d threads: %.1f hashes/s, %.1f hashes/s per core%n", threads,
+                        threads * count / sec, count / sec);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     @Ignore
     public void fullDagTime() {
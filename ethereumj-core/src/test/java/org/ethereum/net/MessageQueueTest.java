@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net;
+
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.ethereum.config.SystemProperties;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.net.eth.message.BlockHeadersMessage;
+import org.ethereum.net.eth.message.GetBlockHeadersMessage;
+import org.ethereum.net.eth.message.NewBlockHashesMessage;
+import org.ethereum.net.server.Channel;
+import org.ethereum.net.server.PeerStatistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MessageQueueTest {
+
+    private EmbeddedChannel nettyChannel;
+    private MessageQueue queue;
+
+    @Before
+    public void setUp() {
+        SystemProperties config = new SystemProperties();
+        config.overrideParams("peer.maxInFlightRequests", "2");
+
+        Channel channel = Mockito.mock(Channel.class);
+        Mockito.when(channel.getPeerStats()).thenReturn(new PeerStatistics());
+
+        queue = new MessageQueue();
+        queue.ethereumListener = new EthereumListenerAdapter();
+        queue.config = config;
+        queue.setChannel(channel);
+
+        nettyChannel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+    }
+
+    @Test
+    public void testFlushOnEnqueue() {
+        // nothing is written before activation
+        queue.sendMessage(new NewBlockHashesMessage(Collections.emptyList()));
+        assertNull(nettyChannel.readOutbound());
+
+        queue.activate(nettyChannel.pipeline().firstContext());
+        assertTrue(nettyChannel.readOutbound() instanceof NewBlockHashesMessage);
+
+        // responses are written right away
+        for (int i = 0; i < 3; i++) {
+            queue.sendMessage(new NewBlockHashesMessage(Collections.emptyList()));
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue(nettyChannel.readOutbound() instanceof NewBlockHashesMessage);
+        }
+        assertNull(nettyChannel.readOutbound());
+    }
+
+    @Test
+    public void testRequestWindow() throws InterruptedException {
+        queue.activate(nettyChannel.pipeline().firstContext());
+
+        for (int i = 1; i <= 4; i++) {
+            queue.sendMessage(new GetBlockHeadersMessage(i, 1));
+        }
+
+        // only 2 requests are in flight
+        assertEquals(1, ((GetBlockHeadersMessage) nettyChannel.readOutbound()).getBlockNumber());
+        assertEquals(2, ((GetBlockHeadersMessage) nettyChannel.readOutbound()).getBlockNumber());
+        assertNull(nettyChannel.readOutbound());
+
+        // unrelated message doesn't free the slot
+        queue.receivedMessage(new NewBlockHashesMessage(Collections.emptyList()));
+        assertNull(nettyChannel.readOutbound());
+
+        // answer arrival sends the next request
+        queue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        assertEquals(3, ((GetBlockHeadersMessage) nettyChannel.readOutbound()).getBlockNumber());
+        assertNull(nettyChannel.readOutbound());
+
+        queue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        queue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        assertEquals(4, ((GetBlockHeadersMessage) nettyChannel.readOutbound()).getBlockNumber());
+        assertNull(nettyChannel.readOutbound());
+    }
+
+    @Test
+    public void testTimeoutCancelled() throws InterruptedException {
+        queue.activate(nettyChannel.pipeline().firstContext());
+
+        queue.sendMessage(new GetBlockHeadersMessage(1, 1));
+        queue.sendMessage(new GetBlockHeadersMessage(2, 1));
+        assertTrue(nettyChannel.runScheduledPendingTasks() > 0);
+
+        // answered request doesn't keep its timeout task
+        queue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        queue.receivedMessage(new BlockHeadersMessage(Collections.emptyList()));
+        assertEquals(-1, nettyChannel.runScheduledPendingTasks());
+
+        // nor does an unanswered one after close
+        queue.sendMessage(new GetBlockHeadersMessage(3, 1));
+        assertTrue(nettyChannel.runScheduledPendingTasks() > 0);
+        queue.close();
+        assertEquals(-1, nettyChannel.runScheduledPendingTasks());
+    }
+
+    @Test
+    public void testClose() {
+        queue.activate(nettyChannel.pipeline().firstContext());
+        queue.close();
+
+        queue.sendMessage(new GetBlockHeadersMessage(1, 1));
+        queue.sendMessage(new NewBlockHashesMessage(Collections.emptyList()));
+        assertNull(nettyChannel.readOutbound());
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.net.rlpx.discover.NodeStatistics;
+import org.ethereum.net.server.Channel;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FrameCodecTest {
+
+    private FrameCodec[] codecPair() throws Exception {
+        ECKey remoteKey = new ECKey();
+        ECKey myKey = new ECKey();
+        EncryptionHandshake initiator = new EncryptionHandshake(remoteKey.getPubKeyPoint());
+        EncryptionHandshake responder = new EncryptionHandshake();
+        AuthInitiateMessage initiate = initiator.createAuthInitiate(null, myKey);
+        byte[] initiatePacket = initiator.encryptAuthMessage(initiate);
+        byte[] responsePacket = responder.handleAuthInitiate(initiatePacket, remoteKey);
+        initiator.handleAuthResponse(myKey, initiatePacket, responsePacket);
+        return new FrameCodec[] {new FrameCodec(initiator.getSecrets()), new FrameCodec(responder.getSecrets())};
+    }
+
+    private static Channel mockChannel() {
+        Channel channel = mock(Channel.class);
+        when(channel.getNodeStatistics()).thenReturn(new NodeStatistics(new Node(new byte[0], "", 0)));
+        return channel;
+    }
+
+    private static byte[] randomBytes(Random rnd, int size) {
+        byte[] bytes = new byte[size];
+        rnd.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] payload(FrameCodec.Frame frame) throws Exception {
+        ByteBuf buf = frame.getPayload();
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testFragmentedRead() throws Exception {
+        FrameCodec[] codecs = codecPair();
+        Random rnd = new Random(1);
+        int[] sizes = {0, 1, 15, 16, 17, 100, 16 * 1024 - 1, 16 * 1024, 16 * 1024 + 1, 1024 * 1024};
+
+        ByteBuf wire = PooledByteBufAllocator.DEFAULT.directBuffer();
+        byte[][] payloads = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            payloads[i] = randomBytes(rnd, sizes[i]);
+            codecs[0].writeFrame(new FrameCodec.Frame(i + 0x10, payloads[i]), wire);
+        }
+
+        // feeding the wire bytes by random pieces as they come from socket
+        CompositeByteBuf in = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        int frameIdx = 0;
+        while (wire.isReadable() || frameIdx < sizes.length) {
+            int n = Math.min(wire.readableBytes(), 1 + rnd.nextInt(64 * 1024));
+            if (n > 0) {
+                in.addComponent(wire.readSlice(n).retain());
+                in.writerIndex(in.writerIndex() + n);
+            }
+            while (true) {
+                List<FrameCodec.Frame> frames = codecs[1].readFrames(in);
+                if (frames == null) break;
+                FrameCodec.Frame frame = frames.get(0);
+                assertEquals(frameIdx + 0x10, (int) frame.getType());
+                assertEquals(sizes[frameIdx], frame.getSize());
+                assertArrayEquals(payloads[frameIdx], payload(frame));
+                assertTrue(frame.release());
+                frameIdx++;
+            }
+            in.discardReadComponents();
+        }
+        assertEquals(sizes.length, frameIdx);
+        in.release();
+        wire.release();
+    }
+
+    @Test
+    public void testSnappyPipeline() throws Exception {
+        FrameCodec[] codecs = codecPair();
+        Channel channel = mockChannel();
+        EmbeddedChannel sender = new EmbeddedChannel(new FrameCodecHandler(codecs[0], channel), new SnappyCodec(channel));
+        EmbeddedChannel receiver = new EmbeddedChannel(new FrameCodecHandler(codecs[1], channel), new SnappyCodec(channel));
+
+        Random rnd = new Random(2);
+        for (int size : new int[] {0, 10, 100_000, 3 * 1024 * 1024}) {
+            // compressible payload
+            byte[] payload = new byte[size];
+            for (int i = 0; i < size; i += 64) payload[i] = (byte) rnd.nextInt();
+
+            sender.writeOutbound(new FrameCodec.Frame(0x11, payload));
+            ByteBuf out;
+            while ((out = (ByteBuf) sender.readOutbound()) != null) {
+                receiver.writeInbound(out);
+            }
+
+            FrameCodec.Frame frame = (FrameCodec.Frame) receiver.readInbound();
+            assertEquals(0x11, (int) frame.getType());
+            assertArrayEquals(payload, payload(frame));
+            frame.release();
+            assertNull(receiver.readInbound());
+        }
+        assertFalse(sender.finish());
+        assertFalse(receiver.finish());
+    }
+
+    /**
+     * Measures frame throughput between two in-process channels
+     * running RLPx framing and Snappy compression
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void loopbackBenchmark() throws Exception {
+        final int frameSize = 256 * 1024;
+        final int frames = 4000;
+
+        FrameCodec[] codecs = codecPair();
+        Channel channel = mockChannel();
+        LocalAddress address = new LocalAddress("FrameCodecTest");
+        EventLoopGroup group = new LocalEventLoopGroup(2);
+
+        CountDownLatch received = new CountDownLatch(frames);
+        AtomicLong receivedBytes = new AtomicLong();
+        try {
+            new ServerBootstrap().group(group).channel(LocalServerChannel.class)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .childHandler(new ChannelInitializer<LocalChannel>() {
+                        @Override
+                        protected void initChannel(LocalChannel ch) throws Exception {
+                            ch.pipeline().addLast(new FrameCodecHandler(codecs[1], channel), new SnappyCodec(channel),
+                                    new SimpleChannelInboundHandler<FrameCodec.Frame>() {
+                                        @Override
+                                        protected void channelRead0(ChannelHandlerContext ctx, FrameCodec.Frame msg) {
+                                            receivedBytes.addAndGet(msg.getSize());
+                                            received.countDown();
+                                        }
+                                    });
+                        }
+                    }).bind(address).sync();
+
+            io.netty.channel.Channel client = new Bootstrap().group(group).channel(LocalChannel.class)
+                    .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                    .handler(new ChannelInitializer<LocalChannel>() {
+                        @Override
+                        protected void initChannel(LocalChannel ch) throws Exception {
+                            ch.pipeline().addLast(new FrameCodecHandler(codecs[0], channel), new SnappyCodec(channel));
+                        }
+                    }).connect(address).sync().channel();
+
+            Random rnd = new Random(3);
+            byte[] payload = new byte[frameSize];
+            for (int i = 0; i < frameSize; i += 4) payload[i] = (byte) rnd.nextInt();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                ChannelFuture future = client.writeAndFlush(new FrameCodec.Frame(0x11, payload));
+                if (i % 64 == 0) future.sync();
+            }
+            assertTrue(received.await(5, TimeUnit.MINUTES));
+            long time = System.nanoTime() - start;
+
+            System.out.printf("%d frames, %d MB in %d ms: %.1f MB/s%n", frames, receivedBytes.get() >> 20,
+                    time / 1_000_000, receivedBytes.get() / 1024d / 1024d / (time / 1e9));
+            client.close().sync();
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+}
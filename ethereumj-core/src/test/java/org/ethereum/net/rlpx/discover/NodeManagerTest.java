@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.rlpx.discover;
+
+import org.ethereum.config.SystemProperties;
+import org.ethereum.crypto.ECKey;
+import org.ethereum.listener.EthereumListenerAdapter;
+import org.ethereum.net.rlpx.Node;
+import org.ethereum.net.rlpx.PongMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NodeManagerTest {
+
+    private NodeManager nodeManager;
+
+    @Before
+    public void setup() {
+        SystemProperties config = new SystemProperties();
+        config.overrideParams("peer.discovery.persist", "false");
+        config.overrideParams("peer.discovery.external.ip", "127.0.0.1");
+        nodeManager = new NodeManager(config, new EthereumListenerAdapter(), null, null);
+    }
+
+    @After
+    public void tearDown() {
+        nodeManager.close();
+    }
+
+    private static List<Node> createNodes(int count) {
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(new ECKey().getNodeId(), "10.0." + (i >> 8) + "." + (i & 0xFF), 30303));
+        }
+        return nodes;
+    }
+
+    @Test
+    public void testConcurrentNodeHandlers() throws Exception {
+        List<Node> nodes = createNodes(500);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<NodeHandler>>> results = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    List<NodeHandler> ret = new ArrayList<>();
+                    for (Node node : nodes) {
+                        ret.add(nodeManager.getNodeHandler(node));
+                    }
+                    return ret;
+                }));
+            }
+            start.countDown();
+
+            List<NodeHandler> first = results.get(0).get(1, TimeUnit.MINUTES);
+            for (Future<List<NodeHandler>> result : results) {
+                List<NodeHandler> handlers = result.get(1, TimeUnit.MINUTES);
+                for (int i = 0; i < nodes.size(); i++) {
+                    assertSame(first.get(i), handlers.get(i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(nodes.size(), nodeManager.getNodes(0).size());
+        Map<NodeHandler, Boolean> unique = new IdentityHashMap<>();
+        for (NodeHandler handler : nodeManager.getNodes(0)) {
+            unique.put(handler, true);
+        }
+        assertEquals(nodes.size(), unique.size());
+        for (Node node : nodes) {
+            assertTrue(nodeManager.hasNodeHandler(node));
+        }
+    }
+
+    @Test
+    public void testGetNodesRanking() {
+        List<Node> nodes = createNodes(100);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodeManager.getNodeHandler(nodes.get(i)).getNodeStatistics()
+                    .setEthTotalDifficulty(BigInteger.valueOf((i * 37) % nodes.size()));
+        }
+        nodeManager.refreshRanking();
+
+        List<NodeHandler> top = nodeManager.getNodes(handler -> true, 10);
+        assertEquals(10, top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(BigInteger.valueOf(nodes.size() - 1 - i),
+                    top.get(i).getNodeStatistics().getEthTotalDifficulty());
+        }
+
+        List<NodeHandler> even = nodeManager.getNodes(
+                handler -> handler.getNodeStatistics().getEthTotalDifficulty().intValue() % 2 == 0, 1000);
+        assertEquals(nodes.size() / 2, even.size());
+        assertEquals(BigInteger.valueOf(nodes.size() - 2), even.get(0).getNodeStatistics().getEthTotalDifficulty());
+    }
+
+    /**
+     * Floods the node manager with discovery packets from several threads
+     * while peer selection keeps querying the nodes
+     */
+    @Ignore("Benchmark")
+    @Test
+    public void discoveryFloodBenchmark() throws Exception {
+        final int senders = 2000;
+        final int threads = 8;
+        final long duration = 10_000;
+
+        // packets are decoded beforehand, node ids are recovered once
+        ECKey key = new ECKey();
+        List<DiscoveryEvent> events = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            ECKey senderKey = new ECKey();
+            Node node = new Node(senderKey.getNodeId(), "10.1." + (i >> 8) + "." + (i & 0xFF), 30303);
+            PongMessage pong = PongMessage.create(key.getNodeId(), node, senderKey);
+            pong.getNodeId();
+            events.add(new DiscoveryEvent(pong, new InetSocketAddress(node.getHost(), node.getPort())));
+        }
+        for (DiscoveryEvent event : events) {
+            nodeManager.handleInbound(event);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong packets = new AtomicLong();
+        AtomicLong queries = new AtomicLong();
+        try {
+            for (int t = 0; t < threads; t++) {
+                final int offset = t * senders / threads;
+                executor.submit(() -> {
+                    long cnt = 0;
+                    for (int i = offset; !stop.get(); i++, cnt++) {
+                        nodeManager.handleInbound(events.get(i % senders));
+                    }
+                    packets.addAndGet(cnt);
+                });
+            }
+            executor.submit(() -> {
+                while (!stop.get()) {
+                    nodeManager.getNodes(handler -> handler.getState() == NodeHandler.State.Alive, 30);
+                    queries.incrementAndGet();
+                }
+            });
+
+            Thread.sleep(duration);
+            stop.set(true);
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        System.out.printf("%d threads: %.0f packets/s, %.0f node queries/s%n", threads,
+                packets.get() * 1000d / duration, queries.get() * 1000d / duration);
+    }
+}
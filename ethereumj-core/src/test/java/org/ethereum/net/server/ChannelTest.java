@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.ethereum.core.Transaction;
+import org.ethereum.net.eth.handler.EthAdapter;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class ChannelTest {
+
+    private static List<Transaction> createTxs(int from, int count, int dataSize) {
+        List<Transaction> ret = new ArrayList<>();
+        for (int i = from; i < from + count; i++) {
+            ret.add(new Transaction(intToBytes(i), intToBytes(1), intToBytes(21000), new byte[20],
+                    intToBytes(1), new byte[dataSize]));
+        }
+        return ret;
+    }
+
+    @Test
+    public void testTxQueue() {
+        List<List<Transaction>> sent = new ArrayList<>();
+        Channel channel = new Channel();
+        ReflectionTestUtils.setField(channel, "eth", new EthAdapter() {
+            @Override
+            public void sendTransaction(List<Transaction> tx) {
+                sent.add(tx);
+            }
+        });
+
+        // txs received from the peer are not sent back
+        List<Transaction> received = createTxs(0, 10, 0);
+        for (Transaction tx : received) {
+            assertTrue(channel.markTransactionKnown(tx));
+        }
+        assertFalse(channel.markTransactionKnown(received.get(0)));
+        assertEquals(10, channel.enqueueTransactions(received));
+        assertEquals(0, channel.flushTransactions());
+        assertTrue(sent.isEmpty());
+
+        // batches are capped by size
+        List<Transaction> txs = createTxs(10, 100, 10 * 1024);
+        assertEquals(0, channel.enqueueTransactions(txs));
+        assertEquals(100, channel.enqueueTransactions(txs));
+        assertEquals(100, channel.flushTransactions());
+
+        List<Transaction> all = new ArrayList<>();
+        for (List<Transaction> batch : sent) {
+            int size = 0;
+            for (Transaction tx : batch) size += tx.getEncoded().length;
+            assertTrue(size <= Channel.MAX_TXS_MESSAGE_SIZE);
+            all.addAll(batch);
+        }
+        assertTrue(sent.size() > 1);
+        assertEquals(txs, all);
+        assertEquals(0, channel.flushTransactions());
+    }
+}
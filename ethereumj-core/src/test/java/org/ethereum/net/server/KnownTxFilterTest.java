@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.junit.Test;
+
+import static org.ethereum.crypto.HashUtil.sha3;
+import static org.ethereum.util.ByteUtil.intToBytes;
+import static org.junit.Assert.*;
+
+public class KnownTxFilterTest {
+
+    @Test
+    public void testRotation() {
+        KnownTxFilter filter = new KnownTxFilter(100);
+
+        assertTrue(filter.add(sha3(intToBytes(0))));
+        assertFalse(filter.add(sha3(intToBytes(0))));
+        assertTrue(filter.contains(sha3(intToBytes(0))));
+        assertFalse(filter.contains(sha3(intToBytes(1))));
+
+        for (int i = 1; i < 1000; i++) {
+            assertTrue(filter.add(sha3(intToBytes(i))));
+            assertTrue(filter.size() <= 100);
+        }
+
+        // the last half of capacity is always remembered
+        for (int i = 950; i < 1000; i++) {
+            assertTrue(filter.contains(sha3(intToBytes(i))));
+        }
+        assertFalse(filter.contains(sha3(intToBytes(0))));
+        assertTrue(filter.add(sha3(intToBytes(0))));
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.EventExecutor;
+import org.ethereum.config.SystemProperties;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NetworkEventLoopsTest {
+
+    private static NetworkEventLoops create(int threads) {
+        SystemProperties config = new SystemProperties();
+        config.overrideParams("peer.netty.workerThreads", String.valueOf(threads),
+                "peer.netty.loopCpuTime", "true");
+        return new NetworkEventLoops(config);
+    }
+
+    @Test
+    public void testSharedLoops() throws Exception {
+        NetworkEventLoops eventLoops = create(2);
+        try {
+            assertFalse(eventLoops.isEpoll());
+
+            CountDownLatch received = new CountDownLatch(1);
+            io.netty.channel.Channel server = eventLoops.configure(new ServerBootstrap())
+                    .childHandler(new ChannelInboundHandlerAdapter() {
+                        @Override
+                        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                            ByteBuf buf = (ByteBuf) msg;
+                            assertTrue(buf.alloc() instanceof PooledByteBufAllocator);
+                            assertEquals(65536, (int) ctx.channel().config().getOption(ChannelOption.WRITE_BUFFER_HIGH_WATER_MARK));
+                            buf.release();
+                            received.countDown();
+                        }
+                    })
+                    .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+            io.netty.channel.Channel client = eventLoops.configure(new Bootstrap())
+                    .handler(new ChannelInboundHandlerAdapter())
+                    .connect(server.localAddress()).sync().channel();
+            assertTrue(client instanceof SocketChannel);
+            assertTrue(eventLoops.getWorkerGroup().iterator().hasNext());
+
+            client.writeAndFlush(client.alloc().buffer().writeInt(1)).sync();
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+
+            client.close().sync();
+            server.close().sync();
+        } finally {
+            eventLoops.close();
+        }
+    }
+
+    @Test
+    public void testLoopStats() throws Exception {
+        NetworkEventLoops eventLoops = create(2);
+        try {
+            // the first sampling finds out loop threads
+            eventLoops.sample();
+            Thread.sleep(100);
+            eventLoops.sample();
+
+            EventExecutor busyLoop = eventLoops.getWorkerGroup().iterator().next();
+            busyLoop.submit(() -> {
+                long end = System.nanoTime() + 300_000_000L;
+                while (System.nanoTime() < end);
+            }).sync();
+            eventLoops.sample();
+
+            List<NetworkEventLoops.LoopStats> stats = eventLoops.getLoopStats();
+            assertEquals(2, stats.size());
+            assertTrue(stats.get(0).getName().startsWith("EthJWorker-"));
+            assertTrue(stats.get(0).getUtilization() > 0.3);
+            assertTrue(stats.get(1).getUtilization() < 0.3);
+        } finally {
+            eventLoops.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.net.server;
+
+import org.ethereum.net.eth.message.NodeDataMessage;
+import org.ethereum.net.message.Message;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PeerRequestExecutorTest {
+
+    private static Message response() {
+        return new NodeDataMessage(Collections.emptyList());
+    }
+
+    @Test
+    public void testPerPeerLimits() throws InterruptedException {
+        PeerRequestExecutor executor = new PeerRequestExecutor(4, 1, 3);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch responded = new CountDownLatch(4);
+            CountDownLatch started = new CountDownLatch(1);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+
+            Object peer = new Object();
+            int accepted = 0;
+            for (int i = 0; i < 5; i++) {
+                boolean ok = executor.submit(peer, cost -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    running.decrementAndGet();
+                    cost.dbReads(10);
+                    return response();
+                }, r -> responded.countDown());
+                if (ok) accepted++;
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+            }
+
+            // 1 is being served, 3 are queued, the last one is dropped
+            assertEquals(4, accepted);
+            assertEquals(1, executor.getRejectedCount());
+
+            release.countDown();
+            assertTrue(responded.await(10, TimeUnit.SECONDS));
+            assertEquals(1, maxRunning.get());
+            assertEquals(0, executor.getQueueDepth());
+            assertEquals(40, executor.getDbReads());
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testFairness() throws InterruptedException {
+        PeerRequestExecutor executor = new PeerRequestExecutor(1, 1, 100);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            Object blocker = new Object();
+            executor.submit(blocker, cost -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return null;
+            }, r -> {});
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            // heavy peer floods the queue before the light one shows up
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(40);
+            Object heavy = new Object();
+            Object light = new Object();
+            for (int i = 0; i < 10; i++) {
+                executor.submit(heavy, cost -> {
+                    order.add("heavy");
+                    cost.dbReads(100);
+                    done.countDown();
+                    return null;
+                }, r -> {});
+            }
+            for (int i = 0; i < 10; i++) {
+                executor.submit(light, cost -> {
+                    order.add("light");
+                    cost.dbRead();
+                    done.countDown();
+                    return null;
+                }, r -> {});
+            }
+            for (int i = 0; i < 20; i++) {
+                executor.submit(new Object(), cost -> {
+                    done.countDown();
+                    return null;
+                }, r -> {});
+            }
+
+            release.countDown();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+
+            // light peer is not waiting for the whole heavy batch
+            assertTrue(order.indexOf("light") < 2);
+            assertEquals(order.size() - 1, order.lastIndexOf("heavy"));
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        PeerRequestExecutor executor = new PeerRequestExecutor(1, 1, 100);
+        try {
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger served = new AtomicInteger();
+            Object peer = new Object();
+            for (int i = 0; i < 5; i++) {
+                executor.submit(peer, cost -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    served.incrementAndGet();
+                    return null;
+                }, r -> {});
+            }
+            Thread.sleep(100);
+            assertEquals(4, executor.getQueueDepth());
+
+            executor.cancel(peer);
+            assertEquals(0, executor.getQueueDepth());
+            release.countDown();
+
+            CountDownLatch other = new CountDownLatch(1);
+            executor.submit(new Object(), cost -> { other.countDown(); return null; }, r -> {});
+            assertTrue(other.await(10, TimeUnit.SECONDS));
+            assertEquals(1, served.get());
+        } finally {
+            executor.close();
+        }
+    }
+
+    @Test
+    public void testInline() {
+        PeerRequestExecutor executor = new PeerRequestExecutor(0, 1, 1);
+        List<Message> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(executor.submit(new Object(), cost -> response(), responses::add));
+        }
+        assertEquals(3, responses.size());
+        assertEquals(3, executor.getServedCount());
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.sync;
+
+import org.ethereum.core.BlockHeader;
+import org.ethereum.core.BlockHeaderWrapper;
+import org.ethereum.core.BlockWrapper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.ethereum.sync.BlockDownloader.MAX_IN_REQUEST;
+import static org.ethereum.sync.BlockDownloader.MIN_IN_REQUEST;
+import static org.ethereum.sync.BlockDownloader.MIN_VALIDATION_BATCH;
+import static org.ethereum.sync.BlockDownloader.getRequestSize;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockDownloaderTest {
+
+    @Test
+    public void testRequestSize() {
+        // not measured peer
+        assertEquals(MAX_IN_REQUEST, getRequestSize(0, 0));
+        // fast peer
+        assertEquals(MAX_IN_REQUEST, getRequestSize(10_000, 50));
+        // 64 blocks per second fit into a second
+        assertEquals(64, getRequestSize(64, 50));
+        // distant peer gets twice its latency to respond
+        assertEquals(128, getRequestSize(64, 1000));
+        // slow peer
+        assertEquals(MIN_IN_REQUEST, getRequestSize(1, 50));
+    }
+
+    private static class TestDownloader extends BlockDownloader {
+        final Set<Long> invalid = ConcurrentHashMap.newKeySet();
+        final Set<Long> validated = ConcurrentHashMap.newKeySet();
+
+        TestDownloader() {
+            super(null);
+        }
+
+        @Override
+        protected boolean isValid(BlockHeader header) {
+            validated.add(header.getNumber());
+            return !invalid.contains(header.getNumber());
+        }
+
+        @Override
+        protected void pushBlocks(List<BlockWrapper> blockWrappers) {}
+        @Override
+        protected void pushHeaders(List<BlockHeaderWrapper> headers) {}
+        @Override
+        protected int getBlockQueueFreeSize() { return 0; }
+        @Override
+        protected int getMaxHeadersInQueue() { return 0; }
+    }
+
+    private static List<BlockHeader> createHeaders(int count) {
+        List<BlockHeader> headers = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            headers.add(new BlockHeader(new byte[32], new byte[32], new byte[20], new byte[256], new byte[] {1},
+                    i, new byte[] {1}, 0, 0, new byte[0], new byte[32], new byte[8]));
+        }
+        return headers;
+    }
+
+    @Test
+    public void testParallelHeaderValidation() {
+        TestDownloader downloader = new TestDownloader();
+
+        List<BlockHeader> headers = createHeaders(MAX_IN_REQUEST);
+        assertEquals(-1, downloader.validateHeaders(headers));
+        assertEquals(MAX_IN_REQUEST, downloader.validated.size());
+
+        // the first invalid header is reported
+        downloader.invalid.add(170L);
+        downloader.invalid.add(150L);
+        assertEquals(150, downloader.validateHeaders(headers));
+        downloader.invalid.add(3L);
+        assertEquals(3, downloader.validateHeaders(headers));
+
+        // short list is validated by the caller
+        downloader.invalid.clear();
+        downloader.validated.clear();
+        assertEquals(-1, downloader.validateHeaders(createHeaders(MIN_VALIDATION_BATCH - 1)));
+        assertEquals(MIN_VALIDATION_BATCH - 1, downloader.validated.size());
+        assertEquals(-1, downloader.validateHeaders(Collections.emptyList()));
+    }
+
+    @Test
+    public void testThroughputEstimates() {
+        SyncStatistics stats = new SyncStatistics();
+        assertEquals(0, stats.getBlocksPerSecond(), 0);
+
+        stats.addBlocks(100, 100_000, 1000);
+        assertEquals(100, stats.getBlocksPerSecond(), 1e-9);
+        assertEquals(100_000, stats.getBytesPerSecond(), 1e-9);
+        assertEquals(1000, stats.getAvgResponseTime(), 1e-9);
+        assertEquals(100, stats.getBlocksCount());
+
+        // estimates follow new measurements smoothly
+        for (int i = 0; i < 5; i++) stats.addBlocks(100, 100_000, 500);
+        assertTrue(stats.getBlocksPerSecond() > 150 && stats.getBlocksPerSecond() < 200);
+        assertTrue(stats.getAvgResponseTime() > 500 && stats.getAvgResponseTime() < 750);
+        assertEquals(0, stats.getHeadersPerSecond(), 0);
+
+        double blocksPerSecond = stats.getBlocksPerSecond();
+        stats.addTimeout();
+        assertEquals(blocksPerSecond / 2, stats.getBlocksPerSecond(), 1e-9);
+        assertEquals(1, stats.getTimeouts());
+
+        // counters reset doesn't affect estimates
+        stats.reset();
+        assertEquals(0, stats.getBlocksCount());
+        assertEquals(blocksPerSecond / 2, stats.getBlocksPerSecond(), 1e-9);
+    }
+}
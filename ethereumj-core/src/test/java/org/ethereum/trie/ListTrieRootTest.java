@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) [2016] [ <ether.camp> ]
+ * This file is part of the ethereumJ library.
+ *
+ * The ethereumJ library is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The ethereumJ library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the ethereumJ library. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.ethereum.trie;
+
+import org.ethereum.util.FastByteComparisons;
+import org.ethereum.util.RLP;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.spongycastle.util.encoders.Hex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.ethereum.crypto.HashUtil.EMPTY_TRIE_HASH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ListTrieRootTest {
+
+    private static List<byte[]> createValues(int count, Random rnd) {
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            // short values produce embedded nodes, long ones are hashed
+            byte[] value = new byte[1 + rnd.nextInt(i % 3 == 0 ? 8 : 200)];
+            rnd.nextBytes(value);
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static byte[] trieRoot(List<byte[]> values) {
+        TrieImpl trie = new TrieImpl();
+        for (int i = 0; i < values.size(); i++) {
+            trie.put(RLP.encodeInt(i), values.get(i));
+        }
+        return trie.getRootHash();
+    }
+
+    @Test
+    public void testSameAsTrie() {
+        Random rnd = new Random(1);
+        assertArrayEquals(EMPTY_TRIE_HASH, ListTrieRoot.calcRoot(Collections.emptyList()));
+        for (int count : new int[] {1, 2, 3, 15, 16, 17, 127, 128, 129, 255, 256, 257, 300, 1000, 4097}) {
+            List<byte[]> values = createValues(count, rnd);
+            byte[] expected = trieRoot(values);
+            assertArrayEquals("count " + count, expected, ListTrieRoot.calcRoot(values));
+            assertArrayEquals("count " + count, expected, ListTrieRoot.calcRoot(values, true));
+        }
+    }
+
+    @Test
+    public void testKeyOrder() {
+        for (int size : new int[] {1, 2, 127, 128, 129, 256, 70_000}) {
+            for (int pos = 1; pos < size; pos++) {
+                byte[] prev = RLP.encodeInt(ListTrieRoot.keyOrderToIndex(pos - 1, size));
+                byte[] key = RLP.encodeInt(ListTrieRoot.keyOrderToIndex(pos, size));
+                assertTrue(FastByteComparisons.compareTo(prev, 0, prev.length, key, 0, key.length) < 0);
+            }
+        }
+    }
+
+    @Test
+    public void testShortValues() {
+        // whole trie fits into the root node which is hashed anyway
+        List<byte[]> values = new ArrayList<>();
+        values.add(Hex.decode("01"));
+        values.add(Hex.decode("02"));
+        assertArrayEquals(trieRoot(values), ListTrieRoot.calcRoot(values));
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void rootBenchmark() {
+        List<byte[]> values = createValues(300, new Random(1));
+        for (int round = 0; round < 5; round++) {
+            long s = System.nanoTime();
+            for (int i = 0; i < 1000; i++) trieRoot(values);
+            long t = System.nanoTime();
+            for (int i = 0; i < 1000; i++) ListTrieRoot.calcRoot(values);
+            long l = System.nanoTime();
+            for (int i = 0; i < 1000; i++) ListTrieRoot.calcRoot(values, true);
+            long p = System.nanoTime();
+            System.out.printf("TrieImpl: %d us, list root: %d us, parallel list root: %d us%n",
+                    (t - s) / 1000_000, (l - t) / 1000_000, (p - l) / 1000_000);
+        }
+    }
+}
@@ -22,6 +22,7 @@ import org.ethereum.crypto.HashUtil;
 import org.ethereum.datasource.*;
 import org.ethereum.datasource.inmem.HashMapDB;
 import org.ethereum.datasource.inmem.HashMapDBSimple;
+import org.ethereum.db.ByteArrayWrapper;
 import org.ethereum.util.Value;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -830,6 +831,116 @@ public class TrieTest {
     }
 
 
+    @Test
+    public void testUpdateLoadedBranches() {
+        Random rnd = new Random(42);
+        Map<ByteArrayWrapper, byte[]> expected = new HashMap<>();
+        Source<byte[], byte[]> db = new NoDeleteSource<>(new HashMapDB<byte[]>());
+        TrieImpl trie = new TrieImpl(db);
+        for (int i = 0; i < 2000; i++) {
+            // short keys and values to get embedded nodes as well
+            byte[] key = new byte[4];
+            byte[] value = new byte[1 + rnd.nextInt(i % 2 == 0 ? 4 : 40)];
+            rnd.nextBytes(key);
+            rnd.nextBytes(value);
+            trie.put(key, value);
+            expected.put(new ByteArrayWrapper(key), value);
+        }
+        trie.flush();
+
+        TrieImpl loaded = new TrieImpl(db, trie.getRootHash());
+        int i = 0;
+        for (ByteArrayWrapper key : new ArrayList<>(expected.keySet())) {
+            assertArrayEquals(expected.get(key), loaded.get(key.getData()));
+            if (i++ % 3 == 0) {
+                loaded.delete(key.getData());
+                expected.remove(key);
+            } else if (i % 3 == 0) {
+                loaded.put(key.getData(), intToBytes(i));
+                expected.put(key, intToBytes(i));
+            }
+        }
+
+        TrieImpl fresh = new TrieImpl();
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : expected.entrySet()) {
+            fresh.put(entry.getKey().getData(), entry.getValue());
+        }
+        assertArrayEquals(fresh.getRootHash(), loaded.getRootHash());
+
+        loaded.flush();
+        TrieImpl reloaded = new TrieImpl(db, loaded.getRootHash());
+        for (Map.Entry<ByteArrayWrapper, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), reloaded.get(entry.getKey().getData()));
+        }
+    }
+
+    @Test
+    public void testBatchUpdate() {
+        Random rnd = new Random(42);
+        Source<byte[], byte[]> db = new NoDeleteSource<>(new HashMapDB<byte[]>());
+        TrieImpl single = new TrieImpl(db);
+        TrieImpl batch = new TrieImpl(db);
+        List<byte[]> keys = new ArrayList<>();
+
+        for (int round = 0; round < 5; round++) {
+            Map<byte[], byte[]> rows = new HashMap<>();
+            for (int i = 0; i < 3000; i++) {
+                byte[] key;
+                if (!keys.isEmpty() && rnd.nextInt(3) == 0) {
+                    key = keys.get(rnd.nextInt(keys.size()));
+                } else {
+                    // keys of different length to get values in branch nodes as well
+                    key = new byte[1 + rnd.nextInt(round % 2 == 0 ? 3 : 32)];
+                    rnd.nextBytes(key);
+                    keys.add(key);
+                }
+                byte[] value = rnd.nextInt(4) == 0 ? null : intToBytes(rnd.nextInt());
+                rows.put(key, value);
+            }
+            for (Map.Entry<byte[], byte[]> row : rows.entrySet()) {
+                single.put(row.getKey(), row.getValue());
+            }
+            batch.putAll(rows);
+
+            assertArrayEquals(single.getRootHash(), batch.getRootHash());
+            List<byte[]> values = batch.getAll(keys);
+            for (int i = 0; i < keys.size(); i++) {
+                assertArrayEquals(single.get(keys.get(i)), values.get(i));
+            }
+
+            single.flush();
+            batch.flush();
+            batch = new TrieImpl(db, batch.getRootHash());
+        }
+
+        // delete everything
+        Map<byte[], byte[]> rows = new HashMap<>();
+        for (byte[] key : keys) rows.put(key, null);
+        batch.putAll(rows);
+        assertArrayEquals(EMPTY_TRIE_HASH, batch.getRootHash());
+    }
+
+    @Test
+    public void testSecureTrieBatch() {
+        SecureTrie single = new SecureTrie(new HashMapDB<byte[]>());
+        SecureTrie batch = new SecureTrie(new HashMapDB<byte[]>());
+        Map<byte[], byte[]> rows = new HashMap<>();
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = intToBytes(i);
+            keys.add(key);
+            rows.put(key, intToBytes(i * 3));
+            single.put(key, intToBytes(i * 3));
+        }
+        batch.putAll(rows);
+        assertArrayEquals(single.getRootHash(), batch.getRootHash());
+
+        List<byte[]> values = batch.getAll(keys);
+        for (int i = 0; i < keys.size(); i++) {
+            assertArrayEquals(intToBytes(i * 3), values.get(i));
+        }
+    }
+
     @Test
     public void testRollbackTrie() throws URISyntaxException, IOException {
 
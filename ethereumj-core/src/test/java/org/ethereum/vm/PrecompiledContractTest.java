@@ -26,13 +26,17 @@ import org.ethereum.config.blockchain.HomesteadConfig;
 import org.ethereum.util.ByteUtil;
 import org.ethereum.vm.PrecompiledContracts.PrecompiledContract;
 
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import org.spongycastle.util.encoders.Hex;
 
 import java.math.BigInteger;
+import java.util.Random;
 
 import static org.ethereum.util.ByteUtil.EMPTY_BYTE_ARRAY;
+import static org.ethereum.util.ByteUtil.bigIntegerToBytes;
 import static org.ethereum.util.ByteUtil.bytesToBigInteger;
 import static org.junit.Assert.*;
 
@@ -238,4 +242,206 @@ public class PrecompiledContractTest {
         assertArrayEquals(EMPTY_BYTE_ARRAY, contract.execute(null).getRight());
     }
 
+    private static byte[] encodeModExp(byte[] base, byte[] exp, byte[] mod) {
+        byte[] ret = new byte[96 + base.length + exp.length + mod.length];
+        System.arraycopy(bigIntegerToBytes(BigInteger.valueOf(base.length), 32), 0, ret, 0, 32);
+        System.arraycopy(bigIntegerToBytes(BigInteger.valueOf(exp.length), 32), 0, ret, 32, 32);
+        System.arraycopy(bigIntegerToBytes(BigInteger.valueOf(mod.length), 32), 0, ret, 64, 32);
+        System.arraycopy(base, 0, ret, 96, base.length);
+        System.arraycopy(exp, 0, ret, 96 + base.length, exp.length);
+        System.arraycopy(mod, 0, ret, 96 + base.length + exp.length, mod.length);
+        return ret;
+    }
+
+    private static byte[] modPow(byte[] base, byte[] exp, byte[] mod) {
+        BigInteger m = new BigInteger(1, mod);
+        if (m.signum() == 0) return EMPTY_BYTE_ARRAY;
+        byte[] res = new BigInteger(1, base).modPow(new BigInteger(1, exp), m).toByteArray();
+        byte[] ret = new byte[mod.length];
+        int len = Math.min(res.length, mod.length);
+        System.arraycopy(res, res.length - len, ret, mod.length - len, len);
+        return ret;
+    }
+
+    @Test
+    public void modExpSameAsBigIntegerTest() {
+
+        PrecompiledContract contract = new PrecompiledContracts.ModExp();
+
+        byte[][] values = {
+                EMPTY_BYTE_ARRAY, Hex.decode("00"), Hex.decode("01"), Hex.decode("0001"), Hex.decode("02"),
+                Hex.decode("03"), Hex.decode("0000ff"), Hex.decode("010000000000000001"),
+                Hex.decode("fffffffffffffffffffffffffffffffffffffffffffffffffffffffefffffc2f")
+        };
+        for (byte[] base : values) {
+            for (byte[] exp : values) {
+                for (byte[] mod : values) {
+                    assertArrayEquals(modPow(base, exp, mod), contract.execute(encodeModExp(base, exp, mod)).getRight());
+                }
+            }
+        }
+
+        Random rnd = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            byte[] base = new byte[rnd.nextInt(100)], exp = new byte[rnd.nextInt(10)], mod = new byte[1 + rnd.nextInt(100)];
+            rnd.nextBytes(base);
+            rnd.nextBytes(exp);
+            rnd.nextBytes(mod);
+            assertArrayEquals(modPow(base, exp, mod), contract.execute(encodeModExp(base, exp, mod)).getRight());
+        }
+
+        // modulus is cut by the end of data and is padded with zero bytes
+        byte[] data = encodeModExp(Hex.decode("0102"), Hex.decode("03"), Hex.decode("8001"));
+        data[95] = 5;
+        assertArrayEquals(modPow(Hex.decode("0102"), Hex.decode("03"), Hex.decode("8001000000")),
+                contract.execute(data).getRight());
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void modExpBenchmark() {
+
+        PrecompiledContract contract = new PrecompiledContracts.ModExp();
+        Random rnd = new Random(1);
+
+        // {modulus, exponent} bytes: RSA public exponents, full size private ones
+        int[][] sizes = {{32, 32}, {64, 64}, {128, 3}, {256, 3}, {512, 3}, {128, 128}, {256, 256}, {512, 512}};
+        for (int round = 0; round < 3; round++) {
+            for (int[] size : sizes) {
+                byte[] base = new byte[size[0]], exp = new byte[size[1]], mod = new byte[size[0]];
+                rnd.nextBytes(base);
+                rnd.nextBytes(exp);
+                rnd.nextBytes(mod);
+                if (size[1] == 3) exp = Hex.decode("010001");
+                mod[0] |= 0x80;
+                mod[size[0] - 1] |= 1;
+                byte[] data = encodeModExp(base, exp, mod);
+                int iterations = (int) Math.max(10, 50_000_000L / ((long) size[0] * size[0] * size[1]));
+
+                long s = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    contract.getGasForData(data);
+                    contract.execute(data);
+                }
+                long e = System.nanoTime();
+                System.out.printf("modulus %d bytes, exponent %d bytes: %.1f us%n", size[0], size[1],
+                        (e - s) / 1000d / iterations);
+            }
+        }
+    }
+
+    private static final String G1 =
+            "0000000000000000000000000000000000000000000000000000000000000001" +
+            "0000000000000000000000000000000000000000000000000000000000000002";
+    private static final String G1_NEG =
+            "0000000000000000000000000000000000000000000000000000000000000001" +
+            "30644e72e131a029b85045b68181585d97816a916871ca8d3c208c16d87cfd45";
+    private static final String G1_DBL =
+            "030644e72e131a029b85045b68181585d97816a916871ca8d3c208c16d87cfd3" +
+            "15ed738c0e0a7c92e7845f96b2ae9c0a68a6a449e3538fc7ff3ebf7a5a18a2c4";
+    private static final String G2 =
+            "198e9393920d483a7260bfb731fb5d25f1aa493335a9e71297e485b7aef312c2" +
+            "1800deef121f1e76426a00665e5c4479674322d4f75edadd46debd5cd992f6ed" +
+            "090689d0585ff075ec9e99ad690c3395bc4b313370b38ef355acdadcd122975b" +
+            "12c85ea5db8c6deb4aab71808dcb408fe3d1e7690c43d37b4ce6cc0166fa7daa";
+    private static final String ZERO_WORD = "0000000000000000000000000000000000000000000000000000000000000000";
+    private static final String ONE_WORD = "0000000000000000000000000000000000000000000000000000000000000001";
+
+    @Test
+    public void bn128AddTest() {
+
+        PrecompiledContract contract = PrecompiledContracts.getContractForAddress(DataWord.of(6), byzantiumConfig);
+
+        Pair<Boolean, byte[]> res = contract.execute(Hex.decode(G1 + G1));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(G1_DBL), res.getRight());
+
+        res = contract.execute(Hex.decode(G1 + G1_NEG));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ZERO_WORD + ZERO_WORD), res.getRight());
+
+        res = contract.execute(Hex.decode(G1 + ZERO_WORD + ZERO_WORD));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(G1), res.getRight());
+
+        // (1, 3) is not on the curve
+        assertFalse(contract.execute(Hex.decode(G1 + ONE_WORD + "0000000000000000000000000000000000000000000000000000000000000003")).getLeft());
+    }
+
+    @Test
+    public void bn128MulTest() {
+
+        PrecompiledContract contract = PrecompiledContracts.getContractForAddress(DataWord.of(7), byzantiumConfig);
+
+        Pair<Boolean, byte[]> res = contract.execute(Hex.decode(G1 + "0000000000000000000000000000000000000000000000000000000000000002"));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(G1_DBL), res.getRight());
+
+        // group order minus one
+        res = contract.execute(Hex.decode(G1 + "30644e72e131a029b85045b68181585d2833e84879b9709143e1f593f0000000"));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(G1_NEG), res.getRight());
+
+        // group order
+        res = contract.execute(Hex.decode(G1 + "30644e72e131a029b85045b68181585d2833e84879b9709143e1f593f0000001"));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ZERO_WORD + ZERO_WORD), res.getRight());
+
+        res = contract.execute(Hex.decode(G1 + ZERO_WORD));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ZERO_WORD + ZERO_WORD), res.getRight());
+    }
+
+    @Test
+    public void bn128PairingTest() {
+
+        PrecompiledContract contract = PrecompiledContracts.getContractForAddress(DataWord.of(8), byzantiumConfig);
+
+        assertArrayEquals(Hex.decode(ONE_WORD), contract.execute(new byte[0]).getRight());
+
+        // e(G1, G2) * e(-G1, G2) == 1
+        Pair<Boolean, byte[]> res = contract.execute(Hex.decode(G1 + G2 + G1_NEG + G2));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ONE_WORD), res.getRight());
+
+        res = contract.execute(Hex.decode(G1 + G2 + G1 + G2));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ZERO_WORD), res.getRight());
+
+        // zero G1 point doesn't affect the product
+        res = contract.execute(Hex.decode(ZERO_WORD + ZERO_WORD + G2));
+        assertTrue(res.getLeft());
+        assertArrayEquals(Hex.decode(ONE_WORD), res.getRight());
+
+        // G2 point with the first coordinate word replaced is not on the twist
+        assertFalse(contract.execute(Hex.decode(G1 + ONE_WORD + G2.substring(64))).getLeft());
+    }
+
+    @Ignore("Benchmark")
+    @Test
+    public void bn128Benchmark() {
+
+        PrecompiledContract add = PrecompiledContracts.getContractForAddress(DataWord.of(6), byzantiumConfig);
+        PrecompiledContract mul = PrecompiledContracts.getContractForAddress(DataWord.of(7), byzantiumConfig);
+        PrecompiledContract pairing = PrecompiledContracts.getContractForAddress(DataWord.of(8), byzantiumConfig);
+
+        byte[] addData = Hex.decode(G1 + G1_DBL);
+        byte[] mulData = Hex.decode(G1_DBL + "73d51abbd89cb8196f0efb6892f94d68fccc2c35f0b84609e5f12c55dd85aba8");
+        byte[] pairing2Data = Hex.decode(G1 + G2 + G1_NEG + G2);
+        byte[] pairing4Data = Hex.decode(G1 + G2 + G1_NEG + G2 + G1 + G2 + G1_NEG + G2);
+
+        for (int round = 0; round < 5; round++) {
+            long s = System.nanoTime();
+            for (int i = 0; i < 10_000; i++) add.execute(addData);
+            long a = System.nanoTime();
+            for (int i = 0; i < 500; i++) mul.execute(mulData);
+            long m = System.nanoTime();
+            for (int i = 0; i < 20; i++) pairing.execute(pairing2Data);
+            long p2 = System.nanoTime();
+            for (int i = 0; i < 20; i++) pairing.execute(pairing4Data);
+            long p4 = System.nanoTime();
+            System.out.printf("add: %.1f us, mul: %.1f us, 2 pairs check: %.2f ms, 4 pairs check: %.2f ms%n",
+                    (a - s) / 10_000 / 1000d, (m - a) / 500 / 1000d, (p2 - m) / 20 / 1e6, (p4 - p2) / 20 / 1e6);
+        }
+    }
 }